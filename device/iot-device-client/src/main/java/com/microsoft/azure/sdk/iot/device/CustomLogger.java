@@ -10,6 +10,16 @@ public class CustomLogger {
 
     private final Logger logger;
     private static final int CALLING_METHOD_NAME_DEPTH = 2;
+    private static final String UNKNOWN_METHOD_NAME = "unknown";
+
+    private static final Object LAZY_METHOD_NAME = new Object()
+    {
+        @Override
+        public String toString()
+        {
+            return findCallingMethodName(Thread.currentThread().getStackTrace());
+        }
+    };
 
     public CustomLogger(Class<?> clazz)
     {
@@ -84,4 +94,35 @@ public class CustomLogger {
     {
         return Thread.currentThread().getStackTrace()[CALLING_METHOD_NAME_DEPTH].getMethodName();
     }
+
+    /**
+     * Stands for the name of the calling method in the parameters of the Log methods, like {@link #getMethodName()},
+     * except that the stack is only walked if the message is logged. Walking the stack is costly, and most messages
+     * are below the enabled level.
+     *
+     * @return a parameter that is formatted as the name of the method that called the logger.
+     */
+    public Object getLazyMethodName()
+    {
+        return LAZY_METHOD_NAME;
+    }
+
+    private static String findCallingMethodName(StackTraceElement[] stackTrace)
+    {
+        // the calling method is the first one after the Log method, which comes after the formatting frames
+        boolean loggerFound = false;
+        for (StackTraceElement element : stackTrace)
+        {
+            if (element.getClassName().equals(CustomLogger.class.getName()))
+            {
+                loggerFound = true;
+            }
+            else if (loggerFound)
+            {
+                return element.getMethodName();
+            }
+        }
+
+        return UNKNOWN_METHOD_NAME;
+    }
 }
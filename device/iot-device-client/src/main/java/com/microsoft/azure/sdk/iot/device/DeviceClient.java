@@ -7,7 +7,11 @@ import com.microsoft.azure.sdk.iot.deps.serializer.ParserUtility;
 import com.microsoft.azure.sdk.iot.device.DeviceTwin.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.fileupload.FileUpload;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
+import com.microsoft.azure.sdk.iot.device.transport.MessageTraceListener;
+import com.microsoft.azure.sdk.iot.device.transport.OutboundQueuePolicy;
 import com.microsoft.azure.sdk.iot.device.transport.RetryPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.TransportMetrics;
 import com.microsoft.azure.sdk.iot.device.transport.TransportUtils;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.IoTHubConnectionType;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
@@ -18,6 +22,7 @@ import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubClientProtocol.AMQPS;
 import static com.microsoft.azure.sdk.iot.device.IotHubClientProtocol.AMQPS_WS;
@@ -103,6 +108,10 @@ public final class DeviceClient implements Closeable
     private static final String SET_SEND_INTERVAL = "SetSendInterval";
     private static final String SET_CERTIFICATE_PATH = "SetCertificatePath";
     private static final String SET_SAS_TOKEN_EXPIRY_TIME = "SetSASTokenExpiryTime";
+    private static final String SET_SIGNAL_DRIVEN_SCHEDULING = "SetSignalDrivenScheduling";
+    private static final String SET_DURABLE_QUEUE_DIRECTORY = "SetDurableQueueDirectory";
+    private static final String SET_MQTT_MAX_IN_FLIGHT_COUNT = "SetMqttMaxInFlightCount";
+    private static final String SET_AMQP_TELEMETRY_BATCH_MAX_SIZE = "SetAmqpTelemetryBatchMaxSize";
 
     private DeviceClientConfig config;
     private DeviceIO deviceIO;
@@ -167,7 +176,7 @@ public final class DeviceClient implements Closeable
         this.transportClient.registerDeviceClient(this);
 
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -335,7 +344,7 @@ public final class DeviceClient implements Closeable
         this.deviceIO = new DeviceIO(this.config, SEND_PERIOD_MILLIS, RECEIVE_PERIOD_MILLIS);
 
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("DeviceClient object is created successfully, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -372,7 +381,7 @@ public final class DeviceClient implements Closeable
             this.deviceIO.open();
         }
 
-        logger.LogInfo("Connection opened with success, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection opened with success, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -414,7 +423,7 @@ public final class DeviceClient implements Closeable
             this.deviceIO.close();
         }
 
-        logger.LogInfo("Connection closed with success, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection closed with success, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -453,7 +462,7 @@ public final class DeviceClient implements Closeable
             closeFileUpload();
         }
 
-        logger.LogInfo("Connection closed with success, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection closed with success, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -474,9 +483,33 @@ public final class DeviceClient implements Closeable
         /* Codes_SRS_DEVICECLIENT_21_010: [The sendEventAsync shall asynchronously send the message using the deviceIO connection.] */
         /* Codes_SRS_DEVICECLIENT_21_011: [If starting to send via deviceIO is not successful, the sendEventAsync shall bypass the threw exception.] */
         /* Codes_SRS_DEVICECLIENT_12_001: [The function shall call deviceIO.sendEventAsync with the client's config parameter to enable multiplexing.] */
+        MessageIdGenerator messageIdGenerator = this.config.getMessageIdGenerator();
+        if (message != null && messageIdGenerator != null)
+        {
+            message.assignMessageId(messageIdGenerator);
+        }
+
         deviceIO.sendEventAsync(message, callback, callbackContext, this.config.getIotHubConnectionString());
 
-        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
+        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getLazyMethodName());
+    }
+
+    /**
+     * Asynchronously sends an event message to the IoT Hub.
+     *
+     * @param message the message to be sent.
+     *
+     * @return a future completed with the status that would be passed to an event callback for this message.
+     *
+     * @throws IllegalArgumentException if the message provided is {@code null}.
+     * @throws IllegalStateException if the client has not been opened yet or is
+     * already closed.
+     */
+    public IotHubStatusFuture sendEventAsync(Message message)
+    {
+        IotHubStatusFuture statusFuture = new IotHubStatusFuture();
+        this.sendEventAsync(message, statusFuture.getEventCallback(), null);
+        return statusFuture;
     }
 
     /**
@@ -781,6 +814,66 @@ public final class DeviceClient implements Closeable
         this.deviceTwin.updateReportedProperties(reportedProperties, version);
     }
 
+    /**
+     * Sends reported properties
+     *
+     * @param reportedProperties the Set for desired properties and their corresponding callback and context. Cannot be {@code null}.
+     *
+     * @return a future completed with the delivery status of the request. The response of the IoT Hub to the request
+     * is still reported on the device twin status callback.
+     *
+     * @throws IOException if called when client is not opened or called before starting twin.
+     * @throws IllegalArgumentException if reportedProperties is null or empty.
+     */
+    public IotHubStatusFuture sendReportedPropertiesAsync(Set<Property> reportedProperties) throws IOException
+    {
+        return this.sendReportedPropertiesAsync(reportedProperties, null);
+    }
+
+    /**
+     * Sends reported properties
+     *
+     * @param reportedProperties the Set for desired properties and their corresponding callback and context. Cannot be {@code null}.
+     * @param version the Reported property version. Cannot be negative.
+     *
+     * @return a future completed with the delivery status of the request. The response of the IoT Hub to the request
+     * is still reported on the device twin status callback.
+     *
+     * @throws IOException if called when client is not opened or called before starting twin.
+     * @throws IllegalArgumentException if reportedProperties is null or empty, or if the version is negative.
+     */
+    public IotHubStatusFuture sendReportedPropertiesAsync(Set<Property> reportedProperties, int version) throws IOException
+    {
+        if (version < 0)
+        {
+            throw new IllegalArgumentException("Version cannot be negative.");
+        }
+
+        return this.sendReportedPropertiesAsync(reportedProperties, Integer.valueOf(version));
+    }
+
+    private IotHubStatusFuture sendReportedPropertiesAsync(Set<Property> reportedProperties, Integer version) throws IOException
+    {
+        if (this.deviceTwin == null)
+        {
+            throw new IOException("Start twin before using it");
+        }
+
+        if (!this.deviceIO.isOpen())
+        {
+            throw new IOException("Open the client connection before using it.");
+        }
+
+        if (reportedProperties == null || reportedProperties.isEmpty())
+        {
+            throw new IllegalArgumentException("Reported properties set cannot be null or empty.");
+        }
+
+        IotHubStatusFuture statusFuture = new IotHubStatusFuture();
+        this.deviceTwin.updateReportedProperties(reportedProperties, version, statusFuture.getEventCallback(), null);
+        return statusFuture;
+    }
+
     /**
      * Subscribes to device methods
      *
@@ -884,6 +977,28 @@ public final class DeviceClient implements Closeable
         this.fileUpload.uploadToBlobAsync(destinationBlobName, inputStream, streamLength, callback, callbackContext);
     }
 
+    /**
+     * Asynchronously upload a stream to the IoT Hub.
+     *
+     * @param destinationBlobName is a string with the name of the file in the storage.
+     * @param inputStream is a InputStream with the stream to upload in the blob.
+     * @param streamLength is a long with the number of bytes in the stream to upload.
+     *
+     * @return a future completed with the status that would be passed to an event callback for this upload.
+     *
+     * @throws IllegalArgumentException if the provided blob name, or the file path is {@code null},
+     *          empty or not valid.
+     * @throws IOException if the client cannot create a instance of the FileUpload or the transport.
+     * @throws UnsupportedOperationException if this method is called when using x509 authentication
+     */
+    public IotHubStatusFuture uploadToBlobAsync(String destinationBlobName, InputStream inputStream, long streamLength)
+            throws IllegalArgumentException, IOException
+    {
+        IotHubStatusFuture statusFuture = new IotHubStatusFuture();
+        this.uploadToBlobAsync(destinationBlobName, inputStream, streamLength, statusFuture.getEventCallback(), null);
+        return statusFuture;
+    }
+
     public ProductInfo getProductInfo()
     {
         // Codes_SRS_DEVICECLIENT_34_071: [This function shall return the product info saved in config.]
@@ -901,7 +1016,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetMinimumPollingInterval(Object value)
     {
-        logger.LogInfo("Setting MinimumPollingInterval as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting MinimumPollingInterval as %s milliseconds, method name is %s ", value, logger.getLazyMethodName());
 
         if (value != null)
         {
@@ -926,7 +1041,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetSendInterval(Object value)
     {
-        logger.LogInfo("Setting send Interval as %s milliseconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting send Interval as %s milliseconds, method name is %s ", value, logger.getLazyMethodName());
 
         if (value != null)
         {
@@ -951,7 +1066,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetCertificatePath(Object value)
     {
-        logger.LogInfo("Setting CertificatePath as %s, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting CertificatePath as %s, method name is %s ", value, logger.getLazyMethodName());
 
         if (value != null)
         {
@@ -968,7 +1083,7 @@ public final class DeviceClient implements Closeable
 
     private void setOption_SetSASTokenExpiryTime(Object value)
     {
-        logger.LogInfo("Setting SASTokenExpiryTime as %s seconds, method name is %s ", value, logger.getMethodName());
+        logger.LogInfo("Setting SASTokenExpiryTime as %s seconds, method name is %s ", value, logger.getLazyMethodName());
 
         if (this.config.getAuthenticationType() != DeviceClientConfig.AuthType.SAS_TOKEN)
         {
@@ -1049,6 +1164,62 @@ public final class DeviceClient implements Closeable
         }
     }
 
+    private void setOption_SetSignalDrivenScheduling(Object value)
+    {
+        logger.LogInfo("Setting SignalDrivenScheduling as %s, method name is %s ", value, logger.getLazyMethodName());
+
+        if (value instanceof Boolean)
+        {
+            this.config.setSignalDrivenScheduling((boolean) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not boolean = " + value);
+        }
+    }
+
+    private void setOption_SetDurableQueueDirectory(Object value)
+    {
+        logger.LogInfo("Setting DurableQueueDirectory as %s, method name is %s ", value, logger.getLazyMethodName());
+
+        if (value instanceof String && !((String) value).isEmpty())
+        {
+            this.config.setDurableQueueDirectory(new File((String) value));
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not a directory path = " + value);
+        }
+    }
+
+    private void setOption_SetMqttMaxInFlightCount(Object value)
+    {
+        logger.LogInfo("Setting MqttMaxInFlightCount as %s, method name is %s ", value, logger.getLazyMethodName());
+
+        if (value instanceof Integer)
+        {
+            this.config.setMqttMaxInFlightCount((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
+    private void setOption_SetAmqpTelemetryBatchMaxSize(Object value)
+    {
+        logger.LogInfo("Setting AmqpTelemetryBatchMaxSize as %s, method name is %s ", value, logger.getLazyMethodName());
+
+        if (value instanceof Integer)
+        {
+            this.config.setAmqpTelemetryBatchMaxSize((int) value);
+        }
+        else
+        {
+            throw new IllegalArgumentException("value is not int = " + value);
+        }
+    }
+
     /**
      * Sets a runtime option identified by parameter {@code optionName}
      * to {@code value}.
@@ -1068,6 +1239,36 @@ public final class DeviceClient implements Closeable
      *         SASToken expires. If the transport is already open then setting this
      *         option will restart the transport with the updated expiry time. The
      *         value is expected to be of type {@code long}.
+     *      - <b>SetSignalDrivenScheduling</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT. When {@code true}, messages are sent and received as soon
+     *         as they are queued instead of on the next send or receive period, and
+     *         the worker threads park while the client is idle. It can only be set
+     *         while the client is closed. The value is expected to be of type
+     *         {@code boolean}.
+     *      - <b>SetDurableQueueDirectory</b> - this option is applicable for HTTP/
+     *         AMQP/MQTT, but not with a TransportClient. It specifies a directory
+     *         where telemetry messages are also written until they complete.
+     *         Messages still pending when the client is closed are reported to
+     *         their callback with MESSAGE_PERSISTED_ONCLOSE rather than
+     *         MESSAGE_CANCELLED_ONCLOSE. They, and the messages lost to a process
+     *         restart, are sent again, without their callback, the next time the
+     *         client is opened, before the messages sent after that open. It can
+     *         only be set while the client is closed. The value is expected to be
+     *         of type {@code String}.
+     *      - <b>SetMqttMaxInFlightCount</b> - this option is applicable only
+     *         when the transport configured with this client is MQTT or MQTT_WS.
+     *         It specifies how many messages can be published and waiting for
+     *         their acknowledgement at the same time, 10 by default. It can only
+     *         be set while the client is closed. The value is expected to be of
+     *         type {@code int}.
+     *      - <b>SetAmqpTelemetryBatchMaxSize</b> - this option is applicable only
+     *         when the transport configured with this client is AMQPS or AMQPS_WS.
+     *         When positive, the telemetry messages waiting to be sent are sent
+     *         together in batches of up to this many bytes, each acknowledged once
+     *         by the service, and the callback of each message is still invoked.
+     *         It is 0 by default, which sends each message on its own, and at most
+     *         256 KB. It can only be set while the client is closed. The value is
+     *         expected to be of type {@code int}.
      *
      * @param optionName the option name to modify
      * @param value an object of the appropriate type for the option's value
@@ -1115,7 +1316,7 @@ public final class DeviceClient implements Closeable
                             }
                             else
                             {
-                                logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.deviceIO.getProtocol().toString(), logger.getMethodName());
+                                logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.deviceIO.getProtocol().toString(), logger.getLazyMethodName());
                                 // Codes_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option
                                 // handled by the client, then it shall throw IllegalArgumentException.]
                                 throw new IllegalArgumentException("optionName is unknown = " + optionName + " for " + this.deviceIO.getProtocol().toString());
@@ -1172,7 +1373,7 @@ public final class DeviceClient implements Closeable
                             }
                             else
                             {
-                                logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.deviceIO.getProtocol().toString(), logger.getMethodName());
+                                logger.LogError("optionName is unknown = %s for %s, method name is %s ", optionName, this.deviceIO.getProtocol().toString(), logger.getLazyMethodName());
                                 // Codes_SRS_DEVICECLIENT_02_015: [If optionName is null or not an option handled by the
                                 // client, then it shall throw IllegalArgumentException.]
                                 throw new IllegalArgumentException("optionName is unknown = " + optionName + " for " + this.deviceIO.getProtocol().toString());
@@ -1203,6 +1404,73 @@ public final class DeviceClient implements Closeable
                     }
                     break;
                 }
+                case SET_SIGNAL_DRIVEN_SCHEDULING:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        if (this.transportClient.getTransportClientState() == TransportClient.TransportClientState.OPENED)
+                        {
+                            throw new IllegalStateException("setOption " + SET_SIGNAL_DRIVEN_SCHEDULING + " with TransportClient only works when the transport client is closed");
+                        }
+                    }
+                    else if ((this.deviceIO != null) && (this.deviceIO.isOpen()))
+                    {
+                        throw new IllegalStateException("setOption " + SET_SIGNAL_DRIVEN_SCHEDULING + " only works when the transport is closed");
+                    }
+
+                    setOption_SetSignalDrivenScheduling(value);
+                    break;
+                }
+                case SET_DURABLE_QUEUE_DIRECTORY:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        throw new UnsupportedOperationException("setOption " + SET_DURABLE_QUEUE_DIRECTORY + " is not supported with TransportClient");
+                    }
+                    else if ((this.deviceIO != null) && (this.deviceIO.isOpen()))
+                    {
+                        throw new IllegalStateException("setOption " + SET_DURABLE_QUEUE_DIRECTORY + " only works when the transport is closed");
+                    }
+
+                    setOption_SetDurableQueueDirectory(value);
+                    break;
+                }
+                case SET_MQTT_MAX_IN_FLIGHT_COUNT:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        throw new UnsupportedOperationException("setOption " + SET_MQTT_MAX_IN_FLIGHT_COUNT + " is not supported with TransportClient");
+                    }
+                    else if (this.deviceIO.isOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_MQTT_MAX_IN_FLIGHT_COUNT + " only works when the transport is closed");
+                    }
+                    else if (this.deviceIO.getProtocol() != IotHubClientProtocol.MQTT && this.deviceIO.getProtocol() != IotHubClientProtocol.MQTT_WS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName + " for " + this.deviceIO.getProtocol().toString());
+                    }
+
+                    setOption_SetMqttMaxInFlightCount(value);
+                    break;
+                }
+                case SET_AMQP_TELEMETRY_BATCH_MAX_SIZE:
+                {
+                    if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+                    {
+                        throw new UnsupportedOperationException("setOption " + SET_AMQP_TELEMETRY_BATCH_MAX_SIZE + " is not supported with TransportClient");
+                    }
+                    else if (this.deviceIO.isOpen())
+                    {
+                        throw new IllegalStateException("setOption " + SET_AMQP_TELEMETRY_BATCH_MAX_SIZE + " only works when the transport is closed");
+                    }
+                    else if (this.deviceIO.getProtocol() != IotHubClientProtocol.AMQPS && this.deviceIO.getProtocol() != IotHubClientProtocol.AMQPS_WS)
+                    {
+                        throw new IllegalArgumentException("optionName is unknown = " + optionName + " for " + this.deviceIO.getProtocol().toString());
+                    }
+
+                    setOption_SetAmqpTelemetryBatchMaxSize(value);
+                    break;
+                }
                 default:
                 {
                     throw new IllegalArgumentException("optionName is unknown = " + optionName);
@@ -1265,7 +1533,139 @@ public final class DeviceClient implements Closeable
         // Codes_SRS_DEVICECLIENT_28_001: [The function shall set the device config's RetryPolicy .]
         this.config.setRetryPolicy(retryPolicy);
 
-        logger.LogInfo("Retry policy updated successfully in the device client config, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Retry policy updated successfully in the device client config, method name is %s ", logger.getLazyMethodName());
+    }
+
+    /**
+     * Sets the policy that bounds the messages queued for sending, by count and by payload size, and decides what
+     * happens to a new message when the queue is full. By default the queue is not bounded.
+     * @param outboundQueuePolicy the new outbound queue policy
+     * @throws IllegalArgumentException if the provided policy is null
+     */
+    public void setOutboundQueuePolicy(OutboundQueuePolicy outboundQueuePolicy) throws IllegalArgumentException
+    {
+        this.config.setOutboundQueuePolicy(outboundQueuePolicy);
+        logger.LogInfo("Outbound queue policy updated successfully in the device client config, method name is %s ", logger.getLazyMethodName());
+    }
+
+    /**
+     * Sets the executor that invokes the message callbacks and the event callbacks of this client. The callbacks are
+     * invoked one at a time, in the order the messages were received or completed, even if the executor has many
+     * threads or is shared with other clients. The executor is not shut down by this client. By default, the
+     * callbacks are invoked on the threads that send and receive the messages.
+     * @param callbackExecutor the executor of the callbacks, or {@code null} to invoke them on the send and receive threads
+     * @throws UnsupportedOperationException if the client uses a TransportClient
+     * @throws IllegalStateException if the client is open
+     */
+    public void setCallbackExecutor(Executor callbackExecutor) throws UnsupportedOperationException, IllegalStateException
+    {
+        if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+        {
+            throw new UnsupportedOperationException("The callback executor is not supported with TransportClient.");
+        }
+
+        if (this.deviceIO != null && this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("The callback executor cannot be changed while the client is open.");
+        }
+
+        this.config.setCallbackExecutor(callbackExecutor);
+        logger.LogInfo("Callback executor updated successfully in the device client config, method name is %s ", logger.getLazyMethodName());
+    }
+
+    /**
+     * Sets the execution context whose shared threads run the send and receive tasks, the message retries and the
+     * token renewals of this client, in place of the threads this client would create for itself. The same context
+     * can be shared by many clients, and is not closed by them. The AMQP connection keeps its own reactor thread.
+     * @param executionContext the shared execution context, or {@code null} for this client to create its own threads
+     * @throws UnsupportedOperationException if the client uses a TransportClient
+     * @throws IllegalStateException if the client is open
+     */
+    public void setExecutionContext(IotHubExecutionContext executionContext) throws UnsupportedOperationException, IllegalStateException
+    {
+        if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+        {
+            throw new UnsupportedOperationException("The execution context is not supported with TransportClient.");
+        }
+
+        if (this.deviceIO != null && this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("The execution context cannot be changed while the client is open.");
+        }
+
+        this.config.setExecutionContext(executionContext);
+        logger.LogInfo("Execution context updated successfully in the device client config, method name is %s ", logger.getLazyMethodName());
+    }
+
+    /**
+     * Sets the generator of the IDs of the messages sent by this client without an explicit message ID. The ID is
+     * generated when the message is sent, unless it was set or read before. By default, message IDs are random UUIDs.
+     * @param messageIdGenerator the generator of the message IDs, or {@code null} for random UUIDs
+     */
+    public void setMessageIdGenerator(MessageIdGenerator messageIdGenerator)
+    {
+        this.config.setMessageIdGenerator(messageIdGenerator);
+        logger.LogInfo("Message ID generator updated successfully in the device client config, method name is %s ", logger.getLazyMethodName());
+    }
+
+    /**
+     * Sets the listener that receives the traces of a share of the messages sent by this client. A trace holds the
+     * time a message was queued, dequeued, handed to the protocol, acknowledged and called back, which tells where a
+     * slow message spent its time. The messages to trace are picked at random, so a low sampling rate keeps the cost
+     * negligible. Tracing is off by default.
+     * @param listener the listener of the message traces, or {@code null} to turn tracing off
+     * @param samplingRate the share of the messages to trace, from 0 for none to 1 for all
+     * @throws IllegalArgumentException if the sampling rate is not between 0 and 1
+     * @throws UnsupportedOperationException if the client uses a TransportClient
+     * @throws IllegalStateException if the client is open
+     */
+    public void setMessageTraceListener(MessageTraceListener listener, double samplingRate)
+            throws IllegalArgumentException, UnsupportedOperationException, IllegalStateException
+    {
+        if (this.ioTHubConnectionType == IoTHubConnectionType.USE_TRANSPORTCLIENT)
+        {
+            throw new UnsupportedOperationException("Message tracing is not supported with TransportClient.");
+        }
+
+        if (this.deviceIO != null && this.deviceIO.isOpen())
+        {
+            throw new IllegalStateException("Message tracing cannot be changed while the client is open.");
+        }
+
+        this.config.setMessageTracing(listener, samplingRate);
+        logger.LogInfo("Message tracing updated successfully in the device client config, method name is %s ", logger.getLazyMethodName());
+    }
+
+    /**
+     * Getter for the number of messages sent through this client, including twin and method messages, that have not
+     * been acknowledged, expired, dropped or cancelled yet. This includes messages waiting to be sent, waiting for an
+     * acknowledgement and waiting to be retried.
+     * @return the number of pending messages.
+     */
+    public int getPendingMessageCount()
+    {
+        return this.deviceIO.getPendingMessageCount();
+    }
+
+    /**
+     * Getter for the payload size of the messages counted by {@link #getPendingMessageCount()}.
+     * @return the number of payload bytes of the pending messages.
+     */
+    public long getPendingMessageBytes()
+    {
+        return this.deviceIO.getPendingMessageBytes();
+    }
+
+    /**
+     * Getter for the metrics of the transport of this client: the depths of its queues, how many messages were
+     * acknowledged and retried, how long acknowledgements and reconnections took. The metrics are cheap to keep and
+     * to read, so they are always on. If this client uses a {@link TransportClient}, the metrics cover all the
+     * clients of that transport client.
+     * @return a snapshot of the transport metrics.
+     */
+    public TransportMetrics getMetrics()
+    {
+        return this.deviceIO.getMetrics();
     }
 
     /**
@@ -1278,7 +1678,7 @@ public final class DeviceClient implements Closeable
     {
         // Codes_SRS_DEVICECLIENT_34_070: [The function shall set the device config's operation timeout .]
         this.config.setOperationTimeout(timeout);
-        logger.LogInfo("Device Operation Timeout updated successfully in the device client config, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Device Operation Timeout updated successfully in the device client config, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -6,11 +6,17 @@ package com.microsoft.azure.sdk.iot.device;
 import com.microsoft.azure.sdk.iot.device.auth.*;
 import com.microsoft.azure.sdk.iot.device.transport.ExponentialBackoffWithJitter;
 import com.microsoft.azure.sdk.iot.device.transport.RetryPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
+import com.microsoft.azure.sdk.iot.device.transport.MessageTraceListener;
+import com.microsoft.azure.sdk.iot.device.transport.OutboundQueuePolicy;
+import com.microsoft.azure.sdk.iot.device.transport.SendDrainPolicy;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderTpm;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderX509;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.Executor;
 
 /**
  * Configuration settings for an IoT Hub client. Validates all user-defined
@@ -25,6 +31,12 @@ public final class DeviceClientConfig
 
     private static final long DEFAULT_OPERATION_TIMEOUT = 4 * 60 * 1000; //4 minutes
 
+    /** The default number of MQTT messages that can be sent and waiting for their acknowledgement at the same time. */
+    public static final int DEFAULT_MQTT_MAX_IN_FLIGHT_COUNT = 10;
+
+    /** The largest batch of AMQP telemetry messages, which is the size limit of a message sent to the IoT Hub. */
+    public static final int MAX_AMQP_TELEMETRY_BATCH_SIZE = 256 * 1024;
+
     private boolean useWebsocket;
 
     private IotHubX509AuthenticationProvider x509Authentication;
@@ -68,9 +80,24 @@ public final class DeviceClientConfig
     private long operationTimeout = DEFAULT_OPERATION_TIMEOUT;
     private IotHubClientProtocol protocol;
 
+    /* If the send and receive tasks are woken up by the transport instead of running at a fixed rate. */
+    private boolean signalDrivenScheduling = false;
+    private File durableQueueDirectory;
+    private int mqttMaxInFlightCount = DEFAULT_MQTT_MAX_IN_FLIGHT_COUNT;
+    /* The size of the AMQP telemetry batches in bytes, 0 if the messages are not batched. */
+    private int amqpTelemetryBatchMaxSize = 0;
+    private Executor callbackExecutor;
+    private IotHubExecutionContext executionContext;
+    private MessageIdGenerator messageIdGenerator;
+    private MessageTraceListener messageTraceListener;
+    private double messageTraceSamplingRate;
+
     // Codes_SRS_DEVICECLIENTCONFIG_28_001: [The class shall have ExponentialBackOff as the default retryPolicy.]
     private RetryPolicy retryPolicy = new ExponentialBackoffWithJitter();
 
+    private SendDrainPolicy sendDrainPolicy = new SendDrainPolicy();
+    private OutboundQueuePolicy outboundQueuePolicy = new OutboundQueuePolicy();
+
     /**
      * Constructor
      *
@@ -120,7 +147,7 @@ public final class DeviceClientConfig
 
         this.logger = new CustomLogger(this.getClass());
         logger.LogInfo("DeviceClientConfig object is created successfully with IotHubName=%s, deviceID=%s , method name is %s ",
-                iotHubConnectionString.getHostName(), iotHubConnectionString.getDeviceId(), logger.getMethodName());
+                iotHubConnectionString.getHostName(), iotHubConnectionString.getDeviceId(), logger.getLazyMethodName());
     }
 
     /**
@@ -158,7 +185,7 @@ public final class DeviceClientConfig
 
         this.logger = new CustomLogger(this.getClass());
         logger.LogInfo("DeviceClientConfig object is created successfully with IotHubName=%s, deviceID=%s , method name is %s ",
-                iotHubConnectionString.getHostName(), iotHubConnectionString.getDeviceId(), logger.getMethodName());
+                iotHubConnectionString.getHostName(), iotHubConnectionString.getDeviceId(), logger.getLazyMethodName());
     }
 
     /**
@@ -209,7 +236,7 @@ public final class DeviceClientConfig
 
         this.logger = new CustomLogger(this.getClass());
         logger.LogInfo("DeviceClientConfig object is created successfully with IotHubName=%s, deviceID=%s , method name is %s ",
-                connectionString.getHostName(), connectionString.getDeviceId(), logger.getMethodName());
+                connectionString.getHostName(), connectionString.getDeviceId(), logger.getLazyMethodName());
     }
 
     public IotHubClientProtocol getProtocol()
@@ -251,6 +278,58 @@ public final class DeviceClientConfig
         return this.retryPolicy;
     }
 
+    /**
+     * Setter for the policy that limits how many queued messages are sent each time the send task runs.
+     *
+     * @param sendDrainPolicy the drain policy to be used
+     * @throws IllegalArgumentException if the drain policy is null
+     */
+    public void setSendDrainPolicy(SendDrainPolicy sendDrainPolicy) throws IllegalArgumentException
+    {
+        if (sendDrainPolicy == null)
+        {
+            throw new IllegalArgumentException("Send drain policy cannot be null.");
+        }
+
+        this.sendDrainPolicy = sendDrainPolicy;
+    }
+
+    /**
+     * Getter for the send drain policy
+     *
+     * @return The value of the send drain policy
+     */
+    public SendDrainPolicy getSendDrainPolicy()
+    {
+        return this.sendDrainPolicy;
+    }
+
+    /**
+     * Setter for the policy that bounds the messages queued for sending and decides what happens when it is full.
+     *
+     * @param outboundQueuePolicy the outbound queue policy to be used
+     * @throws IllegalArgumentException if the outbound queue policy is null
+     */
+    public void setOutboundQueuePolicy(OutboundQueuePolicy outboundQueuePolicy) throws IllegalArgumentException
+    {
+        if (outboundQueuePolicy == null)
+        {
+            throw new IllegalArgumentException("Outbound queue policy cannot be null.");
+        }
+
+        this.outboundQueuePolicy = outboundQueuePolicy;
+    }
+
+    /**
+     * Getter for the outbound queue policy
+     *
+     * @return The value of the outbound queue policy
+     */
+    public OutboundQueuePolicy getOutboundQueuePolicy()
+    {
+        return this.outboundQueuePolicy;
+    }
+
     /**
      * Getter for X509Authentication
      *
@@ -522,6 +601,208 @@ public final class DeviceClientConfig
         return this.operationTimeout;
     }
 
+    /**
+     * Setter for the scheduling mode of the send and receive tasks. When enabled, the tasks run as soon as the
+     * transport has a message to send, a callback to invoke or a received message to handle, and park while
+     * there is nothing to do. When disabled, they run at the fixed send and receive periods.
+     *
+     * @param signalDrivenScheduling {@code true} to wake up the tasks on demand, {@code false} to poll at a fixed rate.
+     */
+    public void setSignalDrivenScheduling(boolean signalDrivenScheduling)
+    {
+        this.signalDrivenScheduling = signalDrivenScheduling;
+    }
+
+    /**
+     * Getter for the scheduling mode of the send and receive tasks.
+     *
+     * @return {@code true} if the tasks are woken up on demand, {@code false} if they poll at a fixed rate.
+     */
+    public boolean isSignalDrivenScheduling()
+    {
+        return this.signalDrivenScheduling;
+    }
+
+    /**
+     * Setter for the directory of the durable outbound queue. When set, telemetry messages are also written to
+     * segment files in this directory until they complete, and the ones cancelled by a close, or lost to a process
+     * restart, are sent again the next time the client is opened.
+     *
+     * @param durableQueueDirectory the directory of the segment files, or {@code null} to keep messages only in memory.
+     */
+    public void setDurableQueueDirectory(File durableQueueDirectory)
+    {
+        this.durableQueueDirectory = durableQueueDirectory;
+    }
+
+    /**
+     * Getter for the directory of the durable outbound queue.
+     *
+     * @return the directory of the segment files, or {@code null} if messages are kept only in memory.
+     */
+    public File getDurableQueueDirectory()
+    {
+        return this.durableQueueDirectory;
+    }
+
+    /**
+     * Setter for the size of the MQTT send window, which is the number of messages that can be published and waiting
+     * for their acknowledgement at the same time. Publishers wait for a free slot once the window is full. A larger
+     * window keeps a high latency link busy, at the cost of more messages to send again if the connection drops.
+     *
+     * @param mqttMaxInFlightCount the number of messages in flight. Must be positive.
+     * @throws IllegalArgumentException if the count is not positive.
+     */
+    public void setMqttMaxInFlightCount(int mqttMaxInFlightCount) throws IllegalArgumentException
+    {
+        if (mqttMaxInFlightCount < 1)
+        {
+            throw new IllegalArgumentException("The number of MQTT messages in flight must be positive");
+        }
+
+        this.mqttMaxInFlightCount = mqttMaxInFlightCount;
+    }
+
+    /**
+     * Getter for the size of the MQTT send window.
+     *
+     * @return the number of messages that can be published and waiting for their acknowledgement at the same time.
+     */
+    public int getMqttMaxInFlightCount()
+    {
+        return this.mqttMaxInFlightCount;
+    }
+
+    /**
+     * Setter for the largest batch of AMQP telemetry messages. When set, the telemetry messages waiting to be sent
+     * are sent together, as many as fit in this size, in a single transfer that the service acknowledges once. The
+     * callback of each message is still invoked.
+     *
+     * @param amqpTelemetryBatchMaxSize the largest batch in bytes, up to {@link #MAX_AMQP_TELEMETRY_BATCH_SIZE}, or 0
+     *                                  to send each message on its own, which is the default.
+     * @throws IllegalArgumentException if the size is negative or larger than {@link #MAX_AMQP_TELEMETRY_BATCH_SIZE}.
+     */
+    public void setAmqpTelemetryBatchMaxSize(int amqpTelemetryBatchMaxSize) throws IllegalArgumentException
+    {
+        if (amqpTelemetryBatchMaxSize < 0 || amqpTelemetryBatchMaxSize > MAX_AMQP_TELEMETRY_BATCH_SIZE)
+        {
+            throw new IllegalArgumentException("The AMQP telemetry batch size must be between 0 and " + MAX_AMQP_TELEMETRY_BATCH_SIZE + " bytes");
+        }
+
+        this.amqpTelemetryBatchMaxSize = amqpTelemetryBatchMaxSize;
+    }
+
+    /**
+     * Getter for the largest batch of AMQP telemetry messages.
+     *
+     * @return the largest batch in bytes, or 0 if the messages are not batched.
+     */
+    public int getAmqpTelemetryBatchMaxSize()
+    {
+        return this.amqpTelemetryBatchMaxSize;
+    }
+
+    /**
+     * Setter for the executor that invokes the message callbacks and the event callbacks. When set, the callbacks
+     * are invoked on this executor, one at a time and in order, so a slow callback does not hold up the sending and
+     * receiving of messages.
+     *
+     * @param callbackExecutor the executor of the callbacks, or {@code null} to invoke them on the send and receive threads.
+     */
+    public void setCallbackExecutor(Executor callbackExecutor)
+    {
+        this.callbackExecutor = callbackExecutor;
+    }
+
+    /**
+     * Getter for the executor that invokes the message callbacks and the event callbacks.
+     *
+     * @return the executor of the callbacks, or {@code null} if they are invoked on the send and receive threads.
+     */
+    public Executor getCallbackExecutor()
+    {
+        return this.callbackExecutor;
+    }
+
+    /**
+     * Setter for the execution context whose shared threads run the tasks of this client, in place of the threads
+     * the client would create for itself.
+     *
+     * @param executionContext the shared execution context, or {@code null} for the client to create its own threads.
+     */
+    public void setExecutionContext(IotHubExecutionContext executionContext)
+    {
+        this.executionContext = executionContext;
+    }
+
+    /**
+     * Getter for the execution context whose shared threads run the tasks of this client.
+     *
+     * @return the shared execution context, or {@code null} if the client creates its own threads.
+     */
+    public IotHubExecutionContext getExecutionContext()
+    {
+        return this.executionContext;
+    }
+
+    /**
+     * Setter for the generator of the IDs of the messages sent without one.
+     *
+     * @param messageIdGenerator the generator of the message IDs, or {@code null} for random UUIDs.
+     */
+    public void setMessageIdGenerator(MessageIdGenerator messageIdGenerator)
+    {
+        this.messageIdGenerator = messageIdGenerator;
+    }
+
+    /**
+     * Getter for the generator of the IDs of the messages sent without one.
+     *
+     * @return the generator of the message IDs, or {@code null} if the messages get random UUIDs.
+     */
+    public MessageIdGenerator getMessageIdGenerator()
+    {
+        return this.messageIdGenerator;
+    }
+
+    /**
+     * Setter for the listener of the message traces, and for the share of the sent messages to trace.
+     *
+     * @param listener the listener of the message traces, or {@code null} to turn tracing off.
+     * @param samplingRate the share of the messages to trace, from 0 for none to 1 for all.
+     * @throws IllegalArgumentException if the sampling rate is not between 0 and 1.
+     */
+    public void setMessageTracing(MessageTraceListener listener, double samplingRate) throws IllegalArgumentException
+    {
+        if (!(samplingRate >= 0 && samplingRate <= 1))
+        {
+            throw new IllegalArgumentException("Sampling rate must be between 0 and 1");
+        }
+
+        this.messageTraceListener = listener;
+        this.messageTraceSamplingRate = listener == null ? 0 : samplingRate;
+    }
+
+    /**
+     * Getter for the listener of the message traces.
+     *
+     * @return the listener of the message traces, or {@code null} if tracing is off.
+     */
+    public MessageTraceListener getMessageTraceListener()
+    {
+        return this.messageTraceListener;
+    }
+
+    /**
+     * Getter for the share of the sent messages to trace.
+     *
+     * @return the sampling rate, from 0 for none to 1 for all.
+     */
+    public double getMessageTraceSamplingRate()
+    {
+        return this.messageTraceSamplingRate;
+    }
+
     public ProductInfo getProductInfo()
     {
         //Codes_SRS_DEVICECLIENTCONFIG_34_040: [This function shall return the saved product info.]
@@ -4,16 +4,23 @@
 package com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.exceptions.DeviceClientException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalDrivenTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
+import com.microsoft.azure.sdk.iot.device.transport.TransportMetrics;
 
 import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /*
  *     +-------------------------------------+                  +-----------------------------------+
@@ -74,6 +81,9 @@ public final class DeviceIO
         OPEN, CLOSED
     }
 
+    /* Longest time a signal driven task stays parked without being woken up by the transport. */
+    private static final long SIGNAL_DRIVEN_MAX_IDLE_MILLIS = 1000L;
+
     private long sendPeriodInMilliseconds;
     private long receivePeriodInMilliseconds;
 
@@ -82,9 +92,20 @@ public final class DeviceIO
     private DeviceClientConfig config;
     private IotHubSendTask sendTask = null;
     private IotHubReceiveTask receiveTask = null;
+
+    /* The runnables scheduled at a fixed rate, which hand the tasks over to the blocking executor of a shared context. */
+    private Runnable scheduledSendTask = null;
+    private Runnable scheduledReceiveTask = null;
+    private IotHubSignalDrivenTask signalDrivenSendTask = null;
+    private IotHubSignalDrivenTask signalDrivenReceiveTask = null;
     private IotHubClientProtocol protocol = null;
 
     private ScheduledExecutorService taskScheduler;
+    private ScheduledFuture<?> sendTaskFuture;
+    private ScheduledFuture<?> receiveTaskFuture;
+
+    /* True if the task scheduler belongs to a shared execution context, so it is not shut down on close. */
+    private boolean sharedTaskScheduler;
     private IotHubClientState state;
 
     private List<DeviceClientConfig> deviceClientConfigs = new LinkedList<>();
@@ -136,7 +157,7 @@ public final class DeviceIO
         this.state = IotHubClientState.CLOSED;
 
         this.logger = new CustomLogger(this.getClass());
-        logger.LogInfo("DeviceIO object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("DeviceIO object is created successfully, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -192,16 +213,51 @@ public final class DeviceIO
         this.sendTask = new IotHubSendTask(this.transport);
         this.receiveTask = new IotHubReceiveTask(this.transport);
 
-        this.taskScheduler = Executors.newScheduledThreadPool(2);
-        // the scheduler waits until each execution is finished before
-        // scheduling the next one, so executions of a given task
-        // will never overlap.
-        /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
-        this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
-                sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
-        /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
-        this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
-                receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+        IotHubExecutionContext executionContext = this.config.getExecutionContext();
+        this.sharedTaskScheduler = executionContext != null;
+        this.taskScheduler = this.sharedTaskScheduler ? executionContext.getScheduler() : Executors.newScheduledThreadPool(2);
+        this.scheduledSendTask = this.sendTask;
+        this.scheduledReceiveTask = this.receiveTask;
+        if (this.sharedTaskScheduler)
+        {
+            // sends and receives can wait on the network, so they run on the blocking executor. The shared scheduler
+            // only times them, so a client blocked on a send does not hold up the other clients of the context.
+            this.scheduledSendTask = new BlockingTaskDispatcher(this.sendTask, executionContext.getBlockingExecutor());
+            this.scheduledReceiveTask = new BlockingTaskDispatcher(this.receiveTask, executionContext.getBlockingExecutor());
+        }
+
+        if (this.config.isSignalDrivenScheduling())
+        {
+            this.signalDrivenSendTask = new IotHubSignalDrivenTask(this.sendTask,
+                    this.transport.getSendWorkSignal(), SIGNAL_DRIVEN_MAX_IDLE_MILLIS);
+            this.signalDrivenReceiveTask = new IotHubSignalDrivenTask(this.receiveTask,
+                    this.transport.getReceiveWorkSignal(), this.getSignalDrivenReceiveWaitInMilliseconds());
+
+            if (this.sharedTaskScheduler)
+            {
+                // the shared threads run each task when the transport signals work for it, and hold no thread in between.
+                this.signalDrivenSendTask.dispatchOn(this.taskScheduler, executionContext.getBlockingExecutor());
+                this.signalDrivenReceiveTask.dispatchOn(this.taskScheduler, executionContext.getBlockingExecutor());
+            }
+            else
+            {
+                // each task loops on its own thread, and is woken up by the transport when there is work for it.
+                this.taskScheduler.execute(this.signalDrivenSendTask);
+                this.taskScheduler.execute(this.signalDrivenReceiveTask);
+            }
+        }
+        else
+        {
+            // the scheduler waits until each execution is finished before
+            // scheduling the next one, so executions of a given task
+            // will never overlap.
+            /* Codes_SRS_DEVICE_IO_21_013: [The open shall schedule send tasks to run every SEND_PERIOD_MILLIS milliseconds.] */
+            this.sendTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.scheduledSendTask, 0,
+                    sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
+            /* Codes_SRS_DEVICE_IO_21_014: [The open shall schedule receive tasks to run every receivePeriodInMilliseconds milliseconds.] */
+            this.receiveTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.scheduledReceiveTask, 0,
+                    receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
+        }
 
         /* Codes_SRS_DEVICE_IO_21_016: [The open shall set the `state` as `CONNECTED`.] */
         this.state = IotHubClientState.OPEN;
@@ -225,7 +281,32 @@ public final class DeviceIO
 
         /* Codes_SRS_DEVICE_IO_21_017: [The close shall finish all ongoing tasks.] */
         /* Codes_SRS_DEVICE_IO_21_018: [The close shall cancel all recurring tasks.] */
-        this.taskScheduler.shutdown();
+        if (this.signalDrivenSendTask != null)
+        {
+            this.signalDrivenSendTask.stop();
+            this.signalDrivenSendTask = null;
+        }
+
+        if (this.signalDrivenReceiveTask != null)
+        {
+            this.signalDrivenReceiveTask.stop();
+            this.signalDrivenReceiveTask = null;
+        }
+
+        if (this.sharedTaskScheduler)
+        {
+            // the shared scheduler outlives this client, only the tasks of this client are cancelled
+            cancelTask(this.sendTaskFuture);
+            cancelTask(this.receiveTaskFuture);
+            this.taskScheduler = null;
+        }
+        else
+        {
+            this.taskScheduler.shutdown();
+        }
+
+        this.sendTaskFuture = null;
+        this.receiveTaskFuture = null;
 
         /* Codes_SRS_DEVICE_IO_21_019: [The close shall close the transport.] */
         try
@@ -269,33 +350,37 @@ public final class DeviceIO
      * @throws IllegalArgumentException if the message provided is {@code null}.
      * @throws IllegalStateException if the client has not been opened yet or is already closed.
      */
-    public synchronized void sendEventAsync(Message message,
+    public void sendEventAsync(Message message,
                                IotHubEventCallback callback,
                                Object callbackContext,
                                IotHubConnectionString iotHubConnectionString)
     {
-        /* Codes_SRS_DEVICE_IO_21_024: [If the client is closed, the sendEventAsync shall throw an IllegalStateException.] */
-        if (this.state == IotHubClientState.CLOSED)
+        synchronized (this)
         {
-            throw new IllegalStateException(
-                    "Cannot send event from "
-                            + "an IoT Hub client that is closed.");
-        }
+            /* Codes_SRS_DEVICE_IO_21_024: [If the client is closed, the sendEventAsync shall throw an IllegalStateException.] */
+            if (this.state == IotHubClientState.CLOSED)
+            {
+                throw new IllegalStateException(
+                        "Cannot send event from "
+                                + "an IoT Hub client that is closed.");
+            }
 
-        /* Codes_SRS_DEVICE_IO_21_023: [If the message given is null, the sendEventAsync shall throw an IllegalArgumentException.] */
-        if (message == null)
-        {
-            throw new IllegalArgumentException("Cannot send message 'null'.");
-        }
+            /* Codes_SRS_DEVICE_IO_21_023: [If the message given is null, the sendEventAsync shall throw an IllegalArgumentException.] */
+            if (message == null)
+            {
+                throw new IllegalArgumentException("Cannot send message 'null'.");
+            }
 
-        // Codes_SRS_DEVICE_IO_12_001: [The function shall set the connection string on the message if the iotHubConnectionString parameter is not null.]
-        if (iotHubConnectionString != null)
-        {
-            message.setIotHubConnectionString(iotHubConnectionString);
+            // Codes_SRS_DEVICE_IO_12_001: [The function shall set the connection string on the message if the iotHubConnectionString parameter is not null.]
+            if (iotHubConnectionString != null)
+            {
+                message.setIotHubConnectionString(iotHubConnectionString);
+            }
         }
 
-        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getMethodName());
+        logger.LogInfo("Message with messageid %s along with callback and callbackcontext is added to the queue, method name is %s ", message.getMessageId(), logger.getLazyMethodName());
         /* Codes_SRS_DEVICE_IO_21_022: [The sendEventAsync shall add the message, with its associated callback and callback context, to the transport.] */
+        // outside of the lock, so that a caller waiting for room in a full outbound queue does not hold up the others
         transport.addMessage(message, callback, callbackContext);
     }
 
@@ -328,6 +413,13 @@ public final class DeviceIO
         /* Codes_SRS_DEVICE_IO_21_027: [The setReceivePeriodInMilliseconds shall store the new receive period in milliseconds.] */
         this.receivePeriodInMilliseconds = newIntervalInMilliseconds;
 
+        if (this.signalDrivenReceiveTask != null)
+        {
+            // the receive task is not scheduled at a fixed rate, only its longest park changes.
+            this.signalDrivenReceiveTask.setMaxWaitInMilliseconds(this.getSignalDrivenReceiveWaitInMilliseconds());
+            return;
+        }
+
         /* Codes_SRS_DEVICE_IO_21_028: [If the task scheduler already exists, the setReceivePeriodInMilliseconds shall change the `scheduleAtFixedRate` for the receiveTask to the new value.] */
         if(this.taskScheduler != null)
         {
@@ -337,7 +429,8 @@ public final class DeviceIO
                 throw new IOException("transport receive task not set");
             }
 
-            this.taskScheduler.scheduleAtFixedRate(this.receiveTask, 0,
+            cancelTask(this.receiveTaskFuture);
+            this.receiveTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.scheduledReceiveTask, 0,
                     this.receivePeriodInMilliseconds, TimeUnit.MILLISECONDS);
         }
     }
@@ -371,6 +464,12 @@ public final class DeviceIO
         /* Codes_SRS_DEVICE_IO_21_033: [The setSendPeriodInMilliseconds shall store the new send period in milliseconds.] */
         this.sendPeriodInMilliseconds = newIntervalInMilliseconds;
 
+        if (this.signalDrivenSendTask != null)
+        {
+            // the send task is woken up by the transport, so there is no period to reschedule.
+            return;
+        }
+
         /* Codes_SRS_DEVICE_IO_21_034: [If the task scheduler already exists, the setSendPeriodInMilliseconds shall change the `scheduleAtFixedRate` for the sendTask to the new value.] */
         if(this.taskScheduler != null)
         {
@@ -380,11 +479,41 @@ public final class DeviceIO
                 throw new IOException("transport send task not set");
             }
 
-            this.taskScheduler.scheduleAtFixedRate(this.sendTask, 0,
+            cancelTask(this.sendTaskFuture);
+            this.sendTaskFuture = this.taskScheduler.scheduleAtFixedRate(this.scheduledSendTask, 0,
                     this.sendPeriodInMilliseconds, TimeUnit.MILLISECONDS);
         }
     }
 
+    /**
+     * Cancels a task scheduled at a fixed rate, letting its current execution finish.
+     *
+     * @param taskFuture the future of the scheduled task, or null if the task is not scheduled.
+     */
+    private static void cancelTask(ScheduledFuture<?> taskFuture)
+    {
+        if (taskFuture != null)
+        {
+            taskFuture.cancel(false);
+        }
+    }
+
+    /**
+     * HTTPS does not push received messages, so a signal driven receive task still has to poll the service every
+     * receive period. The other protocols notify the transport as soon as a message arrives.
+     *
+     * @return the longest time, in milliseconds, that the signal driven receive task shall stay parked.
+     */
+    private long getSignalDrivenReceiveWaitInMilliseconds()
+    {
+        if (this.protocol == IotHubClientProtocol.HTTPS)
+        {
+            return this.receivePeriodInMilliseconds;
+        }
+
+        return SIGNAL_DRIVEN_MAX_IDLE_MILLIS;
+    }
+
     /**
      * Getter for the transport protocol.
      *
@@ -417,6 +546,33 @@ public final class DeviceIO
         return this.transport.isEmpty();
     }
 
+    /**
+     * Getter for the number of messages queued in the transport whose callback has not been queued yet.
+     * @return the number of pending messages.
+     */
+    public int getPendingMessageCount()
+    {
+        return this.transport.getPendingMessageCount();
+    }
+
+    /**
+     * Getter for the payload size of the messages queued in the transport whose callback has not been queued yet.
+     * @return the number of payload bytes of the pending messages.
+     */
+    public long getPendingMessageBytes()
+    {
+        return this.transport.getPendingMessageBytes();
+    }
+
+    /**
+     * Getter for the queue depths, counters and latency histograms of the transport.
+     * @return a snapshot of the transport metrics.
+     */
+    public TransportMetrics getMetrics()
+    {
+        return this.transport.getMetrics();
+    }
+
     /**
      * Registers a callback with the configured transport to be executed whenever the connection to the device is lost or established.
      *
@@ -434,4 +590,53 @@ public final class DeviceIO
     {
         this.transport.registerConnectionStatusChangeCallback(statusChangeCallback, callbackContext);
     }
+
+    /**
+     * Runs a task on an executor each time it is run by a scheduler, unless the previous run of the task is still in
+     * progress, so that the runs of the task never overlap.
+     */
+    private static final class BlockingTaskDispatcher implements Runnable
+    {
+        private final Runnable task;
+        private final Executor executor;
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private final Runnable runTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    task.run();
+                }
+                finally
+                {
+                    running.set(false);
+                }
+            }
+        };
+
+        private BlockingTaskDispatcher(Runnable task, Executor executor)
+        {
+            this.task = task;
+            this.executor = executor;
+        }
+
+        @Override
+        public void run()
+        {
+            if (this.running.compareAndSet(false, true))
+            {
+                try
+                {
+                    this.executor.execute(this.runTask);
+                }
+                catch (RejectedExecutionException e)
+                {
+                    this.running.set(false);
+                }
+            }
+        }
+    }
 }
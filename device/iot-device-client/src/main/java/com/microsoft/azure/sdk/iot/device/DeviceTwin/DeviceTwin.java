@@ -216,6 +216,21 @@ public class DeviceTwin
     */
     private final class deviceTwinRequestMessageCallback implements IotHubEventCallback
     {
+        /* Optional callback notified of the delivery status of this request, after the status callback. */
+        private final IotHubEventCallback deliveryCallback;
+        private final Object deliveryCallbackContext;
+
+        deviceTwinRequestMessageCallback()
+        {
+            this(null, null);
+        }
+
+        deviceTwinRequestMessageCallback(IotHubEventCallback deliveryCallback, Object deliveryCallbackContext)
+        {
+            this.deliveryCallback = deliveryCallback;
+            this.deliveryCallbackContext = deliveryCallbackContext;
+        }
+
         @Override
         public void execute(IotHubStatusCode responseStatus, Object callbackContext)
         {
@@ -230,6 +245,11 @@ public class DeviceTwin
                     deviceTwinStatusCallback.execute(responseStatus, deviceTwinStatusCallbackContext);
                 }
             }
+
+            if (this.deliveryCallback != null)
+            {
+                this.deliveryCallback.execute(responseStatus, this.deliveryCallbackContext);
+            }
         }
     }
 
@@ -318,6 +338,22 @@ public class DeviceTwin
     }
 
     public synchronized void updateReportedProperties(Set<Property> reportedProperties, Integer version) throws IOException
+    {
+        this.updateReportedProperties(reportedProperties, version, null, null);
+    }
+
+    /**
+     * Sends the reported properties and notifies the provided callback once the request is delivered to the IoT Hub.
+     * The response of the IoT Hub to the request is still reported on the device twin status callback.
+     *
+     * @param reportedProperties the properties to report. Cannot be {@code null}.
+     * @param version the version of the reported properties. Can be {@code null}.
+     * @param deliveryCallback the callback to be invoked with the delivery status of the request. Can be {@code null}.
+     * @param deliveryCallbackContext a context to be passed to the delivery callback. Can be {@code null}.
+     * @throws IOException if the request cannot be queued.
+     */
+    public synchronized void updateReportedProperties(Set<Property> reportedProperties, Integer version,
+                                                      IotHubEventCallback deliveryCallback, Object deliveryCallbackContext) throws IOException
     {
         if (reportedProperties == null)
         {
@@ -368,7 +404,7 @@ public class DeviceTwin
         /*
          **Codes_SRS_DEVICETWIN_25_015: [**This method shall send the message to the lower transport layers by calling sendEventAsync.**]**
          */
-        this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(), null, this.config.getIotHubConnectionString());
+        this.deviceIO.sendEventAsync(updateReportedPropertiesRequest, new deviceTwinRequestMessageCallback(deliveryCallback, deliveryCallbackContext), null, this.config.getIotHubConnectionString());
 
     }
 
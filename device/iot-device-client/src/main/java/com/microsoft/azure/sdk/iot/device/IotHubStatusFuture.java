@@ -0,0 +1,187 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The pending result of an asynchronous operation on the IoT Hub, completed with the same status code that would
+ * be passed to an {@link IotHubEventCallback} for that operation.
+ *
+ * The result can be waited for with {@link #get()}, or handled without blocking by adding completion callbacks
+ * with {@link #addCompletionCallback(IotHubEventCallback, Object)}. Failures are reported as status codes, so
+ * {@link #get()} never throws an ExecutionException. An operation handed to the transport cannot be withdrawn, so
+ * the future cannot be cancelled.
+ */
+public final class IotHubStatusFuture implements Future<IotHubStatusCode>
+{
+    private final CountDownLatch completionLatch = new CountDownLatch(1);
+    private final Object completionLock = new Object();
+
+    private volatile IotHubStatusCode status;
+    private List<CompletionCallback> completionCallbacks = new ArrayList<>();
+
+    /* Completes this future when the operation invokes its callback. */
+    private final IotHubEventCallback eventCallback = new IotHubEventCallback()
+    {
+        @Override
+        public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+        {
+            complete(responseStatus);
+        }
+    };
+
+    private static final class CompletionCallback
+    {
+        private final IotHubEventCallback callback;
+        private final Object callbackContext;
+
+        private CompletionCallback(IotHubEventCallback callback, Object callbackContext)
+        {
+            this.callback = callback;
+            this.callbackContext = callbackContext;
+        }
+    }
+
+    IotHubStatusFuture()
+    {
+    }
+
+    /**
+     * Getter for the event callback that completes this future. It is the callback handed to the operation.
+     *
+     * @return the event callback of this future.
+     */
+    IotHubEventCallback getEventCallback()
+    {
+        return this.eventCallback;
+    }
+
+    /**
+     * Adds a callback to be invoked with the status code once this future is completed. If the future is already
+     * completed, the callback is invoked right away on the calling thread. Otherwise it is invoked on the thread
+     * that completes the future, which is the thread that invokes the callbacks of the operation.
+     *
+     * @param callback the callback to be invoked. Cannot be {@code null}.
+     * @param callbackContext a context to be passed to the callback. Can be {@code null}.
+     * @return itself, for fluent setting.
+     * @throws IllegalArgumentException if the callback is {@code null}.
+     */
+    public IotHubStatusFuture addCompletionCallback(IotHubEventCallback callback, Object callbackContext) throws IllegalArgumentException
+    {
+        if (callback == null)
+        {
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+
+        synchronized (this.completionLock)
+        {
+            if (this.completionCallbacks != null)
+            {
+                this.completionCallbacks.add(new CompletionCallback(callback, callbackContext));
+                return this;
+            }
+        }
+
+        callback.execute(this.status, callbackContext);
+        return this;
+    }
+
+    /**
+     * Completes this future with the provided status code and invokes the completion callbacks. Only the first
+     * completion is kept.
+     *
+     * @param status the status code of the operation.
+     */
+    void complete(IotHubStatusCode status)
+    {
+        List<CompletionCallback> callbacksToInvoke;
+        synchronized (this.completionLock)
+        {
+            if (this.completionCallbacks == null)
+            {
+                return;
+            }
+
+            this.status = status;
+            callbacksToInvoke = this.completionCallbacks;
+            this.completionCallbacks = null;
+        }
+
+        this.completionLatch.countDown();
+
+        for (CompletionCallback completionCallback : callbacksToInvoke)
+        {
+            completionCallback.callback.execute(status, completionCallback.callbackContext);
+        }
+    }
+
+    /**
+     * The operation cannot be withdrawn once handed to the transport, so this function does nothing.
+     *
+     * @param mayInterruptIfRunning ignored.
+     * @return false, always.
+     */
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning)
+    {
+        return false;
+    }
+
+    /**
+     * @return false, always.
+     */
+    @Override
+    public boolean isCancelled()
+    {
+        return false;
+    }
+
+    /**
+     * @return true if the operation completed.
+     */
+    @Override
+    public boolean isDone()
+    {
+        return this.completionLatch.getCount() == 0;
+    }
+
+    /**
+     * Waits for the operation to complete.
+     *
+     * @return the status code of the operation.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    @Override
+    public IotHubStatusCode get() throws InterruptedException
+    {
+        this.completionLatch.await();
+        return this.status;
+    }
+
+    /**
+     * Waits at most the provided time for the operation to complete.
+     *
+     * @param timeout the maximum time to wait.
+     * @param unit the time unit of the timeout.
+     * @return the status code of the operation.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     * @throws TimeoutException if the operation did not complete in time.
+     */
+    @Override
+    public IotHubStatusCode get(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException
+    {
+        if (!this.completionLatch.await(timeout, unit))
+        {
+            throw new TimeoutException("The operation did not complete in " + timeout + " " + unit);
+        }
+
+        return this.status;
+    }
+}
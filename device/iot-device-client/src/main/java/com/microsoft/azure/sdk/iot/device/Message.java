@@ -5,12 +5,11 @@ package com.microsoft.azure.sdk.iot.device;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.UUID;
 
 public class Message
 {
@@ -18,6 +17,8 @@ public class Message
 
     public static final Charset DEFAULT_IOTHUB_MESSAGE_CHARSET = StandardCharsets.UTF_8;
 
+    private static final MessageIdGenerator DEFAULT_MESSAGE_ID_GENERATOR = new RandomMessageIdGenerator();
+
 
     // ----- Data Fields -----
 
@@ -29,6 +30,12 @@ public class Message
      */
     private String messageId;
 
+    /**
+     * Whether the messageId was set or generated. It is generated when read, or when the message is sent by a client
+     * that has its own message ID generator.
+     */
+    private boolean messageIdAssigned;
+
     /// <summary>
     /// Destination of the message
     /// </summary>
@@ -39,16 +46,16 @@ public class Message
     /// </summary>
     private long expiryTime;
 
-    /// <summary>
-    /// Used by receiver to Abandon, Reject or Complete the message
-    /// </summary>
-    private String lockToken;
-
     /// <summary>
     /// Used in message responses and feedback
     /// </summary>
     private String correlationId;
 
+    /**
+     * Whether the correlationId was set or generated. Most messages never need one, so it is only generated when read.
+     */
+    private boolean correlationIdAssigned;
+
     /// <summary>
     /// [Required in feedback messages] Used to specify the entity creating the message.
     /// </summary>
@@ -110,6 +117,11 @@ public class Message
     /// </summary>
     private MessageType messageType;
 
+    /**
+     * [Optional] Used to override the priority derived from the message type.
+     */
+    private MessagePriority priority;
+
     /// <summary>
     /// [Optional] Used to specify the sender device client for multiplexing scenarios
     /// </summary>
@@ -120,7 +132,7 @@ public class Message
     /**
      * User-defined properties.
      */
-    private ArrayList<MessageProperty> properties;
+    private MessagePropertyMap properties;
 
     /// <summary>
     /// The message body
@@ -153,7 +165,8 @@ public class Message
     }
 
     /**
-     * Constructor.
+     * Constructor. The message takes ownership of the provided array, which is not copied and must not be modified
+     * afterwards.
      * @param body The body of the new Message instance.
      */
     public Message(byte[] body)
@@ -170,6 +183,34 @@ public class Message
         this.body = body;
     }
 
+    /**
+     * Constructor. The message takes ownership of the remaining bytes of the provided buffer, which must not be
+     * modified afterwards. If the buffer wraps a whole array, that array becomes the body of the message without being
+     * copied. Otherwise, for example for a slice or a direct buffer, the remaining bytes are copied once. The position
+     * of the provided buffer is not changed.
+     * @param body The body of the new Message instance.
+     * @throws IllegalArgumentException if the body is null.
+     */
+    public Message(ByteBuffer body) throws IllegalArgumentException
+    {
+        if (body == null)
+        {
+            throw new IllegalArgumentException("Message body cannot be 'null'.");
+        }
+
+        initialize();
+
+        if (body.hasArray() && body.arrayOffset() == 0 && body.position() == 0 && body.remaining() == body.array().length)
+        {
+            this.body = body.array();
+        }
+        else
+        {
+            this.body = new byte[body.remaining()];
+            body.duplicate().get(this.body);
+        }
+    }
+
     /**
      * Constructor.
      * @param body The body of the new Message instance. It is internally serialized to a byte array using UTF-8 encoding.
@@ -213,6 +254,35 @@ public class Message
         return bodyClone;
     }
 
+    /**
+     * A read-only view of the body, without copying it. Prefer it to {@link #getBytes()} for large bodies, or when
+     * the body is read more than once.
+     * @return A read-only buffer over this Message body, or null if it has no body.
+     */
+    public ByteBuffer getBodyBuffer()
+    {
+        return this.body == null ? null : ByteBuffer.wrap(this.body).asReadOnlyBuffer();
+    }
+
+    /**
+     * The body itself rather than a copy, for the transports to send it without copying. The array is shared with
+     * this message and must not be modified. Use {@link #getBodyBuffer()} to read the body safely without a copy.
+     * @return This Message body, or null if it has no body.
+     */
+    public byte[] getBytesWithoutCopy()
+    {
+        return this.body;
+    }
+
+    /**
+     * The size of the body, without copying it.
+     * @return The number of bytes in this Message body, or 0 if it has no body.
+     */
+    public int getBodyLength()
+    {
+        return this.body == null ? 0 : this.body.length;
+    }
+
     /**
      * Gets the values of user-defined properties of this Message.
      * @param name Name of the user-defined property to search for.
@@ -220,16 +290,7 @@ public class Message
      */
     public String getProperty(String name)
     {
-        MessageProperty messageProperty = null;
-
-        for (MessageProperty currentMessageProperty: this.properties)
-        {
-            if (currentMessageProperty.hasSameName(name))
-            {
-                messageProperty = currentMessageProperty;
-                break;
-            }
-        }
+        MessageProperty messageProperty = this.properties.get(name);
 
         // Codes_SRS_MESSAGE_11_034: [If no value associated with the property name is found, the function shall return null.]
         if (messageProperty == null) {
@@ -261,24 +322,7 @@ public class Message
         }
 
         // Codes_SRS_MESSAGE_11_026: [The function shall set the message property to the given value.]
-        MessageProperty messageProperty = null;
-
-        for (MessageProperty currentMessageProperty: this.properties)
-        {
-            if (currentMessageProperty.hasSameName(name))
-            {
-                messageProperty = currentMessageProperty;
-                break;
-            }
-        }
-
-        if (messageProperty != null)
-        {
-            this.properties.remove(messageProperty);
-        }
-
-        logger.LogInfo("Setting message property with name=%s and value=%s, method name is %s ", name, value, logger.getMethodName());
-        this.properties.add(new MessageProperty(name, value));
+        this.properties.put(new MessageProperty(name, value));
     }
 
     /**
@@ -288,7 +332,44 @@ public class Message
      */
     public MessageProperty[] getProperties() {
         // Codes_SRS_MESSAGE_11_033: [The function shall return a copy of the message properties.]
-        return properties.toArray(new MessageProperty[this.properties.size()]);
+        return this.properties.toArray();
+    }
+
+    /**
+     * The number of user-defined properties of this Message. Together with {@link #getPropertyAt(int)}, it iterates
+     * over the properties without the copy made by {@link #getProperties()}.
+     *
+     * @return the number of message properties.
+     */
+    public int getPropertyCount()
+    {
+        return this.properties.size();
+    }
+
+    /**
+     * Returns a user-defined property of this Message, in the order the properties were first set.
+     *
+     * @param index the position of the property, from 0 to {@link #getPropertyCount()} - 1.
+     * @return the message property at this position.
+     * @throws IllegalArgumentException if the index is out of range.
+     */
+    public MessageProperty getPropertyAt(int index) throws IllegalArgumentException
+    {
+        return this.properties.get(index);
+    }
+
+    /**
+     * Gives this message an ID from the provided generator, unless its ID was already set or read.
+     *
+     * @param generator the generator of the message ID.
+     */
+    void assignMessageId(MessageIdGenerator generator)
+    {
+        if (!this.messageIdAssigned)
+        {
+            this.messageId = generator.generateMessageId();
+            this.messageIdAssigned = true;
+        }
     }
 
     // ----- Private Methods -----
@@ -297,12 +378,9 @@ public class Message
      * Internal initializer method for a new Message instance.
      */
     private void initialize() {
-        this.lockToken = UUID.randomUUID().toString();
-        this.messageId = UUID.randomUUID().toString();
-        this.correlationId = UUID.randomUUID().toString();
         this.feedbackStatusCode = FeedbackStatusCodeEnum.none;
         this.ack = FeedbackStatusCodeEnum.none;
-        this.properties = new ArrayList<>();
+        this.properties = new MessagePropertyMap();
         this.logger = new CustomLogger(this.getClass());
     }
 
@@ -325,7 +403,7 @@ public class Message
             long currentTime = System.currentTimeMillis();
             if (currentTime > expiryTime)
             {
-                logger.LogWarn("The message with messageid %s expired on %s, method name is %s ", this.getMessageId(), new Date(), logger.getMethodName());
+                logger.LogWarn("The message with messageid %s expired on %s, method name is %s ", this.getMessageId(), new Date(), logger.getLazyMethodName());
                 messageExpired = true;
             }
             else
@@ -344,6 +422,7 @@ public class Message
     public String getMessageId()
     {
         // Codes_SRS_MESSAGE_34_043: [The function shall return the message's message Id.]
+        this.assignMessageId(DEFAULT_MESSAGE_ID_GENERATOR);
         return messageId;
     }
 
@@ -355,6 +434,7 @@ public class Message
     {
         // Codes_SRS_MESSAGE_34_044: [The function shall set the message's message ID to the provided value.]
         this.messageId = messageId;
+        this.messageIdAssigned = true;
     }
 
     /**
@@ -364,9 +444,26 @@ public class Message
     public String getCorrelationId()
     {
         // Codes_SRS_MESSAGE_34_045: [The function shall return the message's correlation ID.]
+        if (!this.correlationIdAssigned)
+        {
+            // the twin operations over AMQP parse it back as a UUID, so it does not come from the message ID generator
+            this.correlationId = RandomMessageIdGenerator.generateUuid().toString();
+            this.correlationIdAssigned = true;
+        }
+
         return correlationId;
     }
 
+    /**
+     * Checks if this message has a correlation ID, without generating one. Sending a message without one leaves the
+     * correlation ID out.
+     * @return true if the correlation ID was set to a value other than {@code null}, or was generated
+     */
+    public boolean hasCorrelationId()
+    {
+        return this.correlationIdAssigned && this.correlationId != null;
+    }
+
     /**
      * Setter for the correlationId property
      * @param correlationId The string containing the property value
@@ -375,6 +472,7 @@ public class Message
     {
         // Codes_SRS_MESSAGE_34_046: [The function shall set the message's correlation ID to the provided value.]
         this.correlationId = correlationId;
+        this.correlationIdAssigned = true;
     }
 
     /**
@@ -386,7 +484,16 @@ public class Message
         // Codes_SRS_MESSAGE_34_047: [The function shall set the message's expiry time.]
         long currentTime = System.currentTimeMillis();
         this.expiryTime = currentTime + timeOut;
-        logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), timeOut, new Date(this.expiryTime), logger.getMethodName());
+        logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), timeOut, new Date(this.expiryTime), logger.getLazyMethodName());
+    }
+
+    /**
+     * Getter for the expiryTime property
+     * @return The time, in milliseconds since the epoch, after which the message expires, or 0 if it never expires
+     */
+    public long getExpiryTime()
+    {
+        return this.expiryTime;
     }
 
     /**
@@ -403,7 +510,7 @@ public class Message
 
         // Codes_SRS_MESSAGE_34_037: [The function shall set the message's expiry time to be the number of milliseconds since the epoch provided in absoluteTimeout.]
         this.expiryTime = absoluteTimeout;
-        logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), absoluteTimeout, new Date(this.expiryTime), logger.getMethodName());
+        logger.LogInfo("The message with messageid %s has expiry time as %s milliseconds and the message will expire on %s, method name is %s ", this.getMessageId(), absoluteTimeout, new Date(this.expiryTime), logger.getLazyMethodName());
     }
 
     /**
@@ -426,6 +533,31 @@ public class Message
         this.messageType = type;
     }
 
+    /**
+     * Getter for the priority of this message. Unless it was set, twin and method messages have a high priority
+     * and all other messages have a normal priority.
+     * @return the priority of this message.
+     */
+    public MessagePriority getPriority()
+    {
+        if (this.priority != null)
+        {
+            return this.priority;
+        }
+
+        return this.messageType == MessageType.DEVICE_TWIN || this.messageType == MessageType.DEVICE_METHODS ?
+                MessagePriority.HIGH : MessagePriority.NORMAL;
+    }
+
+    /**
+     * Setter for the priority of this message.
+     * @param priority the priority of this message, or {@code null} to derive it from the message type.
+     */
+    public void setPriority(MessagePriority priority)
+    {
+        this.priority = priority;
+    }
+
     /**
      * Getter for the To system property
      * @return the To value
@@ -436,6 +568,15 @@ public class Message
         return this.to;
     }
 
+    /**
+     * Setter for the To system property
+     * @param to the To value, or {@code null} to leave it out
+     */
+    public void setTo(String to)
+    {
+        this.to = to;
+    }
+
     /**
      * Getter for the delivery acknowledgement system property
      * @return the delivery acknowledgement value
@@ -456,6 +597,15 @@ public class Message
         return this.userId;
     }
 
+    /**
+     * Setter for the User ID system property
+     * @param userId the User ID value, or {@code null} to leave it out
+     */
+    public void setUserId(String userId)
+    {
+        this.userId = userId;
+    }
+
     /**
      * Getter for the iotHubConnectionString property
      * @return the iotHubConnectionString value
@@ -0,0 +1,23 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * An interface for the generator of the default message IDs.
+ * <p>
+ * Every {@link Message} sent by a {@link DeviceClient} without an explicit message ID gets one from the generator
+ * set with {@link DeviceClient#setMessageIdGenerator(MessageIdGenerator)}, or a random UUID if the client has none.
+ * The generator is called from whichever thread sends the message, so implementations must be thread safe, and
+ * should not take a lock.
+ */
+public interface MessageIdGenerator
+{
+    /**
+     * Generates a message ID. Message IDs are sent as is over MQTT, AMQP and HTTPS, so they should only use the
+     * characters allowed by {@link Message#setMessageId(String)}, and stay under 128 characters.
+     *
+     * @return a new message ID, unique enough for the application to tell its messages apart.
+     */
+    String generateMessageId();
+}
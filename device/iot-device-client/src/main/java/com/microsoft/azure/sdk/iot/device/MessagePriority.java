@@ -0,0 +1,14 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+/**
+ * The lane a message waits in before it is sent. Messages in the high priority lane are sent ahead of the messages
+ * in the normal lane, weighted by the send drain policy so that the normal lane is never starved.
+ */
+public enum MessagePriority
+{
+    NORMAL,
+    HIGH
+}
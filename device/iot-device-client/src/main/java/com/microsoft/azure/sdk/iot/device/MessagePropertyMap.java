@@ -0,0 +1,160 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.Arrays;
+
+/**
+ * The user-defined properties of a {@link Message}, looked up by name in constant time and kept in insertion order.
+ *
+ * Names are compared ignoring case, like {@link MessageProperty#hasSameName(String)}. The properties are kept in an
+ * array, so iterating over them by index does not allocate, and indexed by an open addressing table of ints rather
+ * than a hash map of entries. The table is not thread safe, like the rest of the message.
+ */
+final class MessagePropertyMap
+{
+    private static final int INITIAL_CAPACITY = 8;
+    private static final MessageProperty[] EMPTY_PROPERTIES = new MessageProperty[0];
+    private static final int[] EMPTY_SLOTS = new int[0];
+
+    /* The properties in insertion order. */
+    private MessageProperty[] properties = EMPTY_PROPERTIES;
+    private int size;
+
+    /* Index + 1 of the property in each slot, 0 for an empty slot. Twice as long as properties, and a power of two. */
+    private int[] slots = EMPTY_SLOTS;
+
+    /**
+     * Getter for the number of properties.
+     *
+     * @return the number of properties.
+     */
+    int size()
+    {
+        return this.size;
+    }
+
+    /**
+     * Getter for the property at the provided position, in insertion order.
+     *
+     * @param index the position of the property, from 0 to {@link #size()} - 1.
+     * @return the property.
+     * @throws IllegalArgumentException if the index is out of range.
+     */
+    MessageProperty get(int index) throws IllegalArgumentException
+    {
+        if (index < 0 || index >= this.size)
+        {
+            throw new IllegalArgumentException("Property index " + index + " is out of range");
+        }
+
+        return this.properties[index];
+    }
+
+    /**
+     * Looks up a property by name, ignoring case.
+     *
+     * @param name the name of the property.
+     * @return the property, or null if there is none with this name.
+     */
+    MessageProperty get(String name)
+    {
+        if (name == null || this.size == 0)
+        {
+            return null;
+        }
+
+        int index = this.indexOf(name, hash(name));
+        return index < 0 ? null : this.properties[index];
+    }
+
+    /**
+     * Adds the provided property, or replaces the value of the property with the same name, which keeps its position.
+     *
+     * @param property the property to add.
+     */
+    void put(MessageProperty property)
+    {
+        int hash = hash(property.getName());
+        if (this.size > 0)
+        {
+            int index = this.indexOf(property.getName(), hash);
+            if (index >= 0)
+            {
+                this.properties[index] = property;
+                return;
+            }
+        }
+
+        if (this.size == this.properties.length)
+        {
+            this.grow();
+        }
+
+        this.properties[this.size] = property;
+        this.size++;
+        this.insertSlot(hash, this.size);
+    }
+
+    /**
+     * Copies the properties into a new array.
+     *
+     * @return the properties, in insertion order.
+     */
+    MessageProperty[] toArray()
+    {
+        return Arrays.copyOf(this.properties, this.size);
+    }
+
+    private int indexOf(String name, int hash)
+    {
+        int mask = this.slots.length - 1;
+        for (int slot = hash & mask; this.slots[slot] != 0; slot = (slot + 1) & mask)
+        {
+            MessageProperty property = this.properties[this.slots[slot] - 1];
+            if (property.hasSameName(name))
+            {
+                return this.slots[slot] - 1;
+            }
+        }
+
+        return -1;
+    }
+
+    private void insertSlot(int hash, int indexPlusOne)
+    {
+        int mask = this.slots.length - 1;
+        int slot = hash & mask;
+        while (this.slots[slot] != 0)
+        {
+            slot = (slot + 1) & mask;
+        }
+
+        this.slots[slot] = indexPlusOne;
+    }
+
+    private void grow()
+    {
+        int capacity = this.properties.length == 0 ? INITIAL_CAPACITY : this.properties.length * 2;
+        this.properties = Arrays.copyOf(this.properties, capacity);
+        this.slots = new int[capacity * 2];
+        for (int i = 0; i < this.size; i++)
+        {
+            this.insertSlot(hash(this.properties[i].getName()), i + 1);
+        }
+    }
+
+    /* A hash that is the same for names that are equal ignoring case, computed without allocating a lower case copy. */
+    private static int hash(String name)
+    {
+        int hash = 0;
+        for (int i = 0; i < name.length(); i++)
+        {
+            hash = 31 * hash + Character.toLowerCase(Character.toUpperCase(name.charAt(i)));
+        }
+
+        // spreads the high bits, since only the low ones pick the slot
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,38 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The default {@link MessageIdGenerator}. It generates random version 4 UUIDs, like {@link UUID#randomUUID()}, but
+ * from a per thread random generator rather than the shared secure one, so that threads creating messages in parallel
+ * do not wait on each other. The IDs are not suitable as secrets.
+ */
+public final class RandomMessageIdGenerator implements MessageIdGenerator
+{
+    private static final long VERSION_MASK = 0xFFFFFFFFFFFF0FFFL;
+    private static final long VERSION_4 = 0x0000000000004000L;
+    private static final long VARIANT_MASK = 0x3FFFFFFFFFFFFFFFL;
+    private static final long VARIANT_IETF = 0x8000000000000000L;
+
+    /**
+     * Generates a random UUID.
+     *
+     * @return a random UUID, in its string representation.
+     */
+    public String generateMessageId()
+    {
+        return generateUuid().toString();
+    }
+
+    static UUID generateUuid()
+    {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long mostSignificantBits = (random.nextLong() & VERSION_MASK) | VERSION_4;
+        long leastSignificantBits = (random.nextLong() & VARIANT_MASK) | VARIANT_IETF;
+        return new UUID(mostSignificantBits, leastSignificantBits);
+    }
+}
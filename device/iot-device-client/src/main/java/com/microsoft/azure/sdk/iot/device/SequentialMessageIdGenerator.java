@@ -0,0 +1,43 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link MessageIdGenerator} that appends a counter to a fixed prefix, such as "device1-0", "device1-1" and so on.
+ * It is the cheapest way to get unique message IDs, as long as the prefix is unique to the process, for example the
+ * device ID and the start time of the application.
+ */
+public final class SequentialMessageIdGenerator implements MessageIdGenerator
+{
+    private final String prefix;
+    private final AtomicLong counter = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param prefix the prefix of the generated IDs. Cannot be {@code null}.
+     * @throws IllegalArgumentException if the prefix is {@code null}.
+     */
+    public SequentialMessageIdGenerator(String prefix) throws IllegalArgumentException
+    {
+        if (prefix == null)
+        {
+            throw new IllegalArgumentException("Prefix cannot be null");
+        }
+
+        this.prefix = prefix;
+    }
+
+    /**
+     * Generates the next ID.
+     *
+     * @return the prefix followed by the next value of the counter.
+     */
+    public String generateMessageId()
+    {
+        return this.prefix + this.counter.getAndIncrement();
+    }
+}
@@ -1,6 +1,7 @@
 package com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.transport.RetryPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.TransportMetrics;
 
 import java.io.IOException;
 import java.util.ArrayList;
@@ -71,7 +72,7 @@ public class TransportClient
 
         this.logger = new CustomLogger(this.getClass());
 
-        logger.LogInfo("TransportClient object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("TransportClient object is created successfully, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -124,7 +125,7 @@ public class TransportClient
 
         this.transportClientState = TransportClientState.OPENED;
 
-        logger.LogInfo("TransportClient is opened successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("TransportClient is opened successfully, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -150,7 +151,7 @@ public class TransportClient
             this.deviceIO = null;
         }
 
-        logger.LogInfo("Connection closed with success, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Connection closed with success, method name is %s ", logger.getLazyMethodName());
     }
 
     /***
@@ -176,7 +177,24 @@ public class TransportClient
         // Codes_SRS_TRANSPORTCLIENT_12_018: [The function shall set the new interval on the underlying device IO it the transport client is not open.]
         this.deviceIO.setSendPeriodInMilliseconds(newIntervalInMilliseconds);
 
-        logger.LogInfo("Send interval updated successfully in the transport client, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Send interval updated successfully in the transport client, method name is %s ", logger.getLazyMethodName());
+    }
+
+    /**
+     * Getter for the metrics of the underlying transport, shared by all the registered device clients: the depths of
+     * its queues, how many messages were acknowledged and retried, how long acknowledgements and reconnections took.
+     *
+     * @return a snapshot of the transport metrics.
+     * @throws IllegalStateException if the transport client is not opened.
+     */
+    public TransportMetrics getMetrics() throws IllegalStateException
+    {
+        if ((this.transportClientState != TransportClientState.OPENED) || (deviceIO == null))
+        {
+            throw new IllegalStateException("TransportClient.getMetrics only works when the transport client is opened");
+        }
+
+        return this.deviceIO.getMetrics();
     }
 
     /**
@@ -201,7 +219,7 @@ public class TransportClient
             deviceClientList.get(i).getConfig().setRetryPolicy(retryPolicy);
         }
 
-        logger.LogInfo("Retry policy updated successfully in the transport client, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Retry policy updated successfully in the transport client, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -227,7 +245,7 @@ public class TransportClient
         // Codes_SRS_TRANSPORTCLIENT_12_007: [The function shall add the given device client to the deviceClientList.]
         this.deviceClientList.add(deviceClient);
 
-        logger.LogInfo("DeviceClient is added successfully to the transport client, method name is %s ", logger.getMethodName());
+        logger.LogInfo("DeviceClient is added successfully to the transport client, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -124,7 +124,7 @@ public final class FileUploadTask implements Runnable
         this.httpsTransportManager = httpsTransportManager;
 
         logger = new CustomLogger(this.getClass());
-        logger.LogInfo("HttpsFileUpload object is created successfully, method name is %s ", logger.getMethodName());
+        logger.LogInfo("HttpsFileUpload object is created successfully, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
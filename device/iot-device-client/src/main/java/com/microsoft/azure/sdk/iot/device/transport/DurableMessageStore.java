@@ -0,0 +1,500 @@
+/*
+ *
+ *  Copyright (c) Microsoft. All rights reserved.
+ *  Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ *
+ */
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessageProperty;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Append-only store of outbound messages, kept in memory-mapped segment files in a directory. Each message gets a
+ * record that stays pending until it is acknowledged. A segment file is deleted once all of its records are
+ * acknowledged. The records still pending when the store is opened are handed out, oldest first, for replay.
+ *
+ * Records are written to the page cache through the mapping, so they survive the process being killed. They are
+ * only forced to the storage device when a segment is full and when the store is closed.
+ *
+ * A record is laid out as a 4 byte payload length, a 1 byte state and the payload. The length is written last, so a
+ * record torn by a crash is never read back.
+ */
+public final class DurableMessageStore implements Closeable
+{
+    public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024; //4 MB
+
+    private static final String SEGMENT_FILE_PREFIX = "segment-";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+    private static final Pattern SEGMENT_FILE_PATTERN = Pattern.compile("^segment-(\\d{10})\\.log$");
+
+    private static final int RECORD_HEADER_SIZE = 5;
+    private static final byte RECORD_STATE_PENDING = 1;
+    private static final byte RECORD_STATE_ACKNOWLEDGED = 2;
+
+    private static final byte SERIALIZATION_VERSION = 1;
+
+    private final File directory;
+    private final int segmentSize;
+
+    /* Open segments by index. Only the active segment is appended to. */
+    private final Map<Integer, Segment> segments = new HashMap<>();
+    private Segment activeSegment;
+    private int nextSegmentIndex;
+
+    /* Records found pending when the store was opened, in the order they were appended. */
+    private final Queue<Long> replayRecordIds = new ArrayDeque<>();
+
+    private boolean closed;
+
+    private final CustomLogger logger;
+
+    private static final class Segment
+    {
+        private final int index;
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int writePosition;
+        private int pendingRecords;
+
+        private Segment(int index, File file, MappedByteBuffer buffer)
+        {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    /**
+     * Opens the store kept in the provided directory, creating the directory if needed. Segments whose records are
+     * all acknowledged are deleted, and the pending records are queued for replay.
+     *
+     * @param directory the directory of the segment files.
+     * @param segmentSize the size, in bytes, of a new segment file. A message larger than a segment gets a segment
+     *                    of its own.
+     * @throws IllegalArgumentException if the directory is null or if the segment size is not larger than a record
+     * header.
+     * @throws IOException if the directory or its segment files cannot be opened.
+     */
+    public DurableMessageStore(File directory, int segmentSize) throws IllegalArgumentException, IOException
+    {
+        if (directory == null)
+        {
+            throw new IllegalArgumentException("Directory cannot be null");
+        }
+
+        if (segmentSize <= RECORD_HEADER_SIZE)
+        {
+            throw new IllegalArgumentException("Segment size must be larger than " + RECORD_HEADER_SIZE + " bytes");
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs())
+        {
+            throw new IOException("Could not create the directory " + directory.getAbsolutePath());
+        }
+
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.logger = new CustomLogger(this.getClass());
+
+        this.loadSegments();
+    }
+
+    /**
+     * Appends a record for the provided message.
+     *
+     * @param message the message to store.
+     * @return the id of the new record, used to acknowledge it.
+     * @throws IOException if the store is closed or if the record cannot be written.
+     */
+    public synchronized long append(Message message) throws IOException
+    {
+        this.checkOpen();
+
+        byte[] payload = serialize(message);
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+
+        if (this.activeSegment == null || this.activeSegment.writePosition + recordSize > this.activeSegment.buffer.capacity())
+        {
+            this.rollActiveSegment(recordSize);
+        }
+
+        Segment segment = this.activeSegment;
+        int offset = segment.writePosition;
+
+        segment.buffer.put(offset + 4, RECORD_STATE_PENDING);
+        ByteBuffer payloadBuffer = segment.buffer.duplicate();
+        payloadBuffer.position(offset + RECORD_HEADER_SIZE);
+        payloadBuffer.put(payload);
+        // the length commits the record
+        segment.buffer.putInt(offset, payload.length);
+
+        segment.writePosition += recordSize;
+        segment.pendingRecords++;
+
+        return toRecordId(segment.index, offset);
+    }
+
+    /**
+     * Marks the record as acknowledged, so it will not be replayed. Deletes its segment file if this was the last
+     * pending record of a segment that is no longer appended to. Unknown and already acknowledged records are ignored.
+     *
+     * @param recordId the id of the record.
+     */
+    public synchronized void acknowledge(long recordId)
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        Segment segment = this.segments.get(getSegmentIndex(recordId));
+        if (segment == null)
+        {
+            return;
+        }
+
+        int offset = getOffset(recordId);
+        if (segment.buffer.get(offset + 4) != RECORD_STATE_PENDING)
+        {
+            return;
+        }
+
+        segment.buffer.put(offset + 4, RECORD_STATE_ACKNOWLEDGED);
+        segment.pendingRecords--;
+
+        if (segment.pendingRecords == 0 && segment != this.activeSegment)
+        {
+            this.deleteSegment(segment);
+        }
+    }
+
+    /**
+     * Hands out the next record to replay.
+     *
+     * @return the id of the oldest record found pending when the store was opened that was not handed out yet, or
+     * -1 if there is none.
+     */
+    public synchronized long nextReplayRecordId()
+    {
+        Long recordId = this.closed ? null : this.replayRecordIds.poll();
+        return recordId == null ? -1 : recordId;
+    }
+
+    /**
+     * @return true if some records found pending when the store was opened were not handed out yet.
+     */
+    public synchronized boolean hasReplayPending()
+    {
+        return !this.closed && !this.replayRecordIds.isEmpty();
+    }
+
+    /**
+     * Reads back the message of a record.
+     *
+     * @param recordId the id of the record.
+     * @return the message stored in the record.
+     * @throws IOException if the store is closed, if the record does not exist or if it cannot be decoded.
+     */
+    public synchronized Message read(long recordId) throws IOException
+    {
+        this.checkOpen();
+
+        Segment segment = this.segments.get(getSegmentIndex(recordId));
+        if (segment == null)
+        {
+            throw new IOException("Record " + recordId + " does not exist");
+        }
+
+        int offset = getOffset(recordId);
+        byte[] payload = new byte[segment.buffer.getInt(offset)];
+        ByteBuffer payloadBuffer = segment.buffer.duplicate();
+        payloadBuffer.position(offset + RECORD_HEADER_SIZE);
+        payloadBuffer.get(payload);
+
+        return deserialize(payload);
+    }
+
+    /**
+     * @return the number of records not acknowledged yet.
+     */
+    public synchronized int getPendingRecordCount()
+    {
+        int pendingRecords = 0;
+        for (Segment segment : this.segments.values())
+        {
+            pendingRecords += segment.pendingRecords;
+        }
+
+        return pendingRecords;
+    }
+
+    /**
+     * Forces the segments to the storage device and releases them. Pending records are kept for the next time the
+     * directory is opened.
+     */
+    @Override
+    public synchronized void close()
+    {
+        if (this.closed)
+        {
+            return;
+        }
+
+        for (Segment segment : this.segments.values())
+        {
+            segment.buffer.force();
+        }
+
+        this.segments.clear();
+        this.replayRecordIds.clear();
+        this.activeSegment = null;
+        this.closed = true;
+    }
+
+    private void loadSegments() throws IOException
+    {
+        File[] files = this.directory.listFiles();
+        if (files == null)
+        {
+            throw new IOException("Could not list the directory " + this.directory.getAbsolutePath());
+        }
+
+        SortedMap<Integer, File> segmentFiles = new TreeMap<>();
+        for (File file : files)
+        {
+            Matcher matcher = SEGMENT_FILE_PATTERN.matcher(file.getName());
+            if (matcher.matches())
+            {
+                segmentFiles.put(Integer.parseInt(matcher.group(1)), file);
+            }
+        }
+
+        for (Map.Entry<Integer, File> segmentFile : segmentFiles.entrySet())
+        {
+            Segment segment = new Segment(segmentFile.getKey(), segmentFile.getValue(), map(segmentFile.getValue(), segmentFile.getValue().length()));
+
+            int offset = 0;
+            while (offset + RECORD_HEADER_SIZE <= segment.buffer.capacity())
+            {
+                int payloadLength = segment.buffer.getInt(offset);
+                if (payloadLength <= 0 || payloadLength > segment.buffer.capacity() - offset - RECORD_HEADER_SIZE)
+                {
+                    // end of the written records, or a record torn by a crash
+                    break;
+                }
+
+                if (segment.buffer.get(offset + 4) == RECORD_STATE_PENDING)
+                {
+                    this.replayRecordIds.add(toRecordId(segment.index, offset));
+                    segment.pendingRecords++;
+                }
+
+                offset += RECORD_HEADER_SIZE + payloadLength;
+            }
+
+            segment.writePosition = offset;
+
+            if (segment.pendingRecords == 0)
+            {
+                this.deleteSegment(segment);
+            }
+            else
+            {
+                this.segments.put(segment.index, segment);
+            }
+
+            this.nextSegmentIndex = segment.index + 1;
+        }
+
+        if (!this.replayRecordIds.isEmpty())
+        {
+            logger.LogInfo("Found %d pending records to replay in %s, method name is %s ", this.replayRecordIds.size(), this.directory.getAbsolutePath(), logger.getLazyMethodName());
+        }
+    }
+
+    /* Starts a new segment large enough for the provided record. Records are never appended to segments of a previous session. */
+    private void rollActiveSegment(int recordSize) throws IOException
+    {
+        Segment previousSegment = this.activeSegment;
+        if (previousSegment != null)
+        {
+            previousSegment.buffer.force();
+            if (previousSegment.pendingRecords == 0)
+            {
+                this.deleteSegment(previousSegment);
+            }
+        }
+
+        int index = this.nextSegmentIndex++;
+        File file = new File(this.directory, String.format("%s%010d%s", SEGMENT_FILE_PREFIX, index, SEGMENT_FILE_SUFFIX));
+        Segment segment = new Segment(index, file, map(file, Math.max(this.segmentSize, recordSize)));
+        this.segments.put(index, segment);
+        this.activeSegment = segment;
+    }
+
+    private void deleteSegment(Segment segment)
+    {
+        this.segments.remove(segment.index);
+        if (!segment.file.delete())
+        {
+            // a mapped file cannot be deleted on some platforms, it is removed the next time the store is opened
+            logger.LogWarn("Could not delete the acknowledged segment %s, method name is %s ", segment.file.getName(), logger.getLazyMethodName());
+        }
+    }
+
+    private void checkOpen() throws IOException
+    {
+        if (this.closed)
+        {
+            throw new IOException("The durable message store is closed");
+        }
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException
+    {
+        RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try
+        {
+            // the mapping stays valid after the channel is closed
+            return randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        finally
+        {
+            randomAccessFile.close();
+        }
+    }
+
+    private static long toRecordId(int segmentIndex, int offset)
+    {
+        return ((long) segmentIndex << 32) | (offset & 0xFFFFFFFFL);
+    }
+
+    private static int getSegmentIndex(long recordId)
+    {
+        return (int) (recordId >>> 32);
+    }
+
+    private static int getOffset(long recordId)
+    {
+        return (int) recordId;
+    }
+
+    private static byte[] serialize(Message message) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + message.getBodyLength());
+        DataOutputStream output = new DataOutputStream(bytes);
+
+        output.writeByte(SERIALIZATION_VERSION);
+        writeNullableString(output, message.getMessageId());
+        writeNullableString(output, message.hasCorrelationId() ? message.getCorrelationId() : null);
+        output.writeLong(message.getExpiryTime());
+        writeNullableString(output, message.getTo());
+        writeNullableString(output, message.getUserId());
+
+        int propertyCount = message.getPropertyCount();
+        output.writeInt(propertyCount);
+        for (int i = 0; i < propertyCount; i++)
+        {
+            MessageProperty property = message.getPropertyAt(i);
+            output.writeUTF(property.getName());
+            output.writeUTF(property.getValue());
+        }
+
+        byte[] body = message.getBytesWithoutCopy();
+        if (body == null)
+        {
+            output.writeInt(-1);
+        }
+        else
+        {
+            output.writeInt(body.length);
+            output.write(body);
+        }
+
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    private static Message deserialize(byte[] payload) throws IOException
+    {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload));
+
+        byte version = input.readByte();
+        if (version != SERIALIZATION_VERSION)
+        {
+            throw new IOException("Unknown record version " + version);
+        }
+
+        String messageId = readNullableString(input);
+        String correlationId = readNullableString(input);
+        long expiryTime = input.readLong();
+        String to = readNullableString(input);
+        String userId = readNullableString(input);
+
+        int propertyCount = input.readInt();
+        String[] propertyNames = new String[propertyCount];
+        String[] propertyValues = new String[propertyCount];
+        for (int i = 0; i < propertyCount; i++)
+        {
+            propertyNames[i] = input.readUTF();
+            propertyValues[i] = input.readUTF();
+        }
+
+        int bodyLength = input.readInt();
+        Message message;
+        if (bodyLength < 0)
+        {
+            message = new Message();
+        }
+        else
+        {
+            byte[] body = new byte[bodyLength];
+            input.readFully(body);
+            message = new Message(body);
+        }
+
+        message.setMessageId(messageId);
+        if (correlationId != null)
+        {
+            message.setCorrelationId(correlationId);
+        }
+        message.setTo(to);
+        message.setUserId(userId);
+        if (expiryTime != 0)
+        {
+            message.setAbsoluteExpiryTime(expiryTime);
+        }
+
+        for (int i = 0; i < propertyCount; i++)
+        {
+            message.setProperty(propertyNames[i], propertyValues[i]);
+        }
+
+        return message;
+    }
+
+    private static void writeNullableString(DataOutputStream output, String value) throws IOException
+    {
+        output.writeBoolean(value != null);
+        if (value != null)
+        {
+            output.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInputStream input) throws IOException
+    {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+}
@@ -0,0 +1,401 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * A hashed timing wheel for the many short lived timeouts of a transport, such as message retries and expiries.
+ *
+ * Timeouts are hashed by deadline into a fixed number of buckets, one per tick. Adding or cancelling a timeout is
+ * O(1) and does not take a lock, and each {@link #tick()} only looks at the buckets whose time has come, so the cost
+ * does not grow with the number of pending timeouts the way one scheduled task per timeout does. The price is
+ * precision: a timeout runs on the first tick at or after its deadline.
+ *
+ * The wheel has no thread of its own. The owner calls {@link #tick()} periodically, from one thread at a time, and
+ * the tasks run on that thread, so they should be short. The owner can stop ticking while
+ * {@link #getPendingTimeoutCount()} is 0, and resume once a timeout is added; the ticks it skipped are caught up.
+ */
+public final class HashedWheelTimer
+{
+    /** The default time between two ticks, in milliseconds. */
+    public static final long DEFAULT_TICK_MILLISECONDS = 100;
+
+    /** The default number of buckets, which makes one turn of the wheel last 51.2 seconds at the default tick. */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    private final long tickMilliseconds;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final long startNanos;
+
+    /* Timeouts added since the last tick. They are hashed into the wheel by the ticking thread. */
+    private final Queue<Timeout> newTimeouts = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingTimeoutCount = new AtomicInteger();
+
+    /* The last tick whose bucket was processed. Only used while holding the lock of this object. */
+    private long lastTick;
+
+    /* The tasks that expired on the current tick. Reused by every tick, since only one thread ticks at a time. */
+    private final List<Runnable> expiredTasks = new ArrayList<>();
+
+    private final CustomLogger logger;
+
+    /**
+     * The handle of a task scheduled with {@link #newTimeout(Runnable, long)}.
+     */
+    public static final class Timeout
+    {
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final HashedWheelTimer timer;
+        private final long deadlineMillis;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final AtomicReference<Runnable> task;
+
+        /* Next timeout in the same bucket. Only used by the ticking thread. */
+        private Timeout next;
+
+        private Timeout(HashedWheelTimer timer, Runnable task, long deadlineMillis)
+        {
+            this.timer = timer;
+            this.task = new AtomicReference<>(task);
+            this.deadlineMillis = deadlineMillis;
+        }
+
+        /**
+         * Cancels the task if it has not run yet. The task is released right away, the slot in the wheel is
+         * reclaimed on a later tick.
+         *
+         * @return true if the task was cancelled, false if it already ran or was already cancelled.
+         */
+        public boolean cancel()
+        {
+            if (!this.state.compareAndSet(PENDING, CANCELLED))
+            {
+                return false;
+            }
+
+            this.task.set(null);
+            this.timer.pendingTimeoutCount.decrementAndGet();
+            return true;
+        }
+
+        /**
+         * @return true if the task was cancelled before it ran.
+         */
+        public boolean isCancelled()
+        {
+            return this.state.get() == CANCELLED;
+        }
+
+        /**
+         * @return true if the task ran, or is running.
+         */
+        public boolean isExpired()
+        {
+            return this.state.get() == EXPIRED;
+        }
+
+        private Runnable expire()
+        {
+            if (!this.state.compareAndSet(PENDING, EXPIRED))
+            {
+                return null;
+            }
+
+            this.timer.pendingTimeoutCount.decrementAndGet();
+            return this.task.getAndSet(null);
+        }
+    }
+
+    /* An intrusive singly linked list of timeouts, so that bucketing a timeout does not allocate. */
+    private static final class Bucket
+    {
+        private Timeout head;
+
+        private void add(Timeout timeout)
+        {
+            timeout.next = this.head;
+            this.head = timeout;
+        }
+    }
+
+    /**
+     * Constructor for a wheel with the default tick and size.
+     */
+    public HashedWheelTimer()
+    {
+        this(DEFAULT_TICK_MILLISECONDS, DEFAULT_WHEEL_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param tickMilliseconds the time between two ticks, which is the precision of the timeouts. Must be positive.
+     * @param wheelSize the number of buckets of the wheel. Must be positive, and is rounded up to a power of two.
+     * @throws IllegalArgumentException if the tick or the wheel size is not positive.
+     */
+    public HashedWheelTimer(long tickMilliseconds, int wheelSize) throws IllegalArgumentException
+    {
+        if (tickMilliseconds <= 0)
+        {
+            throw new IllegalArgumentException("Tick duration must be positive");
+        }
+
+        if (wheelSize <= 0 || wheelSize > (1 << 30))
+        {
+            throw new IllegalArgumentException("Wheel size must be positive and at most 2^30");
+        }
+
+        int normalizedWheelSize = Integer.highestOneBit(wheelSize);
+        if (normalizedWheelSize < wheelSize)
+        {
+            normalizedWheelSize <<= 1;
+        }
+
+        this.tickMilliseconds = tickMilliseconds;
+        this.wheel = new Bucket[normalizedWheelSize];
+        for (int i = 0; i < normalizedWheelSize; i++)
+        {
+            this.wheel[i] = new Bucket();
+        }
+
+        this.mask = normalizedWheelSize - 1;
+        this.startNanos = System.nanoTime();
+        this.logger = new CustomLogger(this.getClass());
+    }
+
+    /**
+     * Getter for the time between two ticks.
+     *
+     * @return the tick duration, in milliseconds.
+     */
+    public long getTickMilliseconds()
+    {
+        return this.tickMilliseconds;
+    }
+
+    /**
+     * Getter for the number of timeouts that were neither run nor cancelled.
+     *
+     * @return the number of pending timeouts.
+     */
+    public int getPendingTimeoutCount()
+    {
+        return this.pendingTimeoutCount.get();
+    }
+
+    /**
+     * Schedules the provided task to run on the first tick after the provided delay.
+     *
+     * @param task the task to run. Cannot be {@code null}.
+     * @param delayMilliseconds the delay, in milliseconds. Zero or negative delays run on the next tick.
+     * @return the handle of the scheduled task.
+     * @throws IllegalArgumentException if the task is {@code null}.
+     */
+    public Timeout newTimeout(Runnable task, long delayMilliseconds) throws IllegalArgumentException
+    {
+        if (task == null)
+        {
+            throw new IllegalArgumentException("Task cannot be null");
+        }
+
+        long nowMillis = this.elapsedMillis();
+        long deadlineMillis;
+        if (delayMilliseconds <= 0)
+        {
+            deadlineMillis = nowMillis;
+        }
+        else if (delayMilliseconds > Long.MAX_VALUE - nowMillis)
+        {
+            deadlineMillis = Long.MAX_VALUE;
+        }
+        else
+        {
+            deadlineMillis = nowMillis + delayMilliseconds;
+        }
+
+        Timeout timeout = new Timeout(this, task, deadlineMillis);
+        this.pendingTimeoutCount.incrementAndGet();
+        this.newTimeouts.add(timeout);
+        return timeout;
+    }
+
+    /**
+     * Runs the tasks whose deadline has passed, on the calling thread. A task that throws is logged and does not stop
+     * the ones after it.
+     */
+    public void tick()
+    {
+        List<Runnable> expiredTasks = this.expiredTasks;
+
+        synchronized (this)
+        {
+            long nowMillis = this.elapsedMillis();
+            long currentTick = nowMillis / this.tickMilliseconds;
+
+            this.transferNewTimeouts(nowMillis, expiredTasks);
+
+            // each bucket is looked at once at most, even if the ticks fell behind by more than a turn of the wheel
+            long ticksToProcess = Math.min(currentTick - this.lastTick, this.wheel.length);
+            for (long tick = currentTick - ticksToProcess + 1; tick <= currentTick; tick++)
+            {
+                this.expireTimeouts(this.wheel[(int) (tick & this.mask)], nowMillis, expiredTasks);
+            }
+
+            this.lastTick = Math.max(this.lastTick, currentTick);
+        }
+
+        try
+        {
+            for (Runnable task : expiredTasks)
+            {
+                try
+                {
+                    task.run();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.LogError("A timer task threw an exception, method name is %s ", logger.getLazyMethodName());
+                    logger.LogError(e);
+                }
+            }
+        }
+        finally
+        {
+            expiredTasks.clear();
+        }
+    }
+
+    /**
+     * Cancels all the pending timeouts.
+     *
+     * @return the tasks of the cancelled timeouts, which did not run.
+     */
+    public List<Runnable> cancelAll()
+    {
+        List<Runnable> cancelledTasks = new ArrayList<>();
+
+        synchronized (this)
+        {
+            Timeout timeout;
+            while ((timeout = this.newTimeouts.poll()) != null)
+            {
+                cancelInto(timeout, cancelledTasks);
+            }
+
+            for (Bucket bucket : this.wheel)
+            {
+                for (timeout = bucket.head; timeout != null; timeout = timeout.next)
+                {
+                    cancelInto(timeout, cancelledTasks);
+                }
+
+                bucket.head = null;
+            }
+        }
+
+        return cancelledTasks;
+    }
+
+    private static void cancelInto(Timeout timeout, List<Runnable> cancelledTasks)
+    {
+        Runnable task = timeout.task.get();
+        if (timeout.cancel() && task != null)
+        {
+            cancelledTasks.add(task);
+        }
+    }
+
+    private void transferNewTimeouts(long nowMillis, List<Runnable> expiredTasks)
+    {
+        Timeout timeout;
+        while ((timeout = this.newTimeouts.poll()) != null)
+        {
+            if (timeout.isCancelled())
+            {
+                continue;
+            }
+
+            if (timeout.deadlineMillis <= nowMillis)
+            {
+                this.addExpiredTask(timeout, expiredTasks);
+                continue;
+            }
+
+            // rounding up puts the timeout in a bucket after the current tick, which is only reached once the
+            // deadline has passed
+            long deadlineTick = timeout.deadlineMillis / this.tickMilliseconds;
+            if (timeout.deadlineMillis % this.tickMilliseconds != 0)
+            {
+                deadlineTick++;
+            }
+
+            this.wheel[(int) (deadlineTick & this.mask)].add(timeout);
+        }
+    }
+
+    private void expireTimeouts(Bucket bucket, long nowMillis, List<Runnable> expiredTasks)
+    {
+        Timeout previous = null;
+        Timeout timeout = bucket.head;
+        while (timeout != null)
+        {
+            Timeout next = timeout.next;
+            boolean remove = timeout.isCancelled();
+            if (!remove && timeout.deadlineMillis <= nowMillis)
+            {
+                this.addExpiredTask(timeout, expiredTasks);
+                remove = true;
+            }
+
+            if (remove)
+            {
+                if (previous == null)
+                {
+                    bucket.head = next;
+                }
+                else
+                {
+                    previous.next = next;
+                }
+
+                timeout.next = null;
+            }
+            else
+            {
+                // a timeout for a later turn of the wheel
+                previous = timeout;
+            }
+
+            timeout = next;
+        }
+    }
+
+    private void addExpiredTask(Timeout timeout, List<Runnable> expiredTasks)
+    {
+        Runnable task = timeout.expire();
+        if (task != null)
+        {
+            expiredTasks.add(task);
+        }
+    }
+
+    private long elapsedMillis()
+    {
+        return NANOSECONDS.toMillis(System.nanoTime() - this.startNanos);
+    }
+}
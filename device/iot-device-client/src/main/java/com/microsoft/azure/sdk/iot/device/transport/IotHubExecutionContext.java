@@ -0,0 +1,205 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import java.io.Closeable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Threads shared by the clients that opt into it, in place of the threads each client creates for itself.
+ *
+ * The timing of the work of the clients, such as the periodic ticks, the message retries and timeouts and the token
+ * renewals, runs on a fixed set of scheduler threads, one per processor by default. That work never blocks for long,
+ * so many clients can share a few threads. The work that can block, such as the send and receive tasks, which wait
+ * on the network, and AMQP reconnections, runs on a second pool whose threads only live while there is such work to
+ * do, so that a client blocked on its connection does not hold up the others.
+ *
+ * The blocking pool is bounded. It runs at most {@link #DEFAULT_MAX_BLOCKING_THREADS} threads by default, and holds
+ * at most {@link #DEFAULT_BLOCKING_QUEUE_CAPACITY} tasks waiting for one of them. Work submitted while both are full
+ * is rejected: a client skips that run of its send or receive task and tries again on its next period, and an AMQP
+ * reconnection falls back to a thread of its own. Contexts shared by many clients on slow networks can raise both
+ * limits through the constructor.
+ *
+ * The context is created and closed by the application, and can be shared by any number of clients. The clients do
+ * not shut it down. Its threads are daemon threads, so a context that is never closed does not keep the JVM alive.
+ */
+public final class IotHubExecutionContext implements Closeable
+{
+    /**
+     * The default maximum number of threads running blocking work.
+     */
+    public static final int DEFAULT_MAX_BLOCKING_THREADS = 64;
+
+    /**
+     * The default maximum number of blocking tasks waiting for a thread.
+     */
+    public static final int DEFAULT_BLOCKING_QUEUE_CAPACITY = 1024;
+
+    private static final String THREAD_NAME_PREFIX = "azure-iot-sdk-shared-";
+    private static final long BLOCKING_THREAD_KEEP_ALIVE_SECONDS = 60;
+
+    private final int threadCount;
+    private final int maxBlockingThreadCount;
+    private final int blockingQueueCapacity;
+    private final ScheduledThreadPoolExecutor scheduler;
+    private final ThreadPoolExecutor blockingExecutor;
+
+    /**
+     * Constructor with one scheduler thread per available processor.
+     */
+    public IotHubExecutionContext()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor with the default limits of the blocking pool.
+     *
+     * @param threadCount the number of scheduler threads shared by the clients.
+     * @throws IllegalArgumentException if the thread count is 0 or negative.
+     */
+    public IotHubExecutionContext(int threadCount) throws IllegalArgumentException
+    {
+        this(threadCount, DEFAULT_MAX_BLOCKING_THREADS, DEFAULT_BLOCKING_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param threadCount the number of scheduler threads shared by the clients.
+     * @param maxBlockingThreadCount the maximum number of threads running blocking work.
+     * @param blockingQueueCapacity the maximum number of blocking tasks waiting for a thread.
+     * @throws IllegalArgumentException if any of the counts is 0 or negative.
+     */
+    public IotHubExecutionContext(int threadCount, int maxBlockingThreadCount, int blockingQueueCapacity) throws IllegalArgumentException
+    {
+        if (threadCount <= 0)
+        {
+            throw new IllegalArgumentException("Thread count cannot be 0 or negative");
+        }
+
+        if (maxBlockingThreadCount <= 0)
+        {
+            throw new IllegalArgumentException("Maximum blocking thread count cannot be 0 or negative");
+        }
+
+        if (blockingQueueCapacity <= 0)
+        {
+            throw new IllegalArgumentException("Blocking queue capacity cannot be 0 or negative");
+        }
+
+        this.threadCount = threadCount;
+        this.maxBlockingThreadCount = maxBlockingThreadCount;
+        this.blockingQueueCapacity = blockingQueueCapacity;
+        this.scheduler = new ScheduledThreadPoolExecutor(threadCount, new SharedThreadFactory("scheduler-"));
+
+        // clients cancel their periodic tasks when they close, which should not leave the tasks in the work queue
+        this.scheduler.setRemoveOnCancelPolicy(true);
+
+        // a pool grows past its core size only once its queue is full, so the core size is the maximum, and the core
+        // threads time out so that they only live while there is blocking work to do
+        this.blockingExecutor = new ThreadPoolExecutor(maxBlockingThreadCount, maxBlockingThreadCount,
+                BLOCKING_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(blockingQueueCapacity),
+                new SharedThreadFactory("blocking-"));
+        this.blockingExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Getter for the number of scheduler threads.
+     *
+     * @return the number of scheduler threads shared by the clients.
+     */
+    public int getThreadCount()
+    {
+        return this.threadCount;
+    }
+
+    /**
+     * Getter for the maximum number of threads running blocking work.
+     *
+     * @return the maximum number of blocking threads.
+     */
+    public int getMaxBlockingThreadCount()
+    {
+        return this.maxBlockingThreadCount;
+    }
+
+    /**
+     * Getter for the maximum number of blocking tasks waiting for a thread.
+     *
+     * @return the capacity of the blocking work queue.
+     */
+    public int getBlockingQueueCapacity()
+    {
+        return this.blockingQueueCapacity;
+    }
+
+    /**
+     * Getter for the scheduler that runs the short, periodic work of the clients. It is owned by this context and
+     * shall not be shut down by its users.
+     *
+     * @return the shared scheduler.
+     */
+    public ScheduledExecutorService getScheduler()
+    {
+        return this.scheduler;
+    }
+
+    /**
+     * Getter for the executor that runs the work of the clients that can block, such as sends and receives. It is
+     * owned by this context and shall not be shut down by its users. It rejects work submitted while its threads
+     * and its queue are full.
+     *
+     * @return the shared executor for blocking work.
+     */
+    public ExecutorService getBlockingExecutor()
+    {
+        return this.blockingExecutor;
+    }
+
+    /**
+     * @return true if this context was closed.
+     */
+    public boolean isClosed()
+    {
+        return this.scheduler.isShutdown();
+    }
+
+    /**
+     * Stops the shared threads. The clients using this context should be closed first.
+     */
+    @Override
+    public void close()
+    {
+        this.scheduler.shutdownNow();
+        this.blockingExecutor.shutdownNow();
+    }
+
+    private static final class SharedThreadFactory implements ThreadFactory
+    {
+        private final String namePrefix;
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        private SharedThreadFactory(String poolName)
+        {
+            this.namePrefix = THREAD_NAME_PREFIX + poolName;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable)
+        {
+            Thread thread = new Thread(runnable, this.namePrefix + this.threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -23,6 +23,13 @@ public interface IotHubListener
      */
     void onMessageSent(Message message, Throwable e);
 
+    /**
+     * Callback to be fired when a message that the protocol client queued has been handed over to the protocol for
+     * sending, for example once an AMQP link had credit for it. Protocol clients that send right away do not fire it.
+     * @param message The message that was handed over
+     */
+    void onMessageTransmitted(Message message);
+
     /**
      * Callback to be fired when a transport message has been received.
      * @param transportMessage The message that was received. May be null if e is not null
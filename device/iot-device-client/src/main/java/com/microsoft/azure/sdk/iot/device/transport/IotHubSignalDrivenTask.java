@@ -0,0 +1,246 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a transport task every time its work signal is raised, and parks the thread in between. Meant to be
+ * submitted once to an executor in place of scheduling the task at a fixed rate. The loop runs until
+ * {@link #stop()} is called.
+ *
+ * Alternatively, {@link #dispatchOn(ScheduledExecutorService, Executor)} runs the task without holding a thread: each
+ * raise of the signal submits a single run of the task to a shared executor, and no thread is parked while there is
+ * nothing to do.
+ */
+public final class IotHubSignalDrivenTask implements Runnable
+{
+    private final Runnable task;
+    private final IotHubWorkSignal workSignal;
+    private volatile long maxWaitInMilliseconds;
+    private volatile boolean stopped;
+
+    /* Set in dispatched mode, where each run of this object is a single run of the task. */
+    private volatile ScheduledExecutorService dispatchScheduler;
+    private volatile Executor dispatchExecutor;
+    private final AtomicBoolean dispatched = new AtomicBoolean();
+    private ScheduledFuture<?> maxWaitFuture;
+    private final Object maxWaitLock = new Object();
+
+    private final Runnable wakeUp = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            dispatch();
+        }
+    };
+
+    /**
+     * Private logger for class
+     */
+    private final CustomLogger logger = new CustomLogger(this.getClass());
+
+    /**
+     * Constructor.
+     *
+     * @param task the task to run each time there is work to do.
+     * @param workSignal the signal raised by the transport when there is work for the task.
+     * @param maxWaitInMilliseconds the longest time the loop stays parked without a signal before running the
+     *                              task anyway, or 0 to park until signaled.
+     * @throws IllegalArgumentException if the task or the work signal is null, or if the max wait is negative.
+     */
+    public IotHubSignalDrivenTask(Runnable task, IotHubWorkSignal workSignal, long maxWaitInMilliseconds)
+    {
+        if (task == null || workSignal == null)
+        {
+            throw new IllegalArgumentException("Parameters 'task' and 'workSignal' must not be null");
+        }
+
+        this.task = task;
+        this.workSignal = workSignal;
+        this.setMaxWaitInMilliseconds(maxWaitInMilliseconds);
+    }
+
+    /**
+     * Setter for the longest time the loop stays parked without a signal.
+     *
+     * @param maxWaitInMilliseconds the new max wait in milliseconds, or 0 to park until signaled.
+     * @throws IllegalArgumentException if the provided value is negative.
+     */
+    public void setMaxWaitInMilliseconds(long maxWaitInMilliseconds)
+    {
+        if (maxWaitInMilliseconds < 0)
+        {
+            throw new IllegalArgumentException("max wait can not be negative");
+        }
+
+        this.maxWaitInMilliseconds = maxWaitInMilliseconds;
+
+        if (this.dispatchScheduler != null)
+        {
+            this.scheduleMaxWait();
+        }
+    }
+
+    /**
+     * Runs the task on the provided scheduler each time the work signal is raised, and at least every max wait,
+     * without parking a thread in between. The scheduler is not shut down by {@link #stop()}.
+     *
+     * @param scheduler the scheduler to run the task on.
+     * @throws IllegalArgumentException if the scheduler is null.
+     * @throws IllegalStateException if the task was already dispatched.
+     */
+    public void dispatchOn(ScheduledExecutorService scheduler)
+    {
+        this.dispatchOn(scheduler, scheduler);
+    }
+
+    /**
+     * Runs the task on the provided executor each time the work signal is raised, and at least every max wait,
+     * without parking a thread in between. The scheduler only times the max wait, so the task can block without
+     * holding up the other work of the scheduler. Neither is shut down by {@link #stop()}.
+     *
+     * @param scheduler the scheduler that times the max wait.
+     * @param executor the executor to run the task on.
+     * @throws IllegalArgumentException if the scheduler or the executor is null.
+     * @throws IllegalStateException if the task was already dispatched.
+     */
+    public void dispatchOn(ScheduledExecutorService scheduler, Executor executor)
+    {
+        if (scheduler == null || executor == null)
+        {
+            throw new IllegalArgumentException("Scheduler and executor cannot be null");
+        }
+
+        if (this.dispatchScheduler != null)
+        {
+            throw new IllegalStateException("The task is already dispatched");
+        }
+
+        this.dispatchExecutor = executor;
+        this.dispatchScheduler = scheduler;
+        this.workSignal.setListener(this.wakeUp);
+        this.scheduleMaxWait();
+
+        // first run, like the loop does before it parks
+        this.dispatch();
+    }
+
+    /**
+     * Stops the loop. The task currently running, if any, is allowed to finish.
+     */
+    public void stop()
+    {
+        this.stopped = true;
+
+        if (this.dispatchScheduler != null)
+        {
+            this.workSignal.setListener(null);
+            synchronized (this.maxWaitLock)
+            {
+                if (this.maxWaitFuture != null)
+                {
+                    this.maxWaitFuture.cancel(false);
+                    this.maxWaitFuture = null;
+                }
+            }
+        }
+
+        this.workSignal.signal();
+    }
+
+    public void run()
+    {
+        if (this.dispatchScheduler != null)
+        {
+            this.runOnce();
+            return;
+        }
+
+        while (!this.stopped)
+        {
+            this.task.run();
+
+            try
+            {
+                this.workSignal.await(this.maxWaitInMilliseconds);
+            }
+            catch (InterruptedException e)
+            {
+                logger.LogDebug("Signal driven task interrupted, stopping", e);
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private void runOnce()
+    {
+        // a signal raised from here on triggers another run
+        this.workSignal.clear();
+
+        try
+        {
+            if (!this.stopped)
+            {
+                this.task.run();
+            }
+        }
+        finally
+        {
+            this.dispatched.set(false);
+        }
+
+        // the listener could not dispatch while this run was in progress
+        if (this.workSignal.isSignaled())
+        {
+            this.dispatch();
+        }
+    }
+
+    private void dispatch()
+    {
+        // a single run at a time, so the task never overlaps itself
+        if (this.stopped || !this.dispatched.compareAndSet(false, true))
+        {
+            return;
+        }
+
+        try
+        {
+            this.dispatchExecutor.execute(this);
+        }
+        catch (RejectedExecutionException e)
+        {
+            this.dispatched.set(false);
+            logger.LogError("The shared executor rejected the signal driven task, method name is %s ", logger.getLazyMethodName());
+        }
+    }
+
+    private void scheduleMaxWait()
+    {
+        synchronized (this.maxWaitLock)
+        {
+            if (this.maxWaitFuture != null)
+            {
+                this.maxWaitFuture.cancel(false);
+                this.maxWaitFuture = null;
+            }
+
+            long maxWait = this.maxWaitInMilliseconds;
+            if (maxWait > 0 && !this.stopped)
+            {
+                this.maxWaitFuture = this.dispatchScheduler.scheduleWithFixedDelay(this.wakeUp, maxWait, maxWait, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+}
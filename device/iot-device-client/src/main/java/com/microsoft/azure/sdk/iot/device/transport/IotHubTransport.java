@@ -15,11 +15,17 @@ import com.microsoft.azure.sdk.iot.device.transport.https.HttpsIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.MqttIotHubConnection;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.exceptions.MqttUnauthorizedException;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Collection;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static java.util.concurrent.TimeUnit.NANOSECONDS;
@@ -29,12 +35,16 @@ import static java.util.concurrent.TimeUnit.NANOSECONDS;
  */
 public class IotHubTransport implements IotHubListener
 {
-    private static final int MAX_MESSAGES_TO_SEND_PER_THREAD = 10;
     private IotHubConnectionStatus connectionStatus;
     private IotHubTransportConnection iotHubTransportConnection;
 
-    /* Messages waiting to be sent to the IoT Hub. */
+    /* Messages waiting to be sent to the IoT Hub, in two lanes. High priority messages are sent ahead of the
+     * normal ones, weighted by the send drain policy. */
     private final Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+    private final Queue<IotHubTransportPacket> priorityPacketsQueue = new ConcurrentLinkedQueue<>();
+
+    /* High priority packets sent since the last normal packet. Only used by the thread calling sendMessages. */
+    private int priorityPacketsInARow;
 
     /* Messages which are sent to the IoT Hub but did not receive ack yet. */
     private final Map<String, IotHubTransportPacket> inProgressPackets = new ConcurrentHashMap<>();
@@ -45,6 +55,10 @@ public class IotHubTransport implements IotHubListener
     /* Messages whose callbacks that are waiting to be invoked. */
     private final Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
 
+    /* Raised when there are packets to send or callbacks to invoke, and when received messages are queued. */
+    private final IotHubWorkSignal sendWorkSignal = new IotHubWorkSignal();
+    private final IotHubWorkSignal receiveWorkSignal = new IotHubWorkSignal();
+
     /*Connection Status callback information (deprecated)*/
     private IotHubConnectionStateCallback stateCallback;
     private Object stateCallbackContext;
@@ -59,10 +73,70 @@ public class IotHubTransport implements IotHubListener
     private DeviceClientConfig defaultConfig;
     private Queue<DeviceClientConfig> deviceClientConfigs;
 
+    /* Message budget of the next sendMessages call, adapted by the send drain policy. */
+    private int messagesPerDrain;
+
+    /* Messages, and their payload bytes, added but whose callback is not queued yet. Bounded by the outbound queue policy. */
+    private final AtomicInteger pendingMessageCount = new AtomicInteger();
+    private final AtomicLong pendingMessageBytes = new AtomicLong();
+
+    //Lock on admitting packets against the outbound queue policy, and on waiting for room in BLOCK mode
+    final private Object outboundCapacityLock = new Object();
+    private volatile int outboundCapacityWaiters;
+
+    /* Optional on-disk copy of the telemetry packets, kept until they complete and replayed on a later open if they
+     * were cancelled by a close or lost to a process restart. */
+    private volatile DurableMessageStore durableMessageStore;
+    private final Map<IotHubTransportPacket, Long> durableRecordIds = new ConcurrentHashMap<>();
+
+    /* The persisted packets added while the records of a previous session are still being replayed. They wait here,
+     * in order, until the replay is over, so that the telemetry goes out oldest first. Guarded by durableReplayLock. */
+    private final Queue<IotHubTransportPacket> deferredPacketsQueue = new ArrayDeque<>();
+    private final Object durableReplayLock = new Object();
+
+    /* Depths of the waiting lanes, the callback queue and the received queue, since counting the elements of a
+     * concurrent queue means walking it. */
+    private final AtomicInteger waitingPacketCount = new AtomicInteger();
+    private final AtomicInteger callbackPacketCount = new AtomicInteger();
+    private final AtomicInteger receivedMessageCount = new AtomicInteger();
+
+    /* Counters and histograms reported by getMetrics, kept for the lifetime of this transport. */
+    private final AtomicLong acknowledgedMessageCount = new AtomicLong();
+    private final AtomicLong retryCount = new AtomicLong();
+    private final AtomicLong reconnectionCount = new AtomicLong();
+    private final LatencyHistogram acknowledgementLatency = new LatencyHistogram();
+    private final LatencyHistogram reconnectionDuration = new LatencyHistogram();
+
+    /* Invokes the callbacks off the send and receive threads, in order, if the default config has a callback executor. */
+    private volatile OrderedCallbackExecutor callbackExecutor;
+
+    /* Receives the traces of the sampled packets. Null when tracing is off. */
+    private volatile MessageTraceListener traceListener;
+    private volatile double traceSamplingRate;
+
     private int currentReconnectionAttempt;
     private long reconnectionAttemptStartTimeMillis;
     private ScheduledExecutorService taskScheduler;
 
+    /* True if the task scheduler belongs to a shared execution context, so it is not shut down on close. */
+    private boolean sharedTaskScheduler;
+
+    /* Delays message retries, and expires messages waiting to be sent or waiting for an acknowledgement. Ticked by a
+     * single periodic task on the task scheduler, however many messages are pending. The task only runs while the
+     * timer has pending timeouts, so an idle transport does not wake up. */
+    private final HashedWheelTimer timer = new HashedWheelTimer();
+    private final Object timerTickLock = new Object();
+    private ScheduledFuture<?> timerTickFuture;
+    private final Runnable timerTick = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            timer.tick();
+            stopTimerTickIfIdle();
+        }
+    };
+
     private final CustomLogger logger;
 
     final private Object reconnectionLock = new Object();
@@ -98,7 +172,7 @@ public class IotHubTransport implements IotHubListener
         if (message == null)
         {
             logger.LogError("onMessageSent called with null message, " +
-                    "method name is %s ", message.getMessageId(), logger.getMethodName());
+                    "method name is %s ", message.getMessageId(), logger.getLazyMethodName());
         }
 
         // remove from in progress queue and add to callback queue
@@ -142,7 +216,19 @@ public class IotHubTransport implements IotHubListener
         else
         {
             logger.LogError("Message with message id %s was delivered to IoTHub, but was never sent, " +
-                    "method name is %s ", message.getMessageId(), logger.getMethodName());
+                    "method name is %s ", message.getMessageId(), logger.getLazyMethodName());
+        }
+    }
+
+    @Override
+    public void onMessageTransmitted(Message message)
+    {
+        // only the trace cares, and a packet that already completed has nothing left to record
+        IotHubTransportPacket packet = (message == null) ? null : this.inProgressPackets.get(message.getMessageId());
+        MessageTrace trace = (packet == null) ? null : packet.getTrace();
+        if (trace != null)
+        {
+            trace.recordSent();
         }
     }
 
@@ -154,7 +240,7 @@ public class IotHubTransport implements IotHubListener
             //Codes_SRS_IOTHUBTRANSPORT_34_008: [If this function is called with a non-null message and a non-null
             // throwable, this function shall log an IllegalArgumentException.]
             this.logger.LogError("IllegalArgumentException encountered, method name is %s",
-                    this.logger.getMethodName());
+                    this.logger.getLazyMethodName());
             this.logger.LogError(new IllegalArgumentException("Cannot call onMessageReceived with non-null message and " +
                     "non-null throwable"));
         }
@@ -163,15 +249,16 @@ public class IotHubTransport implements IotHubListener
             //Codes_SRS_IOTHUBTRANSPORT_34_009: [If this function is called with a non-null message and a null
             // exception, this function shall add that message to the receivedMessagesQueue.]
             logger.LogInfo("Message with hashcode %s is received from IotHub on %s, method name is %s ",
-                    message.hashCode(), new Date(), logger.getMethodName());
-            this.receivedMessagesQueue.add(message);
+                    message.hashCode(), new Date(), logger.getLazyMethodName());
+            this.addReceivedMessage(message);
+            this.receiveWorkSignal.signal();
         }
         else if (e != null)
         {
             //Codes_SRS_IOTHUBTRANSPORT_34_010: [If this function is called with a null message and a non-null
             // throwable, this function shall log that exception.]
             this.logger.LogError("Exception encountered while receiving messages from service, " +
-                    "method name is %s", this.logger.getMethodName());
+                    "method name is %s", this.logger.getLazyMethodName());
             this.logger.LogError(e);
         }
     }
@@ -207,7 +294,7 @@ public class IotHubTransport implements IotHubListener
     @Override
     public void onConnectionEstablished()
     {
-        logger.LogInfo("The connection to the IoT Hub has been established, method name is %s ", logger.getMethodName());
+        logger.LogInfo("The connection to the IoT Hub has been established, method name is %s ", logger.getLazyMethodName());
 
         //Codes_SRS_IOTHUBTRANSPORT_34_014: [This function shall invoke updateStatus with status CONNECTED, change
         // reason CONNECTION_OK and a null throwable.]
@@ -258,7 +345,14 @@ public class IotHubTransport implements IotHubListener
 
         this.deviceClientConfigs = new LinkedBlockingQueue<>(deviceClientConfigs);
         this.defaultConfig = this.deviceClientConfigs.peek();
-        this.taskScheduler = Executors.newScheduledThreadPool(1);
+        this.openDurableMessageStore();
+        Executor executor = this.defaultConfig.getCallbackExecutor();
+        this.callbackExecutor = executor == null ? null : new OrderedCallbackExecutor(executor);
+        this.traceListener = this.defaultConfig.getMessageTraceListener();
+        this.traceSamplingRate = this.defaultConfig.getMessageTraceSamplingRate();
+        IotHubExecutionContext executionContext = this.defaultConfig.getExecutionContext();
+        this.sharedTaskScheduler = executionContext != null;
+        this.taskScheduler = this.sharedTaskScheduler ? executionContext.getScheduler() : Executors.newScheduledThreadPool(1);
 
         //Codes_SRS_IOTHUBTRANSPORT_34_019: [This function shall open the invoke the method openConnection.]
         openConnection();
@@ -295,7 +389,19 @@ public class IotHubTransport implements IotHubListener
         //Codes_SRS_IOTHUBTRANSPORT_34_023: [This function shall invoke all callbacks.]
         this.invokeCallbacks();
 
-        this.taskScheduler.shutdown();
+        synchronized (this.timerTickLock)
+        {
+            if (this.timerTickFuture != null)
+            {
+                this.timerTickFuture.cancel(false);
+                this.timerTickFuture = null;
+            }
+        }
+
+        if (!this.sharedTaskScheduler)
+        {
+            this.taskScheduler.shutdown();
+        }
 
         //Codes_SRS_IOTHUBTRANSPORT_34_024: [This function shall close the connection.]
         this.iotHubTransportConnection.close();
@@ -303,6 +409,9 @@ public class IotHubTransport implements IotHubListener
         //Codes_SRS_IOTHUBTRANSPORT_34_025: [This function shall invoke updateStatus with status DISCONNECTED and the
         // supplied reason and cause.]
         this.updateStatus(IotHubConnectionStatus.DISCONNECTED, reason, cause);
+
+        // the persisted packets were left pending in the store, so they are replayed on the next open
+        this.closeDurableMessageStore();
     }
 
     /**
@@ -326,13 +435,80 @@ public class IotHubTransport implements IotHubListener
         //Codes_SRS_IOTHUBTRANSPORT_34_042: [This function shall build a transport packet from the provided message,
         // callback, and context and then add that packet to the waiting queue.]
         IotHubTransportPacket packet = new IotHubTransportPacket(message, callback, callbackContext, null, System.currentTimeMillis());
-        this.waitingPacketsQueue.add(packet);
+        this.startTrace(packet);
+        if (this.reserveOutboundCapacity(packet))
+        {
+            this.persistPacket(packet);
+            this.scheduleExpiry(packet);
+            if (!this.deferBehindDurableReplay(packet))
+            {
+                this.addWaitingPacket(packet);
+            }
+
+            this.sendWorkSignal.signal();
+        }
+        else
+        {
+            logger.LogInfo("Outbound queue is full, creating a callback for the message with MESSAGE_CANCELLED_QUEUE_FULL status, method name is %s ", logger.getLazyMethodName());
+            packet.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+            this.recordTraceAcknowledged(packet);
+            if (packet.getCallback() != null)
+            {
+                // the packet was never admitted, so it bypasses addToCallbackQueue to leave the pending counts untouched
+                this.addCallbackPacket(packet);
+                this.sendWorkSignal.signal();
+            }
+            else
+            {
+                this.deliverTrace(packet, false);
+            }
+        }
+    }
+
+    /**
+     * Getter for the number of messages added to this transport whose callback is not queued yet. This includes
+     * messages waiting to be sent, waiting for an acknowledgement and waiting to be retried.
+     *
+     * @return the number of pending messages.
+     */
+    public int getPendingMessageCount()
+    {
+        return this.pendingMessageCount.get();
+    }
+
+    /**
+     * Getter for the payload size of the messages counted by {@link #getPendingMessageCount()}.
+     *
+     * @return the number of payload bytes of the pending messages.
+     */
+    public long getPendingMessageBytes()
+    {
+        return this.pendingMessageBytes.get();
+    }
+
+    /**
+     * Getter for the queue depths, counters and latency histograms of this transport. Reading them does not slow down
+     * the transport, so they can be polled periodically and exported to any metrics system.
+     *
+     * @return a snapshot of the metrics of this transport.
+     */
+    public TransportMetrics getMetrics()
+    {
+        return new TransportMetrics(
+                Math.max(0, this.waitingPacketCount.get()),
+                this.inProgressPackets.size(),
+                Math.max(0, this.callbackPacketCount.get()),
+                Math.max(0, this.receivedMessageCount.get()),
+                this.acknowledgedMessageCount.get(),
+                this.retryCount.get(),
+                this.reconnectionCount.get(),
+                this.acknowledgementLatency.copy(),
+                this.reconnectionDuration.copy());
     }
 
     /**
-     * Sends all messages on the transport queue. If a previous send attempt had
-     * failed, the function will attempt to resend the messages in the previous
-     * attempt.
+     * Sends messages on the transport queue, up to the limits of the configured send drain policy. If a previous
+     * send attempt had failed, the function will attempt to resend the messages in the previous attempt.
      */
     public void sendMessages()
     {
@@ -343,47 +519,100 @@ public class IotHubTransport implements IotHubListener
             return;
         }
 
-        int timeSlice = MAX_MESSAGES_TO_SEND_PER_THREAD;
-
-        while (this.connectionStatus == IotHubConnectionStatus.CONNECTED && timeSlice-- > 0)
+        SendDrainPolicy drainPolicy = this.defaultConfig.getSendDrainPolicy();
+        int messageBudget = Math.max(drainPolicy.getMinMessagesPerDrain(),
+                Math.min(drainPolicy.getMaxMessagesPerDrain(), this.messagesPerDrain));
+        long byteBudget = drainPolicy.getMaxBytesPerDrain();
+        long timeSlice = drainPolicy.getMaxTimeSliceMillis();
+        int highPriorityWeight = drainPolicy.getHighPriorityWeight();
+        long drainStartTime = System.currentTimeMillis();
+
+        int messagesSent = 0;
+        long bytesSent = 0;
+
+        this.replayDurableMessages(messageBudget);
+
+        //Codes_SRS_IOTHUBTRANSPORT_34_044: [This function continue to dequeue packets saved in the waiting
+        // queue and send them until connection status isn't CONNECTED or until the drain policy limits are reached]
+        while (this.connectionStatus == IotHubConnectionStatus.CONNECTED
+                && messagesSent < messageBudget
+                && bytesSent < byteBudget
+                && System.currentTimeMillis() - drainStartTime < timeSlice)
         {
-            IotHubTransportPacket packet = waitingPacketsQueue.poll();
-            if (packet != null)
+            IotHubTransportPacket packet = this.pollWaitingPacket(highPriorityWeight);
+            if (packet == null)
             {
-                logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ",
-                        logger.getMethodName());
-                Message message = packet.getMessage();
+                break;
+            }
 
-                if (message != null && this.isMessageValid(packet))
-                {
-                    //Codes_SRS_IOTHUBTRANSPORT_34_044: [This function continue to dequeue packets saved in the waiting
-                    // queue and send them until connection status isn't CONNECTED or until 10 messages have been sent]
-                    sendPacket(packet);
-                }
+            messagesSent++;
+            MessageTrace trace = packet.getTrace();
+            if (trace != null)
+            {
+                trace.recordDequeued();
+            }
+
+            logger.LogInfo("Get the message from waiting message queue to be sent to IoT Hub, method name is %s ",
+                    logger.getLazyMethodName());
+            Message message = packet.getMessage();
+
+            if (message != null && this.isMessageValid(packet))
+            {
+                bytesSent += message.getBodyLength();
+                sendPacket(packet);
             }
         }
+
+        boolean backlogged = this.connectionStatus == IotHubConnectionStatus.CONNECTED
+                && !(this.waitingPacketsQueue.isEmpty() && this.priorityPacketsQueue.isEmpty());
+        this.messagesPerDrain = drainPolicy.getNextMessagesPerDrain(messageBudget, backlogged);
+
+        if (backlogged)
+        {
+            // the drain stopped with packets still waiting, so the send worker should not park yet
+            this.sendWorkSignal.signal();
+        }
     }
 
     /**
-     * Invokes the callbacks for all completed requests.
+     * Invokes the callbacks for all completed requests. If there is a callback executor, the callbacks are handed to
+     * it in order instead of being invoked on the calling thread.
      */
     public void invokeCallbacks()
     {
-        IotHubTransportPacket packet = this.callbackPacketsQueue.poll();
+        OrderedCallbackExecutor executor = this.callbackExecutor;
+        IotHubTransportPacket packet = this.pollCallbackPacket();
         while (packet != null)
         {
-            IotHubStatusCode status = packet.getStatus();
-            IotHubEventCallback callback = packet.getCallback();
-            Object context = packet.getContext();
+            final IotHubTransportPacket callbackPacket = packet;
+            final IotHubStatusCode status = packet.getStatus();
+            final IotHubEventCallback callback = packet.getCallback();
+            final Object context = packet.getContext();
 
             logger.LogInfo("Invoking the callback function for sent message, IoT Hub responded to message with " +
-                    "status %s, method name is %s ", status.name(), logger.getMethodName());
+                    "status %s, method name is %s ", status.name(), logger.getLazyMethodName());
 
             //Codes_SRS_IOTHUBTRANSPORT_34_045: [This function shall dequeue each packet in the callback queue and
             // execute their saved callback with their saved status and context]
-            callback.execute(status, context);
+            if (executor == null)
+            {
+                callback.execute(status, context);
+                this.deliverTrace(callbackPacket, true);
+            }
+            else
+            {
+                executor.execute(new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        callback.execute(status, context);
+                        IotHubTransport.this.deliverTrace(callbackPacket, true);
+                    }
+                });
+            }
 
-            packet = this.callbackPacketsQueue.poll();
+            packet = this.pollCallbackPacket();
         }
     }
 
@@ -403,7 +632,7 @@ public class IotHubTransport implements IotHubListener
         if (this.connectionStatus == IotHubConnectionStatus.CONNECTED)
         {
             logger.LogDebug("Get the callback function for the received message, method name is %s ",
-                    logger.getMethodName());
+                    logger.getLazyMethodName());
 
             if (this.iotHubTransportConnection instanceof HttpsIotHubConnection)
             {
@@ -412,16 +641,49 @@ public class IotHubTransport implements IotHubListener
                 addReceivedMessagesOverHttpToReceivedQueue();
             }
 
-            IotHubTransportMessage receivedMessage = this.receivedMessagesQueue.poll();
+            IotHubTransportMessage receivedMessage = this.pollReceivedMessage();
             if (receivedMessage != null)
             {
                 //Codes_SRS_IOTHUBTRANSPORT_34_048: [If this object's connection status is CONNECTED and there is a
                 // received message in the queue, this function shall acknowledge the received message
-                this.acknowledgeReceivedMessage(receivedMessage);
+                OrderedCallbackExecutor executor = this.callbackExecutor;
+                if (executor == null)
+                {
+                    this.acknowledgeReceivedMessage(receivedMessage);
+                }
+                else
+                {
+                    executor.execute(new AcknowledgeReceivedMessageRunnable(receivedMessage));
+                }
+
+                if (!this.receivedMessagesQueue.isEmpty())
+                {
+                    this.receiveWorkSignal.signal();
+                }
             }
         }
     }
 
+    /**
+     * Getter for the signal raised whenever there are packets waiting to be sent or callbacks waiting to be invoked.
+     *
+     * @return the send work signal.
+     */
+    public IotHubWorkSignal getSendWorkSignal()
+    {
+        return this.sendWorkSignal;
+    }
+
+    /**
+     * Getter for the signal raised whenever a received message is waiting to be handled.
+     *
+     * @return the receive work signal.
+     */
+    public IotHubWorkSignal getReceiveWorkSignal()
+    {
+        return this.receiveWorkSignal;
+    }
+
     /**
      * Returns {@code true} if the transport has no more messages to handle,
      * and {@code false} otherwise.
@@ -435,7 +697,10 @@ public class IotHubTransport implements IotHubListener
         {
             //Codes_SRS_IOTHUBTRANSPORT_34_043: [This function return true if and only if there are no packets in the
             // waiting queue, in progress, or in the callbacks queue.]
-            return this.waitingPacketsQueue.isEmpty() && this.inProgressPackets.size() == 0 && this.callbackPacketsQueue.isEmpty();
+            OrderedCallbackExecutor executor = this.callbackExecutor;
+            return this.waitingPacketsQueue.isEmpty() && this.priorityPacketsQueue.isEmpty()
+                    && this.inProgressPackets.size() == 0 && this.callbackPacketsQueue.isEmpty()
+                    && (executor == null || executor.getQueuedCallbackCount() == 0);
         }
     }
 
@@ -484,15 +749,37 @@ public class IotHubTransport implements IotHubListener
      */
     private void cancelPendingPackets()
     {
+        // packets waiting for a retry are only known to the timer
+        for (Runnable cancelledTask : this.timer.cancelAll())
+        {
+            if (cancelledTask instanceof MessageRetryRunnable)
+            {
+                IotHubTransportPacket retryPacket = ((MessageRetryRunnable) cancelledTask).transportPacket;
+                retryPacket.setStatus(this.getCancelledOnCloseStatus(retryPacket));
+                this.addToCallbackQueue(retryPacket);
+            }
+        }
+
+        synchronized (this.durableReplayLock)
+        {
+            IotHubTransportPacket deferredPacket;
+            while ((deferredPacket = this.deferredPacketsQueue.poll()) != null)
+            {
+                deferredPacket.setStatus(this.getCancelledOnCloseStatus(deferredPacket));
+                this.addToCallbackQueue(deferredPacket);
+            }
+        }
+
         //Codes_SRS_IOTHUBTRANSPORT_34_021: [This function shall move all waiting messages to the callback queue with
         // status MESSAGE_CANCELLED_ONCLOSE.]
-        IotHubTransportPacket packet = this.waitingPacketsQueue.poll();
+        IotHubTransportPacket packet = this.pollOldestWaitingPacket();
+        // status MESSAGE_CANCELLED_ONCLOSE, or MESSAGE_PERSISTED_ONCLOSE if it is kept in the durable queue
         while (packet != null)
         {
-            packet.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+            packet.setStatus(this.getCancelledOnCloseStatus(packet));
             this.addToCallbackQueue(packet);
 
-            packet = this.waitingPacketsQueue.poll();
+            packet = this.pollOldestWaitingPacket();
         }
 
         synchronized (this.inProgressMessagesLock)
@@ -502,7 +789,7 @@ public class IotHubTransport implements IotHubListener
             for (Map.Entry<String, IotHubTransportPacket> packetEntry : inProgressPackets.entrySet())
             {
                 IotHubTransportPacket inProgressPacket = packetEntry.getValue();
-                inProgressPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+                inProgressPacket.setStatus(this.getCancelledOnCloseStatus(inProgressPacket));
                 this.addToCallbackQueue(inProgressPacket);
             }
 
@@ -510,6 +797,19 @@ public class IotHubTransport implements IotHubListener
         }
     }
 
+    /**
+     * Getter for the status of a packet cancelled by a close. A packet kept in the durable message store is not lost,
+     * since it is replayed on the next open, so it gets a status of its own.
+     * @param packet the cancelled packet
+     * @return MESSAGE_PERSISTED_ONCLOSE if the packet has a durable record, MESSAGE_CANCELLED_ONCLOSE otherwise
+     */
+    private IotHubStatusCode getCancelledOnCloseStatus(IotHubTransportPacket packet)
+    {
+        return this.durableMessageStore != null && this.durableRecordIds.containsKey(packet)
+                ? IotHubStatusCode.MESSAGE_PERSISTED_ONCLOSE
+                : IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE;
+    }
+
     /**
      * If the provided received message has a saved callback, this function shall execute that callback and send the ack
      * to the service
@@ -537,7 +837,7 @@ public class IotHubTransport implements IotHubListener
             {
                 //Codes_SRS_IOTHUBTRANSPORT_34_055: [If an exception is thrown while acknowledging the received message,
                 // this function shall add the received message back into the receivedMessagesQueue and then rethrow the exception.]
-                this.receivedMessagesQueue.add(receivedMessage);
+                this.addReceivedMessage(receivedMessage);
                 throw e;
             }
         }
@@ -555,7 +855,7 @@ public class IotHubTransport implements IotHubListener
         if (transportMessage != null)
         {
             //Codes_SRS_IOTHUBTRANSPORT_34_056: [If the saved http transport connection can receive a message, add it to receivedMessagesQueue.]
-            this.receivedMessagesQueue.add(transportMessage);
+            this.addReceivedMessage(transportMessage);
         }
     }
 
@@ -641,12 +941,15 @@ public class IotHubTransport implements IotHubListener
     private void handleDisconnection(TransportException transportException)
     {
         logger.LogInfo("The messages in progress are buffered to be sent again due to a connection loss, " +
-                "method name is %s ", logger.getMethodName());
+                "method name is %s ", logger.getLazyMethodName());
 
         synchronized (this.inProgressMessagesLock)
         {
             //Codes_SRS_IOTHUBTRANSPORT_34_057: [This function shall move all packets from inProgressQueue to waiting queue.]
-            this.waitingPacketsQueue.addAll(inProgressPackets.values());
+            for (IotHubTransportPacket packet : inProgressPackets.values())
+            {
+                this.addWaitingPacket(packet);
+            }
             inProgressPackets.clear();
         }
 
@@ -758,6 +1061,114 @@ public class IotHubTransport implements IotHubListener
         return null;
     }
 
+    /**
+     * Task for acknowledging a received message on the callback executor. If the acknowledgement fails, the message
+     * is back in the received queue and the receive task is woken up to handle it again
+     */
+    private class AcknowledgeReceivedMessageRunnable implements Runnable
+    {
+        final IotHubTransportMessage receivedMessage;
+
+        AcknowledgeReceivedMessageRunnable(IotHubTransportMessage receivedMessage)
+        {
+            this.receivedMessage = receivedMessage;
+        }
+
+        @Override
+        public void run()
+        {
+            try
+            {
+                acknowledgeReceivedMessage(this.receivedMessage);
+            }
+            catch (TransportException e)
+            {
+                logger.LogError("Could not acknowledge a received message, it will be handled again, method name is %s ", logger.getLazyMethodName());
+                logger.LogError(e);
+                receiveWorkSignal.signal();
+            }
+        }
+    }
+
+    /**
+     * Task for giving up on a sent packet that was not acknowledged within the device operation timeout
+     */
+    private class AcknowledgementTimeoutRunnable implements Runnable
+    {
+        final String messageId;
+        final IotHubTransportPacket transportPacket;
+
+        AcknowledgementTimeoutRunnable(String messageId, IotHubTransportPacket transportPacket)
+        {
+            this.messageId = messageId;
+            this.transportPacket = transportPacket;
+        }
+
+        @Override
+        public void run()
+        {
+            synchronized (inProgressMessagesLock)
+            {
+                // the packet may have been acknowledged, or sent again under the same id since this task was scheduled
+                if (inProgressPackets.get(this.messageId) != this.transportPacket)
+                {
+                    return;
+                }
+
+                inProgressPackets.remove(this.messageId);
+            }
+
+            // an AMQP connection may still hold the message until its link has credit, and shall not send it after
+            // it is reported as failed
+            IotHubTransportConnection connection = iotHubTransportConnection;
+            if (connection instanceof AmqpsIotHubConnection)
+            {
+                ((AmqpsIotHubConnection) connection).cancelPendingMessage(this.transportPacket.getMessage());
+            }
+
+            logger.LogError("Message with message id %s was not acknowledged within the device operation timeout, " +
+                    "method name is %s ", this.messageId, logger.getLazyMethodName());
+            this.transportPacket.setStatus(IotHubStatusCode.ERROR);
+            addToCallbackQueue(this.transportPacket);
+        }
+    }
+
+    /**
+     * Task for expiring a packet that is still waiting to be sent when its message expires
+     */
+    private class ExpireWaitingPacketRunnable implements Runnable
+    {
+        final IotHubTransportPacket transportPacket;
+
+        ExpireWaitingPacketRunnable(IotHubTransportPacket transportPacket)
+        {
+            this.transportPacket = transportPacket;
+        }
+
+        @Override
+        public void run()
+        {
+            Message message = this.transportPacket.getMessage();
+            if (!message.isExpired())
+            {
+                // the wall clock went back since the expiry was scheduled
+                scheduleExpiry(this.transportPacket);
+                return;
+            }
+
+            // expired packets are usually near the head of the queue, since messages tend to share the same time to live.
+            // A packet that is being sent or retried is not in the queue, and is expired when it is polled again
+            if (getWaitingQueue(this.transportPacket).remove(this.transportPacket))
+            {
+                waitingPacketCount.decrementAndGet();
+                logger.LogInfo("Creating a callback for the expired waiting message with MESSAGE_EXPIRED status, " +
+                        "method name is %s ", logger.getLazyMethodName());
+                this.transportPacket.setStatus(IotHubStatusCode.MESSAGE_EXPIRED);
+                addToCallbackQueue(this.transportPacket);
+            }
+        }
+    }
+
     /**
      * Task for adding a packet back to the waiting queue. Used for delaying message retry
      */
@@ -776,6 +1187,8 @@ public class IotHubTransport implements IotHubListener
         public void run()
         {
             this.waitingPacketsQueue.add(this.transportPacket);
+            IotHubTransport.this.waitingPacketCount.incrementAndGet();
+            IotHubTransport.this.sendWorkSignal.signal();
         }
     }
 
@@ -796,7 +1209,8 @@ public class IotHubTransport implements IotHubListener
                 //Codes_SRS_IOTHUBTRANSPORT_34_063: [If the provided transportException is retryable, the packet has not
                 // timed out, and the retry policy allows, this function shall schedule a task to add the provided
                 // packet to the waiting list after the amount of time determined by the retry policy.]
-                this.taskScheduler.schedule(new MessageRetryRunnable(this.waitingPacketsQueue, packet), (long) retryDecision.getDuration(), MILLISECONDS);
+                this.newTimeout(new MessageRetryRunnable(this.getWaitingQueue(packet), packet), (long) retryDecision.getDuration());
+                this.retryCount.incrementAndGet();
                 return;
             }
         }
@@ -825,6 +1239,11 @@ public class IotHubTransport implements IotHubListener
         {
             if (messageAckExpected)
             {
+                // scheduled first, so that an acknowledgement racing with this thread cancels it
+                packet.setAcknowledgementTimeout(this.newTimeout(
+                        new AcknowledgementTimeoutRunnable(message.getMessageId(), packet),
+                        this.defaultConfig.getOperationTimeout()));
+
                 synchronized (this.inProgressMessagesLock)
                 {
                     this.inProgressPackets.put(message.getMessageId(), packet);
@@ -834,6 +1253,13 @@ public class IotHubTransport implements IotHubListener
             //Codes_SRS_IOTHUBTRANSPORT_34_073: [This function shall send the provided message over the saved connection
             // and save the response code.]
             IotHubStatusCode statusCode = this.iotHubTransportConnection.sendMessage(message);
+            MessageTrace trace = packet.getTrace();
+            if (trace != null && (statusCode == IotHubStatusCode.OK_EMPTY || statusCode == IotHubStatusCode.OK)
+                    && !(this.iotHubTransportConnection instanceof AmqpsIotHubConnection))
+            {
+                // the AMQP connection queues the message until its link has credit, and reports when it sends it
+                trace.recordSent();
+            }
 
             if (statusCode != IotHubStatusCode.OK_EMPTY && statusCode != IotHubStatusCode.OK)
             {
@@ -885,7 +1311,7 @@ public class IotHubTransport implements IotHubListener
             //Codes_SRS_IOTHUBTRANSPORT_28_008:[This function shall set the packet status to MESSAGE_EXPIRED if packet has expired.]
             //Codes_SRS_IOTHUBTRANSPORT_28_009:[This function shall add the expired packet to the Callback Queue.]
             logger.LogInfo("Creating a callback for the expired message with MESSAGE_EXPIRED status, method " +
-                    "name is %s ", logger.getMethodName());
+                    "name is %s ", logger.getLazyMethodName());
             packet.setStatus(IotHubStatusCode.MESSAGE_EXPIRED);
             this.addToCallbackQueue(packet);
             return false;
@@ -896,7 +1322,7 @@ public class IotHubTransport implements IotHubListener
             //Codes_SRS_IOTHUBTRANSPORT_28_010:[This function shall set the packet status to UNAUTHORIZED if sas token has expired.]
             //Codes_SRS_IOTHUBTRANSPORT_28_011:[This function shall add the packet which sas token has expired to the Callback Queue.]
             logger.LogInfo("Creating a callback for the message with expired sas token with UNAUTHORIZED status," +
-                    " method name is %s ", logger.getMethodName());
+                    " method name is %s ", logger.getLazyMethodName());
             packet.setStatus(IotHubStatusCode.UNAUTHORIZED);
             this.addToCallbackQueue(packet);
             this.updateStatus(
@@ -931,9 +1357,18 @@ public class IotHubTransport implements IotHubListener
 
             if (newConnectionStatus == IotHubConnectionStatus.CONNECTED)
             {
+                if (this.reconnectionAttemptStartTimeMillis != 0)
+                {
+                    this.reconnectionCount.incrementAndGet();
+                    this.reconnectionDuration.record(System.currentTimeMillis() - this.reconnectionAttemptStartTimeMillis);
+                }
+
                 //Codes_SRS_IOTHUBTRANSPORT_28_007: [This function shall reset currentReconnectionAttempt and reconnectionAttemptStartTimeMillis if connection status is changed to CONNECTED.]
                 this.currentReconnectionAttempt = 0;
                 this.reconnectionAttemptStartTimeMillis = 0;
+
+                // packets buffered while disconnected can be sent now
+                this.sendWorkSignal.signal();
             }
         }
     }
@@ -1010,13 +1445,632 @@ public class IotHubTransport implements IotHubListener
      */
     private void addToCallbackQueue(IotHubTransportPacket packet)
     {
+        packet.cancelTimeouts();
+
+        IotHubStatusCode status = packet.getStatus();
+        if (status == IotHubStatusCode.OK || status == IotHubStatusCode.OK_EMPTY)
+        {
+            this.acknowledgedMessageCount.incrementAndGet();
+            this.acknowledgementLatency.record(System.currentTimeMillis() - packet.getStartTimeMillis());
+        }
+
+        // every admitted packet ends up here exactly once, which is what frees its room in the outbound queue
+        this.releaseOutboundCapacity(getPacketSize(packet));
+        this.completeDurableRecord(packet);
+
+        this.recordTraceAcknowledged(packet);
+
         //Codes_SRS_IOTHUBTRANSPORT_28_002: [This function shall add the packet to the callback queue if it has a callback.]
         if (packet.getCallback() != null)
         {
-            this.callbackPacketsQueue.add(packet);
+            this.addCallbackPacket(packet);
+            this.sendWorkSignal.signal();
+        }
+        else
+        {
+            this.deliverTrace(packet, false);
+        }
+    }
+
+    /**
+     * Starts tracing the provided packet if tracing is on and the packet is sampled.
+     * @param packet the packet that is about to be queued
+     */
+    private void startTrace(IotHubTransportPacket packet)
+    {
+        double samplingRate = this.traceSamplingRate;
+        if (this.traceListener == null || samplingRate <= 0)
+        {
+            return;
+        }
+
+        if (samplingRate >= 1 || ThreadLocalRandom.current().nextDouble() < samplingRate)
+        {
+            Message message = packet.getMessage();
+            packet.setTrace(new MessageTrace(message.getMessageId(), message.getMessageType(), System.nanoTime()));
         }
     }
 
+    /**
+     * Records the final status of the provided packet in its trace, if it is traced.
+     * @param packet the completed packet
+     */
+    private void recordTraceAcknowledged(IotHubTransportPacket packet)
+    {
+        MessageTrace trace = packet.getTrace();
+        if (trace != null)
+        {
+            trace.recordAcknowledged(packet.getStatus(), packet.getCurrentRetryAttempt());
+        }
+    }
+
+    /**
+     * Hands the trace of the provided packet to the trace listener, if the packet is traced.
+     * @param packet the packet that went through its last stage
+     * @param callbackInvoked whether the last stage was the callback of the packet
+     */
+    private void deliverTrace(IotHubTransportPacket packet, boolean callbackInvoked)
+    {
+        MessageTrace trace = packet.getTrace();
+        MessageTraceListener listener = this.traceListener;
+        if (trace == null || listener == null)
+        {
+            return;
+        }
+
+        if (callbackInvoked)
+        {
+            trace.recordCallback();
+        }
+
+        try
+        {
+            listener.onMessageTraced(trace);
+        }
+        catch (RuntimeException e)
+        {
+            logger.LogError("The message trace listener threw an exception, method name is %s ", logger.getLazyMethodName());
+            logger.LogError(e);
+        }
+    }
+
+    /**
+     * Schedules the provided task on the timer, and starts ticking the timer if it was idle.
+     * @param task the task to run
+     * @param delayMilliseconds the delay before the task runs, in milliseconds
+     * @return the handle of the scheduled task
+     */
+    private HashedWheelTimer.Timeout newTimeout(Runnable task, long delayMilliseconds)
+    {
+        HashedWheelTimer.Timeout timeout = this.timer.newTimeout(task, delayMilliseconds);
+        this.startTimerTickIfNeeded();
+        return timeout;
+    }
+
+    /**
+     * Schedules the periodic tick of the timer if the timer has pending timeouts and is not ticked yet.
+     */
+    private void startTimerTickIfNeeded()
+    {
+        synchronized (this.timerTickLock)
+        {
+            ScheduledExecutorService scheduler = this.taskScheduler;
+            if (this.timerTickFuture != null || scheduler == null || scheduler.isShutdown()
+                    || this.timer.getPendingTimeoutCount() == 0)
+            {
+                return;
+            }
+
+            long tickMilliseconds = this.timer.getTickMilliseconds();
+            try
+            {
+                this.timerTickFuture = scheduler.scheduleAtFixedRate(this.timerTick, tickMilliseconds, tickMilliseconds, MILLISECONDS);
+            }
+            catch (RejectedExecutionException e)
+            {
+                logger.LogError("The task scheduler rejected the timer tick, method name is %s ", logger.getLazyMethodName());
+            }
+        }
+    }
+
+    /**
+     * Cancels the periodic tick of the timer once the timer has no pending timeouts. A timeout added afterwards
+     * schedules the tick again.
+     */
+    private void stopTimerTickIfIdle()
+    {
+        synchronized (this.timerTickLock)
+        {
+            // a timeout is counted as pending before its caller starts the tick, so none is missed here
+            if (this.timerTickFuture != null && this.timer.getPendingTimeoutCount() == 0)
+            {
+                this.timerTickFuture.cancel(false);
+                this.timerTickFuture = null;
+            }
+        }
+    }
+
+    /**
+     * Schedules the expiry of the provided packet while it waits to be sent, if its message has an expiry time.
+     * @param packet the packet that is going to wait
+     */
+    private void scheduleExpiry(IotHubTransportPacket packet)
+    {
+        long expiryTime = packet.getMessage().getExpiryTime();
+        if (expiryTime != 0)
+        {
+            // a message expires once the current time is past its expiry time
+            packet.setExpiryTimeout(this.newTimeout(new ExpireWaitingPacketRunnable(packet), expiryTime - System.currentTimeMillis() + 1));
+        }
+    }
+
+    /**
+     * Reserves room in the outbound queue for the provided packet. If the queue is full, the overflow mode of the
+     * outbound queue policy decides if waiting packets are dropped, if the caller waits for room, or if the packet is
+     * rejected. Twin and method packets are always admitted, so that a backlog of telemetry never fails or stalls
+     * them. They still count in the pending messages.
+     * @param packet the packet to admit
+     * @return true if the packet was admitted, false if it was rejected
+     */
+    private boolean reserveOutboundCapacity(IotHubTransportPacket packet)
+    {
+        long packetSize = getPacketSize(packet);
+        if (isExemptFromOutboundLimits(packet))
+        {
+            this.pendingMessageCount.incrementAndGet();
+            this.pendingMessageBytes.addAndGet(packetSize);
+            return true;
+        }
+
+        OutboundQueuePolicy queuePolicy = this.defaultConfig.getOutboundQueuePolicy();
+
+        synchronized (this.outboundCapacityLock)
+        {
+            if (this.tryReserveOutboundCapacity(packetSize, queuePolicy))
+            {
+                return true;
+            }
+
+            switch (queuePolicy.getOverflowMode())
+            {
+                case DROP_EXPIRED_FIRST:
+                    this.dropExpiredWaitingPackets();
+                    if (this.tryReserveOutboundCapacity(packetSize, queuePolicy))
+                    {
+                        return true;
+                    }
+
+                    // still full, fall through to drop the oldest packets
+                case DROP_OLDEST:
+                    // only normal packets make room, high priority telemetry is limited but never dropped for another
+                    IotHubTransportPacket oldestPacket;
+                    while ((oldestPacket = this.pollOldestNormalPacket()) != null)
+                    {
+                        logger.LogInfo("Outbound queue is full, dropping the oldest waiting message with MESSAGE_CANCELLED_QUEUE_FULL status, method name is %s ", logger.getLazyMethodName());
+                        oldestPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                        this.addToCallbackQueue(oldestPacket);
+
+                        if (this.tryReserveOutboundCapacity(packetSize, queuePolicy))
+                        {
+                            return true;
+                        }
+                    }
+
+                    return false;
+
+                case BLOCK:
+                    return this.waitForOutboundCapacity(packetSize, queuePolicy);
+
+                case REJECT:
+                default:
+                    return false;
+            }
+        }
+    }
+
+    /**
+     * Reserves room in the outbound queue if the packet fits within the limits of the policy. Must be called while
+     * holding the outbound capacity lock.
+     * @param packetSize the payload size of the packet to admit
+     * @param queuePolicy the limits of the outbound queue
+     * @return true if room was reserved
+     */
+    private boolean tryReserveOutboundCapacity(long packetSize, OutboundQueuePolicy queuePolicy)
+    {
+        long pendingBytes = this.pendingMessageBytes.get();
+        if (this.pendingMessageCount.get() < queuePolicy.getMaxMessages()
+                && packetSize <= queuePolicy.getMaxBytes()
+                && pendingBytes <= queuePolicy.getMaxBytes() - packetSize)
+        {
+            this.pendingMessageCount.incrementAndGet();
+            this.pendingMessageBytes.addAndGet(packetSize);
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Waits until the packet fits in the outbound queue or until the block timeout of the policy elapses. Must be
+     * called while holding the outbound capacity lock.
+     * @param packetSize the payload size of the packet to admit
+     * @param queuePolicy the limits of the outbound queue
+     * @return true if room was reserved before the timeout
+     */
+    private boolean waitForOutboundCapacity(long packetSize, OutboundQueuePolicy queuePolicy)
+    {
+        long deadlineNanos = System.nanoTime() + MILLISECONDS.toNanos(queuePolicy.getBlockTimeoutMillis());
+        this.outboundCapacityWaiters++;
+        try
+        {
+            while (!this.tryReserveOutboundCapacity(packetSize, queuePolicy))
+            {
+                long remainingMillis = NANOSECONDS.toMillis(deadlineNanos - System.nanoTime());
+                if (remainingMillis <= 0)
+                {
+                    return false;
+                }
+
+                this.outboundCapacityLock.wait(remainingMillis);
+            }
+
+            return true;
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        finally
+        {
+            this.outboundCapacityWaiters--;
+        }
+    }
+
+    /**
+     * Frees the room held in the outbound queue by an admitted packet, and wakes up the callers waiting for room.
+     * @param packetSize the payload size of the packet that left the queue
+     */
+    private void releaseOutboundCapacity(long packetSize)
+    {
+        this.pendingMessageCount.decrementAndGet();
+        this.pendingMessageBytes.addAndGet(-packetSize);
+
+        if (this.outboundCapacityWaiters > 0)
+        {
+            synchronized (this.outboundCapacityLock)
+            {
+                this.outboundCapacityLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Removes the expired packets from the waiting queue and adds them to the callback queue with status
+     * MESSAGE_EXPIRED.
+     */
+    private void dropExpiredWaitingPackets()
+    {
+        this.dropExpiredWaitingPackets(this.waitingPacketsQueue);
+        this.dropExpiredWaitingPackets(this.priorityPacketsQueue);
+    }
+
+    private void dropExpiredWaitingPackets(Queue<IotHubTransportPacket> queue)
+    {
+        Iterator<IotHubTransportPacket> iterator = queue.iterator();
+        while (iterator.hasNext())
+        {
+            IotHubTransportPacket packet = iterator.next();
+            if (packet.getMessage().isExpired() && queue.remove(packet))
+            {
+                this.waitingPacketCount.decrementAndGet();
+                logger.LogInfo("Outbound queue is full, dropping an expired waiting message with MESSAGE_EXPIRED status, method name is %s ", logger.getLazyMethodName());
+                packet.setStatus(IotHubStatusCode.MESSAGE_EXPIRED);
+                this.addToCallbackQueue(packet);
+            }
+        }
+    }
+
+    /**
+     * Opens the durable message store if the default config has a durable queue directory. The store is only used
+     * when this transport serves a single device, since replayed messages are sent with the default config.
+     * @throws TransportException if the store cannot be opened
+     */
+    private void openDurableMessageStore() throws TransportException
+    {
+        File durableQueueDirectory = this.defaultConfig.getDurableQueueDirectory();
+        if (durableQueueDirectory == null || this.durableMessageStore != null)
+        {
+            return;
+        }
+
+        if (this.deviceClientConfigs.size() > 1)
+        {
+            logger.LogWarn("The durable queue is not supported when multiplexing devices, messages are kept only in memory, method name is %s ", logger.getLazyMethodName());
+            return;
+        }
+
+        try
+        {
+            this.durableMessageStore = new DurableMessageStore(durableQueueDirectory, DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+        }
+        catch (IOException e)
+        {
+            throw new TransportException("Could not open the durable queue in " + durableQueueDirectory.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Closes the durable message store, keeping its pending records for the next open.
+     */
+    private void closeDurableMessageStore()
+    {
+        DurableMessageStore store = this.durableMessageStore;
+        if (store != null)
+        {
+            this.durableMessageStore = null;
+            store.close();
+            this.durableRecordIds.clear();
+        }
+    }
+
+    /**
+     * Writes the message of a telemetry packet to the durable message store, if there is one. Twin and method
+     * messages are not persisted since their requests are not meaningful after a restart. If the write fails, the
+     * packet is still sent, it is only kept in memory.
+     * @param packet the packet to persist
+     */
+    private void persistPacket(IotHubTransportPacket packet)
+    {
+        DurableMessageStore store = this.durableMessageStore;
+        Message message = packet.getMessage();
+        if (store == null || message instanceof IotHubTransportMessage
+                || (message.getMessageType() != null && message.getMessageType() != MessageType.DEVICE_TELEMETRY))
+        {
+            return;
+        }
+
+        try
+        {
+            this.durableRecordIds.put(packet, store.append(message));
+        }
+        catch (IOException e)
+        {
+            logger.LogError("Could not write the message with messageid %s to the durable queue, it is kept only in memory, method name is %s ", message.getMessageId(), logger.getLazyMethodName());
+            logger.LogError(e);
+        }
+    }
+
+    /**
+     * Acknowledges the durable record of a packet that reached its final status. Packets persisted by a close keep
+     * their record, so they are replayed on the next open.
+     * @param packet the packet that reached its final status
+     */
+    private void completeDurableRecord(IotHubTransportPacket packet)
+    {
+        Long durableRecordId = this.durableRecordIds.remove(packet);
+        DurableMessageStore store = this.durableMessageStore;
+        if (durableRecordId != null && store != null && packet.getStatus() != IotHubStatusCode.MESSAGE_PERSISTED_ONCLOSE)
+        {
+            store.acknowledge(durableRecordId);
+        }
+    }
+
+    /**
+     * Holds back a persisted packet while the records of a previous session are still being replayed, so that it is
+     * sent after them.
+     * @param packet the packet that is going to wait
+     * @return true if the packet was held back, false if it can wait in the waiting queue
+     */
+    private boolean deferBehindDurableReplay(IotHubTransportPacket packet)
+    {
+        if (!this.durableRecordIds.containsKey(packet))
+        {
+            return false;
+        }
+
+        synchronized (this.durableReplayLock)
+        {
+            DurableMessageStore store = this.durableMessageStore;
+            if (store == null || (!store.hasReplayPending() && this.deferredPacketsQueue.isEmpty()))
+            {
+                return false;
+            }
+
+            this.deferredPacketsQueue.add(packet);
+            return true;
+        }
+    }
+
+    /**
+     * Moves the records left pending by a previous session from the durable message store to the waiting queue,
+     * oldest first, without callbacks. Only enough records are moved to bring the waiting messages up to the
+     * provided count, so a long backlog stays on disk rather than on the heap. Once the last record is moved, the
+     * packets held back during the replay follow it, in the order they were added.
+     * @param maxWaitingMessages the waiting message count up to which records are replayed
+     */
+    private void replayDurableMessages(int maxWaitingMessages)
+    {
+        DurableMessageStore store = this.durableMessageStore;
+        if (store == null)
+        {
+            return;
+        }
+
+        while (this.waitingPacketCount.get() < maxWaitingMessages)
+        {
+            long recordId = store.nextReplayRecordId();
+            if (recordId < 0)
+            {
+                synchronized (this.durableReplayLock)
+                {
+                    IotHubTransportPacket deferredPacket;
+                    while ((deferredPacket = this.deferredPacketsQueue.poll()) != null)
+                    {
+                        this.addWaitingPacket(deferredPacket);
+                    }
+                }
+
+                return;
+            }
+
+            Message message;
+            try
+            {
+                message = store.read(recordId);
+            }
+            catch (IOException e)
+            {
+                logger.LogError("Could not read a message from the durable queue, it is dropped, method name is %s ", logger.getLazyMethodName());
+                logger.LogError(e);
+                store.acknowledge(recordId);
+                continue;
+            }
+
+            message.setIotHubConnectionString(this.defaultConfig.getIotHubConnectionString());
+            IotHubTransportPacket packet = new IotHubTransportPacket(message, null, null, null, System.currentTimeMillis());
+
+            // replayed packets were admitted in a previous session, so they take room without waiting for it
+            this.pendingMessageCount.incrementAndGet();
+            this.pendingMessageBytes.addAndGet(getPacketSize(packet));
+            this.durableRecordIds.put(packet, recordId);
+            this.scheduleExpiry(packet);
+            this.addWaitingPacket(packet);
+        }
+    }
+
+    /**
+     * Getter for the lane of the waiting queue the provided packet waits in, based on the priority of its message.
+     * @param packet the packet that is going to wait
+     * @return the high priority lane or the normal lane
+     */
+    private Queue<IotHubTransportPacket> getWaitingQueue(IotHubTransportPacket packet)
+    {
+        Message message = packet.getMessage();
+        return message != null && message.getPriority() == MessagePriority.HIGH ? this.priorityPacketsQueue : this.waitingPacketsQueue;
+    }
+
+    /**
+     * Takes the next packet to send. The high priority lane goes first, unless the provided weight of high priority
+     * packets was sent in a row while normal packets were waiting.
+     * @param highPriorityWeight the number of high priority packets to send for each normal packet
+     * @return the next packet to send, or null if both lanes are empty
+     */
+    private IotHubTransportPacket pollWaitingPacket(int highPriorityWeight)
+    {
+        if (this.priorityPacketsInARow < highPriorityWeight || this.waitingPacketsQueue.isEmpty())
+        {
+            IotHubTransportPacket packet = this.priorityPacketsQueue.poll();
+            if (packet != null)
+            {
+                this.priorityPacketsInARow++;
+                this.waitingPacketCount.decrementAndGet();
+                return packet;
+            }
+        }
+
+        this.priorityPacketsInARow = 0;
+        return this.pollOldestWaitingPacket();
+    }
+
+    /**
+     * Takes a packet that has not been sent yet, from the normal lane first so that high priority packets are the
+     * last ones given up.
+     * @return the oldest normal packet, else the oldest high priority packet, or null if both lanes are empty
+     */
+    private IotHubTransportPacket pollOldestWaitingPacket()
+    {
+        IotHubTransportPacket packet = this.waitingPacketsQueue.poll();
+        if (packet == null)
+        {
+            packet = this.priorityPacketsQueue.poll();
+        }
+
+        if (packet != null)
+        {
+            this.waitingPacketCount.decrementAndGet();
+        }
+
+        return packet;
+    }
+
+    /**
+     * Takes the oldest packet of the normal lane that has not been sent yet.
+     * @return the oldest normal packet, or null if the normal lane is empty
+     */
+    private IotHubTransportPacket pollOldestNormalPacket()
+    {
+        IotHubTransportPacket packet = this.waitingPacketsQueue.poll();
+        if (packet != null)
+        {
+            this.waitingPacketCount.decrementAndGet();
+        }
+
+        return packet;
+    }
+
+    /**
+     * Adds the provided packet to its lane of the waiting queue.
+     * @param packet the packet that is going to wait
+     */
+    private void addWaitingPacket(IotHubTransportPacket packet)
+    {
+        this.getWaitingQueue(packet).add(packet);
+        this.waitingPacketCount.incrementAndGet();
+    }
+
+    private void addCallbackPacket(IotHubTransportPacket packet)
+    {
+        this.callbackPacketsQueue.add(packet);
+        this.callbackPacketCount.incrementAndGet();
+    }
+
+    private IotHubTransportPacket pollCallbackPacket()
+    {
+        IotHubTransportPacket packet = this.callbackPacketsQueue.poll();
+        if (packet != null)
+        {
+            this.callbackPacketCount.decrementAndGet();
+        }
+
+        return packet;
+    }
+
+    private void addReceivedMessage(IotHubTransportMessage message)
+    {
+        this.receivedMessagesQueue.add(message);
+        this.receivedMessageCount.incrementAndGet();
+    }
+
+    private IotHubTransportMessage pollReceivedMessage()
+    {
+        IotHubTransportMessage message = this.receivedMessagesQueue.poll();
+        if (message != null)
+        {
+            this.receivedMessageCount.decrementAndGet();
+        }
+
+        return message;
+    }
+
+    /**
+     * Checks if the provided packet is admitted regardless of the limits of the outbound queue, which is only the case
+     * of the transport messages used by twin and methods, such as method responses. High priority telemetry is
+     * limited like any other message, so that the priority of a message cannot be used to bypass the limits.
+     * @param packet the packet to check
+     * @return true if the packet does not wait for room in the outbound queue
+     */
+    private static boolean isExemptFromOutboundLimits(IotHubTransportPacket packet)
+    {
+        return packet.getMessage() instanceof IotHubTransportMessage;
+    }
+
+    private static long getPacketSize(IotHubTransportPacket packet)
+    {
+        Message message = packet.getMessage();
+        return message == null ? 0 : message.getBodyLength();
+    }
+
     /**
      * Sleep for a length of time without interruption
      * @param sleepFor length of time to sleep for
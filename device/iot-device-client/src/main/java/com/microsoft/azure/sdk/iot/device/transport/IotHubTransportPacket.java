@@ -21,6 +21,14 @@ public final class IotHubTransportPacket
     private final long startTimeMillis;
     private int currentRetryAttempt;
 
+    /* Timer tasks that expire this packet while it waits to be sent, and while it waits for an acknowledgement. They
+     * are cancelled once the packet completes, so that the timer does not hold on to it. */
+    private volatile HashedWheelTimer.Timeout expiryTimeout;
+    private volatile HashedWheelTimer.Timeout acknowledgementTimeout;
+
+    /* The trace of this packet, if it was sampled for tracing. */
+    private MessageTrace trace;
+
     /**
      * Constructor.
      *
@@ -139,4 +147,64 @@ public final class IotHubTransportPacket
         // Codes_SRS_IOTHUBTRANSPORTPACKET_34_009: [This function shall increment the saved retry attempt count by 1.]
         this.currentRetryAttempt++;
     }
+
+    /**
+     * Saves the timer task that expires this packet while it waits to be sent.
+     * @param expiryTimeout the timer task
+     */
+    void setExpiryTimeout(HashedWheelTimer.Timeout expiryTimeout)
+    {
+        this.expiryTimeout = expiryTimeout;
+    }
+
+    /**
+     * Saves the timer task that gives up on this packet if it is not acknowledged in time, and cancels the one of a
+     * previous send attempt.
+     * @param acknowledgementTimeout the timer task
+     */
+    void setAcknowledgementTimeout(HashedWheelTimer.Timeout acknowledgementTimeout)
+    {
+        HashedWheelTimer.Timeout previousTimeout = this.acknowledgementTimeout;
+        this.acknowledgementTimeout = acknowledgementTimeout;
+        if (previousTimeout != null)
+        {
+            previousTimeout.cancel();
+        }
+    }
+
+    /**
+     * Getter for the trace of this packet.
+     * @return the trace, or {@code null} if this packet is not traced
+     */
+    MessageTrace getTrace()
+    {
+        return this.trace;
+    }
+
+    /**
+     * Saves the trace of this packet, before the packet is queued.
+     * @param trace the trace
+     */
+    void setTrace(MessageTrace trace)
+    {
+        this.trace = trace;
+    }
+
+    /**
+     * Cancels the timer tasks of this packet.
+     */
+    void cancelTimeouts()
+    {
+        HashedWheelTimer.Timeout timeout = this.expiryTimeout;
+        if (timeout != null)
+        {
+            timeout.cancel();
+        }
+
+        timeout = this.acknowledgementTimeout;
+        if (timeout != null)
+        {
+            timeout.cancel();
+        }
+    }
 }
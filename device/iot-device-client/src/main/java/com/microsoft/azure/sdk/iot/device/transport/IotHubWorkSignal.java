@@ -0,0 +1,117 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+/**
+ * Wake up signal between the transport and the worker thread that drains it. A signal raised while no worker is
+ * waiting is remembered, so the next call to {@link #await(long)} returns immediately and no wake up is lost.
+ * Instead of a waiting worker, a listener can be told when the signal is raised, so the work can be dispatched to a
+ * shared thread.
+ */
+public final class IotHubWorkSignal
+{
+    private final Object lock = new Object();
+    private volatile boolean signaled;
+    private volatile Runnable listener;
+
+    /**
+     * Wakes up the worker waiting on this signal, or marks the signal as pending if no worker is waiting.
+     */
+    public void signal()
+    {
+        if (this.signaled)
+        {
+            // a wake up is already pending, the worker has not consumed it yet.
+            return;
+        }
+
+        synchronized (this.lock)
+        {
+            this.signaled = true;
+            this.lock.notifyAll();
+        }
+
+        Runnable listener = this.listener;
+        if (listener != null)
+        {
+            listener.run();
+        }
+    }
+
+    /**
+     * Setter for the listener run on the signaling thread each time the signal is raised while it was not pending.
+     *
+     * @param listener the listener to run, or {@code null} to remove the listener.
+     */
+    public void setListener(Runnable listener)
+    {
+        this.listener = listener;
+    }
+
+    /**
+     * Clears the signal without waiting for it.
+     *
+     * @return {@code true} if the signal was pending.
+     */
+    public boolean clear()
+    {
+        synchronized (this.lock)
+        {
+            boolean wasSignaled = this.signaled;
+            this.signaled = false;
+            return wasSignaled;
+        }
+    }
+
+    /**
+     * @return {@code true} if the signal is raised and was not cleared yet.
+     */
+    public boolean isSignaled()
+    {
+        return this.signaled;
+    }
+
+    /**
+     * Parks the calling thread until the signal is raised or the timeout elapses, then clears the signal.
+     *
+     * @param timeoutMillis the maximum time to wait in milliseconds, or 0 to wait until signaled.
+     * @return {@code true} if the signal was raised, {@code false} if the timeout elapsed first.
+     * @throws InterruptedException if the calling thread is interrupted while waiting.
+     */
+    public boolean await(long timeoutMillis) throws InterruptedException
+    {
+        if (timeoutMillis < 0)
+        {
+            throw new IllegalArgumentException("timeoutMillis cannot be negative");
+        }
+
+        synchronized (this.lock)
+        {
+            if (!this.signaled)
+            {
+                if (timeoutMillis == 0)
+                {
+                    while (!this.signaled)
+                    {
+                        this.lock.wait();
+                    }
+                }
+                else
+                {
+                    long deadline = System.currentTimeMillis() + timeoutMillis;
+                    long remaining = timeoutMillis;
+                    while (!this.signaled && remaining > 0)
+                    {
+                        this.lock.wait(remaining);
+                        remaining = deadline - System.currentTimeMillis();
+                    }
+                }
+            }
+
+            boolean wasSignaled = this.signaled;
+            this.signaled = false;
+            return wasSignaled;
+        }
+    }
+}
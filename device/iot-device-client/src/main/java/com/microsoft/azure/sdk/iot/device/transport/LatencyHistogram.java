@@ -0,0 +1,183 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in milliseconds, with a fixed memory footprint and no allocation when recording, so it can
+ * be left on in production.
+ *
+ * Values are counted in buckets that split each power of two into eight, so a percentile is reported with an error of
+ * at most 12.5%. Values below eight milliseconds are exact, and values above about twelve days all land in the last
+ * bucket. Recording is thread safe and lock free. The histograms returned by {@link TransportMetrics} are copies that
+ * no longer change.
+ */
+public final class LatencyHistogram
+{
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40;
+    private static final int BUCKET_COUNT = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    /**
+     * Constructor for an empty histogram.
+     */
+    public LatencyHistogram()
+    {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * Records a duration. Negative durations, which can come from the wall clock going back, are recorded as zero.
+     *
+     * @param milliseconds the duration to record, in milliseconds.
+     */
+    public void record(long milliseconds)
+    {
+        long value = Math.max(0, milliseconds);
+        this.counts.incrementAndGet(bucketIndex(value));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(value);
+
+        long currentMax = this.max.get();
+        while (value > currentMax && !this.max.compareAndSet(currentMax, value))
+        {
+            currentMax = this.max.get();
+        }
+    }
+
+    /**
+     * Getter for the number of recorded durations.
+     *
+     * @return the number of recorded durations.
+     */
+    public long getCount()
+    {
+        return this.count.get();
+    }
+
+    /**
+     * Getter for the longest recorded duration.
+     *
+     * @return the longest duration in milliseconds, or 0 if nothing was recorded.
+     */
+    public long getMax()
+    {
+        return this.max.get();
+    }
+
+    /**
+     * Getter for the mean of the recorded durations.
+     *
+     * @return the mean duration in milliseconds, or 0 if nothing was recorded.
+     */
+    public double getMean()
+    {
+        long recordedCount = this.count.get();
+        return recordedCount == 0 ? 0 : (double) this.sum.get() / recordedCount;
+    }
+
+    /**
+     * Getter for the duration below which the provided percentage of the recorded durations fall.
+     *
+     * @param percentile the percentile, between 0 and 100.
+     * @return the duration in milliseconds, rounded up to the end of its bucket and capped to the longest recorded
+     * duration, or 0 if nothing was recorded.
+     * @throws IllegalArgumentException if the percentile is not between 0 and 100.
+     */
+    public long getValueAtPercentile(double percentile) throws IllegalArgumentException
+    {
+        if (percentile < 0 || percentile > 100)
+        {
+            throw new IllegalArgumentException("Percentile must be between 0 and 100");
+        }
+
+        long recordedCount = this.count.get();
+        if (recordedCount == 0)
+        {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * recordedCount));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            seen += this.counts.get(i);
+            if (seen >= rank)
+            {
+                return Math.min(bucketUpperBound(i), this.max.get());
+            }
+        }
+
+        return this.max.get();
+    }
+
+    /**
+     * Copies this histogram. The copy does not see the durations recorded after this call.
+     *
+     * @return a new histogram with the same content.
+     */
+    public LatencyHistogram copy()
+    {
+        LatencyHistogram copy = new LatencyHistogram();
+        long copiedCount = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++)
+        {
+            long bucketCount = this.counts.get(i);
+            copy.counts.set(i, bucketCount);
+            copiedCount += bucketCount;
+        }
+
+        // the bucket counts are the reference, so that percentiles stay consistent with the count of the copy
+        copy.count.set(copiedCount);
+        copy.sum.set(this.sum.get());
+        copy.max.set(this.max.get());
+        return copy;
+    }
+
+    private static int bucketIndex(long value)
+    {
+        if (value < SUB_BUCKET_COUNT)
+        {
+            return (int) value;
+        }
+
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if (exponent > MAX_EXPONENT)
+        {
+            return BUCKET_COUNT - 1;
+        }
+
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    private static long bucketUpperBound(int index)
+    {
+        if (index < SUB_BUCKET_COUNT)
+        {
+            return index;
+        }
+
+        if (index == BUCKET_COUNT - 1)
+        {
+            return Long.MAX_VALUE;
+        }
+
+        int exponent = index / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = index % SUB_BUCKET_COUNT;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (1L << exponent) + (subBucket + 1) * width - 1;
+    }
+}
@@ -0,0 +1,151 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.MessageType;
+
+/**
+ * The timestamps of the stages a message went through in the transport, from the moment it was added to the moment
+ * its callback returned. The time between two stages tells where the message waited: in the waiting queue before
+ * being dequeued, in the protocol layer before reaching the wire, for example for an MQTT in flight slot or for AMQP
+ * link credit, for the acknowledgement of the IoT Hub, or for the callback queue.
+ * <p>
+ * The timestamps are values of {@link System#nanoTime()}, so they are only meaningful relative to each other. A stage
+ * the message did not reach has a timestamp of 0. When a message is retried, the dequeue and send timestamps are the
+ * ones of the last attempt.
+ */
+public final class MessageTrace
+{
+    private final String messageId;
+    private final MessageType messageType;
+    private final long enqueuedNanos;
+    private volatile long dequeuedNanos;
+    private volatile long sentNanos;
+    private volatile long acknowledgedNanos;
+    private volatile long callbackNanos;
+    private volatile int retryAttempts;
+    private volatile IotHubStatusCode status;
+
+    MessageTrace(String messageId, MessageType messageType, long enqueuedNanos)
+    {
+        this.messageId = messageId;
+        this.messageType = messageType;
+        this.enqueuedNanos = enqueuedNanos;
+    }
+
+    /**
+     * Getter for the ID of the traced message.
+     *
+     * @return the message ID.
+     */
+    public String getMessageId()
+    {
+        return this.messageId;
+    }
+
+    /**
+     * Getter for the type of the traced message.
+     *
+     * @return the message type.
+     */
+    public MessageType getMessageType()
+    {
+        return this.messageType;
+    }
+
+    /**
+     * Getter for the time the message was added to the waiting queue.
+     *
+     * @return the enqueue timestamp, in nanoseconds.
+     */
+    public long getEnqueuedNanos()
+    {
+        return this.enqueuedNanos;
+    }
+
+    /**
+     * Getter for the time the message was taken out of the waiting queue to be sent.
+     *
+     * @return the dequeue timestamp, in nanoseconds, or 0 if the message was never dequeued.
+     */
+    public long getDequeuedNanos()
+    {
+        return this.dequeuedNanos;
+    }
+
+    /**
+     * Getter for the time the protocol layer accepted the message for sending. Over AMQP, this is the time the
+     * message was written to its link, once the link had credit for it, rather than the time the connection queued it.
+     *
+     * @return the send timestamp, in nanoseconds, or 0 if the message was never sent.
+     */
+    public long getSentNanos()
+    {
+        return this.sentNanos;
+    }
+
+    /**
+     * Getter for the time the transport got the final result of the message, which is the acknowledgement of the IoT
+     * Hub, or the error, expiry or cancellation that ended it.
+     *
+     * @return the acknowledgement timestamp, in nanoseconds, or 0 if the message never completed.
+     */
+    public long getAcknowledgedNanos()
+    {
+        return this.acknowledgedNanos;
+    }
+
+    /**
+     * Getter for the time the callback of the message returned.
+     *
+     * @return the callback timestamp, in nanoseconds, or 0 if the message had no callback.
+     */
+    public long getCallbackNanos()
+    {
+        return this.callbackNanos;
+    }
+
+    /**
+     * Getter for the number of failed send attempts of the message.
+     *
+     * @return the number of retry attempts.
+     */
+    public int getRetryAttempts()
+    {
+        return this.retryAttempts;
+    }
+
+    /**
+     * Getter for the final status of the message.
+     *
+     * @return the status the callback of the message was invoked with.
+     */
+    public IotHubStatusCode getStatus()
+    {
+        return this.status;
+    }
+
+    void recordDequeued()
+    {
+        this.dequeuedNanos = System.nanoTime();
+    }
+
+    void recordSent()
+    {
+        this.sentNanos = System.nanoTime();
+    }
+
+    void recordAcknowledged(IotHubStatusCode status, int retryAttempts)
+    {
+        this.acknowledgedNanos = System.nanoTime();
+        this.status = status;
+        this.retryAttempts = retryAttempts;
+    }
+
+    void recordCallback()
+    {
+        this.callbackNanos = System.nanoTime();
+    }
+}
@@ -0,0 +1,22 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+/**
+ * An interface for the listener of the traces of the messages sent by a client.
+ * <p>
+ * The developer is expected to create an implementation of this interface and set it on the client, with the share of
+ * the messages to trace. The transport calls {@link MessageTraceListener#onMessageTraced(MessageTrace)} once for each
+ * traced message, after its callback returned, on the thread that invoked the callback. The listener should return
+ * quickly, for example by handing the trace to a metrics or logging pipeline.
+ */
+public interface MessageTraceListener
+{
+    /**
+     * Receives the trace of a message that completed.
+     *
+     * @param trace the timestamps of the stages the message went through.
+     */
+    void onMessageTraced(MessageTrace trace);
+}
@@ -0,0 +1,147 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs callbacks on a user supplied executor, one at a time and in the order they were submitted, even if the
+ * executor has many threads and is shared by many clients. A callback that throws is logged and does not stop the
+ * ones after it.
+ *
+ * A run of the executor invokes a bounded number of callbacks before giving its thread back, so clients sharing the
+ * executor take turns. If the executor rejects a run, for example because it was shut down, the callbacks are
+ * invoked on the submitting thread instead.
+ */
+public final class OrderedCallbackExecutor implements Executor
+{
+    private static final int MAX_CALLBACKS_PER_RUN = 64;
+
+    private final Executor executor;
+    private final Queue<Runnable> callbacks = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queuedCallbackCount = new AtomicInteger();
+    private final AtomicBoolean running = new AtomicBoolean();
+    private final CustomLogger logger;
+
+    private final Runnable runCallbacks = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            runQueuedCallbacks();
+
+            // callbacks left over, or added after the last poll, need another run
+            scheduleRun();
+        }
+    };
+
+    /**
+     * Constructor.
+     *
+     * @param executor the executor to invoke the callbacks on.
+     * @throws IllegalArgumentException if the executor is null.
+     */
+    public OrderedCallbackExecutor(Executor executor) throws IllegalArgumentException
+    {
+        if (executor == null)
+        {
+            throw new IllegalArgumentException("Executor cannot be null");
+        }
+
+        this.executor = executor;
+        this.logger = new CustomLogger(this.getClass());
+    }
+
+    /**
+     * Queues the provided callback to run after all the callbacks submitted before it.
+     *
+     * @param callback the callback to run.
+     * @throws IllegalArgumentException if the callback is null.
+     */
+    @Override
+    public void execute(Runnable callback) throws IllegalArgumentException
+    {
+        if (callback == null)
+        {
+            throw new IllegalArgumentException("Callback cannot be null");
+        }
+
+        this.queuedCallbackCount.incrementAndGet();
+        this.callbacks.add(callback);
+        this.scheduleRun();
+    }
+
+    /**
+     * Getter for the number of submitted callbacks that have not started yet.
+     *
+     * @return the number of queued callbacks.
+     */
+    public int getQueuedCallbackCount()
+    {
+        return this.queuedCallbackCount.get();
+    }
+
+    private void scheduleRun()
+    {
+        boolean rejected = false;
+
+        // only one run at a time, which is what keeps the callbacks in order
+        while (!this.callbacks.isEmpty() && this.running.compareAndSet(false, true))
+        {
+            try
+            {
+                this.executor.execute(this.runCallbacks);
+                return;
+            }
+            catch (RejectedExecutionException e)
+            {
+                if (!rejected)
+                {
+                    logger.LogError("The callback executor rejected the callbacks, they are invoked on the calling thread, method name is %s ", logger.getLazyMethodName());
+                    rejected = true;
+                }
+
+                // the runs go one after the other in this loop, so a long backlog does not grow the stack
+                this.runQueuedCallbacks();
+            }
+        }
+    }
+
+    private void runQueuedCallbacks()
+    {
+        try
+        {
+            for (int i = 0; i < MAX_CALLBACKS_PER_RUN; i++)
+            {
+                Runnable callback = this.callbacks.poll();
+                if (callback == null)
+                {
+                    break;
+                }
+
+                this.queuedCallbackCount.decrementAndGet();
+                try
+                {
+                    callback.run();
+                }
+                catch (RuntimeException e)
+                {
+                    logger.LogError("A callback threw an exception, method name is %s ", logger.getLazyMethodName());
+                    logger.LogError(e);
+                }
+            }
+        }
+        finally
+        {
+            this.running.set(false);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+/*
+ *
+ *  Copyright (c) Microsoft. All rights reserved.
+ *  Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ *
+ */
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+/**
+ * Limits how many messages, and how many bytes of payload, the transport holds between the time they are queued
+ * for sending and the time their callback is queued. This includes messages waiting to be sent, messages waiting
+ * for an acknowledgement and messages waiting to be retried. The overflow mode decides what happens to a new
+ * message when the limits are reached.
+ *
+ * Twin and method messages are always queued, so that telemetry cannot fail or stall them. They count towards the
+ * limits, but they are never rejected, blocked or dropped to make room. Telemetry with a high priority is limited
+ * like any other telemetry, except that only normal priority messages are dropped to make room.
+ */
+public class OutboundQueuePolicy
+{
+    /**
+     * What the transport does with a new message that would exceed the capacity of the queue.
+     */
+    public enum OverflowMode
+    {
+        /**
+         * The caller blocks until there is room for the message, or until the block timeout elapses. If the
+         * timeout elapses, the message is rejected. Do not use this mode when messages are sent from inside a
+         * message callback, since the callback thread is the one that frees the room.
+         */
+        BLOCK,
+
+        /**
+         * The message is not queued, and its callback is invoked with MESSAGE_CANCELLED_QUEUE_FULL.
+         */
+        REJECT,
+
+        /**
+         * The oldest messages still waiting to be sent are dropped, and their callbacks invoked with
+         * MESSAGE_CANCELLED_QUEUE_FULL, until there is room for the new message.
+         */
+        DROP_OLDEST,
+
+        /**
+         * Expired messages still waiting to be sent are dropped first, and their callbacks invoked with
+         * MESSAGE_EXPIRED. If there is still no room, the oldest waiting messages are dropped as in DROP_OLDEST.
+         */
+        DROP_EXPIRED_FIRST
+    }
+
+    private static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 10 * 1000; //10 seconds
+
+    private final int maxMessages;
+    private final long maxBytes;
+    private final OverflowMode overflowMode;
+    private final long blockTimeoutMillis;
+
+    /**
+     * Constructor with default values. The queue is not bounded, which is the behavior of previous releases.
+     */
+    public OutboundQueuePolicy()
+    {
+        this(Integer.MAX_VALUE, Long.MAX_VALUE, OverflowMode.REJECT, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param maxMessages the maximum number of messages in the queue.
+     * @param maxBytes the maximum number of payload bytes in the queue.
+     * @param overflowMode what to do with a new message when the queue is full.
+     * @param blockTimeoutMillis how long, in milliseconds, the caller waits for room in BLOCK mode. Ignored by the
+     *                           other modes.
+     * @throws IllegalArgumentException if a limit is 0 or negative, if the overflow mode is null or if the block
+     * timeout is negative.
+     */
+    public OutboundQueuePolicy(int maxMessages, long maxBytes, OverflowMode overflowMode, long blockTimeoutMillis)
+    {
+        if (maxMessages <= 0)
+        {
+            throw new IllegalArgumentException("Max messages cannot be 0 or negative");
+        }
+
+        if (maxBytes <= 0)
+        {
+            throw new IllegalArgumentException("Max bytes cannot be 0 or negative");
+        }
+
+        if (overflowMode == null)
+        {
+            throw new IllegalArgumentException("Overflow mode cannot be null");
+        }
+
+        if (blockTimeoutMillis < 0)
+        {
+            throw new IllegalArgumentException("Block timeout cannot be negative");
+        }
+
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+        this.overflowMode = overflowMode;
+        this.blockTimeoutMillis = blockTimeoutMillis;
+    }
+
+    /**
+     * Getter for the maximum number of messages in the queue.
+     * @return the maximum number of messages.
+     */
+    public int getMaxMessages()
+    {
+        return this.maxMessages;
+    }
+
+    /**
+     * Getter for the maximum number of payload bytes in the queue.
+     * @return the maximum number of bytes.
+     */
+    public long getMaxBytes()
+    {
+        return this.maxBytes;
+    }
+
+    /**
+     * Getter for the overflow mode.
+     * @return what the transport does with a new message when the queue is full.
+     */
+    public OverflowMode getOverflowMode()
+    {
+        return this.overflowMode;
+    }
+
+    /**
+     * Getter for the block timeout.
+     * @return how long, in milliseconds, the caller waits for room in BLOCK mode.
+     */
+    public long getBlockTimeoutMillis()
+    {
+        return this.blockTimeoutMillis;
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ *
+ *  Copyright (c) Microsoft. All rights reserved.
+ *  Licensed under the MIT license. See LICENSE file in the project root for full license information.
+ *
+ */
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+/**
+ * Limits how much of the waiting queue the transport sends each time the send task runs. A drain stops at whichever
+ * comes first of the message budget, the byte budget and the time slice. The message budget starts at the minimum,
+ * doubles after each drain that leaves a backlog while connected, up to the maximum, and halves back down once the
+ * backlog is gone. While both lanes of the waiting queue have packets, a drain sends up to the high priority weight
+ * of high priority packets for each normal packet.
+ */
+public class SendDrainPolicy
+{
+    private static final int DEFAULT_MIN_MESSAGES_PER_DRAIN = 10;
+    private static final int DEFAULT_MAX_MESSAGES_PER_DRAIN = 1000;
+    private static final long DEFAULT_MAX_BYTES_PER_DRAIN = 4 * 1024 * 1024; //4 MB
+    private static final long DEFAULT_MAX_TIME_SLICE_MILLIS = 100;
+    private static final int DEFAULT_HIGH_PRIORITY_WEIGHT = 8;
+
+    private final int minMessagesPerDrain;
+    private final int maxMessagesPerDrain;
+    private final long maxBytesPerDrain;
+    private final long maxTimeSliceMillis;
+    private final int highPriorityWeight;
+
+    /**
+     * Constructor with default values. A drain sends between 10 and 1000 messages, at most 4 MB of payload, lasts at
+     * most 100 milliseconds, and sends up to 8 high priority messages for each normal message.
+     */
+    public SendDrainPolicy()
+    {
+        this(DEFAULT_MIN_MESSAGES_PER_DRAIN, DEFAULT_MAX_MESSAGES_PER_DRAIN, DEFAULT_MAX_BYTES_PER_DRAIN, DEFAULT_MAX_TIME_SLICE_MILLIS);
+    }
+
+    /**
+     * Constructor with the default high priority weight of 8.
+     *
+     * @param minMessagesPerDrain the message budget of a drain when the waiting queue is not backlogged.
+     * @param maxMessagesPerDrain the largest message budget the drain can grow to while the waiting queue is backlogged.
+     * @param maxBytesPerDrain the payload size, in bytes, after which a drain stops. The message that crosses the
+     *                         limit is still sent, so a drain always sends at least one message.
+     * @param maxTimeSliceMillis the time, in milliseconds, after which a drain stops.
+     * @throws IllegalArgumentException if any limit is 0 or negative, or if the minimum is greater than the maximum.
+     */
+    public SendDrainPolicy(int minMessagesPerDrain, int maxMessagesPerDrain, long maxBytesPerDrain, long maxTimeSliceMillis)
+    {
+        this(minMessagesPerDrain, maxMessagesPerDrain, maxBytesPerDrain, maxTimeSliceMillis, DEFAULT_HIGH_PRIORITY_WEIGHT);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param minMessagesPerDrain the message budget of a drain when the waiting queue is not backlogged.
+     * @param maxMessagesPerDrain the largest message budget the drain can grow to while the waiting queue is backlogged.
+     * @param maxBytesPerDrain the payload size, in bytes, after which a drain stops. The message that crosses the
+     *                         limit is still sent, so a drain always sends at least one message.
+     * @param maxTimeSliceMillis the time, in milliseconds, after which a drain stops.
+     * @param highPriorityWeight the number of high priority messages sent for each normal message while both lanes
+     *                           have messages waiting.
+     * @throws IllegalArgumentException if any limit or the weight is 0 or negative, or if the minimum is greater
+     * than the maximum.
+     */
+    public SendDrainPolicy(int minMessagesPerDrain, int maxMessagesPerDrain, long maxBytesPerDrain, long maxTimeSliceMillis, int highPriorityWeight)
+    {
+        if (minMessagesPerDrain <= 0 || maxMessagesPerDrain <= 0)
+        {
+            throw new IllegalArgumentException("Messages per drain cannot be 0 or negative");
+        }
+
+        if (minMessagesPerDrain > maxMessagesPerDrain)
+        {
+            throw new IllegalArgumentException("Minimum messages per drain cannot be greater than maximum messages per drain");
+        }
+
+        if (maxBytesPerDrain <= 0)
+        {
+            throw new IllegalArgumentException("Bytes per drain cannot be 0 or negative");
+        }
+
+        if (maxTimeSliceMillis <= 0)
+        {
+            throw new IllegalArgumentException("Time slice cannot be 0 or negative");
+        }
+
+        if (highPriorityWeight <= 0)
+        {
+            throw new IllegalArgumentException("High priority weight cannot be 0 or negative");
+        }
+
+        this.minMessagesPerDrain = minMessagesPerDrain;
+        this.maxMessagesPerDrain = maxMessagesPerDrain;
+        this.maxBytesPerDrain = maxBytesPerDrain;
+        this.maxTimeSliceMillis = maxTimeSliceMillis;
+        this.highPriorityWeight = highPriorityWeight;
+    }
+
+    /**
+     * Computes the message budget of the next drain.
+     *
+     * @param currentMessagesPerDrain the message budget of the drain that just finished.
+     * @param backlogged if the drain that just finished left packets in the waiting queue while connected.
+     * @return the message budget of the next drain, between the minimum and the maximum.
+     */
+    public int getNextMessagesPerDrain(int currentMessagesPerDrain, boolean backlogged)
+    {
+        int next;
+        if (backlogged)
+        {
+            // double without overflowing
+            next = currentMessagesPerDrain > this.maxMessagesPerDrain / 2 ? this.maxMessagesPerDrain : currentMessagesPerDrain * 2;
+        }
+        else
+        {
+            next = currentMessagesPerDrain / 2;
+        }
+
+        return Math.max(this.minMessagesPerDrain, Math.min(this.maxMessagesPerDrain, next));
+    }
+
+    /**
+     * Getter for the message budget of a drain when the waiting queue is not backlogged.
+     * @return the minimum number of messages per drain.
+     */
+    public int getMinMessagesPerDrain()
+    {
+        return this.minMessagesPerDrain;
+    }
+
+    /**
+     * Getter for the largest message budget of a drain.
+     * @return the maximum number of messages per drain.
+     */
+    public int getMaxMessagesPerDrain()
+    {
+        return this.maxMessagesPerDrain;
+    }
+
+    /**
+     * Getter for the payload size after which a drain stops.
+     * @return the maximum number of payload bytes per drain.
+     */
+    public long getMaxBytesPerDrain()
+    {
+        return this.maxBytesPerDrain;
+    }
+
+    /**
+     * Getter for the time after which a drain stops.
+     * @return the maximum duration of a drain, in milliseconds.
+     */
+    public long getMaxTimeSliceMillis()
+    {
+        return this.maxTimeSliceMillis;
+    }
+
+    /**
+     * Getter for the number of high priority messages sent for each normal message while both lanes have messages
+     * waiting.
+     * @return the high priority weight.
+     */
+    public int getHighPriorityWeight()
+    {
+        return this.highPriorityWeight;
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport;
+
+/**
+ * A point in time view of the queues and counters of a transport. The queue depths are read one after the other while
+ * the transport keeps running, so they may not add up exactly. The counters and histograms cover the lifetime of the
+ * client, across reconnections.
+ */
+public final class TransportMetrics
+{
+    private final int waitingMessageCount;
+    private final int inProgressMessageCount;
+    private final int callbackCount;
+    private final int receivedMessageCount;
+    private final long acknowledgedMessageCount;
+    private final long retryCount;
+    private final long reconnectionCount;
+    private final LatencyHistogram acknowledgementLatency;
+    private final LatencyHistogram reconnectionDuration;
+
+    TransportMetrics(int waitingMessageCount,
+                     int inProgressMessageCount,
+                     int callbackCount,
+                     int receivedMessageCount,
+                     long acknowledgedMessageCount,
+                     long retryCount,
+                     long reconnectionCount,
+                     LatencyHistogram acknowledgementLatency,
+                     LatencyHistogram reconnectionDuration)
+    {
+        this.waitingMessageCount = waitingMessageCount;
+        this.inProgressMessageCount = inProgressMessageCount;
+        this.callbackCount = callbackCount;
+        this.receivedMessageCount = receivedMessageCount;
+        this.acknowledgedMessageCount = acknowledgedMessageCount;
+        this.retryCount = retryCount;
+        this.reconnectionCount = reconnectionCount;
+        this.acknowledgementLatency = acknowledgementLatency;
+        this.reconnectionDuration = reconnectionDuration;
+    }
+
+    /**
+     * Getter for the number of messages waiting to be sent, not counting the ones waiting for a retry.
+     *
+     * @return the number of waiting messages.
+     */
+    public int getWaitingMessageCount()
+    {
+        return this.waitingMessageCount;
+    }
+
+    /**
+     * Getter for the number of messages sent and waiting for an acknowledgement.
+     *
+     * @return the number of messages in progress.
+     */
+    public int getInProgressMessageCount()
+    {
+        return this.inProgressMessageCount;
+    }
+
+    /**
+     * Getter for the number of completed messages whose callback has not been invoked yet.
+     *
+     * @return the number of queued callbacks.
+     */
+    public int getCallbackCount()
+    {
+        return this.callbackCount;
+    }
+
+    /**
+     * Getter for the number of messages received from the IoT Hub and not handled yet.
+     *
+     * @return the number of received messages.
+     */
+    public int getReceivedMessageCount()
+    {
+        return this.receivedMessageCount;
+    }
+
+    /**
+     * Getter for the number of messages the IoT Hub accepted.
+     *
+     * @return the number of acknowledged messages.
+     */
+    public long getAcknowledgedMessageCount()
+    {
+        return this.acknowledgedMessageCount;
+    }
+
+    /**
+     * Getter for the number of times a message was scheduled to be sent again after a failure.
+     *
+     * @return the number of message retries.
+     */
+    public long getRetryCount()
+    {
+        return this.retryCount;
+    }
+
+    /**
+     * Getter for the number of times the connection was re-established after it was lost.
+     *
+     * @return the number of successful reconnections.
+     */
+    public long getReconnectionCount()
+    {
+        return this.reconnectionCount;
+    }
+
+    /**
+     * Getter for the time between adding a message and its acknowledgement by the IoT Hub, in milliseconds, including
+     * the time spent in the queue and in retries.
+     *
+     * @return the acknowledgement latency histogram.
+     */
+    public LatencyHistogram getAcknowledgementLatency()
+    {
+        return this.acknowledgementLatency;
+    }
+
+    /**
+     * Getter for the time between losing the connection and re-establishing it, in milliseconds.
+     *
+     * @return the reconnection duration histogram.
+     */
+    public LatencyHistogram getReconnectionDuration()
+    {
+        return this.reconnectionDuration;
+    }
+}
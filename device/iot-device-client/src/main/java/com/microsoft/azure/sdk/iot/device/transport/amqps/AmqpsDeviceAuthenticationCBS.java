@@ -48,6 +48,9 @@ public final class AmqpsDeviceAuthenticationCBS extends AmqpsDeviceAuthenticatio
 
     private final DeviceClientConfig deviceClientConfig;
 
+    /* Wakes the reactor up so that it sends the queued messages right away, null until the connection sets it. */
+    private volatile Runnable reactorWakeup;
+
     private CustomLogger logger;
 
     /**
@@ -81,6 +84,17 @@ public final class AmqpsDeviceAuthenticationCBS extends AmqpsDeviceAuthenticatio
         this.logger = new CustomLogger(this.getClass());
     }
 
+    /**
+     * Sets the hook that wakes the reactor up once an authentication message is queued, so that the reactor thread
+     * sends it on its next cycle.
+     *
+     * @param reactorWakeup the hook that wakes the reactor up.
+     */
+    void setReactorWakeup(Runnable reactorWakeup)
+    {
+        this.reactorWakeup = reactorWakeup;
+    }
+
     /**
      * Send message from the waiting queue
      */
@@ -232,6 +246,12 @@ public final class AmqpsDeviceAuthenticationCBS extends AmqpsDeviceAuthenticatio
 
         // Codes_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_034: [THe function shall put the message into the waiting queue.]
         this.waitingMessages.add(outgoingMessage);
+
+        Runnable reactorWakeup = this.reactorWakeup;
+        if (reactorWakeup != null)
+        {
+            reactorWakeup.run();
+        }
     }
 
     /**
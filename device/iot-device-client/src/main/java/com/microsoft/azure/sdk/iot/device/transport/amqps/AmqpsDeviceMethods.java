@@ -118,6 +118,23 @@ public final class AmqpsDeviceMethods extends AmqpsDeviceOperations
         }
     }
 
+    /**
+     * Getter for the name of the sender link that sends the messages of the given type
+     *
+     * @param messageType The message operation type.
+     * @return the sender link tag if the message type is DEVICE_METHODS, null otherwise.
+     */
+    @Override
+    protected String getSenderLinkName(MessageType messageType)
+    {
+        if (messageType == MessageType.DEVICE_METHODS)
+        {
+            return this.getSenderLinkTag();
+        }
+
+        return null;
+    }
+
     /**
      * Read the message from Proton if the link name matches
      * Set the message type to methods
@@ -310,12 +327,13 @@ public final class AmqpsDeviceMethods extends AmqpsDeviceOperations
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSDEVICEMETHODS_12_032: [The function shall copy the user properties to Proton message application properties excluding the reserved property names.]
-        int propertiesLength = deviceMethodMessage.getProperties().length;
+        int propertiesLength = deviceMethodMessage.getPropertyCount();
         Map<String, Object> userProperties = new HashMap<>(propertiesLength);
         if (propertiesLength > 0)
         {
-            for(MessageProperty messageProperty : deviceMethodMessage.getProperties())
+            for (int i = 0; i < propertiesLength; i++)
             {
+                MessageProperty messageProperty = deviceMethodMessage.getPropertyAt(i);
                 if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
                 {
                     userProperties.put(messageProperty.getName(), messageProperty.getValue());
@@ -333,7 +351,7 @@ public final class AmqpsDeviceMethods extends AmqpsDeviceOperations
         outgoingMessage.setApplicationProperties(applicationProperties);
 
         // Codes_SRS_AMQPSDEVICEMETHODS_12_040: [The function shall set the proton message body using the IotHubTransportMessage body.]
-        Binary binary = new Binary(deviceMethodMessage.getBytes());
+        Binary binary = new Binary(deviceMethodMessage.getBytesWithoutCopy());
         Section section = new Data(binary);
         outgoingMessage.setBody(section);
         return outgoingMessage;
@@ -33,6 +33,9 @@ public class AmqpsDeviceOperations
     protected static final String USER_ID_KEY = "userId";
     protected static final String AMQPS_APP_PROPERTY_PREFIX = "iothub-app-";
 
+    /* The message format of a delivery that holds a single message. */
+    protected static final int DEFAULT_MESSAGE_FORMAT = 0;
+
     protected AmqpsDeviceOperationLinkState amqpsSendLinkState = AmqpsDeviceOperationLinkState.UNKNOWN;
     protected AmqpsDeviceOperationLinkState amqpsRecvLinkState = AmqpsDeviceOperationLinkState.UNKNOWN;
 
@@ -102,7 +105,7 @@ public class AmqpsDeviceOperations
      */
     protected synchronized void openLinks(Session session) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_006: [The function shall throw IllegalArgumentException if the session argument is null.]
         if (session == null)
@@ -167,7 +170,7 @@ public class AmqpsDeviceOperations
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -175,7 +178,7 @@ public class AmqpsDeviceOperations
      */
     protected void closeLinks()
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_011: [If the sender link is not null the function shall close it and sets it to null.]
         if (this.senderLink != null)
@@ -192,7 +195,7 @@ public class AmqpsDeviceOperations
         this.amqpsSendLinkState = AmqpsDeviceOperationLinkState.CLOSED;
         this.amqpsRecvLinkState = AmqpsDeviceOperationLinkState.CLOSED;
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -203,7 +206,7 @@ public class AmqpsDeviceOperations
      */
     protected synchronized void initLink(Link link) throws TransportException, IllegalArgumentException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         if (link == null)
         {
@@ -257,7 +260,7 @@ public class AmqpsDeviceOperations
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -272,6 +275,24 @@ public class AmqpsDeviceOperations
      * @throws IllegalArgumentException if deliveryTag's length is 0
      */
     protected synchronized AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag) throws IllegalStateException, IllegalArgumentException
+    {
+        return this.sendMessageAndGetDeliveryHash(messageType, msgData, offset, length, deliveryTag, DEFAULT_MESSAGE_FORMAT);
+    }
+
+    /**
+     * Sends the given message with the given AMQP message format, such as the format of a batch of messages, and
+     * returns with the delivery hash
+     * @param messageType The message operation type.
+     * @param msgData The binary array of the bytes to send
+     * @param offset The start offset to copy the bytes from
+     * @param length The number of bytes to be send related to the offset
+     * @param deliveryTag The unique identfier of the delivery
+     * @param messageFormat The message format of the delivery
+     * @return delivery tag
+     * @throws IllegalStateException if sender link has not been initialized
+     * @throws IllegalArgumentException if deliveryTag's length is 0
+     */
+    protected synchronized AmqpsSendReturnValue sendMessageAndGetDeliveryHash(MessageType messageType, byte[] msgData, int offset, int length, byte[] deliveryTag, int messageFormat) throws IllegalStateException, IllegalArgumentException
     {
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_019: [The function shall throw IllegalStateException if the sender link is not initialized.]
         if (this.senderLink == null)
@@ -287,6 +308,11 @@ public class AmqpsDeviceOperations
 
         // Codes_SRS_AMQPSDEVICEOPERATIONS_12_021: [The function shall create a Delivery object using the sender link and the deliveryTag.]
         Delivery delivery = this.senderLink.delivery(deliveryTag);
+        if (messageFormat != DEFAULT_MESSAGE_FORMAT)
+        {
+            delivery.setMessageFormat(messageFormat);
+        }
+
         try
         {
             // Codes_SRS_AMQPSDEVICEOPERATIONS_12_022: [The function shall try to send the message data using the sender link with the offset and length argument.]
@@ -306,6 +332,17 @@ public class AmqpsDeviceOperations
         }
     }
 
+    /**
+     * Getter for the name of the sender link that sends the messages of the given type
+     *
+     * @param messageType The message operation type.
+     * @return the sender link name if this operation sends the messages of the given type, null otherwise.
+     */
+    protected String getSenderLinkName(MessageType messageType)
+    {
+        return null;
+    }
+
     /**
      * Reads the received buffer and handles the link
      * @param linkName The receiver link's name to read from
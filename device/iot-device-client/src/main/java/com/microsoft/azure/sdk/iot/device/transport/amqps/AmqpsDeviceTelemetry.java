@@ -106,6 +106,23 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
         }
     }
 
+    /**
+     * Getter for the name of the sender link that sends the messages of the given type
+     *
+     * @param messageType The message operation type.
+     * @return the sender link tag if the message type is DEVICE_TELEMETRY, null otherwise.
+     */
+    @Override
+    protected String getSenderLinkName(MessageType messageType)
+    {
+        if (messageType == MessageType.DEVICE_TELEMETRY)
+        {
+            return this.getSenderLinkTag();
+        }
+
+        return null;
+    }
+
     /**
      * Read the message from Proton if the link name matches
      * Set the message type to telemetry
@@ -283,7 +300,7 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
             properties.setMessageId(message.getMessageId());
         }
 
-        if (message.getCorrelationId() != null)
+        if (message.hasCorrelationId())
         {
             properties.setCorrelationId(message.getCorrelationId());
         }
@@ -291,11 +308,13 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSDEVICETELEMETRY_12_017: [The function shall copy the user properties to Proton message application properties excluding the reserved property names.]
-        if (message.getProperties().length > 0)
+        int propertyCount = message.getPropertyCount();
+        if (propertyCount > 0)
         {
-            Map<String, Object> userProperties = new HashMap<>(message.getProperties().length);
-            for(MessageProperty messageProperty : message.getProperties())
+            Map<String, Object> userProperties = new HashMap<>(propertyCount);
+            for (int i = 0; i < propertyCount; i++)
             {
+                MessageProperty messageProperty = message.getPropertyAt(i);
                 if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
                 {
                     userProperties.put(messageProperty.getName(), messageProperty.getValue());
@@ -307,7 +326,7 @@ public final class AmqpsDeviceTelemetry extends AmqpsDeviceOperations
         }
 
         // Codes_SRS_AMQPSDEVICETELEMETRY_12_023: [The function shall set the proton message body using the IotHubTransportMessage body.]
-        Binary binary = new Binary(message.getBytes());
+        Binary binary = new Binary(message.getBytesWithoutCopy());
         Section section = new Data(binary);
         outgoingMessage.setBody(section);
         return outgoingMessage;
@@ -136,6 +136,23 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
         }
     }
 
+    /**
+     * Getter for the name of the sender link that sends the messages of the given type
+     *
+     * @param messageType The message operation type.
+     * @return the sender link tag if the message type is DEVICE_TWIN, null otherwise.
+     */
+    @Override
+    protected String getSenderLinkName(MessageType messageType)
+    {
+        if (messageType == MessageType.DEVICE_TWIN)
+        {
+            return this.getSenderLinkTag();
+        }
+
+        return null;
+    }
+
     /**
      * Read the message from Proton if the link name matches
      * Set the message type to twin
@@ -381,12 +398,13 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
         outgoingMessage.setProperties(properties);
 
         // Codes_SRS_AMQPSDEVICETWIN_12_032: [The function shall copy the user properties to Proton message application properties excluding the reserved property names.]
-        int propertiesLength = deviceTwinMessage.getProperties().length;
+        int propertiesLength = deviceTwinMessage.getPropertyCount();
         Map<String, Object> userProperties = new HashMap<>(propertiesLength);
         if (propertiesLength > 0)
         {
-            for(MessageProperty messageProperty : deviceTwinMessage.getProperties())
+            for (int i = 0; i < propertiesLength; i++)
             {
+                MessageProperty messageProperty = deviceTwinMessage.getPropertyAt(i);
                 if (!MessageProperty.RESERVED_PROPERTY_NAMES.contains(messageProperty.getName()))
                 {
                     userProperties.put(messageProperty.getName(), messageProperty.getValue());
@@ -443,7 +461,7 @@ public final class AmqpsDeviceTwin extends AmqpsDeviceOperations
         outgoingMessage.setMessageAnnotations(messageAnnotations);
 
         // Codes_SRS_AMQPSDEVICETWIN_12_040: [The function shall set the proton message body using the IotHubTransportMessage body.]
-        Binary binary = new Binary(deviceTwinMessage.getBytes());
+        Binary binary = new Binary(deviceTwinMessage.getBytesWithoutCopy());
         Section section = new Data(binary);
         outgoingMessage.setBody(section);
         return outgoingMessage;
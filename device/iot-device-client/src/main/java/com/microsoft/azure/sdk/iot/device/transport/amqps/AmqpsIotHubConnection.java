@@ -9,6 +9,7 @@ import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.ProtocolException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubConnectionStatus;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubListener;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportConnection;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransportMessage;
@@ -24,6 +25,11 @@ import org.apache.qpid.proton.reactor.Reactor;
 import org.apache.qpid.proton.reactor.ReactorOptions;
 
 import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
@@ -38,7 +44,11 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     private static final int MAX_WAIT_TO_TERMINATE_EXECUTOR = 30;
     private IotHubConnectionStatus state;
 
-    private int linkCredit = -1;
+    /* The credit of each sender link, and the messages waiting for it, by link name. Both are guarded by this
+     * object. A message is sent when its link has credit and no older message waits for it, otherwise it is queued
+     * behind them until the service issues more credit to the link. */
+    private final Map<String, Integer> senderLinkCredits = new HashMap<>();
+    private final Map<String, Queue<PendingMessage>> pendingMessagesBySenderLink = new HashMap<>();
     /** The {@link Delivery} tag. */
     private static final String WEB_SOCKET_PATH = "/$iothub/websocket";
     private static final String WEB_SOCKET_SUB_PROTOCOL = "AMQPWSB10";
@@ -53,6 +63,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     private DeviceClientConfig deviceClientConfig;
 
     private final Map<Integer, com.microsoft.azure.sdk.iot.device.Message> inProgressMessages = new ConcurrentHashMap<>();
+    private final Map<Integer, List<com.microsoft.azure.sdk.iot.device.Message>> inProgressBatches = new ConcurrentHashMap<>();
     private final Map<com.microsoft.azure.sdk.iot.device.Message, AmqpsMessage> sendAckMessages = new ConcurrentHashMap<>();
 
     private IotHubListener listener;
@@ -143,10 +154,21 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_006: [The constructor shall set its state to DISCONNECTED.]
         this.state = IotHubConnectionStatus.DISCONNECTED;
 
-        logger.LogInfo("AmqpsIotHubConnection object is created successfully using port %s in %s method ", useWebSockets ? AMQP_WEB_SOCKET_PORT : AMQP_PORT, logger.getMethodName());
+        logger.LogInfo("AmqpsIotHubConnection object is created successfully using port %s in %s method ", useWebSockets ? AMQP_WEB_SOCKET_PORT : AMQP_PORT, logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_001: [The constructor shall initialize the AmqpsSessionManager member variable with the given config.]
         this.amqpsSessionManager = new AmqpsSessionManager(this.deviceClientConfig);
+
+        // the CBS authentication messages are sent from the reactor thread as soon as they are queued, instead of
+        // waiting for the periodic send task and for the reactor timeout
+        this.amqpsSessionManager.setReactorWakeup(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                wakeUpReactor();
+            }
+        });
     }
 
     /**
@@ -180,7 +202,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     public void open(Queue<DeviceClientConfig> deviceClientConfigs) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_007: [If the AMQPS connection is already open, the function shall do nothing.]
         if(this.state == IotHubConnectionStatus.DISCONNECTED)
@@ -236,7 +258,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
 
         this.listener.onConnectionEstablished();
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -245,7 +267,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     private void openAsync() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         if (this.reactor == null)
         {
@@ -262,7 +284,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         ReactorRunner reactorRunner = new ReactorRunner(iotHubReactor, this.listener);
         executorService.submit(reactorRunner);
 
-        logger.LogInfo("Reactor is assigned to executor service, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Reactor is assigned to executor service, method name is %s ", logger.getLazyMethodName());
     }
 
     /**
@@ -271,7 +293,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     public void authenticate() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_020: [The function shall do nothing if the authentication is already open.]
         if (this.amqpsSessionManager.isAuthenticationOpened())
@@ -280,7 +302,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             this.amqpsSessionManager.authenticate();
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -290,7 +312,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     public void openLinks() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_022: [The function shall do nothing if the authentication is already open.]
         if (this.amqpsSessionManager.isAuthenticationOpened())
@@ -299,7 +321,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             this.amqpsSessionManager.openDeviceOperationLinks();
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -313,7 +335,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     public void close() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         closeAsync();
 
@@ -330,7 +352,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
 
         if (this.executorService != null)
         {
-            logger.LogInfo("Shutdown of executor service has started, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Shutdown of executor service has started, method name is %s ", logger.getLazyMethodName());
             this.executorService.shutdown();
             try
             {
@@ -356,10 +378,10 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
                 this.executorService = null;
                 throw new TransportException("Waited too long for the connection to close.", e);
             }
-            logger.LogInfo("Shutdown of executor service completed, method name is %s ", logger.getMethodName());
+            logger.LogInfo("Shutdown of executor service completed, method name is %s ", logger.getLazyMethodName());
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -368,11 +390,18 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     private void closeAsync()
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_012: [The function shall set the status of the AMQPS connection to DISCONNECTED.]
         this.state = IotHubConnectionStatus.DISCONNECTED;
 
+        // the pending messages are in progress for the transport, which sends them again once it reconnects
+        synchronized (this)
+        {
+            this.senderLinkCredits.clear();
+            this.pendingMessagesBySenderLink.clear();
+        }
+
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_013: [The function shall closeNow the AmqpsSessionManager and the AMQP connection.]
         this.amqpsSessionManager.closeNow();
 
@@ -387,9 +416,9 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             this.reactor.stop();
         }
 
-        logger.LogInfo("Proton reactor has been stopped, method name is %s ", logger.getMethodName());
+        logger.LogInfo("Proton reactor has been stopped, method name is %s ", logger.getLazyMethodName());
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -399,17 +428,16 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      * @param messageType the type of the message being sent
      * @param iotHubConnectionString the connection string to use for sender identification.
      * @throws TransportException if send message fails
-     * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed.
+     * @return An {@link Integer} representing the hash of the message, or -1 if the connection is closed or the message could not be sent.
      */
     private synchronized Integer sendMessage(Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         Integer deliveryHash = -1;
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is DISCONNECTED or there is not enough
-        // credit, the function shall return -1.]
-        if (this.state == IotHubConnectionStatus.DISCONNECTED || this.linkCredit <= 0)
+        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is DISCONNECTED, the function shall return -1.]
+        if (this.state == IotHubConnectionStatus.DISCONNECTED)
         {
             deliveryHash = -1;
         }
@@ -430,7 +458,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onReactorInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_033: [The event handler shall set the current handler to handle the connection events.]
         if(this.useWebSockets)
@@ -442,7 +470,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             event.getReactor().connectionToHost(this.deviceClientConfig.getIotHubHostname(), AMQP_PORT, this);
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -453,7 +481,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onReactorFinal(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_011: [The function shall call countdown on close latch and open latch.]
         closeLatch.countDown();
@@ -462,7 +490,36 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_012: [The function shall set the reactor member variable to null.]
         this.reactor = null;
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
+    }
+
+    /**
+     * Event handler for the reactor quiesced event, raised each time the reactor has no more events to process.
+     * Sends the queued CBS authentication messages, and the messages queued by
+     * {@link #sendMessage(com.microsoft.azure.sdk.iot.device.Message)} on the sender links that have credit, so that
+     * Proton is only used from the reactor thread.
+     * @param event The Proton Event object.
+     */
+    @Override
+    public void onReactorQuiesced(Event event)
+    {
+        try
+        {
+            this.amqpsSessionManager.sendAuthenticationMessages();
+        }
+        catch (TransportException e)
+        {
+            // the authentication waits for a reply, so it times out and is retried like any other failed open
+            logger.LogError(e);
+        }
+
+        synchronized (this)
+        {
+            for (String senderLinkName : this.pendingMessagesBySenderLink.keySet())
+            {
+                this.sendPendingMessages(senderLinkName);
+            }
+        }
     }
 
     /**
@@ -472,7 +529,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onConnectionInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_025: [The event handler shall get the Connection (Proton) object from the event handler and set the host name on the connection.]
         this.connection = event.getConnection();
@@ -491,7 +548,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             logger.LogDebug("openLinks has thrown exception: %s", e.getMessage());
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -501,7 +558,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onConnectionBound(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_15_030: [The event handler shall get the Transport (Proton) object from the event.]
         Transport transport = event.getConnection().getTransport();
@@ -526,7 +583,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -536,12 +593,12 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onConnectionUnbound(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_010: [The function sets the state to closed.]
         this.state = IotHubConnectionStatus.DISCONNECTED;
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -551,7 +608,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onDelivery(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         AmqpsMessage amqpsMessage = null;
 
@@ -583,25 +640,25 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             //Sender specific section for dispositions it receives
             if (event.getType() == Event.Type.DELIVERY)
             {
-                logger.LogInfo("Reading the delivery event in Sender link, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Reading the delivery event in Sender link, method name is %s ", logger.getLazyMethodName());
                 // Codes_SRS_AMQPSIOTHUBCONNECTION_15_038: [If this link is the Sender link and the event type is DELIVERY, the event handler shall get the Delivery (Proton) object from the event.]
                 Delivery d = event.getDelivery();
                 DeliveryState remoteState = d.getRemoteState();
 
-                logger.LogInfo("Is state of remote Delivery COMPLETE ? %s, method name is %s ", state, logger.getMethodName());
-                logger.LogInfo("Inform listener that a message has been sent to IoT Hub along with remote state, method name is %s ", logger.getMethodName());
+                logger.LogInfo("Is state of remote Delivery COMPLETE ? %s, method name is %s ", state, logger.getLazyMethodName());
+                logger.LogInfo("Inform listener that a message has been sent to IoT Hub along with remote state, method name is %s ", logger.getLazyMethodName());
 
-                if (this.inProgressMessages.containsKey(d.hashCode()))
+                if (this.inProgressMessages.containsKey(d.hashCode()) || this.inProgressBatches.containsKey(d.hashCode()))
                 {
                     if (remoteState instanceof Accepted)
                     {
                         // Codes_SRS_AMQPSIOTHUBCONNECTION_34_064: [If the acknowledgement sent from the service is "Accepted", this function shall notify its listener that the message was successfully sent.]
-                        this.listener.onMessageSent(inProgressMessages.remove(d.hashCode()), null);
+                        this.onDeliverySettled(d.hashCode(), null);
                     }
                     else if (remoteState instanceof Rejected)
                     {
                         // Codes_SRS_AMQPSIOTHUBCONNECTION_34_065: [If the acknowledgement sent from the service is "Rejected", this function shall notify its listener that the sent message was rejected and that it should not be retried.]
-                        this.listener.onMessageSent(inProgressMessages.remove(d.hashCode()), new TransportException("IotHub rejected the message"));
+                        this.onDeliverySettled(d.hashCode(), new TransportException("IotHub rejected the message"));
                     }
                     else if (remoteState instanceof Modified || remoteState instanceof Released || remoteState instanceof Received)
                     {
@@ -609,7 +666,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
                         TransportException transportException = new TransportException("IotHub responded to message " +
                                 "with Modified, Received or Released; message needs to be re-delivered");
                         transportException.setRetryable(true);
-                        this.listener.onMessageSent(inProgressMessages.remove(d.hashCode()), transportException);
+                        this.onDeliverySettled(d.hashCode(), transportException);
                     }
                 }
                 else
@@ -622,7 +679,32 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
+    }
+
+    /**
+     * Notifies the listener of the outcome of the message sent in the provided delivery, or of each message of the
+     * batch sent in it.
+     * @param deliveryHash the hash of the delivery.
+     * @param transportException the reason the messages were not accepted, or null if they were.
+     */
+    private void onDeliverySettled(int deliveryHash, TransportException transportException)
+    {
+        com.microsoft.azure.sdk.iot.device.Message message = this.inProgressMessages.remove(deliveryHash);
+        if (message != null)
+        {
+            this.listener.onMessageSent(message, transportException);
+            return;
+        }
+
+        List<com.microsoft.azure.sdk.iot.device.Message> batch = this.inProgressBatches.remove(deliveryHash);
+        if (batch != null)
+        {
+            for (com.microsoft.azure.sdk.iot.device.Message batchedMessage : batch)
+            {
+                this.listener.onMessageSent(batchedMessage, transportException);
+            }
+        }
     }
 
     /**
@@ -632,7 +714,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onLinkInit(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_016: [The function shall get the link from the event and call device operation objects with it.]
         Link link = event.getLink();
@@ -648,24 +730,35 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             this.savedException = e;
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
 
     }
 
     /**
-     * Event handler for the link flow event. Handles sending a single message.
+     * Event handler for the link flow event. Saves the credit of a sender link and sends the messages that were
+     * waiting for it.
      * @param event The Proton Event object.
      */
     @Override
     public void onLinkFlow(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
-        // Codes_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
-        this.linkCredit = event.getLink().getCredit();
-        logger.LogDebug("The link credit value is %s, method name is %s", this.linkCredit, logger.getMethodName());
+        Link link = event.getLink();
+        int linkCredit = link.getCredit();
+        logger.LogDebug("The link credit value is %s, method name is %s", linkCredit, logger.getLazyMethodName());
+
+        if (link instanceof Sender)
+        {
+            synchronized (this)
+            {
+                // Codes_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit of a sender link and send the messages waiting for it.]
+                this.senderLinkCredits.put(link.getName(), linkCredit);
+                this.sendPendingMessages(link.getName());
+            }
+        }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -676,7 +769,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onLinkRemoteOpen(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_052: [The function shall call AmqpsSessionManager.onLinkRemoteOpen with the given link.]
         if (this.amqpsSessionManager.onLinkRemoteOpen(event))
@@ -687,7 +780,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             openLatch.countDown();
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -699,7 +792,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onLinkRemoteClose(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         this.state = IotHubConnectionStatus.DISCONNECTED;
 
@@ -715,7 +808,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         this.scheduleReconnection(transportException);
         this.savedException = transportException;
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -725,7 +818,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
     @Override
     public void onTransportError(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         this.state = IotHubConnectionStatus.DISCONNECTED;
 
@@ -741,7 +834,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         this.savedException = transportException;
         this.scheduleReconnection(transportException);
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -753,7 +846,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     protected AmqpsConvertToProtonReturnValue convertToProton(com.microsoft.azure.sdk.iot.device.Message message) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_056: [The function shall call AmqpsSessionManager.convertToProton with the given message.]
         return this.amqpsSessionManager.convertToProton(message);
@@ -769,12 +862,195 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     protected AmqpsConvertFromProtonReturnValue convertFromProton(AmqpsMessage amqpsMessage, DeviceClientConfig deviceClientConfig) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSIOTHUBCONNECTION_12_056: [*The function shall call AmqpsSessionManager.convertFromProton with the given message. ]
         return this.amqpsSessionManager.convertFromProton(amqpsMessage, deviceClientConfig);
     }
 
+    /**
+     * Counts a delivery against the credit of the provided sender link, until the next flow event tells the actual
+     * credit. Must be called while holding the lock of this object.
+     *
+     * @param senderLinkName the name of the sender link, or null if it is not known.
+     */
+    private void consumeCredit(String senderLinkName)
+    {
+        Integer linkCredit = senderLinkName == null ? null : this.senderLinkCredits.get(senderLinkName);
+        if (linkCredit != null && linkCredit > 0)
+        {
+            this.senderLinkCredits.put(senderLinkName, linkCredit - 1);
+        }
+    }
+
+    /**
+     * Wakes the reactor up so that it processes the work submitted from another thread right away, instead of once
+     * its idle timeout elapses.
+     */
+    private void wakeUpReactor()
+    {
+        Reactor reactor = this.reactor;
+        if (reactor != null)
+        {
+            try
+            {
+                reactor.wakeup();
+            }
+            catch (RuntimeException e)
+            {
+                // Proton wraps the failure to write to its wakeup pipe in an internal exception type. The work is
+                // still processed on the next cycle of the reactor.
+                logger.LogWarn("Could not wake up the reactor, method name is %s ", logger.getLazyMethodName());
+            }
+        }
+    }
+
+    /**
+     * Sends the messages queued for the provided sender link, in order, for as long as the link has
+     * credit. A message that cannot be sent is reported to the listener as a retryable failure, like it would have
+     * been if it had been sent right away. Must be called while holding the lock of this object.
+     *
+     * @param senderLinkName the name of the sender link.
+     */
+    private void sendPendingMessages(String senderLinkName)
+    {
+        Queue<PendingMessage> pendingMessages = this.pendingMessagesBySenderLink.get(senderLinkName);
+        if (pendingMessages == null)
+        {
+            return;
+        }
+
+        while (!pendingMessages.isEmpty() && this.state != IotHubConnectionStatus.DISCONNECTED)
+        {
+            Integer linkCredit = this.senderLinkCredits.get(senderLinkName);
+            if (linkCredit == null || linkCredit <= 0)
+            {
+                break;
+            }
+
+            List<PendingMessage> batch = this.pollBatch(pendingMessages);
+            PendingMessage firstMessage = batch.get(0);
+            TransportException transportException = null;
+            try
+            {
+                Integer sendHash;
+                if (batch.size() == 1)
+                {
+                    sendHash = this.sendMessage(firstMessage.protonMessage.getMessageImpl(), firstMessage.protonMessage.getMessageType(), firstMessage.message.getIotHubConnectionString());
+                }
+                else
+                {
+                    List<Message> protonMessages = new ArrayList<>(batch.size());
+                    for (PendingMessage pendingMessage : batch)
+                    {
+                        protonMessages.add(pendingMessage.protonMessage.getMessageImpl());
+                    }
+
+                    sendHash = this.amqpsSessionManager.sendMessageBatch(protonMessages, firstMessage.protonMessage.getMessageType(), firstMessage.message.getIotHubConnectionString());
+                }
+
+                if (sendHash != -1)
+                {
+                    if (batch.size() == 1)
+                    {
+                        this.inProgressMessages.put(sendHash, firstMessage.message);
+                    }
+                    else
+                    {
+                        List<com.microsoft.azure.sdk.iot.device.Message> messages = new ArrayList<>(batch.size());
+                        for (PendingMessage pendingMessage : batch)
+                        {
+                            messages.add(pendingMessage.message);
+                        }
+
+                        this.inProgressBatches.put(sendHash, messages);
+                    }
+
+                    this.consumeCredit(senderLinkName);
+                    for (PendingMessage pendingMessage : batch)
+                    {
+                        this.listener.onMessageTransmitted(pendingMessage.message);
+                    }
+                    continue;
+                }
+
+                transportException = new ProtocolException("Send failure");
+                transportException.setRetryable(true);
+            }
+            catch (TransportException e)
+            {
+                transportException = e;
+            }
+
+            logger.LogError("%s message(s) waiting for link credit could not be sent, method name is %s ", batch.size(), logger.getLazyMethodName());
+            for (PendingMessage pendingMessage : batch)
+            {
+                this.listener.onMessageSent(pendingMessage.message, transportException);
+            }
+        }
+    }
+
+    /**
+     * Takes the next message out of the provided queue, along with the messages after it that can be sent in the
+     * same batch, which are the telemetry messages that fit in the batch size of the config. Must be called while
+     * holding the lock of this object.
+     *
+     * @param pendingMessages the messages waiting on a sender link, which cannot be empty.
+     * @return the messages to send, in order, which are at least one.
+     */
+    private List<PendingMessage> pollBatch(Queue<PendingMessage> pendingMessages)
+    {
+        List<PendingMessage> batch = new ArrayList<>();
+        PendingMessage pendingMessage = pendingMessages.remove();
+        batch.add(pendingMessage);
+
+        // the messages waiting on a link are all for the same device and of the same type
+        if (this.isBatched(pendingMessage.protonMessage.getMessageType()))
+        {
+            int batchMaxSize = this.deviceClientConfig.getAmqpTelemetryBatchMaxSize();
+            long batchSize = AmqpsSessionDeviceOperation.estimateEncodedSize(pendingMessage.protonMessage.getMessageImpl());
+            while (!pendingMessages.isEmpty())
+            {
+                int messageSize = AmqpsSessionDeviceOperation.estimateEncodedSize(pendingMessages.peek().protonMessage.getMessageImpl());
+                if (batchSize + messageSize > batchMaxSize)
+                {
+                    break;
+                }
+
+                batch.add(pendingMessages.remove());
+                batchSize += messageSize;
+            }
+        }
+
+        return batch;
+    }
+
+    /**
+     * Checks if the messages of the provided type are sent in batches.
+     *
+     * @param messageType the message type.
+     * @return true if the messages are telemetry and the config has a batch size.
+     */
+    private boolean isBatched(MessageType messageType)
+    {
+        return messageType == MessageType.DEVICE_TELEMETRY && this.deviceClientConfig.getAmqpTelemetryBatchMaxSize() > 0;
+    }
+
+    /**
+     * A message waiting for credit on its sender link, with its Proton conversion.
+     */
+    private static final class PendingMessage
+    {
+        private final com.microsoft.azure.sdk.iot.device.Message message;
+        private final AmqpsConvertToProtonReturnValue protonMessage;
+
+        PendingMessage(com.microsoft.azure.sdk.iot.device.Message message, AmqpsConvertToProtonReturnValue protonMessage)
+        {
+            this.message = message;
+            this.protonMessage = protonMessage;
+        }
+    }
+
     /**
      * Class which runs the reactor.
      */
@@ -841,9 +1117,9 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
      */
     private void messageReceivedFromServer(AmqpsMessage amqpsMessage) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
-        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", logger.getMethodName());
+        logger.LogInfo("All the listeners are informed that a message has been received, method name is %s ", logger.getLazyMethodName());
 
         AmqpsConvertFromProtonReturnValue amqpsHandleMessageReturnValue = this.convertFromProton(amqpsMessage, amqpsMessage.getDeviceClientConfig());
 
@@ -879,7 +1155,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
                         catch (NumberFormatException nfe)
                         {
                             this.savedException = new TransportException("Encountered message from service with invalid status code value");
-                            logger.LogInfo("status code received from service could not be parsed to integer, method name is %s ", logger.getMethodName());
+                            logger.LogInfo("status code received from service could not be parsed to integer, method name is %s ", logger.getLazyMethodName());
                         }
                     }
                 }
@@ -889,14 +1165,14 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             }
 
             // Should never happen; message type was not telemetry, twin, methods, or CBS
-            logger.LogError("No handler found for received message, method name is %s ", logger.getMethodName());
+            logger.LogError("No handler found for received message, method name is %s ", logger.getLazyMethodName());
             return;
         }
 
         // Codes_SRS_AMQPSTRANSPORT_12_008: [The function shall return if there is no message callback defined.]
         if (amqpsHandleMessageReturnValue.getMessageCallback() == null)
         {
-            logger.LogError("Callback is not defined therefore response to IoT Hub cannot be generated. All received messages will be removed from receive message queue, method name is %s ", logger.getMethodName());
+            logger.LogError("Callback is not defined therefore response to IoT Hub cannot be generated. All received messages will be removed from receive message queue, method name is %s ", logger.getLazyMethodName());
             throw new TransportException("callback is not defined");
         }
 
@@ -909,7 +1185,7 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         }
         else
         {
-            transportMessage = new IotHubTransportMessage(message.getBytes(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
+            transportMessage = new IotHubTransportMessage(message.getBytesWithoutCopy(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
             transportMessage.setIotHubConnectionString(message.getIotHubConnectionString());
         }
 
@@ -949,22 +1225,77 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
             throw new IllegalStateException("No handler found for message conversion!");
         }
 
-        // Codes_SRS_AMQPSTRANSPORT_34_077: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
-        Integer sendHash = this.sendMessage(amqpsConvertToProtonReturnValue.getMessageImpl(), amqpsConvertToProtonReturnValue.getMessageType(), message.getIotHubConnectionString());
-
-        if (sendHash != -1)
+        synchronized (this)
         {
-            // Codes_SRS_AMQPSTRANSPORT_34_078: [If the sent message hash is valid, it shall be added to the in progress map and this function shall return OK.]
-            this.inProgressMessages.put(sendHash, message);
-            return IotHubStatusCode.OK;
+            String senderLinkName = null;
+            if (this.state != IotHubConnectionStatus.DISCONNECTED)
+            {
+                senderLinkName = this.amqpsSessionManager.getSenderLinkName(amqpsConvertToProtonReturnValue.getMessageType(), message.getIotHubConnectionString());
+            }
+
+            if (senderLinkName != null)
+            {
+                // the message is handed over to the reactor thread, which sends it once it has no more events to
+                // process and the link has credit, along with the other messages of its batch if any
+                Queue<PendingMessage> pendingMessages = this.pendingMessagesBySenderLink.get(senderLinkName);
+                if (pendingMessages == null)
+                {
+                    pendingMessages = new ArrayDeque<>();
+                    this.pendingMessagesBySenderLink.put(senderLinkName, pendingMessages);
+                }
+
+                pendingMessages.add(new PendingMessage(message, amqpsConvertToProtonReturnValue));
+                this.wakeUpReactor();
+                return IotHubStatusCode.OK;
+            }
+
+            // Codes_SRS_AMQPSTRANSPORT_34_077: [The function shall attempt to send the Proton message to IoTHub using the underlying AMQPS connection.]
+            Integer sendHash = this.sendMessage(amqpsConvertToProtonReturnValue.getMessageImpl(), amqpsConvertToProtonReturnValue.getMessageType(), message.getIotHubConnectionString());
+
+            if (sendHash != -1)
+            {
+                // Codes_SRS_AMQPSTRANSPORT_34_078: [If the sent message hash is valid, it shall be added to the in progress map and this function shall return OK.]
+                this.inProgressMessages.put(sendHash, message);
+                this.listener.onMessageTransmitted(message);
+
+                // the message was written from this thread, so the reactor is woken up to put it on the wire
+                this.wakeUpReactor();
+                return IotHubStatusCode.OK;
+            }
         }
-        else
+
+        // Codes_SRS_AMQPSTRANSPORT_34_079: [If the sent message hash is -1, this function shall throw a retriable ProtocolException.]
+        ProtocolException protocolException = new ProtocolException("Send failure");
+        protocolException.setRetryable(true);
+        throw protocolException;
+    }
+
+    /**
+     * Removes the provided message from the messages waiting for credit on their sender link, so that it is not sent
+     * once its sender has given up on it. A message that was already sent is not affected.
+     *
+     * @param message the message to remove.
+     * @return true if the message was waiting and was removed, false otherwise.
+     */
+    public boolean cancelPendingMessage(com.microsoft.azure.sdk.iot.device.Message message)
+    {
+        synchronized (this)
         {
-            // Codes_SRS_AMQPSTRANSPORT_34_079: [If the sent message hash is -1, this function shall throw a retriable ProtocolException.]
-            ProtocolException protocolException = new ProtocolException("Send failure");
-            protocolException.setRetryable(true);
-            throw protocolException;
+            for (Queue<PendingMessage> pendingMessages : this.pendingMessagesBySenderLink.values())
+            {
+                Iterator<PendingMessage> iterator = pendingMessages.iterator();
+                while (iterator.hasNext())
+                {
+                    if (iterator.next().message == message)
+                    {
+                        iterator.remove();
+                        return true;
+                    }
+                }
+            }
         }
+
+        return false;
     }
 
     /**
@@ -1004,12 +1335,13 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
                     amqpsMessage.acknowledge(AmqpsMessage.ACK_TYPE.COMPLETE);
                     break;
                 default:
-                    logger.LogError("Invalid IoT Hub message result (%s), method name is %s ", result.name(), logger.getMethodName());
+                    logger.LogError("Invalid IoT Hub message result (%s), method name is %s ", result.name(), logger.getLazyMethodName());
                     return false;
             }
 
             // Codes_SRS_AMQPSTRANSPORT_34_071: [If the amqp message is acknowledged, this function shall remove it from the saved map of messages to acknowledge and return true.]
             this.sendAckMessages.remove(message);
+            this.wakeUpReactor();
             return true;
         }
 
@@ -1026,8 +1358,26 @@ public final class AmqpsIotHubConnection extends BaseHandler implements IotHubTr
         if (!reconnectionScheduled)
         {
             reconnectionScheduled = true;
+            IotHubExecutionContext executionContext = this.deviceClientConfig.getExecutionContext();
+            if (executionContext != null)
+            {
+                try
+                {
+                    executionContext.getBlockingExecutor().submit(new ReconnectionTask(throwable, this.listener));
+                    return;
+                }
+                catch (RejectedExecutionException e)
+                {
+                    // the shared blocking pool is full, but the reconnection cannot wait for a later period
+                    logger.LogInfo("Shared blocking executor is full, reconnecting on a thread of this connection, method name is %s ", logger.getLazyMethodName());
+                }
+            }
+
             ScheduledExecutorService reconnectThread = Executors.newScheduledThreadPool(1);
             reconnectThread.schedule(new ReconnectionTask(throwable, this.listener), 0, TimeUnit.MILLISECONDS);
+
+            // the thread ends once the reconnection task is done
+            reconnectThread.shutdown();
         }
     }
 
@@ -2,13 +2,20 @@ package com.microsoft.azure.sdk.iot.device.transport.amqps;
 
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
+import org.apache.qpid.proton.amqp.messaging.AmqpValue;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
+import org.apache.qpid.proton.amqp.messaging.Section;
 import org.apache.qpid.proton.engine.*;
 
 import java.nio.BufferOverflowException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
 
 public class AmqpsSessionDeviceOperation
@@ -20,13 +27,33 @@ public class AmqpsSessionDeviceOperation
 
     private ArrayList<AmqpsDeviceOperations> amqpsDeviceOperationsList = new ArrayList<>();;
 
+    /* The device operations by the names of their links, filled the first time a link is found in the list. */
+    private final Map<String, AmqpsDeviceOperations> deviceOperationsByLinkName = new ConcurrentHashMap<>();
+
     private long nextTag = 0;
 
+    /* The buffer messages are encoded into, sized from an estimate of each message so that it is encoded once.
+     * Proton copies the bytes into the delivery, so the buffer is reused for the next message of this device. */
+    private static final int MIN_ENCODE_BUFFER_SIZE = 1024;
+    private static final int MAX_RETAINED_ENCODE_BUFFER_SIZE = 64 * 1024;
+    private static final int ENCODED_MESSAGE_OVERHEAD = 512;
+    private static final int ENCODED_PROPERTY_OVERHEAD = 8;
+    private static final int MAX_UTF8_BYTES_PER_CHAR = 3;
+    private byte[] encodeBuffer = new byte[MIN_ENCODE_BUFFER_SIZE];
+
+    /* The message format of a delivery whose body is a sequence of data sections, each holding an encoded message. */
+    static final int BATCH_MESSAGE_FORMAT = 0x80013700;
+
+    /* The data section descriptor, followed by the constructor and length of a binary of up to 2^32 - 1 bytes. */
+    private static final byte[] DATA_SECTION_HEADER = new byte[] {0x00, 0x53, 0x75, (byte) 0xb0};
+    private static final int DATA_SECTION_OVERHEAD = DATA_SECTION_HEADER.length + 4;
+
     private Integer openLock = new Integer(1);
 
     private long tokenRenewalPeriodInMillisecSecs = 4000; //45*60*100;
 
     private ScheduledExecutorService taskSchedulerTokenRenewal;
+    private ScheduledFuture<?> tokenRenewalTaskFuture;
     private AmqpsDeviceAuthenticationCBSTokenRenewalTask tokenRenewalTask = null;
 
     private static final int MAX_WAIT_TO_AUTHENTICATE = 10*1000;
@@ -113,7 +140,7 @@ public class AmqpsSessionDeviceOperation
      */
     public void authenticate() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_006: [The function shall start the authentication if the authentication type is CBS.]
         if (this.deviceClientConfig.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
@@ -144,7 +171,7 @@ public class AmqpsSessionDeviceOperation
 
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -154,7 +181,7 @@ public class AmqpsSessionDeviceOperation
      */
     public void renewToken() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         if ((this.deviceClientConfig.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN) &&
                 (this.amqpsAuthenticatorState == AmqpsDeviceAuthenticationState.AUTHENTICATED))
@@ -167,7 +194,7 @@ public class AmqpsSessionDeviceOperation
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -210,7 +237,7 @@ public class AmqpsSessionDeviceOperation
      */
     void openLinks(Session session) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_042: [The function shall do nothing if the session parameter is null.]
         if (session != null)
@@ -228,7 +255,7 @@ public class AmqpsSessionDeviceOperation
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -236,7 +263,7 @@ public class AmqpsSessionDeviceOperation
      */
     void closeLinks()
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         for (int i = 0; i < amqpsDeviceOperationsList.size(); i++)
         {
@@ -244,7 +271,7 @@ public class AmqpsSessionDeviceOperation
             amqpsDeviceOperationsList.get(i).closeLinks();
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -256,7 +283,7 @@ public class AmqpsSessionDeviceOperation
      */
     void initLink(Link link) throws TransportException, IllegalArgumentException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_043: [The function shall do nothing if the link parameter is null.]
         if (link != null)
@@ -271,7 +298,7 @@ public class AmqpsSessionDeviceOperation
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -287,7 +314,7 @@ public class AmqpsSessionDeviceOperation
      * @throws IllegalArgumentException if deliveryTag's length is 0
      * @return Integer
      */
-    Integer sendMessage(org.apache.qpid.proton.message.Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IllegalStateException, IllegalArgumentException
+    synchronized Integer sendMessage(org.apache.qpid.proton.message.Message message, MessageType messageType, IotHubConnectionString iotHubConnectionString) throws IllegalStateException, IllegalArgumentException
     {
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_012: [The function shall return -1 if the state is not authenticated.]
         if (this.amqpsAuthenticatorState == AmqpsDeviceAuthenticationState.AUTHENTICATED)
@@ -296,7 +323,7 @@ public class AmqpsSessionDeviceOperation
             if (this.deviceClientConfig.getDeviceId() == iotHubConnectionString.getDeviceId())
             {
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_014: [The function shall encode the message and copy the contents to the byte buffer.]
-                byte[] msgData = new byte[1024];
+                byte[] msgData = getEncodeBuffer(estimateEncodedSize(message));
                 int length;
 
                 while (true)
@@ -309,11 +336,11 @@ public class AmqpsSessionDeviceOperation
                     catch (BufferOverflowException e)
                     {
                         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_015: [The function shall doubles the buffer if encode throws BufferOverflowException.]
-                        msgData = new byte[msgData.length * 2];
+                        msgData = getEncodeBuffer(msgData.length * 2);
                     }
                 }
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_017: [The function shall set the delivery tag for the sender.]
-                byte[] deliveryTag = String.valueOf(this.nextTag++).getBytes();
+                byte[] deliveryTag = toDeliveryTag(this.nextTag++);
 
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_018: [The function shall call sendMessageAndGetDeliveryHash on all device operation objects.]
                 // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_019: [The function shall return the delivery hash.]
@@ -330,6 +357,199 @@ public class AmqpsSessionDeviceOperation
         }
     }
 
+    /**
+     * Sends the given messages as a single delivery in the batch message format, whose body holds each encoded
+     * message in a data section of its own. The service settles the delivery once, for all the messages.
+     *
+     * @param messages the messages to send, in order.
+     * @param messageType the message type to find the sender.
+     * @return the delivery hash, or -1 if the device is not authenticated, none of the device operations sends this
+     *         type or the send failed.
+     * @throws IllegalStateException if sender link has not been initialized
+     */
+    synchronized Integer sendMessageBatch(List<org.apache.qpid.proton.message.Message> messages, MessageType messageType) throws IllegalStateException
+    {
+        if (this.amqpsAuthenticatorState != AmqpsDeviceAuthenticationState.AUTHENTICATED)
+        {
+            return -1;
+        }
+
+        AmqpsDeviceOperations deviceOperations = null;
+        for (int i = 0; i < this.amqpsDeviceOperationsList.size() && deviceOperations == null; i++)
+        {
+            if (this.amqpsDeviceOperationsList.get(i).getSenderLinkName(messageType) != null)
+            {
+                deviceOperations = this.amqpsDeviceOperationsList.get(i);
+            }
+        }
+
+        if (deviceOperations == null)
+        {
+            return -1;
+        }
+
+        long estimatedSize = 0;
+        for (org.apache.qpid.proton.message.Message message : messages)
+        {
+            estimatedSize += DATA_SECTION_OVERHEAD + estimateEncodedSize(message);
+        }
+
+        byte[] msgData = getEncodeBuffer((int) Math.min(estimatedSize, Integer.MAX_VALUE));
+        int length;
+        while (true)
+        {
+            try
+            {
+                length = encodeBatch(messages, msgData);
+                break;
+            }
+            catch (BufferOverflowException e)
+            {
+                msgData = getEncodeBuffer(msgData.length * 2);
+            }
+        }
+
+        byte[] deliveryTag = toDeliveryTag(this.nextTag++);
+        AmqpsSendReturnValue amqpsSendReturnValue = deviceOperations.sendMessageAndGetDeliveryHash(messageType, msgData, 0, length, deliveryTag, BATCH_MESSAGE_FORMAT);
+        return amqpsSendReturnValue.isDeliverySuccessful() ? amqpsSendReturnValue.getDeliveryHash() : -1;
+    }
+
+    /**
+     * Encodes each of the provided messages into a data section of its own. Each message is encoded right after the
+     * header of its section, whose length is then filled in, so that the message is not copied.
+     *
+     * @param messages the messages to encode.
+     * @param buffer the buffer to encode into.
+     * @return the encoded length.
+     * @throws BufferOverflowException if the buffer is too small.
+     */
+    private static int encodeBatch(List<org.apache.qpid.proton.message.Message> messages, byte[] buffer) throws BufferOverflowException
+    {
+        int position = 0;
+        for (org.apache.qpid.proton.message.Message message : messages)
+        {
+            if (buffer.length - position < DATA_SECTION_OVERHEAD)
+            {
+                throw new BufferOverflowException();
+            }
+
+            int messageStart = position + DATA_SECTION_OVERHEAD;
+            int messageLength = message.encode(buffer, messageStart, buffer.length - messageStart);
+
+            System.arraycopy(DATA_SECTION_HEADER, 0, buffer, position, DATA_SECTION_HEADER.length);
+            position += DATA_SECTION_HEADER.length;
+            buffer[position++] = (byte) (messageLength >>> 24);
+            buffer[position++] = (byte) (messageLength >>> 16);
+            buffer[position++] = (byte) (messageLength >>> 8);
+            buffer[position++] = (byte) messageLength;
+            position += messageLength;
+        }
+
+        return position;
+    }
+
+    /**
+     * Gets the encode buffer, grown to at least the provided size. A buffer larger than
+     * {@link #MAX_RETAINED_ENCODE_BUFFER_SIZE} is only used for the current message and is not kept.
+     *
+     * @param size the minimum size of the buffer.
+     * @return the buffer, whose content is undefined.
+     */
+    private byte[] getEncodeBuffer(int size)
+    {
+        byte[] buffer = this.encodeBuffer;
+        if (buffer.length >= size)
+        {
+            return buffer;
+        }
+
+        // power of two sizes, so that messages of slightly different sizes do not keep replacing the buffer
+        int bufferSize = Integer.highestOneBit(size - 1) << 1;
+        if (bufferSize <= 0)
+        {
+            bufferSize = size;
+        }
+
+        buffer = new byte[bufferSize];
+        if (bufferSize <= MAX_RETAINED_ENCODE_BUFFER_SIZE)
+        {
+            this.encodeBuffer = buffer;
+        }
+
+        return buffer;
+    }
+
+    /**
+     * Estimates the encoded size of the provided message from its body and application properties, without encoding
+     * it. The estimate errs on the large side, the few sections it does not look at being covered by a fixed overhead.
+     *
+     * @param message the message to encode.
+     * @return the estimated encoded size, in bytes.
+     */
+    static int estimateEncodedSize(org.apache.qpid.proton.message.Message message)
+    {
+        long size = ENCODED_MESSAGE_OVERHEAD;
+
+        Section body = message.getBody();
+        if (body instanceof Data && ((Data) body).getValue() != null)
+        {
+            size += ((Data) body).getValue().getLength();
+        }
+        else if (body instanceof AmqpValue && ((AmqpValue) body).getValue() instanceof String)
+        {
+            size += (long) ((String) ((AmqpValue) body).getValue()).length() * MAX_UTF8_BYTES_PER_CHAR;
+        }
+
+        ApplicationProperties applicationProperties = message.getApplicationProperties();
+        if (applicationProperties != null && applicationProperties.getValue() != null)
+        {
+            for (Object property : applicationProperties.getValue().entrySet())
+            {
+                Map.Entry<?, ?> entry = (Map.Entry<?, ?>) property;
+                size += ENCODED_PROPERTY_OVERHEAD + encodedSizeOf(entry.getKey()) + encodedSizeOf(entry.getValue());
+            }
+        }
+
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    private static long encodedSizeOf(Object value)
+    {
+        if (value instanceof String)
+        {
+            return (long) ((String) value).length() * MAX_UTF8_BYTES_PER_CHAR;
+        }
+
+        // numbers, booleans, timestamps and the like
+        return ENCODED_PROPERTY_OVERHEAD;
+    }
+
+    /**
+     * Writes the provided tag as decimal digits, as {@code String.valueOf(tag).getBytes()} would, without creating
+     * the intermediate string.
+     *
+     * @param tag the tag, which cannot be negative.
+     * @return the delivery tag.
+     */
+    private static byte[] toDeliveryTag(long tag)
+    {
+        int digitCount = 1;
+        for (long remaining = tag / 10; remaining > 0; remaining /= 10)
+        {
+            digitCount++;
+        }
+
+        byte[] deliveryTag = new byte[digitCount];
+        long remaining = tag;
+        for (int i = digitCount - 1; i >= 0; i--)
+        {
+            deliveryTag[i] = (byte) ('0' + (remaining % 10));
+            remaining /= 10;
+        }
+
+        return deliveryTag;
+    }
+
     /**
      * Delegate the send call to device operation objects.
      * Loop through the device operation list and find the sender 
@@ -361,6 +581,36 @@ public class AmqpsSessionDeviceOperation
         return deliveryHash;
     }
 
+    /**
+     * Get the name of the sender link that sends the messages of the given type.
+     *
+     * @param messageType the message type to identify the sender.
+     * @return the name of the sender link, or null if none of the device operations sends this type.
+     */
+    String getSenderLinkName(MessageType messageType)
+    {
+        for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
+        {
+            String senderLinkName = this.amqpsDeviceOperationsList.get(i).getSenderLinkName(messageType);
+            if (senderLinkName != null)
+            {
+                return senderLinkName;
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Getter for the id of the device of this session.
+     *
+     * @return the device id.
+     */
+    String getDeviceId()
+    {
+        return this.deviceClientConfig.getDeviceId();
+    }
+
     /**
      * Delegate the onDelivery call to device operation objects.
      * Loop through the device operation list and find the receiver 
@@ -412,11 +662,18 @@ public class AmqpsSessionDeviceOperation
         else
         {
             // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_057: [If the state is other than authenticating the function shall try to read the message from the device operation objects.]
+            AmqpsDeviceOperations deviceOperation = linkName == null ? null : this.deviceOperationsByLinkName.get(linkName);
+            if (deviceOperation != null)
+            {
+                return deviceOperation.getMessageFromReceiverLink(linkName);
+            }
+
             for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
             {
                 amqpsMessage = this.amqpsDeviceOperationsList.get(i).getMessageFromReceiverLink(linkName);
                 if (amqpsMessage != null)
                 {
+                    this.deviceOperationsByLinkName.put(linkName, this.amqpsDeviceOperationsList.get(i));
                     break;
                 }
             }
@@ -437,10 +694,20 @@ public class AmqpsSessionDeviceOperation
         // Codes_SRS_AMQPSESSIONDEVICEOPERATION_12_024: [The function shall return true if any of the operation's link name is a match and return false otherwise.]
         if (this.amqpsAuthenticatorState == AmqpsDeviceAuthenticationState.AUTHENTICATED)
         {
+            AmqpsDeviceOperations deviceOperation = linkName == null ? null : this.deviceOperationsByLinkName.get(linkName);
+            if (deviceOperation != null)
+            {
+                return deviceOperation.isLinkFound(linkName);
+            }
+
             for (int i = 0; i < this.amqpsDeviceOperationsList.size(); i++)
             {
                 if (this.amqpsDeviceOperationsList.get(i).isLinkFound(linkName))
                 {
+                    if (linkName != null)
+                    {
+                        this.deviceOperationsByLinkName.put(linkName, this.amqpsDeviceOperationsList.get(i));
+                    }
                     return true;
                 }
             }
@@ -519,12 +786,20 @@ public class AmqpsSessionDeviceOperation
         if (renewalPeriod > 0)
         {
             shutDownScheduler();
+            this.tokenRenewalPeriodInMillisecSecs = renewalPeriod;
+
+            IotHubExecutionContext executionContext = this.deviceClientConfig.getExecutionContext();
+            if (executionContext != null)
+            {
+                this.tokenRenewalTaskFuture = executionContext.getScheduler().scheduleAtFixedRate(this.tokenRenewalTask, 0, tokenRenewalPeriodInMillisecSecs, TimeUnit.MILLISECONDS);
+                return true;
+            }
+
             if (this.taskSchedulerTokenRenewal == null)
             {
                 this.taskSchedulerTokenRenewal = Executors.newScheduledThreadPool(1);
             }
 
-            this.tokenRenewalPeriodInMillisecSecs = renewalPeriod;
             this.taskSchedulerTokenRenewal.scheduleAtFixedRate(this.tokenRenewalTask, 0, tokenRenewalPeriodInMillisecSecs, TimeUnit.MILLISECONDS);
 
             return true;
@@ -537,6 +812,13 @@ public class AmqpsSessionDeviceOperation
      */
     private void shutDownScheduler()
     {
+        if (this.tokenRenewalTaskFuture != null)
+        {
+            // the task runs on a shared scheduler, which outlives this session
+            this.tokenRenewalTaskFuture.cancel(false);
+            this.tokenRenewalTaskFuture = null;
+        }
+
         if (this.taskSchedulerTokenRenewal  != null)
         {
             taskSchedulerTokenRenewal.shutdown(); // Disable new tasks from being submitted
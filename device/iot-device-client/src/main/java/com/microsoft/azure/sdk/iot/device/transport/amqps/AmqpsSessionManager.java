@@ -6,8 +6,11 @@ import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
 import com.microsoft.azure.sdk.iot.device.MessageType;
 import com.microsoft.azure.sdk.iot.device.ObjectLock;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
 import org.apache.qpid.proton.engine.*;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.*;
 
 
@@ -23,8 +26,15 @@ public class AmqpsSessionManager
     private AmqpsDeviceAuthentication amqpsDeviceAuthentication;
     private ArrayList<AmqpsSessionDeviceOperation> amqpsDeviceSessionList = new ArrayList<>();
 
+    /* The device sessions by the names of their operation links and by device id. The indexes are filled the first
+     * time a link or device is found in the list, which for links is when they open, so that routing the following
+     * deliveries does not go through every multiplexed device. */
+    private final Map<String, AmqpsSessionDeviceOperation> deviceSessionsByLinkName = new ConcurrentHashMap<>();
+    private final Map<String, AmqpsSessionDeviceOperation> deviceSessionsByDeviceId = new ConcurrentHashMap<>();
+
     private long SEND_PERIOD_MILLISECONDS = 300;
     private ScheduledExecutorService taskSchedulerCBSSend;
+    private ScheduledFuture<?> cbsAuthSendTaskFuture;
     private AmqpsDeviceAuthenticationCBSSendTask cbsAuthSendTask = null;
 
     private static final int MAX_WAIT_TO_AUTHENTICATE_MS = 10*1000;
@@ -61,8 +71,16 @@ public class AmqpsSessionManager
 
                 // Codes_SRS_AMQPSESSIONMANAGER_12_006: [The constructor shall create and start a scheduler for AmqpsDeviceAuthenticationCBSTokenRenewalTask if the authentication type is CBS.]
                 this.cbsAuthSendTask = new AmqpsDeviceAuthenticationCBSSendTask((AmqpsDeviceAuthenticationCBS) this.amqpsDeviceAuthentication);
-                this.taskSchedulerCBSSend = Executors.newScheduledThreadPool(2);
-                this.taskSchedulerCBSSend.scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                IotHubExecutionContext executionContext = this.deviceClientConfig.getExecutionContext();
+                if (executionContext != null)
+                {
+                    this.cbsAuthSendTaskFuture = executionContext.getScheduler().scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
+                else
+                {
+                    this.taskSchedulerCBSSend = Executors.newScheduledThreadPool(2);
+                    this.taskSchedulerCBSSend.scheduleAtFixedRate(this.cbsAuthSendTask, 0, SEND_PERIOD_MILLISECONDS, TimeUnit.MILLISECONDS);
+                }
 
                 break;
             case X509_CERTIFICATE:
@@ -92,6 +110,34 @@ public class AmqpsSessionManager
         this.amqpsDeviceSessionList.add(amqpsSessionDeviceOperation);
     }
 
+    /**
+     * Sets the hook that wakes the reactor up once a CBS authentication message is queued. Does nothing if the
+     * authentication is not CBS.
+     *
+     * @param reactorWakeup the hook that wakes the reactor up.
+     */
+    void setReactorWakeup(Runnable reactorWakeup)
+    {
+        if (this.amqpsDeviceAuthentication instanceof AmqpsDeviceAuthenticationCBS)
+        {
+            ((AmqpsDeviceAuthenticationCBS) this.amqpsDeviceAuthentication).setReactorWakeup(reactorWakeup);
+        }
+    }
+
+    /**
+     * Sends the queued CBS authentication messages. Does nothing if the authentication is not CBS. Must be called
+     * from the reactor thread.
+     *
+     * @throws TransportException if Proton throws.
+     */
+    void sendAuthenticationMessages() throws TransportException
+    {
+        if (this.amqpsDeviceAuthentication instanceof AmqpsDeviceAuthenticationCBS)
+        {
+            ((AmqpsDeviceAuthenticationCBS) this.amqpsDeviceAuthentication).sendAuthenticationMessages();
+        }
+    }
+
     /**
      * Close the Proton objects and the schedulers.
      * After calling this function all resource freed.
@@ -99,7 +145,7 @@ public class AmqpsSessionManager
      */
     void closeNow()
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSESSIONMANAGER_12_043: [THe function shall shut down the scheduler.]
         this.shutDownScheduler();
@@ -123,7 +169,7 @@ public class AmqpsSessionManager
             this.session = null;
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -133,7 +179,7 @@ public class AmqpsSessionManager
      */
     public void authenticate() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         if (this.deviceClientConfig.getAuthenticationType() == DeviceClientConfig.AuthType.SAS_TOKEN)
         {
@@ -151,7 +197,7 @@ public class AmqpsSessionManager
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -162,7 +208,7 @@ public class AmqpsSessionManager
      */
     public void openDeviceOperationLinks() throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         // Codes_SRS_AMQPSESSIONMANAGER_12_018: [The function shall do nothing if the session is not open.]
         if (this.session != null)
@@ -191,7 +237,7 @@ public class AmqpsSessionManager
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -202,7 +248,7 @@ public class AmqpsSessionManager
      */
     void onConnectionInit(Connection connection) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         if (connection != null)
         {
@@ -232,7 +278,7 @@ public class AmqpsSessionManager
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -243,7 +289,7 @@ public class AmqpsSessionManager
      */
     void onConnectionBound(Transport transport) throws TransportException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         if (this.session != null)
         {
@@ -251,7 +297,7 @@ public class AmqpsSessionManager
             this.amqpsDeviceAuthentication.setSslDomain(transport);
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -265,7 +311,7 @@ public class AmqpsSessionManager
      */
     void onLinkInit(Link link) throws TransportException, IllegalArgumentException
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         if (this.session != null)
         {
@@ -284,7 +330,7 @@ public class AmqpsSessionManager
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
     }
 
     /**
@@ -300,26 +346,23 @@ public class AmqpsSessionManager
      */
     boolean onLinkRemoteOpen(Event event)
     {
-        logger.LogDebug("Entered in method %s", logger.getMethodName());
+        logger.LogDebug("Entered in method %s", logger.getLazyMethodName());
 
         Boolean isLinkFound = false;
 
         String linkName = event.getLink().getName();
         if (this.isAuthenticationOpened())
         {
-            for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+            AmqpsSessionDeviceOperation deviceSession = this.findDeviceSessionByLinkName(linkName);
+            if (deviceSession != null)
             {
-                isLinkFound = this.amqpsDeviceSessionList.get(i).isLinkFound(linkName);
-                if (isLinkFound == true)
+                isLinkFound = true;
+                if (deviceSession.operationLinksOpened())
                 {
-                    if (this.amqpsDeviceSessionList.get(i).operationLinksOpened())
+                    synchronized (this.openLinksLock)
                     {
-                        synchronized (this.openLinksLock)
-                        {
-                            // Codes_SRS_AMQPSESSIONMANAGER_12_031: [The function shall call authentication isLinkFound if the authentication is not open and return true if both links are open]
-                            this.openLinksLock.notifyLock();
-                        }
-                        break;
+                        // Codes_SRS_AMQPSESSIONMANAGER_12_031: [The function shall call authentication isLinkFound if the authentication is not open and return true if both links are open]
+                        this.openLinksLock.notifyLock();
                     }
                 }
             }
@@ -337,7 +380,7 @@ public class AmqpsSessionManager
             }
         }
 
-        logger.LogDebug("Exited from method %s", logger.getMethodName());
+        logger.LogDebug("Exited from method %s", logger.getLazyMethodName());
 
         return isLinkFound;
     }
@@ -360,12 +403,24 @@ public class AmqpsSessionManager
 
         if (this.session != null)
         {
+            String deviceId = iotHubConnectionString == null ? null : iotHubConnectionString.getDeviceId();
+            AmqpsSessionDeviceOperation deviceSession = deviceId == null ? null : this.deviceSessionsByDeviceId.get(deviceId);
+            if (deviceSession != null)
+            {
+                // only the session of the device can send its messages
+                return deviceSession.sendMessage(message, messageType, iotHubConnectionString);
+            }
+
             for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
             {
                 // Codes_SRS_AMQPSESSIONMANAGER_12_032: [The function shall call sendMessage on all session list member and if there is a successful send return with the deliveryHash, otherwise return -1.]
                 deliveryHash = this.amqpsDeviceSessionList.get(i).sendMessage(message, messageType, iotHubConnectionString);
                 if (deliveryHash != -1)
                 {
+                    if (deviceId != null)
+                    {
+                        this.deviceSessionsByDeviceId.put(deviceId, this.amqpsDeviceSessionList.get(i));
+                    }
                     break;
                 }
             }
@@ -374,6 +429,77 @@ public class AmqpsSessionManager
         return deliveryHash;
     }
 
+    /**
+     * Find the name of the sender link that sends the messages of the given
+     * type for the device of the given connection string.
+     *
+     * @param messageType the message type to find the sender.
+     * @param iotHubConnectionString the device connection string to
+     *                               find the sender.
+     *
+     * @return the name of the sender link, or null if there is none.
+     */
+    String getSenderLinkName(MessageType messageType, IotHubConnectionString iotHubConnectionString)
+    {
+        String deviceId = iotHubConnectionString == null ? null : iotHubConnectionString.getDeviceId();
+        AmqpsSessionDeviceOperation deviceSession = this.findDeviceSessionByDeviceId(deviceId);
+        return deviceSession == null ? null : deviceSession.getSenderLinkName(messageType);
+    }
+
+    /**
+     * Delegate the send of a batch of messages to the device session of
+     * the device of the given connection string.
+     *
+     * @param messages the messages to send, in order.
+     * @param messageType the message type to find the sender.
+     * @param iotHubConnectionString the device connection string to
+     *                               find the sender.
+     *
+     * @return the delivery hash of the batch, or -1 if it could not be sent.
+     */
+    Integer sendMessageBatch(List<org.apache.qpid.proton.message.Message> messages, MessageType messageType, IotHubConnectionString iotHubConnectionString)
+    {
+        String deviceId = iotHubConnectionString == null ? null : iotHubConnectionString.getDeviceId();
+        AmqpsSessionDeviceOperation deviceSession = this.session == null ? null : this.findDeviceSessionByDeviceId(deviceId);
+        if (deviceSession == null)
+        {
+            return -1;
+        }
+
+        return deviceSession.sendMessageBatch(messages, messageType);
+    }
+
+    /**
+     * Find the device session of the provided device, from the index or else
+     * in the list, in which case it is added to the index.
+     *
+     * @param deviceId the id of the device.
+     * @return the device session, or null if there is none.
+     */
+    private AmqpsSessionDeviceOperation findDeviceSessionByDeviceId(String deviceId)
+    {
+        if (deviceId == null)
+        {
+            return null;
+        }
+
+        AmqpsSessionDeviceOperation deviceSession = this.deviceSessionsByDeviceId.get(deviceId);
+        if (deviceSession == null)
+        {
+            for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+            {
+                if (deviceId.equals(this.amqpsDeviceSessionList.get(i).getDeviceId()))
+                {
+                    deviceSession = this.amqpsDeviceSessionList.get(i);
+                    this.deviceSessionsByDeviceId.put(deviceId, deviceSession);
+                    break;
+                }
+            }
+        }
+
+        return deviceSession;
+    }
+
     /**
      * Delegate the onDelivery call to device operation objects.
      * Loop through the device operation list and find the receiver 
@@ -393,6 +519,14 @@ public class AmqpsSessionManager
         {
             if (this.isAuthenticationOpened())
             {
+                AmqpsSessionDeviceOperation deviceSession = linkName == null ? null : this.deviceSessionsByLinkName.get(linkName);
+                if (deviceSession != null)
+                {
+                    // an operation link only delivers to its own device
+                    return deviceSession.getMessageFromReceiverLink(linkName);
+                }
+
+                // the authentication links are shared by the devices, so their deliveries go through every device
                 for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
                 {
                     // Codes_SRS_AMQPSESSIONMANAGER_12_035: [The function shall call device sessions getMessageFromReceiverLink if the authentication is open.]
@@ -426,15 +560,8 @@ public class AmqpsSessionManager
 
         if (this.isAuthenticationOpened())
         {
-            for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
-            {
-                // Codes_SRS_AMQPSESSIONMANAGER_12_038: [The function shall call all device session's isLinkFound, and if any of them true return true otherwise return false.]
-                isLinkFound = this.amqpsDeviceSessionList.get(i).isLinkFound(linkName);
-                if (isLinkFound == true)
-                {
-                    break;
-                }
-            }
+            // Codes_SRS_AMQPSESSIONMANAGER_12_038: [The function shall call all device session's isLinkFound, and if any of them true return true otherwise return false.]
+            isLinkFound = this.findDeviceSessionByLinkName(linkName) != null;
         }
         else
         {
@@ -520,12 +647,24 @@ public class AmqpsSessionManager
     {
         AmqpsConvertFromProtonReturnValue amqpsConvertFromProtonReturnValue = null;
 
+        String deviceId = deviceClientConfig == null ? null : deviceClientConfig.getDeviceId();
+        AmqpsSessionDeviceOperation deviceSession = deviceId == null ? null : this.deviceSessionsByDeviceId.get(deviceId);
+        if (deviceSession != null)
+        {
+            // only the session of the device converts its messages
+            return deviceSession.convertFromProton(amqpsMessage, deviceClientConfig);
+        }
+
         for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
         {
             // Codes_SRS_AMQPSESSIONMANAGER_12_041: [The function shall call all device session's convertFromProton, and if any of them not null return with the value.]
             amqpsConvertFromProtonReturnValue = this.amqpsDeviceSessionList.get(i).convertFromProton(amqpsMessage, deviceClientConfig);
             if (amqpsConvertFromProtonReturnValue != null)
             {
+                if (deviceId != null)
+                {
+                    this.deviceSessionsByDeviceId.put(deviceId, this.amqpsDeviceSessionList.get(i));
+                }
                 break;
             }
         }
@@ -533,11 +672,52 @@ public class AmqpsSessionManager
         return amqpsConvertFromProtonReturnValue;
     }
 
+    /**
+     * Find the device session that owns the provided operation link, from the index or else by asking every device
+     * session, in which case the owner is added to the index. Asking a device session if it owns a link marks the
+     * link open.
+     *
+     * @param linkName the name of the link.
+     * @return the device session that owns the link, or null if there is none.
+     */
+    private AmqpsSessionDeviceOperation findDeviceSessionByLinkName(String linkName)
+    {
+        if (linkName == null)
+        {
+            return null;
+        }
+
+        AmqpsSessionDeviceOperation deviceSession = this.deviceSessionsByLinkName.get(linkName);
+        if (deviceSession != null)
+        {
+            return deviceSession.isLinkFound(linkName) ? deviceSession : null;
+        }
+
+        for (int i = 0; i < this.amqpsDeviceSessionList.size(); i++)
+        {
+            deviceSession = this.amqpsDeviceSessionList.get(i);
+            if (deviceSession.isLinkFound(linkName))
+            {
+                this.deviceSessionsByLinkName.put(linkName, deviceSession);
+                return deviceSession;
+            }
+        }
+
+        return null;
+    }
+
     /**
      * Shut down the CBS authentication sender thread
      */
     private void shutDownScheduler()
     {
+        if (this.cbsAuthSendTaskFuture != null)
+        {
+            // the task runs on a shared scheduler, which outlives this connection
+            this.cbsAuthSendTaskFuture.cancel(false);
+            this.cbsAuthSendTaskFuture = null;
+        }
+
         if (this.taskSchedulerCBSSend != null)
         {
             this.taskSchedulerCBSSend.shutdown(); // Disable new tasks from being submitted
@@ -10,6 +10,12 @@ import org.apache.qpid.proton.reactor.Reactor;
 
 public class IotHubReactor
 {
+    /*
+     * How long the reactor waits for network activity when it has nothing else to do. Work submitted from other
+     * threads wakes the reactor up with Reactor.wakeup(), so this does not delay outbound messages.
+     */
+    private static final long IDLE_TIMEOUT_MILLISECONDS = 500;
+
     private final Reactor reactor;
 
     public IotHubReactor(Reactor reactor)
@@ -20,8 +26,8 @@ public class IotHubReactor
     
     public void run() throws HandlerException
     {
-        //Codes_SRS_IOTHUBREACTOR_34_003: [This function shall set the timeout of the reactor to 10 milliseconds.]
-        this.reactor.setTimeout(10);
+        //Codes_SRS_IOTHUBREACTOR_34_003: [This function shall set the timeout of the reactor to 500 milliseconds.]
+        this.reactor.setTimeout(IDLE_TIMEOUT_MILLISECONDS);
         this.reactor.start();
 
         //Codes_SRS_IOTHUBREACTOR_34_004: [This function shall start the reactor and have it process indefinitely and stop the reactor when it finishes.]
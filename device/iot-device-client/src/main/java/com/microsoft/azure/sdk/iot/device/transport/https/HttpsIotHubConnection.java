@@ -116,7 +116,7 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
 
             IotHubStatusCode status = IotHubStatusCode.getIotHubStatusCode(response.getStatus());
 
-            IotHubTransportMessage transportMessage = new IotHubTransportMessage(message.getBytes(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
+            IotHubTransportMessage transportMessage = new IotHubTransportMessage(message.getBytesWithoutCopy(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
             if (status == IotHubStatusCode.OK || status == IotHubStatusCode.OK_EMPTY)
             {
                 //Codes_SRS_HTTPSIOTHUBCONNECTION_34_067: [If the response from the service is OK or OK_EMPTY, this function shall notify its listener that a message was sent with no exception.]
@@ -231,7 +231,7 @@ public class HttpsIotHubConnection implements IotHubTransportConnection
                 Message message = httpsMsg.toMessage();
 
                 //callbacks are always for telemetry as HTTPS does not support Twin or Methods
-                transportMessage = new IotHubTransportMessage(message.getBytes(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
+                transportMessage = new IotHubTransportMessage(message.getBytesWithoutCopy(), message.getMessageType(), message.getMessageId(), message.getCorrelationId(), message.getProperties());
                 transportMessage.setMessageCallback(this.config.getDeviceTelemetryMessageCallback());
                 transportMessage.setMessageCallbackContext(this.config.getDeviceTelemetryMessageContext());
 
@@ -78,17 +78,17 @@ public final class HttpsSingleMessage implements HttpsMessage
     {
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_001: [The parsed HttpsSingleMessage shall have a copy of the original message body as its body.]
         // Codes_SRS_HTTPSSINGLEMESSAGE_21_016: [The parsed HttpsSingleMessage shall have a copy of the original message body as its body.]
-        byte[] msgBody = message.getBytes();
+        byte[] msgBody = message.getBytesWithoutCopy();
         httpsMsg.body = Arrays.copyOf(msgBody, msgBody.length);
 
         // Codes_SRS_HTTPSSINGLEMESSAGE_11_003: [The parsed HttpsSingleMessage shall add the prefix 'iothub-app-' to each of the message properties.]
         // Codes_SRS_HTTPSSINGLEMESSAGE_21_018: [The parsed HttpsSingleMessage shall add the prefix 'iothub-app-' to each of the message properties.]
-        MessageProperty[] msgProperties = message.getProperties();
-        httpsMsg.properties = new MessageProperty[msgProperties.length];
+        int propertyCount = message.getPropertyCount();
+        httpsMsg.properties = new MessageProperty[propertyCount];
         int countProperty;
-        for (countProperty = 0; countProperty < msgProperties.length; ++countProperty)
+        for (countProperty = 0; countProperty < propertyCount; ++countProperty)
         {
-            MessageProperty property = msgProperties[countProperty];
+            MessageProperty property = message.getPropertyAt(countProperty);
 
             httpsMsg.properties[countProperty] = new MessageProperty(
                     HTTPS_APP_PROPERTY_PREFIX + property.getName(),
@@ -109,7 +109,7 @@ public final class HttpsSingleMessage implements HttpsMessage
             sysProperties.put(MESSAGE_ID_KEY, message.getMessageId());
         }
 
-        if (message.getCorrelationId() != null)
+        if (message.hasCorrelationId())
         {
             sysProperties.put(CORRELATION_ID_KEY, message.getCorrelationId());
         }
@@ -16,21 +16,21 @@ import org.eclipse.paho.client.mqttv3.*;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
-import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 abstract public class Mqtt implements MqttCallback
 {
     private static final int CONNECTION_TIMEOUT = 60 * 1000;
     private static final int DISCONNECTION_TIMEOUT = 60 * 1000;
+    private static final long IN_FLIGHT_PERMIT_WAIT_TIME = 100;
 
     private MqttConnection mqttConnection;
     private MqttMessageListener messageListener;
     ConcurrentLinkedQueue<Pair<String, byte[]>> allReceivedMessages;
     Object mqttLock;
-
-    private static Map<Integer, Message> unacknowledgedSentMessages = new ConcurrentHashMap<>();
+    private Semaphore inFlightPermits;
 
     // SAS token expiration check on retry
     private boolean userSpecifiedSASTokenExpiredOnRetry = false;
@@ -40,8 +40,6 @@ abstract public class Mqtt implements MqttCallback
     private final static String MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED = "%24";
     private final static char MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED = '$';
     final static char MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR = '=';
-    private final static int PROPERTY_KEY_INDEX = 0;
-    private final static int PROPERTY_VALUE_INDEX = 1;
 
     /* The system property keys expected in a message */
     //This may be common with amqp as well
@@ -51,6 +49,7 @@ abstract public class Mqtt implements MqttCallback
     final static String TO = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".to";
     final static String USER_ID = MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED + ".uid";
     private final static String IOTHUB_ACK = "iothub-ack";
+    private final static String[] SYSTEM_PROPERTY_KEYS = {ABSOLUTE_EXPIRY_TIME, CORRELATION_ID, MESSAGE_ID, TO, USER_ID};
 
     private IotHubListener listener;
 
@@ -73,6 +72,7 @@ abstract public class Mqtt implements MqttCallback
         this.mqttConnection = mqttConnection;
         this.allReceivedMessages = mqttConnection.getAllReceivedMessages();
         this.mqttLock = mqttConnection.getMqttLock();
+        this.inFlightPermits = mqttConnection.getInFlightPermits();
         this.userSpecifiedSASTokenExpiredOnRetry = false;
         this.listener = listener;
         this.messageListener = messageListener;
@@ -145,6 +145,9 @@ abstract public class Mqtt implements MqttCallback
     /**
      * Method to publish to mqtt broker connection.
      *
+     * Waits for a free slot in the window of messages in flight, without holding the connection lock, so that twin and
+     * method publishes are not held up behind telemetry waiting for acknowledgements.
+     *
      * @param publishTopic the topic to publish on mqtt broker connection.
      * @param message the message to publish.
      * @throws TransportException if sas token has expired, if connection hasn't been established yet, or if Paho throws
@@ -152,9 +155,20 @@ abstract public class Mqtt implements MqttCallback
      */
     protected void publish(String publishTopic, Message message) throws TransportException
     {
-        synchronized (this.mqttLock)
+        try
         {
-            try
+            //Codes_SRS_Mqtt_25_048: [publish shall take a permit from the in flight window of the connection, whose size is the maximum MQTT in flight count, before publishing. If no permit is free, publish shall wait until a delivery acknowledgement gives one back. A permit shall be given back when the message is acknowledged, or when it could not be published.]
+            this.acquireInFlightPermit();
+        }
+        catch (InterruptedException e)
+        {
+            throw new TransportException("Interrupted, Unable to publish message on topic : " + publishTopic, e);
+        }
+
+        boolean published = false;
+        try
+        {
+            synchronized (this.mqttLock)
             {
                 if (this.mqttConnection.getMqttAsyncClient() == null)
                 {
@@ -177,51 +191,59 @@ abstract public class Mqtt implements MqttCallback
                     throw transportException;
                 }
 
-                if (message == null || publishTopic == null || publishTopic.length() == 0 || message.getBytes() == null)
+                if (message == null || publishTopic == null || publishTopic.length() == 0 || message.getBytesWithoutCopy() == null)
                 {
                     //Codes_SRS_Mqtt_25_013: [If the either publishTopic is null or empty or if payload is null, the function shall throw an IllegalArgumentException.]
                     throw new IllegalArgumentException("Cannot publish on null or empty publish topic");
                 }
 
-                byte[] payload = message.getBytes();
-
-                while (this.mqttConnection.getMqttAsyncClient().getPendingDeliveryTokens().length >= MqttConnection.MAX_IN_FLIGHT_COUNT)
-                {
-                    //Codes_SRS_Mqtt_25_048: [publish shall check for pending publish tokens by calling getPendingDeliveryTokens. And if there are pending tokens publish shall sleep until the number of pending tokens are less than 10 as per paho limitations]
-                    Thread.sleep(10);
-
-                    if (this.mqttConnection.getMqttAsyncClient() == null)
-                    {
-                        TransportException transportException = new TransportException("Connection was lost while waiting for mqtt deliveries to finish");
-                        transportException.setRetryable(true);
-                        throw transportException;
-                    }
-
-                    if (!this.mqttConnection.getMqttAsyncClient().isConnected())
-                    {
-                        //Codes_SRS_Mqtt_25_012: [If the MQTT connection is closed, the function shall throw a ProtocolException.]
-                        TransportException transportException = new TransportException("Cannot publish when mqtt client is holding 10 tokens and is disconnected");
-                        transportException.setRetryable(true);
-                        throw transportException;
-                    }
-                }
+                byte[] payload = message.getBytesWithoutCopy();
 
                 MqttMessage mqttMessage = (payload.length == 0) ? new MqttMessage() : new MqttMessage(payload);
 
                 mqttMessage.setQos(MqttConnection.QOS);
 
                 //Codes_SRS_Mqtt_25_014: [The function shall publish message payload on the publishTopic specified to the IoT Hub given in the configuration.]
-                IMqttDeliveryToken publishToken = this.mqttConnection.getMqttAsyncClient().publish(publishTopic, mqttMessage);
-                this.unacknowledgedSentMessages.put(publishToken.getMessageId(), message);
+                // the message rides on its own delivery token, so the acknowledgement finds it without a lookup by
+                // message id, which paho reuses, and nothing outlives the token when the connection goes away
+                this.mqttConnection.getMqttAsyncClient().publish(publishTopic, mqttMessage, message, null);
+                published = true;
             }
-            catch (MqttException e)
+        }
+        catch (MqttException e)
+        {
+            //Codes_SRS_Mqtt_25_047: [If the Mqtt Client Async throws MqttException, the function shall throw a ProtocolException with the message.]
+            throw PahoExceptionTranslator.convertToMqttException(e, "Unable to publish message on topic : " + publishTopic);
+        }
+        finally
+        {
+            if (!published)
             {
-                //Codes_SRS_Mqtt_25_047: [If the Mqtt Client Async throws MqttException, the function shall throw a ProtocolException with the message.]
-                throw PahoExceptionTranslator.convertToMqttException(e, "Unable to publish message on topic : " + publishTopic);
+                // the message never reached paho, so no acknowledgement will give this permit back
+                this.inFlightPermits.release();
             }
-            catch (InterruptedException e)
+        }
+    }
+
+    /**
+     * Takes a permit for one more message in flight, waiting for an acknowledgement to free one if the window is full.
+     *
+     * @throws TransportException if the connection is closed or lost while waiting.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    private void acquireInFlightPermit() throws TransportException, InterruptedException
+    {
+        // the permits are given back as soon as the acknowledgements arrive, the timeout only bounds how long a
+        // publisher keeps waiting on a connection that went away
+        while (!this.inFlightPermits.tryAcquire(IN_FLIGHT_PERMIT_WAIT_TIME, TimeUnit.MILLISECONDS))
+        {
+            MqttAsyncClient mqttAsyncClient = this.mqttConnection.getMqttAsyncClient();
+            if (mqttAsyncClient == null || !mqttAsyncClient.isConnected())
             {
-                throw new TransportException("Interrupted, Unable to publish message on topic : " + publishTopic, e);
+                //Codes_SRS_Mqtt_25_012: [If the MQTT connection is closed, the function shall throw a ProtocolException.]
+                TransportException transportException = new TransportException("Connection was lost while waiting for mqtt deliveries to finish");
+                transportException.setRetryable(true);
+                throw transportException;
             }
         }
     }
@@ -354,7 +376,8 @@ abstract public class Mqtt implements MqttCallback
     public void messageArrived(String topic, MqttMessage mqttMessage)
     {
         //Codes_SRS_Mqtt_25_030: [The payload of the message and the topic is added to the received messages queue .]
-        this.mqttConnection.getAllReceivedMessages().add(new MutablePair<>(topic, mqttMessage.getPayload()));
+        // the message goes straight to the queue of the client that handles its topic
+        this.mqttConnection.getReceivedMessagesQueue(topic).add(new MutablePair<>(topic, mqttMessage.getPayload()));
 
         if (this.messageListener != null)
         {
@@ -370,16 +393,33 @@ abstract public class Mqtt implements MqttCallback
     @Override
     public void deliveryComplete(IMqttDeliveryToken iMqttDeliveryToken)
     {
+        // paho has already freed its own slot by the time this is called
+        this.inFlightPermits.release();
+
         if (this.listener != null)
         {
-            if (this.unacknowledgedSentMessages.containsKey(iMqttDeliveryToken.getMessageId()))
+            Object sentMessage = iMqttDeliveryToken.getUserContext();
+            if (sentMessage instanceof Message)
             {
                 //Codes_SRS_Mqtt_34_042: [If this object has a saved listener, that listener shall be notified of the successfully delivered message.]
-                this.listener.onMessageSent(this.unacknowledgedSentMessages.get(iMqttDeliveryToken.getMessageId()), null);
+                this.listener.onMessageSent((Message) sentMessage, null);
             }
         }
     }
 
+    /**
+     * Makes this client receive from a queue of its own, which only gets the messages whose topic starts with the
+     * provided prefix, instead of the queue of all the messages no other client receives.
+     *
+     * @param topicPrefix the first two levels of the topics this client receives, such as {@code $iothub/twin}.
+     */
+    void routeReceivedMessages(String topicPrefix)
+    {
+        ConcurrentLinkedQueue<Pair<String, byte[]>> receivedMessages = new ConcurrentLinkedQueue<>();
+        this.mqttConnection.setReceivedMessagesQueue(topicPrefix, receivedMessages);
+        this.allReceivedMessages = receivedMessages;
+    }
+
     public Pair<String, byte[]> peekMessage()
     {
         return this.allReceivedMessages.peek();
@@ -412,75 +452,135 @@ abstract public class Mqtt implements MqttCallback
         int propertiesStringStartingIndex = topic.indexOf(MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED);
         if (propertiesStringStartingIndex != -1)
         {
-            String propertiesString = topic.substring(propertiesStringStartingIndex);
-
             //Codes_SRS_Mqtt_34_041: [This method shall call assignPropertiesToMessage so that all properties from the topic string can be assigned to the message]
-            assignPropertiesToMessage(message, propertiesString);
+            assignPropertiesToMessage(message, topic, propertiesStringStartingIndex);
         }
 
         return message;
     }
 
     /**
-     * Takes propertiesString and parses it for all the properties it holds and then assigns them to the provided message
-     * @param propertiesString the string to parse containing all the properties
+     * Parses the properties at the end of the topic and assigns them to the provided message, in a single pass over
+     * the topic. Keys and values are only URL decoded when they contain an escape, and the system properties are
+     * recognized before decoding, so that the ones the message does not keep are never decoded.
+     *
      * @param message the message to add the parsed properties to
+     * @param topic the topic string containing the properties
+     * @param propertiesStart the index in the topic of the first property
      * @throws IllegalArgumentException if a property's key and value are not separated by the '=' symbol
-     * @throws IllegalStateException if the property for expiry time is present, but the value cannot be parsed as a Long
-     * */
-    private void assignPropertiesToMessage(Message message, String propertiesString) throws IllegalStateException, IllegalArgumentException
+     */
+    private void assignPropertiesToMessage(Message message, String topic, int propertiesStart) throws IllegalArgumentException
     {
         //Codes_SRS_Mqtt_34_054: [A message may have 0 to many custom properties]
         //expected format is <key>=<value><MESSAGE_PROPERTY_SEPARATOR><key>=<value><MESSAGE_PROPERTY_SEPARATOR>...
-        for (String propertyString : propertiesString.split(String.valueOf(MESSAGE_PROPERTY_SEPARATOR)))
+        int length = topic.length();
+        int propertyStart = propertiesStart;
+        while (propertyStart < length)
         {
-            if (propertyString.contains("="))
+            int propertyEnd = topic.indexOf(MESSAGE_PROPERTY_SEPARATOR, propertyStart);
+            if (propertyEnd == -1)
             {
-                //Expected format is <key>=<value> where both key and value may be encoded
-                String key = propertyString.split("=")[PROPERTY_KEY_INDEX];
-                String value = propertyString.split("=")[PROPERTY_VALUE_INDEX];
-                try
+                propertyEnd = length;
+            }
+
+            if (propertyEnd > propertyStart)
+            {
+                int keyEnd = topic.indexOf(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR, propertyStart);
+                if (keyEnd == -1 || keyEnd > propertyEnd)
+                {
+                    //Codes_SRS_Mqtt_34_051: [If a topic string's property's key and value are not separated by the '=' symbol, an IllegalArgumentException shall be thrown]
+                    throw new IllegalArgumentException("Unexpected property string provided. Expected '=' symbol between key and value of the property in string: " + topic.substring(propertyStart, propertyEnd));
+                }
+
+                //Some properties are reserved system properties and must be saved in the message differently
+                String systemPropertyKey = getSystemPropertyKey(topic, propertyStart, keyEnd);
+                if (systemPropertyKey == null)
                 {
                     //Codes_SRS_Mqtt_34_053: [A property's key and value may include unusual characters such as &, %, $]
-                    key = URLDecoder.decode(key, StandardCharsets.UTF_8.name());
-                    value = URLDecoder.decode(value, StandardCharsets.UTF_8.name());
+                    message.setProperty(decode(topic, propertyStart, keyEnd), decode(topic, keyEnd + 1, propertyEnd));
                 }
-                catch (UnsupportedEncodingException e)
+                else if (systemPropertyKey.equals(MESSAGE_ID))
                 {
-                    // should never happen, since the encoding is hard-coded.
-                    throw new IllegalStateException(e);
+                    message.setMessageId(decode(topic, keyEnd + 1, propertyEnd));
                 }
-
-                //Some properties are reserved system properties and must be saved in the message differently
-                switch (key)
+                else if (systemPropertyKey.equals(CORRELATION_ID))
                 {
-                    case TO:
-                        //do nothing
-                        break;
-                    case MESSAGE_ID:
-                        message.setMessageId(value);
-                        break;
-                    case IOTHUB_ACK:
-                        //do nothing
-                        break;
-                    case CORRELATION_ID:
-                        message.setCorrelationId(value);
-                        break;
-                    case USER_ID:
-                        //do nothing
-                        break;
-                    case ABSOLUTE_EXPIRY_TIME:
-                        //do nothing
-                        break;
-                    default:
-                        message.setProperty(key, value);
+                    message.setCorrelationId(decode(topic, keyEnd + 1, propertyEnd));
                 }
+                // the other system properties are not kept in the message
             }
-            else
+
+            propertyStart = propertyEnd + 1;
+        }
+    }
+
+    /**
+     * Recognizes the key of a system property, with its '$' either encoded or not, without decoding it.
+     *
+     * @param topic the topic string containing the key
+     * @param keyStart the index of the first character of the key
+     * @param keyEnd the index after the last character of the key
+     * @return the decoded system property key, or null if the key is not a system property
+     */
+    private static String getSystemPropertyKey(String topic, int keyStart, int keyEnd)
+    {
+        int nameStart;
+        if (topic.startsWith(MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED, keyStart))
+        {
+            nameStart = keyStart + MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_ENCODED.length();
+        }
+        else if (keyStart < keyEnd && topic.charAt(keyStart) == MESSAGE_SYSTEM_PROPERTY_IDENTIFIER_DECODED)
+        {
+            nameStart = keyStart + 1;
+        }
+        else
+        {
+            return regionEquals(topic, keyStart, keyEnd, IOTHUB_ACK, 0) ? IOTHUB_ACK : null;
+        }
+
+        for (String systemPropertyKey : SYSTEM_PROPERTY_KEYS)
+        {
+            // the keys are compared without their leading '$'
+            if (regionEquals(topic, nameStart, keyEnd, systemPropertyKey, 1))
+            {
+                return systemPropertyKey;
+            }
+        }
+
+        return null;
+    }
+
+    private static boolean regionEquals(String topic, int start, int end, String expected, int expectedStart)
+    {
+        int regionLength = end - start;
+        return regionLength == expected.length() - expectedStart
+                && topic.regionMatches(start, expected, expectedStart, regionLength);
+    }
+
+    /**
+     * URL decodes the provided range of the topic. Ranges without any escape, which is most of them, are returned
+     * as they are.
+     */
+    private static String decode(String topic, int start, int end)
+    {
+        String token = topic.substring(start, end);
+        for (int i = start; i < end; i++)
+        {
+            char c = topic.charAt(i);
+            if (c == '%' || c == '+')
             {
-                //Codes_SRS_Mqtt_34_051: [If a topic string's property's key and value are not separated by the '=' symbol, an IllegalArgumentException shall be thrown]
-                throw new IllegalArgumentException("Unexpected property string provided. Expected '=' symbol between key and value of the property in string: " + propertyString);
+                try
+                {
+                    return URLDecoder.decode(token, StandardCharsets.UTF_8.name());
+                }
+                catch (UnsupportedEncodingException e)
+                {
+                    // should never happen, since the encoding is hard-coded.
+                    throw new IllegalStateException(e);
+                }
             }
         }
+
+        return token;
     }
 }
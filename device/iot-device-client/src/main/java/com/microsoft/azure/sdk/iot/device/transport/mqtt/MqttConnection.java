@@ -5,6 +5,7 @@
 
 package com.microsoft.azure.sdk.iot.device.transport.mqtt;
 
+import com.microsoft.azure.sdk.iot.device.DeviceClientConfig;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.mqtt.exceptions.PahoExceptionTranslator;
 import org.apache.commons.lang3.tuple.Pair;
@@ -13,7 +14,10 @@ import org.eclipse.paho.client.mqttv3.persist.MemoryPersistence;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
 
 public class MqttConnection
 {
@@ -21,8 +25,14 @@ public class MqttConnection
     private MqttConnectOptions connectionOptions = null;
     private ConcurrentLinkedQueue<Pair<String, byte[]>> allReceivedMessages;
     private Object mqttLock;
+
+    /* The queues of the clients that receive their own topics, by the first two levels of those topics. */
+    private final ConcurrentMap<String, ConcurrentLinkedQueue<Pair<String, byte[]>>> receivedMessagesByTopicPrefix = new ConcurrentHashMap<>();
     private MqttCallback mqttCallback;
 
+    /* One permit per message that can be published before the previous ones are acknowledged. */
+    private Semaphore inFlightPermits;
+
     //mqtt connection options
     private static final int KEEP_ALIVE_INTERVAL = 230;
     private static final int MQTT_VERSION = 4;
@@ -30,11 +40,8 @@ public class MqttConnection
     static final int QOS = 1;
     static final int MAX_WAIT_TIME = 1000;
 
-    // paho mqtt only supports 10 messages in flight at the same time
-    static final int MAX_IN_FLIGHT_COUNT = 10;
-
     /**
-     * Constructor to create MqttAsync Client with Paho
+     * Constructor to create MqttAsync Client with Paho, with the default number of messages in flight
      * @param serverURI Uri to connect to
      * @param clientId Client Id to connect to
      * @param userName Username
@@ -45,6 +52,29 @@ public class MqttConnection
      */
     MqttConnection(String serverURI, String clientId, String userName, String password, SSLContext iotHubSSLContext) throws TransportException, IllegalArgumentException
     {
+        this(serverURI, clientId, userName, password, iotHubSSLContext, DeviceClientConfig.DEFAULT_MQTT_MAX_IN_FLIGHT_COUNT);
+    }
+
+    /**
+     * Constructor to create MqttAsync Client with Paho
+     * @param serverURI Uri to connect to
+     * @param clientId Client Id to connect to
+     * @param userName Username
+     * @param password password
+     * @param iotHubSSLContext SSLContext for the connection
+     * @param maxInFlightCount the number of messages that can be published and waiting for their acknowledgement at
+     *                         the same time
+     * @throws IllegalArgumentException is thrown if any of the parameters are null or empty, or if maxInFlightCount is
+     * not positive
+     * @throws TransportException when Mqtt async client cannot be instantiated
+     */
+    MqttConnection(String serverURI, String clientId, String userName, String password, SSLContext iotHubSSLContext, int maxInFlightCount) throws TransportException, IllegalArgumentException
+    {
+        if (maxInFlightCount < 1)
+        {
+            throw new IllegalArgumentException("The number of messages in flight must be positive");
+        }
+
         if (serverURI == null || clientId == null || userName == null || iotHubSSLContext == null)
         {
             //Codes_SRS_MQTTCONNECTION_25_001: [The constructor shall throw IllegalArgumentException if any of the input parameters are null other than password.]
@@ -64,6 +94,9 @@ public class MqttConnection
             this.mqttAsyncClient.setManualAcks(true);
             this.connectionOptions = new MqttConnectOptions();
             this.updateConnectionOptions(userName, password, iotHubSSLContext);
+
+            // paho refuses to publish beyond its own in flight limit, so it is kept in line with the permits
+            this.connectionOptions.setMaxInflight(maxInFlightCount);
         }
         catch (MqttException e)
         {
@@ -76,6 +109,7 @@ public class MqttConnection
         //Codes_SRS_MQTTCONNECTION_25_003: [The constructor shall create lock, queue for this MqttConnection.]
         this.allReceivedMessages = new ConcurrentLinkedQueue<>();
         this.mqttLock = new Object();
+        this.inFlightPermits = new Semaphore(maxInFlightCount);
     }
 
     /**
@@ -172,6 +206,63 @@ public class MqttConnection
         return this.allReceivedMessages;
     }
 
+    /**
+     * Routes the messages whose topic starts with the provided prefix to the provided queue instead of the queue of
+     * all received messages. A later call for the same prefix replaces the queue.
+     *
+     * @param topicPrefix the first two levels of the topics to route, such as {@code $iothub/twin}.
+     * @param receivedMessages the queue to add those messages to.
+     * @throws IllegalArgumentException if the prefix is null, empty or has more than two levels, or if the queue is null.
+     */
+    void setReceivedMessagesQueue(String topicPrefix, ConcurrentLinkedQueue<Pair<String, byte[]>> receivedMessages) throws IllegalArgumentException
+    {
+        if (topicPrefix == null || topicPrefix.isEmpty() || getTopicPrefixEnd(topicPrefix) != topicPrefix.length())
+        {
+            throw new IllegalArgumentException("Topic prefix must be made of the first two levels of a topic");
+        }
+
+        if (receivedMessages == null)
+        {
+            throw new IllegalArgumentException("Received messages queue cannot be null");
+        }
+
+        this.receivedMessagesByTopicPrefix.put(topicPrefix, receivedMessages);
+    }
+
+    /**
+     * Looks up the queue a message received on the provided topic belongs to, with a single hash lookup on the first
+     * two levels of the topic, whatever the number of routed prefixes.
+     *
+     * @param topic the topic the message was received on.
+     * @return the queue routed to the prefix of the topic, or the queue of all received messages if there is none.
+     */
+    ConcurrentLinkedQueue<Pair<String, byte[]>> getReceivedMessagesQueue(String topic)
+    {
+        if (topic != null && !this.receivedMessagesByTopicPrefix.isEmpty())
+        {
+            ConcurrentLinkedQueue<Pair<String, byte[]>> receivedMessages =
+                    this.receivedMessagesByTopicPrefix.get(topic.substring(0, getTopicPrefixEnd(topic)));
+            if (receivedMessages != null)
+            {
+                return receivedMessages;
+            }
+        }
+
+        return this.allReceivedMessages;
+    }
+
+    private static int getTopicPrefixEnd(String topic)
+    {
+        int firstSeparator = topic.indexOf('/');
+        if (firstSeparator == -1)
+        {
+            return topic.length();
+        }
+
+        int secondSeparator = topic.indexOf('/', firstSeparator + 1);
+        return secondSeparator == -1 ? topic.length() : secondSeparator;
+    }
+
     /**
      * Getter for Mqtt Lock
      * @return The object to be used for the lock
@@ -182,6 +273,16 @@ public class MqttConnection
         return this.mqttLock;
     }
 
+    /**
+     * Getter for the permits of the messages in flight. A publisher takes a permit before publishing a message, and
+     * the permit is given back when the message is acknowledged, or when publishing fails.
+     * @return The permits shared by all the publishers on this connection
+     */
+    Semaphore getInFlightPermits()
+    {
+        return this.inFlightPermits;
+    }
+
     /**
      * Getter for connection Options
      * @return the connection options to be used for Mqtt
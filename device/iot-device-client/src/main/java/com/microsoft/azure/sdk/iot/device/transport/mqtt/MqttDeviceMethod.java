@@ -26,7 +26,8 @@ public class MqttDeviceMethod extends Mqtt
     private final String BACKSLASH = "/";
     private final String QUESTION = "?";
 
-    private final String METHOD = "$iothub/methods/";
+    private final String METHODS_TOPIC_PREFIX = "$iothub/methods";
+    private final String METHOD = METHODS_TOPIC_PREFIX + "/";
     private final String POST = METHOD + "POST";
     private final String RES = METHOD + "res";
     private final String REQ_ID = QUESTION + "$rid=";
@@ -44,6 +45,8 @@ public class MqttDeviceMethod extends Mqtt
         //Codes_SRS_MqttDeviceMethod_25_002: [The constructor shall create subscribe and response topics strings for device methods as per the spec.]
         this.subscribeTopic = POST + BACKSLASH + POUND;
         this.responseTopic = RES;
+
+        this.routeReceivedMessages(METHODS_TOPIC_PREFIX);
     }
 
     public void start()
@@ -61,7 +64,7 @@ public class MqttDeviceMethod extends Mqtt
 
         if (!requestMap.isEmpty())
         {
-            logger.LogInfo("Pending %d responses to be sent to IotHub yet unsubscribed %s", requestMap.size(), logger.getMethodName());
+            logger.LogInfo("Pending %d responses to be sent to IotHub yet unsubscribed %s", requestMap.size(), logger.getLazyMethodName());
         }
     }
 
@@ -74,7 +77,7 @@ public class MqttDeviceMethod extends Mqtt
      */
     public void send(final IotHubTransportMessage message) throws TransportException, IllegalArgumentException
     {
-        if (message == null || message.getBytes() == null)
+        if (message == null || message.getBytesWithoutCopy() == null)
         {
             //Codes_SRS_MqttDeviceMethod_25_016: [send method shall throw an exception if the message is null.]
             throw new IllegalArgumentException("Message cannot be null");
@@ -201,6 +204,12 @@ public class MqttDeviceMethod extends Mqtt
                                 throwMethodsTransportException("Request ID cannot be null");
                             }
                         }
+                        else
+                        {
+                            // only this client receives method topics, so one it cannot handle must not stay at the head of its queue
+                            allReceivedMessages.poll();
+                            logger.LogInfo("Ignoring message received on unexpected method topic %s, method name is %s ", topic, logger.getLazyMethodName());
+                        }
                     }
                 }
             }
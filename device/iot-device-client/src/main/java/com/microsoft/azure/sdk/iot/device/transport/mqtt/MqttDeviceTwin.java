@@ -14,7 +14,6 @@ import org.apache.commons.lang3.tuple.Pair;
 
 import java.util.HashMap;
 import java.util.Map;
-import java.util.regex.Pattern;
 
 public class MqttDeviceTwin extends Mqtt
 {
@@ -38,6 +37,13 @@ public class MqttDeviceTwin extends Mqtt
     private final String REQ_ID = QUESTION + "$rid=";
     private final String VERSION = "$version=";
 
+    // The constant parts of the request topics, so that building a topic only appends the request id and version
+    private final String GET_REQUEST_TOPIC_PREFIX = GET + BACKSLASH + REQ_ID;
+    private final String REPORTED_REQUEST_TOPIC_PREFIX = PATCH + BACKSLASH + PROPERTIES + BACKSLASH + REPORTED + BACKSLASH + REQ_ID;
+    private final String DESIRED_TOPIC = PATCH + BACKSLASH + PROPERTIES + BACKSLASH + DESIRED;
+    private final String AND_VERSION = AND + VERSION;
+    private final String QUESTION_VERSION = BACKSLASH + QUESTION + VERSION;
+
     //Placement in $iothub/twin/res/{status}/?$rid={request id}&$version={new version}
     private final int RES_TOKEN = 2;
     private final int STATUS_TOKEN = 3;
@@ -57,6 +63,8 @@ public class MqttDeviceTwin extends Mqtt
 
         //Codes_SRS_MQTTDEVICETWIN_25_002: [The constructor shall construct device twin response subscribeTopic.]
         this.subscribeTopic = RES + BACKSLASH + POUND;
+
+        this.routeReceivedMessages(TWIN);
     }
 
     public void start() throws TransportException
@@ -75,27 +83,23 @@ public class MqttDeviceTwin extends Mqtt
 
         if (!requestMap.isEmpty())
         {
-            logger.LogInfo("Pending %d responses from IotHub yet unsubscribed %s", requestMap.size(), logger.getMethodName());
+            logger.LogInfo("Pending %d responses from IotHub yet unsubscribed %s", requestMap.size(), logger.getLazyMethodName());
         }
     }
 
     private String buildTopic(final IotHubTransportMessage message) throws TransportException
     {
-        StringBuilder topic = new StringBuilder();
+        MqttTopicBuilder topic;
         switch (message.getDeviceOperationType())
         {
             case DEVICE_OPERATION_TWIN_GET_REQUEST:
             {
                 //Building $iothub/twin/GET/?$rid={request id}
                 //Codes_SRS_MQTTDEVICETWIN_25_024: [send method shall build the get request topic of the format mentioned in spec ($iothub/twin/GET/?$rid={request id}) if the operation is of type DEVICE_OPERATION_TWIN_GET_REQUEST.]
-                topic.append(GET);
-
                 String reqid = message.getRequestId();
                 if (reqid != null && reqid.length() > 0)
                 {
-                    topic.append(BACKSLASH);
-                    topic.append(REQ_ID);
-                    topic.append(reqid);
+                    topic = MqttTopicBuilder.startTopic(GET_REQUEST_TOPIC_PREFIX).appendEncoded(reqid);
                 }
                 else
                 {
@@ -108,18 +112,10 @@ public class MqttDeviceTwin extends Mqtt
             {
                 // Building $iothub/twin/PATCH/properties/reported/?$rid={request id}&$version={base version}
                 //Codes_SRS_MQTTDEVICETWIN_25_026: [send method shall build the update reported properties request topic of the format mentioned in spec ($iothub/twin/PATCH/properties/reported/?$rid={request id}&$version={base version}) if the operation is of type DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST.]
-                topic.append(PATCH);
-                topic.append(BACKSLASH);
-                topic.append(PROPERTIES);
-                topic.append(BACKSLASH);
-                topic.append(REPORTED);
-
                 String reqid = message.getRequestId();
                 if (reqid != null && reqid.length() > 0)
                 {
-                    topic.append(BACKSLASH);
-                    topic.append(REQ_ID);
-                    topic.append(message.getRequestId());
+                    topic = MqttTopicBuilder.startTopic(REPORTED_REQUEST_TOPIC_PREFIX).appendEncoded(reqid);
                 }
                 else
                 {
@@ -132,9 +128,7 @@ public class MqttDeviceTwin extends Mqtt
                 //Codes_SRS_MQTTDEVICETWIN_25_028: [send method shall not throw an exception if message contains a null or empty version if the operation is of type DEVICE_OPERATION_TWIN_UPDATE_REPORTED_PROPERTIES_REQUEST as version is optional]
                 if (version != null)
                 {
-                    topic.append(AND);
-                    topic.append(VERSION);
-                    topic.append(version);
+                    topic.append(AND_VERSION).appendEncoded(version);
                 }
                 break;
             }
@@ -142,19 +136,12 @@ public class MqttDeviceTwin extends Mqtt
             {
                 // Building $iothub/twin/PATCH/properties/desired/?$version={new version}
                 //Codes_SRS_MQTTDEVICETWIN_25_029: [send method shall build the subscribe to desired properties request topic of the format mentioned in spec ($iothub/twin/PATCH/properties/desired/?$version={new version}) if the operation is of type DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST.]
-                topic.append(PATCH);
-                topic.append(BACKSLASH);
-                topic.append(PROPERTIES);
-                topic.append(BACKSLASH);
-                topic.append(DESIRED);
+                topic = MqttTopicBuilder.startTopic(DESIRED_TOPIC);
 
                 String version = message.getVersion();
                 if (version != null)
                 {
-                    topic.append(BACKSLASH);
-                    topic.append(QUESTION);
-                    topic.append(VERSION);
-                    topic.append(version);
+                    topic.append(QUESTION_VERSION).appendEncoded(version);
                 }
                 break;
 
@@ -166,7 +153,7 @@ public class MqttDeviceTwin extends Mqtt
             }
         }
 
-        return topic.toString();
+        return topic.build();
     }
 
     /**
@@ -177,7 +164,7 @@ public class MqttDeviceTwin extends Mqtt
      */
     public void send(final IotHubTransportMessage message) throws TransportException
     {
-        if (message == null || message.getBytes() == null)
+        if (message == null || message.getBytesWithoutCopy() == null)
         {
             //Codes_SRS_MQTTDEVICETWIN_25_021: [send method shall throw an IllegalArgumentException if the message is null.]
             throw new IllegalArgumentException("Message cannot be null");
@@ -298,7 +285,7 @@ public class MqttDeviceTwin extends Mqtt
                         if (topic.length() > RES.length() && topic.startsWith(RES))
                         {
                             // Tokenize on backslash
-                            String[] topicTokens = topic.split(Pattern.quote("/"));
+                            String[] topicTokens = topic.split("/");
                             if (data != null && data.length > 0)
                             {
                                 //Codes_SRS_MQTTDEVICETWIN_25_044: [If the topic is of type response then this method shall set data and operation type as DEVICE_OPERATION_TWIN_GET_RESPONSE if data is not null]
@@ -375,7 +362,7 @@ public class MqttDeviceTwin extends Mqtt
 
                                 // Case for $iothub/twin/PATCH/properties/desired/?$version={new version}
                                 // Tokenize on backslash
-                                String[] topicTokens = topic.split(Pattern.quote("/"));
+                                String[] topicTokens = topic.split("/");
                                 if (topicTokens.length > PATCH_VERSION_TOKEN)
                                 {
                                     //Codes_SRS_MQTTDEVICETWIN_25_042: [If the topic is of type patch for desired properties then this method shall parse further to look for version which if found is set by calling setVersion]
@@ -158,14 +158,14 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
                     //Codes_SRS_MQTTIOTHUBCONNECTION_25_018: [The function shall establish an MQTT WS connection with a server uri as wss://<hostName>/$iothub/websocket?iothub-no-client-cert=true if websocket was enabled.]
                     final String wsServerUri = WS_SSL_PREFIX + this.config.getIotHubHostname() + WEBSOCKET_RAW_PATH + WEBSOCKET_QUERY ;
                     mqttConnection = new MqttConnection(wsServerUri,
-                            this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext);
+                            this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext, this.config.getMqttMaxInFlightCount());
                 }
                 else
                 {
                     //Codes_SRS_MQTTIOTHUBCONNECTION_25_019: [The function shall establish an MQTT connection with a server uri as ssl://<hostName>:8883 if websocket was not enabled.]
                     final String serverUri = SSL_PREFIX + this.config.getIotHubHostname() + SSL_PORT_SUFFIX;
                     mqttConnection = new MqttConnection(serverUri,
-                            this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext);
+                            this.config.getDeviceId(), this.iotHubUserName, this.iotHubUserPassword, sslContext, this.config.getMqttMaxInFlightCount());
                 }
 
                 //Codes_SRS_MQTTIOTHUBCONNECTION_34_030: [This function shall instantiate this object's MqttMessaging object with this object as the listener.]
@@ -257,11 +257,11 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
         {
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_010: [If the message is null or empty,
             // the function shall return status code BAD_FORMAT.]
-            if (message == null || message.getBytes() == null ||
+            if (message == null || message.getBytesWithoutCopy() == null ||
                     (
                             (message.getMessageType() != MessageType.DEVICE_TWIN
                                     && message.getMessageType() != MessageType.DEVICE_METHODS)
-                                    && message.getBytes().length == 0))
+                                    && message.getBytesWithoutCopy().length == 0))
             {
                 return IotHubStatusCode.BAD_FORMAT;
             }
@@ -319,6 +319,8 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
     {
         // Codes_SRS_MQTTIOTHUBCONNECTION_15_014: [The function shall attempt to consume a message
         // from various messaging clients.]
+        // each client only peeks the queue its topics were routed to when they arrived, so the ones with nothing to
+        // receive return right away
         IotHubTransportMessage message = this.deviceMethod.receive();
         if (message == null)
         {
@@ -362,11 +364,11 @@ public class MqttIotHubConnection implements IotHubTransportConnection, MqttMess
         {
             // Codes_SRS_MQTTIOTHUBCONNECTION_15_010: [If the message is null or empty,
             // the function shall return status code BAD_FORMAT.]
-            if (message == null || message.getBytes() == null ||
+            if (message == null || message.getBytesWithoutCopy() == null ||
                     (
                             (message.getMessageType() != DEVICE_TWIN
                                     && message.getMessageType() != DEVICE_METHODS)
-                                    && message.getBytes().length == 0))
+                                    && message.getBytesWithoutCopy().length == 0))
             {
                 return IotHubStatusCode.BAD_FORMAT;
             }
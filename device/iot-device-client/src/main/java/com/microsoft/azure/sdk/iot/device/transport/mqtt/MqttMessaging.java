@@ -55,88 +55,48 @@ public class MqttMessaging extends Mqtt
      */
     public void send(Message message) throws TransportException
     {
-        if (message == null || message.getBytes() == null)
+        if (message == null || message.getBytesWithoutCopy() == null)
         {
             //Codes_SRS_MqttMessaging_25_025: [send method shall throw an IllegalArgumentException if the message is null.]
             throw new IllegalArgumentException("Message cannot be null");
         }
 
-        StringBuilder stringBuilder = new StringBuilder();
-        stringBuilder.append(this.publishTopic);
-
-        boolean separatorNeeded = false;
+        MqttTopicBuilder topicBuilder = MqttTopicBuilder.startTopic(this.publishTopic);
 
         if (message.getMessageId() != null)
         {
             //Codes_SRS_MqttMessaging_21_027: [send method shall append the messageid to publishTopic before publishing using the key name `$.mid`.]
-            stringBuilder.append(MESSAGE_ID);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getMessageId());
-
-            separatorNeeded = true;
+            topicBuilder.appendSystemProperty(MESSAGE_ID, message.getMessageId());
         }
 
-        if (message.getCorrelationId() != null)
+        if (message.hasCorrelationId())
         {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
-
             //Codes_SRS_MqttMessaging_34_028: [If the message has a correlationId, this method shall append that correlationid to publishTopic before publishing using the key name `$.cid`.]
-            stringBuilder.append(CORRELATION_ID);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getCorrelationId());
-
-            separatorNeeded = true;
+            topicBuilder.appendSystemProperty(CORRELATION_ID, message.getCorrelationId());
         }
 
         if (message.getUserId() != null)
         {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
-
             //Codes_SRS_MqttMessaging_34_030: [If the message has a UserId, this method shall append that userId to publishTopic before publishing using the key name `$.uid`.]
-            stringBuilder.append(USER_ID);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getUserId());
-
-            separatorNeeded = true;
+            topicBuilder.appendSystemProperty(USER_ID, message.getUserId());
         }
 
         if (message.getTo() != null)
         {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
-
             //Codes_SRS_MqttMessaging_34_029: [If the message has a To, this method shall append that To to publishTopic before publishing using the key name `$.to`.]
-            stringBuilder.append(TO);
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(message.getTo());
-
-            separatorNeeded = true;
+            topicBuilder.appendSystemProperty(TO, message.getTo());
         }
 
-        for (MessageProperty property : message.getProperties())
+        int propertyCount = message.getPropertyCount();
+        for (int i = 0; i < propertyCount; i++)
         {
-            if (separatorNeeded)
-            {
-                stringBuilder.append(MESSAGE_PROPERTY_SEPARATOR);
-            }
+            MessageProperty property = message.getPropertyAt(i);
 
             //Codes_SRS_MqttMessaging_34_026: [This method shall append each custom property's name and value to the publishTopic before publishing.]
-            stringBuilder.append(property.getName());
-            stringBuilder.append(MESSAGE_PROPERTY_KEY_VALUE_SEPARATOR);
-            stringBuilder.append(property.getValue());
-
-            separatorNeeded = true;
+            topicBuilder.appendProperty(property.getName(), property.getValue());
         }
 
-        String messagePublishTopic = stringBuilder.toString();
+        String messagePublishTopic = topicBuilder.build();
 
         //Codes_SRS_MqttMessaging_25_024: [send method shall publish a message to the IOT Hub on the publish topic by calling method publish().]
         this.publish(messagePublishTopic, message);
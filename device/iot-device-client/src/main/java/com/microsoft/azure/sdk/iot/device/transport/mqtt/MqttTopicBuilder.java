@@ -0,0 +1,198 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package com.microsoft.azure.sdk.iot.device.transport.mqtt;
+
+/**
+ * Builds publish topics made of a precomputed prefix followed by a property bag, such as
+ * {@code devices/{deviceId}/messages/events/$.mid={id}&name=value}.
+ *
+ * Property names and values are percent encoded as UTF-8, so that a '&amp;', '=' or '/' in a value does not change
+ * the meaning of the topic. Only the unreserved characters of RFC 3986 are left as they are. Each thread reuses the
+ * same builder and buffer, so building a topic only allocates the final string.
+ */
+final class MqttTopicBuilder
+{
+    private static final char PROPERTY_SEPARATOR = '&';
+    private static final char KEY_VALUE_SEPARATOR = '=';
+    private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    /* Buffers that grew past this size for an unusually large topic are not kept for the next one. */
+    private static final int MAX_RETAINED_CAPACITY = 4096;
+    private static final int INITIAL_CAPACITY = 256;
+
+    private static final ThreadLocal<MqttTopicBuilder> BUILDERS = new ThreadLocal<MqttTopicBuilder>()
+    {
+        @Override
+        protected MqttTopicBuilder initialValue()
+        {
+            return new MqttTopicBuilder();
+        }
+    };
+
+    private StringBuilder topic = new StringBuilder(INITIAL_CAPACITY);
+    private boolean separatorNeeded;
+
+    private MqttTopicBuilder()
+    {
+    }
+
+    /**
+     * Starts a new topic on the builder of the calling thread. The builder must not be used again before
+     * {@link #build()} is called on it.
+     *
+     * @param prefix the beginning of the topic, written as is.
+     * @return the builder of the calling thread.
+     */
+    static MqttTopicBuilder startTopic(String prefix)
+    {
+        MqttTopicBuilder builder = BUILDERS.get();
+        if (builder.topic.capacity() > MAX_RETAINED_CAPACITY)
+        {
+            builder.topic = new StringBuilder(INITIAL_CAPACITY);
+        }
+
+        builder.topic.setLength(0);
+        builder.topic.append(prefix);
+        builder.separatorNeeded = false;
+        return builder;
+    }
+
+    /**
+     * Appends a system property, such as {@code $.mid}, whose key is a constant written as is.
+     *
+     * @param key the key of the property, written as is.
+     * @param value the value of the property, percent encoded.
+     * @return this builder.
+     */
+    MqttTopicBuilder appendSystemProperty(String key, String value)
+    {
+        this.appendSeparator();
+        this.topic.append(key);
+        this.topic.append(KEY_VALUE_SEPARATOR);
+        appendPercentEncoded(this.topic, value);
+        return this;
+    }
+
+    /**
+     * Appends an application property.
+     *
+     * @param name the name of the property, percent encoded.
+     * @param value the value of the property, percent encoded.
+     * @return this builder.
+     */
+    MqttTopicBuilder appendProperty(String name, String value)
+    {
+        this.appendSeparator();
+        appendPercentEncoded(this.topic, name);
+        this.topic.append(KEY_VALUE_SEPARATOR);
+        appendPercentEncoded(this.topic, value);
+        return this;
+    }
+
+    /**
+     * Appends a value that follows a precomputed part of the topic, such as the request id after {@code ?$rid=}.
+     *
+     * @param value the value, percent encoded.
+     * @return this builder.
+     */
+    MqttTopicBuilder appendEncoded(String value)
+    {
+        appendPercentEncoded(this.topic, value);
+        return this;
+    }
+
+    /**
+     * Appends a precomputed part of the topic.
+     *
+     * @param text the text, written as is.
+     * @return this builder.
+     */
+    MqttTopicBuilder append(String text)
+    {
+        this.topic.append(text);
+        return this;
+    }
+
+    /**
+     * @return the topic built so far.
+     */
+    String build()
+    {
+        return this.topic.toString();
+    }
+
+    private void appendSeparator()
+    {
+        if (this.separatorNeeded)
+        {
+            this.topic.append(PROPERTY_SEPARATOR);
+        }
+
+        this.separatorNeeded = true;
+    }
+
+    /**
+     * Percent encodes the UTF-8 bytes of the provided text, leaving the unreserved characters of RFC 3986 as they
+     * are. Unlike {@link java.net.URLEncoder}, a space is encoded as {@code %20} and not as '+', and no intermediate
+     * byte array or string is allocated.
+     *
+     * @param target the buffer to write to.
+     * @param text the text to encode.
+     */
+    static void appendPercentEncoded(StringBuilder target, String text)
+    {
+        int length = text.length();
+        int i = 0;
+        while (i < length)
+        {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+
+            if (codePoint < 0x80)
+            {
+                if (isUnreserved(codePoint))
+                {
+                    target.append((char) codePoint);
+                }
+                else
+                {
+                    appendPercentEncodedByte(target, codePoint);
+                }
+            }
+            else if (codePoint < 0x800)
+            {
+                appendPercentEncodedByte(target, 0xC0 | (codePoint >> 6));
+                appendPercentEncodedByte(target, 0x80 | (codePoint & 0x3F));
+            }
+            else if (codePoint < 0x10000)
+            {
+                appendPercentEncodedByte(target, 0xE0 | (codePoint >> 12));
+                appendPercentEncodedByte(target, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendPercentEncodedByte(target, 0x80 | (codePoint & 0x3F));
+            }
+            else
+            {
+                appendPercentEncodedByte(target, 0xF0 | (codePoint >> 18));
+                appendPercentEncodedByte(target, 0x80 | ((codePoint >> 12) & 0x3F));
+                appendPercentEncodedByte(target, 0x80 | ((codePoint >> 6) & 0x3F));
+                appendPercentEncodedByte(target, 0x80 | (codePoint & 0x3F));
+            }
+        }
+    }
+
+    private static boolean isUnreserved(int c)
+    {
+        return (c >= 'a' && c <= 'z')
+                || (c >= 'A' && c <= 'Z')
+                || (c >= '0' && c <= '9')
+                || c == '-' || c == '.' || c == '_' || c == '~';
+    }
+
+    private static void appendPercentEncodedByte(StringBuilder target, int b)
+    {
+        target.append('%');
+        target.append(HEX_DIGITS[(b >> 4) & 0xF]);
+        target.append(HEX_DIGITS[b & 0xF]);
+    }
+}
@@ -9,7 +9,8 @@ public class TopicParser
 {
     private String[] topicTokens = null;
 
-    private final String QUESTION = "?";
+    private final char QUESTION = '?';
+    private final char PARAMETER_SEPARATOR = '&';
 
     private final String REQ_ID = "$rid=";
     private final String VERSION = "$version=";
@@ -69,21 +70,9 @@ public class TopicParser
         {
             String token = topicTokens[tokenIndexReqID];
 
+            //Codes_SRS_TopicParser_25_007: [This method shall return the request ID value corresponding to the tokenIndexReqID from tokens.]
             //Codes_SRS_TopicParser_25_008: [If the topic token does not contain request id then this method shall return null.]
-            if (token.contains(REQ_ID) && token.contains(QUESTION)) // restriction for request id
-            {
-                int startIndex = token.indexOf(REQ_ID) + REQ_ID.length();
-                int endIndex = token.length();
-
-                if (token.contains(VERSION) && !token.contains(QUESTION + VERSION))
-                {
-                    // version after rid in the query
-                    endIndex = token.indexOf(VERSION) - 1;
-                }
-
-                //Codes_SRS_TopicParser_25_007: [This method shall return the request ID value corresponding to the tokenIndexReqID from tokens.]
-                reqId = token.substring(startIndex, endIndex);
-            }
+            reqId = getQueryParameter(token, REQ_ID);
         }
 
         return reqId;
@@ -105,18 +94,7 @@ public class TopicParser
             
             //Codes_SRS_TopicParser_25_010: [This method shall return the version value(if present) corresponding to the tokenIndexVersion from tokens.]
             //Codes_SRS_TopicParser_25_011: [If the topic token does not contain version then this method shall return null.]
-            if (token.contains(VERSION) && token.contains(QUESTION) ) //restriction for version
-            {
-                int startIndex = token.indexOf(VERSION) + VERSION.length();
-                int endIndex = token.length();
-
-                if(!token.contains(QUESTION + REQ_ID) && token.contains(REQ_ID))
-                {
-                    endIndex = token.indexOf(REQ_ID) - 1;
-                }
-
-                version = token.substring(startIndex, endIndex);
-            }
+            version = getQueryParameter(token, VERSION);
         }
 
         return version;
@@ -151,4 +129,41 @@ public class TopicParser
 
         return methodName;
     }
+
+    /**
+     * Looks up a parameter in the query of the provided token in one pass, without splitting the query.
+     *
+     * @param token the topic token, which must contain the '?' of the query.
+     * @param parameterPrefix the name of the parameter followed by '='.
+     * @return the value of the first parameter with this name, or null if the token has no query or no such parameter.
+     */
+    private String getQueryParameter(String token, String parameterPrefix)
+    {
+        int parameterStart = token.indexOf(QUESTION);
+        if (parameterStart == -1)
+        {
+            return null;
+        }
+
+        int length = token.length();
+        while (parameterStart < length)
+        {
+            // skips the '?' or the '&' before the parameter
+            parameterStart++;
+            int parameterEnd = token.indexOf(PARAMETER_SEPARATOR, parameterStart);
+            if (parameterEnd == -1)
+            {
+                parameterEnd = length;
+            }
+
+            if (token.startsWith(parameterPrefix, parameterStart))
+            {
+                return token.substring(parameterStart + parameterPrefix.length(), parameterEnd);
+            }
+
+            parameterStart = parameterEnd;
+        }
+
+        return null;
+    }
 }
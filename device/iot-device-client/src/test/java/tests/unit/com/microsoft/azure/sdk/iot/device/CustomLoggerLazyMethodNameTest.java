@@ -0,0 +1,72 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.CustomLogger;
+import mockit.Mocked;
+import mockit.NonStrictExpectations;
+import mockit.Verifications;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.junit.Test;
+
+/** Unit tests for the lazy method name of CustomLogger. */
+public class CustomLoggerLazyMethodNameTest
+{
+    @Test
+    public void lazyMethodNameFormatsAsCallingMethodName(@Mocked final Logger mockLogger)
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                Logger.getLogger((Class)any);
+                result = mockLogger;
+                mockLogger.isEnabledFor(Level.INFO);
+                result = true;
+            }
+        };
+        CustomLogger logger = new CustomLogger(this.getClass());
+
+        //act
+        logger.LogInfo("method name is %s", logger.getLazyMethodName());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockLogger.info("method name is lazyMethodNameFormatsAsCallingMethodName");
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void lazyMethodNameIsNotResolvedWhenLevelIsDisabled(@Mocked final Logger mockLogger)
+    {
+        //arrange
+        new NonStrictExpectations()
+        {
+            {
+                Logger.getLogger((Class)any);
+                result = mockLogger;
+                mockLogger.isEnabledFor(Level.DEBUG);
+                result = false;
+            }
+        };
+        CustomLogger logger = new CustomLogger(this.getClass());
+
+        //act
+        logger.LogDebug("method name is %s", logger.getLazyMethodName());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockLogger.debug(anyString);
+                times = 0;
+            }
+        };
+    }
+}
@@ -9,7 +9,11 @@ import com.microsoft.azure.sdk.iot.device.MessageCallback;
 import com.microsoft.azure.sdk.iot.device.ProductInfo;
 import com.microsoft.azure.sdk.iot.device.auth.*;
 import com.microsoft.azure.sdk.iot.device.transport.ExponentialBackoffWithJitter;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
+import com.microsoft.azure.sdk.iot.device.transport.MessageTraceListener;
+import com.microsoft.azure.sdk.iot.device.transport.OutboundQueuePolicy;
 import com.microsoft.azure.sdk.iot.device.transport.RetryPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.SendDrainPolicy;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderTpm;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProviderX509;
@@ -18,12 +22,14 @@ import mockit.*;
 import org.junit.Test;
 
 import javax.net.ssl.SSLContext;
+import java.io.File;
 import java.io.IOException;
 import java.net.URISyntaxException;
 import java.security.KeyManagementException;
 import java.security.KeyStoreException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.CertificateException;
+import java.util.concurrent.Executor;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.*;
@@ -718,6 +724,181 @@ public class DeviceClientConfigTest
         assertEquals(mockRetryPolicy, actual);
     }
 
+    @Test (expected = IllegalArgumentException.class)
+    public void setSendDrainPolicyThrowsIfNull()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setSendDrainPolicy(null);
+    }
+
+    @Test
+    public void setSendDrainPolicySetsPolicy()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        SendDrainPolicy drainPolicy = new SendDrainPolicy(1, 2, 3, 4);
+
+        //act
+        config.setSendDrainPolicy(drainPolicy);
+
+        //assert
+        assertEquals(drainPolicy, config.getSendDrainPolicy());
+    }
+
+    @Test
+    public void setDurableQueueDirectorySetsDirectory()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        File directory = new File("queueDirectory");
+        assertNull(config.getDurableQueueDirectory());
+
+        //act
+        config.setDurableQueueDirectory(directory);
+
+        //assert
+        assertEquals(directory, config.getDurableQueueDirectory());
+    }
+
+    @Test
+    public void setCallbackExecutorSetsExecutor()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        Executor executor = new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                command.run();
+            }
+        };
+        assertNull(config.getCallbackExecutor());
+
+        //act
+        config.setCallbackExecutor(executor);
+
+        //assert
+        assertEquals(executor, config.getCallbackExecutor());
+    }
+
+    @Test
+    public void setMqttMaxInFlightCountSavesCount()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(DeviceClientConfig.DEFAULT_MQTT_MAX_IN_FLIGHT_COUNT, config.getMqttMaxInFlightCount());
+
+        //act
+        config.setMqttMaxInFlightCount(50);
+
+        //assert
+        assertEquals(50, config.getMqttMaxInFlightCount());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setMqttMaxInFlightCountRejectsZero()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setMqttMaxInFlightCount(0);
+    }
+
+    @Test
+    public void setAmqpTelemetryBatchMaxSizeSavesSize()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertEquals(0, config.getAmqpTelemetryBatchMaxSize());
+
+        //act
+        config.setAmqpTelemetryBatchMaxSize(64 * 1024);
+
+        //assert
+        assertEquals(64 * 1024, config.getAmqpTelemetryBatchMaxSize());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setAmqpTelemetryBatchMaxSizeRejectsSizeAboveMessageLimit()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setAmqpTelemetryBatchMaxSize(DeviceClientConfig.MAX_AMQP_TELEMETRY_BATCH_SIZE + 1);
+    }
+
+    @Test
+    public void setMessageTracingSavesListenerAndSamplingRate(@Mocked final MessageTraceListener mockTraceListener)
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        assertNull(config.getMessageTraceListener());
+        assertEquals(0, config.getMessageTraceSamplingRate(), 0);
+
+        //act
+        config.setMessageTracing(mockTraceListener, 0.25);
+
+        //assert
+        assertEquals(mockTraceListener, config.getMessageTraceListener());
+        assertEquals(0.25, config.getMessageTraceSamplingRate(), 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setMessageTracingRejectsSamplingRateAboveOne(@Mocked final MessageTraceListener mockTraceListener)
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setMessageTracing(mockTraceListener, 1.5);
+    }
+
+    @Test
+    public void setExecutionContextSetsContext()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        IotHubExecutionContext executionContext = new IotHubExecutionContext(1);
+        assertNull(config.getExecutionContext());
+
+        //act
+        config.setExecutionContext(executionContext);
+
+        //assert
+        assertEquals(executionContext, config.getExecutionContext());
+        executionContext.close();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setOutboundQueuePolicyThrowsIfNull()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+
+        //act
+        config.setOutboundQueuePolicy(null);
+    }
+
+    @Test
+    public void setOutboundQueuePolicySetsPolicy()
+    {
+        //arrange
+        DeviceClientConfig config = Deencapsulation.newInstance(DeviceClientConfig.class, mockIotHubConnectionString, DeviceClientConfig.AuthType.SAS_TOKEN);
+        OutboundQueuePolicy queuePolicy = new OutboundQueuePolicy(1, 2, OutboundQueuePolicy.OverflowMode.DROP_OLDEST, 3);
+
+        //act
+        config.setOutboundQueuePolicy(queuePolicy);
+
+        //assert
+        assertEquals(queuePolicy, config.getOutboundQueuePolicy());
+    }
+
     //Tests_SRS_DEVICECLIENTCONFIG_34_030: [If the provided timeout is 0 or negative, this function shall throw an IllegalArgumentException.]
     @Test (expected = IllegalArgumentException.class)
     public void setOperationTimeoutThrowsForNegativeTimeout()
@@ -10,13 +10,18 @@ import com.microsoft.azure.sdk.iot.device.auth.IotHubX509AuthenticationProvider;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.fileupload.FileUpload;
 import com.microsoft.azure.sdk.iot.device.transport.ExponentialBackoffWithJitter;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
+import com.microsoft.azure.sdk.iot.device.transport.MessageTraceListener;
+import com.microsoft.azure.sdk.iot.device.transport.OutboundQueuePolicy;
 import com.microsoft.azure.sdk.iot.device.transport.RetryPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.TransportMetrics;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.IoTHubConnectionType;
 import com.microsoft.azure.sdk.iot.provisioning.security.SecurityProvider;
 import com.microsoft.azure.sdk.iot.provisioning.security.exceptions.SecurityProviderException;
 import mockit.*;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOError;
 import java.io.IOException;
 import java.io.InputStream;
@@ -24,9 +29,11 @@ import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 /**
  * Unit tests for DeviceClient.
@@ -803,6 +810,65 @@ public class DeviceClientTest
         };
     }
 
+    @Test
+    public void sendEventAsyncWithoutCallbackReturnsFutureCompletedByCallback(@Mocked final Message mockMessage)
+            throws IOException, URISyntaxException, InterruptedException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.sendEventAsync(mockMessage, (IotHubEventCallback) any, any, (IotHubConnectionString) any);
+                result = new Delegate()
+                {
+                    void sendEventAsync(Message message, IotHubEventCallback callback, Object callbackContext, IotHubConnectionString connectionString)
+                    {
+                        callback.execute(IotHubStatusCode.OK_EMPTY, callbackContext);
+                    }
+                };
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        // act
+        IotHubStatusFuture statusFuture = client.sendEventAsync(mockMessage);
+
+        // assert
+        assertTrue(statusFuture.isDone());
+        assertEquals(IotHubStatusCode.OK_EMPTY, statusFuture.get());
+    }
+
+    @Test
+    public void sendEventAsyncAssignsMessageIdFromClientGenerator() throws IOException, URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        final MessageIdGenerator generator = new SequentialMessageIdGenerator("device-");
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getMessageIdGenerator();
+                result = generator;
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "config", mockConfig);
+        client.open();
+        Message message = new Message("body");
+
+        // act
+        client.sendEventAsync(message, null, null);
+
+        // assert
+        assertEquals("device-0", message.getMessageId());
+    }
+
     /* Tests_SRS_DEVICECLIENT_21_011: [If starting to send via deviceIO is not successful, the sendEventAsync shall bypass the threw exception.] */
     // Tests_SRS_DEVICECLIENT_12_001: [The function shall call deviceIO.sendEventAsync with the client's config parameter to enable multiplexing.]
     @Test
@@ -1336,6 +1402,70 @@ public class DeviceClientTest
         };
     }
 
+    @Test
+    public void sendRPAsyncReturnsFutureCompletedOnDelivery(@Mocked final DeviceTwin mockedDeviceTwin,
+                                                            @Mocked final IotHubEventCallback mockedStatusCB,
+                                                            @Mocked final PropertyCallBack mockedPropertyCB,
+                                                            @Mocked final Set<Property> mockSet) throws IOException, URISyntaxException, InterruptedException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+                mockedDeviceTwin.updateReportedProperties(mockSet, 10, (IotHubEventCallback) any, any);
+                result = new Delegate()
+                {
+                    void updateReportedProperties(Set<Property> reportedProperties, Integer version, IotHubEventCallback deliveryCallback, Object deliveryCallbackContext)
+                    {
+                        deliveryCallback.execute(IotHubStatusCode.OK_EMPTY, deliveryCallbackContext);
+                    }
+                };
+            }
+        };
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+        client.startDeviceTwin(mockedStatusCB, null, mockedPropertyCB, null);
+
+        //act
+        IotHubStatusFuture statusFuture = client.sendReportedPropertiesAsync(mockSet, 10);
+
+        //assert
+        assertEquals(IotHubStatusCode.OK_EMPTY, statusFuture.get());
+    }
+
+    @Test (expected = IOException.class)
+    public void sendRPAsyncThrowsIfCalledBeforeStartingTwin(@Mocked final Set<Property> mockSet) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        //act
+        client.sendReportedPropertiesAsync(mockSet);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void sendRPAsyncThrowsOnNegativeVersion(@Mocked final Set<Property> mockSet) throws IOException, URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        client.open();
+
+        //act
+        client.sendReportedPropertiesAsync(mockSet, -1);
+    }
+
     /*
     **Tests_SRS_DEVICECLIENT_25_032: [**If the client has not started twin before calling this method, the function shall throw an IOException.**]**
      */
@@ -2432,6 +2562,319 @@ public class DeviceClientTest
         client.setOption("SetSASTokenExpiryTime", value);
     }
 
+    @Test
+    public void setOptionDurableQueueDirectorySetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+
+        // act
+        client.setOption("SetDurableQueueDirectory", "queueDirectory");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setDurableQueueDirectory((File) any);
+                times = 1;
+            }
+        };
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void setOptionDurableQueueDirectoryThrowsIfOpen() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+
+        // act
+        client.setOption("SetDurableQueueDirectory", "queueDirectory");
+    }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void setOptionDurableQueueDirectoryThrowsWithTransportClient() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, mockTransportClient);
+
+        // act
+        client.setOption("SetDurableQueueDirectory", "queueDirectory");
+    }
+
+    @Test
+    public void setOptionMqttMaxInFlightCountSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+
+        // act
+        client.setOption("SetMqttMaxInFlightCount", 50);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMqttMaxInFlightCount(50);
+                times = 1;
+            }
+        };
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionMqttMaxInFlightCountThrowsForAmqp() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+
+        // act
+        client.setOption("SetMqttMaxInFlightCount", 50);
+    }
+
+    @Test
+    public void setOptionAmqpTelemetryBatchMaxSizeSetsConfig() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        Deencapsulation.setField(client, "config", mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.AMQPS;
+            }
+        };
+
+        // act
+        client.setOption("SetAmqpTelemetryBatchMaxSize", 64 * 1024);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setAmqpTelemetryBatchMaxSize(64 * 1024);
+                times = 1;
+            }
+        };
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setOptionAmqpTelemetryBatchMaxSizeThrowsForMqtt() throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+                mockDeviceIO.getProtocol();
+                result = IotHubClientProtocol.MQTT;
+            }
+        };
+
+        // act
+        client.setOption("SetAmqpTelemetryBatchMaxSize", 64 * 1024);
+    }
+
+    @Test
+    public void setCallbackExecutorSetsConfig(@Mocked final Executor mockedExecutor) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+
+        // act
+        client.setCallbackExecutor(mockedExecutor);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setCallbackExecutor(mockedExecutor);
+                times = 1;
+            }
+        };
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void setCallbackExecutorThrowsIfOpen(@Mocked final Executor mockedExecutor) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+
+        // act
+        client.setCallbackExecutor(mockedExecutor);
+    }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void setCallbackExecutorThrowsWithTransportClient(@Mocked final Executor mockedExecutor) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, mockTransportClient);
+
+        // act
+        client.setCallbackExecutor(mockedExecutor);
+    }
+
+    @Test
+    public void setExecutionContextSetsConfig(@Mocked final IotHubExecutionContext mockedExecutionContext) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+
+        // act
+        client.setExecutionContext(mockedExecutionContext);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setExecutionContext(mockedExecutionContext);
+                times = 1;
+            }
+        };
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void setExecutionContextThrowsIfOpen(@Mocked final IotHubExecutionContext mockedExecutionContext) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = true;
+            }
+        };
+
+        // act
+        client.setExecutionContext(mockedExecutionContext);
+    }
+
+    @Test (expected = UnsupportedOperationException.class)
+    public void setExecutionContextThrowsWithTransportClient(@Mocked final IotHubExecutionContext mockedExecutionContext) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, mockTransportClient);
+
+        // act
+        client.setExecutionContext(mockedExecutionContext);
+    }
+
+    @Test
+    public void setMessageTraceListenerSetsConfig(@Mocked final MessageTraceListener mockedTraceListener) throws URISyntaxException
+    {
+        // arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.MQTT);
+        Deencapsulation.setField(client, "config", mockConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.isOpen();
+                result = false;
+            }
+        };
+
+        // act
+        client.setMessageTraceListener(mockedTraceListener, 0.1);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockConfig.setMessageTracing(mockedTraceListener, 0.1);
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_DEVICECLIENT_12_029: [*SetCertificatePath" shall throw if the transportClient or deviceIO already opene.]
     @Test (expected = IllegalStateException.class)
     public void setOptionWithTransportClientSetCertificatePathTransportOpenedThrows()
@@ -3370,6 +3813,78 @@ public class DeviceClientTest
         };
     }
 
+    @Test
+    public void setOutboundQueuePolicySetsPolicy() throws URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        Deencapsulation.setField(client, "config", mockConfig);
+
+        //act
+        client.setOutboundQueuePolicy(new OutboundQueuePolicy());
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockConfig.setOutboundQueuePolicy((OutboundQueuePolicy) any);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void getPendingMessageCountReturnsDeviceIOCount() throws URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        final IotHubClientProtocol protocol = IotHubClientProtocol.AMQPS;
+        DeviceClient client = new DeviceClient(connString, protocol);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getPendingMessageCount();
+                result = 3;
+                mockDeviceIO.getPendingMessageBytes();
+                result = 300L;
+            }
+        };
+
+        //act
+        int pendingCount = client.getPendingMessageCount();
+        long pendingBytes = client.getPendingMessageBytes();
+
+        //assert
+        assertEquals(3, pendingCount);
+        assertEquals(300L, pendingBytes);
+    }
+
+    @Test
+    public void getMetricsReturnsDeviceIOMetrics(@Mocked final TransportMetrics mockedMetrics) throws URISyntaxException
+    {
+        //arrange
+        final String connString = "HostName=iothub.device.com;CredentialType=SharedAccessKey;DeviceId=testdevice;"
+                + "SharedAccessKey=adjkl234j52=";
+        DeviceClient client = new DeviceClient(connString, IotHubClientProtocol.AMQPS);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getMetrics();
+                result = mockedMetrics;
+            }
+        };
+
+        //act
+        TransportMetrics metrics = client.getMetrics();
+
+        //assert
+        assertEquals(mockedMetrics, metrics);
+    }
+
     // Tests_SRS_DEVICECLIENT_34_070: [The function shall set the device config's operation timeout .]
     @Test
     public void setDeviceOperationTimeoutSetsConfig() throws URISyntaxException
@@ -6,9 +6,12 @@ package tests.unit.com.microsoft.azure.sdk.iot.device;
 import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.exceptions.DeviceClientException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubReceiveTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubSendTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalDrivenTask;
 import com.microsoft.azure.sdk.iot.device.transport.IotHubTransport;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubWorkSignal;
 import mockit.*;
 import org.junit.Test;
 
@@ -19,6 +22,7 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -97,6 +101,8 @@ public class DeviceIOTest
                 result = mockIotHubReceiveTask;
                 executors.newScheduledThreadPool(2);
                 result = scheduledExecutorService;
+                mockConfig.getExecutionContext();
+                result = null;
             }
         };
 
@@ -325,6 +331,8 @@ public class DeviceIOTest
                 result = mockIotHubReceiveTask;
                 mockExecutors.newScheduledThreadPool(2);
                 result = mockScheduler;
+                mockConfig.getExecutionContext();
+                result = null;
             }
         };
 
@@ -347,6 +355,132 @@ public class DeviceIOTest
         };
     }
 
+    @Test
+    public void openSignalDrivenExecutesSignalDrivenTasks(@Mocked final IotHubSignalDrivenTask mockSignalDrivenTask,
+                                                          @Mocked final IotHubWorkSignal mockWorkSignal) throws DeviceClientException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        configs.add(mockConfig);
+        Deencapsulation.setField(deviceIO, "deviceClientConfigs", configs);
+
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isSignalDrivenScheduling();
+                result = true;
+                new IotHubSendTask(mockedTransport);
+                result = mockIotHubSendTask;
+                new IotHubReceiveTask(mockedTransport);
+                result = mockIotHubReceiveTask;
+                mockExecutors.newScheduledThreadPool(2);
+                result = mockScheduler;
+                mockedTransport.getSendWorkSignal();
+                result = mockWorkSignal;
+                mockedTransport.getReceiveWorkSignal();
+                result = mockWorkSignal;
+                mockConfig.getExecutionContext();
+                result = null;
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(deviceIO, "open");
+
+        // assert
+        new Verifications()
+        {
+            {
+                new IotHubSignalDrivenTask(mockIotHubSendTask, mockWorkSignal, anyLong);
+                times = 1;
+                new IotHubSignalDrivenTask(mockIotHubReceiveTask, mockWorkSignal, anyLong);
+                times = 1;
+                mockScheduler.execute((Runnable) any);
+                times = 2;
+                mockScheduler.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                times = 0;
+                assertEquals("OPEN", Deencapsulation.getField(deviceIO, "state").toString());
+            }
+        };
+    }
+
+    @Test
+    public void openWithSharedContextRunsTasksOnBlockingExecutor(@Mocked final IotHubExecutionContext mockExecutionContext,
+                                                                 @Mocked final ExecutorService mockBlockingExecutor) throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                new IotHubSendTask(mockedTransport);
+                result = mockIotHubSendTask;
+                new IotHubReceiveTask(mockedTransport);
+                result = mockIotHubReceiveTask;
+                mockConfig.getExecutionContext();
+                result = mockExecutionContext;
+                mockExecutionContext.getScheduler();
+                result = mockScheduler;
+                mockExecutionContext.getBlockingExecutor();
+                result = mockBlockingExecutor;
+            }
+        };
+        Deencapsulation.invoke(deviceIO, "open");
+        final List<Runnable> scheduledTasks = new ArrayList<>();
+        new Verifications()
+        {
+            {
+                mockScheduler.scheduleAtFixedRate(withCapture(scheduledTasks), 0, anyLong, TimeUnit.MILLISECONDS);
+                times = 2;
+            }
+        };
+
+        // act
+        scheduledTasks.get(0).run();
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockBlockingExecutor.execute((Runnable) any);
+                times = 1;
+                mockIotHubSendTask.run();
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void closeStopsSignalDrivenTasks(@Mocked final IotHubSignalDrivenTask mockSignalDrivenTask) throws IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.isSignalDrivenScheduling();
+                result = true;
+            }
+        };
+        openDeviceIO(deviceIO, mockedTransport, mockExecutors, mockScheduler);
+
+        // act
+        Deencapsulation.invoke(deviceIO, "close");
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockSignalDrivenTask.stop();
+                times = 2;
+                mockScheduler.shutdown();
+                times = 1;
+            }
+        };
+        assertNull(Deencapsulation.getField(deviceIO, "signalDrivenSendTask"));
+        assertNull(Deencapsulation.getField(deviceIO, "signalDrivenReceiveTask"));
+    }
+
     /* Tests_SRS_DEVICE_IO_21_015: [If an error occurs in opening the transport, the open shall throw an IOException.] */
     @Test (expected = IOException.class)
     public void openThrowsIOExceptionIfTransportOpenThrows() throws DeviceClientException
@@ -671,6 +805,8 @@ public class DeviceIOTest
                 result = mockIotHubReceiveTask;
                 mockExecutors.newScheduledThreadPool(2);
                 result = mockScheduler;
+                mockConfig.getExecutionContext();
+                result = null;
             }
         };
 
@@ -788,6 +924,8 @@ public class DeviceIOTest
                 result = mockIotHubReceiveTask;
                 mockExecutors.newScheduledThreadPool(2);
                 result = mockScheduler;
+                mockConfig.getExecutionContext();
+                result = null;
             }
         };
 
@@ -933,6 +1071,31 @@ public class DeviceIOTest
         assertFalse(isOpen);
     }
 
+    @Test
+    public void getPendingMessageCountReturnsTransportCount()
+            throws URISyntaxException, IOException
+    {
+        // arrange
+        final Object deviceIO = newDeviceIO();
+        new NonStrictExpectations()
+        {
+            {
+                mockedTransport.getPendingMessageCount();
+                result = 2;
+                mockedTransport.getPendingMessageBytes();
+                result = 200L;
+            }
+        };
+
+        // act
+        int pendingCount = Deencapsulation.invoke(deviceIO, "getPendingMessageCount");
+        long pendingBytes = Deencapsulation.invoke(deviceIO, "getPendingMessageBytes");
+
+        // assert
+        assertEquals(2, pendingCount);
+        assertEquals(200L, pendingBytes);
+    }
+
     /* Tests_SRS_DEVICE_IO_99_001: [The registerConnectionStateCallback shall register the callback with the transport.] */
     @Test
     public void registerConnectionStateCallbackSuccess(@Mocked final IotHubConnectionStateCallback mockedStateCB)
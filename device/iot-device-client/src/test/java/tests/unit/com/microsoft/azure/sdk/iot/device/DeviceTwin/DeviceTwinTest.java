@@ -236,6 +236,52 @@ public class DeviceTwinTest
         };
     }
 
+    @Test
+    public void updateReportedPropertiesNotifiesDeliveryCallback() throws IOException
+    {
+        //arrange
+        final Object deliveryContext = new Object();
+        final Object[] delivered = new Object[2];
+        IotHubEventCallback deliveryCallback = new IotHubEventCallback()
+        {
+            @Override
+            public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+            {
+                delivered[0] = responseStatus;
+                delivered[1] = callbackContext;
+            }
+        };
+        DeviceTwin testTwin = new DeviceTwin(mockedDeviceIO, mockedConfig,
+                mockedStatusCB, null, mockedGenericPropertyCB, null);
+        new NonStrictExpectations()
+        {
+            {
+                mockedDeviceIO.sendEventAsync((Message) any, (IotHubEventCallback) any, any, (IotHubConnectionString) any);
+                result = new Delegate()
+                {
+                    void sendEventAsync(Message message, IotHubEventCallback callback, Object callbackContext, IotHubConnectionString connectionString)
+                    {
+                        callback.execute(IotHubStatusCode.OK_EMPTY, callbackContext);
+                    }
+                };
+            }
+        };
+
+        //act
+        testTwin.updateReportedProperties(new HashSet<Property>(), null, deliveryCallback, deliveryContext);
+
+        //assert
+        assertEquals(IotHubStatusCode.OK_EMPTY, delivered[0]);
+        assertEquals(deliveryContext, delivered[1]);
+        new Verifications()
+        {
+            {
+                mockedStatusCB.execute((IotHubStatusCode) any, any);
+                times = 0;
+            }
+        };
+    }
+
     /*
      **Tests_SRS_DEVICETWIN_25_030: [**If the message is of type DEVICE_TWIN and DEVICE_OPERATION_TWIN_GET_RESPONSE then the payload is deserialized by calling updateTwin only if the status is ok.**]**
      */
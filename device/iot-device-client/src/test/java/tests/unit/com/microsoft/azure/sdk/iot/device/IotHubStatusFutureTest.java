@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device;
+
+import com.microsoft.azure.sdk.iot.device.IotHubEventCallback;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusCode;
+import com.microsoft.azure.sdk.iot.device.IotHubStatusFuture;
+import mockit.Deencapsulation;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for IotHubStatusFuture. */
+public class IotHubStatusFutureTest
+{
+    private static IotHubStatusFuture newStatusFuture()
+    {
+        return Deencapsulation.newInstance(IotHubStatusFuture.class);
+    }
+
+    private static void completeThroughEventCallback(IotHubStatusFuture statusFuture, IotHubStatusCode status)
+    {
+        IotHubEventCallback eventCallback = Deencapsulation.invoke(statusFuture, "getEventCallback");
+        eventCallback.execute(status, null);
+    }
+
+    @Test
+    public void eventCallbackCompletesFuture() throws Exception
+    {
+        // arrange
+        IotHubStatusFuture statusFuture = newStatusFuture();
+
+        // act
+        completeThroughEventCallback(statusFuture, IotHubStatusCode.OK_EMPTY);
+
+        // assert
+        assertTrue(statusFuture.isDone());
+        assertEquals(IotHubStatusCode.OK_EMPTY, statusFuture.get());
+        assertEquals(IotHubStatusCode.OK_EMPTY, statusFuture.get(0, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void onlyFirstCompletionIsKept() throws Exception
+    {
+        // arrange
+        IotHubStatusFuture statusFuture = newStatusFuture();
+        completeThroughEventCallback(statusFuture, IotHubStatusCode.MESSAGE_EXPIRED);
+
+        // act
+        completeThroughEventCallback(statusFuture, IotHubStatusCode.OK_EMPTY);
+
+        // assert
+        assertEquals(IotHubStatusCode.MESSAGE_EXPIRED, statusFuture.get());
+    }
+
+    @Test (expected = TimeoutException.class)
+    public void getThrowsIfNotCompletedInTime() throws Exception
+    {
+        // act
+        newStatusFuture().get(1, TimeUnit.MILLISECONDS);
+    }
+
+    @Test
+    public void completionCallbackAddedBeforeCompletionIsInvokedOnCompletion()
+    {
+        // arrange
+        IotHubStatusFuture statusFuture = newStatusFuture();
+        RecordingCallback recordingCallback = new RecordingCallback();
+        Object context = new Object();
+        statusFuture.addCompletionCallback(recordingCallback, context);
+        assertTrue(recordingCallback.statuses.isEmpty());
+
+        // act
+        completeThroughEventCallback(statusFuture, IotHubStatusCode.OK);
+
+        // assert
+        assertEquals(1, recordingCallback.statuses.size());
+        assertEquals(IotHubStatusCode.OK, recordingCallback.statuses.get(0));
+        assertEquals(context, recordingCallback.contexts.get(0));
+    }
+
+    @Test
+    public void completionCallbackAddedAfterCompletionIsInvokedRightAway()
+    {
+        // arrange
+        IotHubStatusFuture statusFuture = newStatusFuture();
+        RecordingCallback recordingCallback = new RecordingCallback();
+        completeThroughEventCallback(statusFuture, IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+
+        // act
+        statusFuture.addCompletionCallback(recordingCallback, null);
+
+        // assert
+        assertEquals(1, recordingCallback.statuses.size());
+        assertEquals(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE, recordingCallback.statuses.get(0));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void addCompletionCallbackThrowsOnNullCallback()
+    {
+        // act
+        newStatusFuture().addCompletionCallback(null, null);
+    }
+
+    @Test
+    public void cancelDoesNothing()
+    {
+        // arrange
+        IotHubStatusFuture statusFuture = newStatusFuture();
+
+        // act
+        boolean cancelled = statusFuture.cancel(true);
+
+        // assert
+        assertFalse(cancelled);
+        assertFalse(statusFuture.isCancelled());
+        assertFalse(statusFuture.isDone());
+    }
+
+    private static class RecordingCallback implements IotHubEventCallback
+    {
+        final List<IotHubStatusCode> statuses = new ArrayList<>();
+        final List<Object> contexts = new ArrayList<>();
+
+        @Override
+        public void execute(IotHubStatusCode responseStatus, Object callbackContext)
+        {
+            statuses.add(responseStatus);
+            contexts.add(callbackContext);
+        }
+    }
+}
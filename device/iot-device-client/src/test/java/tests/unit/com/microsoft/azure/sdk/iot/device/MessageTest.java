@@ -5,15 +5,19 @@ package tests.unit.com.microsoft.azure.sdk.iot.device;
 
 import com.microsoft.azure.sdk.iot.device.IotHubConnectionString;
 import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.MessagePriority;
 import com.microsoft.azure.sdk.iot.device.MessageProperty;
 import com.microsoft.azure.sdk.iot.device.MessageType;
+import com.microsoft.azure.sdk.iot.device.SequentialMessageIdGenerator;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import org.junit.Test;
 
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.UUID;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.CoreMatchers.not;
@@ -42,6 +46,78 @@ public class MessageTest
         assertThat(testBody, is(expectedBody));
     }
 
+    @Test
+    public void constructorTakesOwnershipOfWholeBuffer()
+    {
+        //arrange
+        final byte[] body = { 1, 2, 3 };
+
+        //act
+        Message msg = new Message(ByteBuffer.wrap(body));
+
+        //assert
+        assertSame(body, msg.getBytesWithoutCopy());
+    }
+
+    @Test
+    public void constructorCopiesRemainingBytesOfSlice()
+    {
+        //arrange
+        final byte[] body = { 1, 2, 3, 4 };
+        ByteBuffer buffer = ByteBuffer.wrap(body, 1, 2);
+
+        //act
+        Message msg = new Message(buffer);
+
+        //assert
+        assertArrayEquals(new byte[] { 2, 3 }, msg.getBytesWithoutCopy());
+        assertEquals(1, buffer.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsNullBuffer()
+    {
+        //act
+        new Message((ByteBuffer) null);
+    }
+
+    @Test
+    public void getBodyBufferReturnsReadOnlyViewOfBody()
+    {
+        //arrange
+        final byte[] body = { 1, 2, 3 };
+        Message msg = new Message(body);
+
+        //act
+        ByteBuffer buffer = msg.getBodyBuffer();
+
+        //assert
+        assertTrue(buffer.isReadOnly());
+        assertEquals(3, buffer.remaining());
+        body[0] = 9;
+        assertEquals(9, buffer.get(0));
+    }
+
+    @Test
+    public void getBodyLengthReturnsBodySize()
+    {
+        final byte[] body = { 1, 2, 3 };
+
+        assertEquals(3, new Message(body).getBodyLength());
+        assertEquals(0, new Message().getBodyLength());
+    }
+
+    @Test
+    public void getExpiryTimeReturnsAbsoluteExpiryTime()
+    {
+        Message message = new Message();
+        assertEquals(0, message.getExpiryTime());
+
+        message.setAbsoluteExpiryTime(1234);
+
+        assertEquals(1234, message.getExpiryTime());
+    }
+
     // Tests_SRS_MESSAGE_11_025: [If the message body is null, the constructor shall throw an IllegalArgumentException.]
     @Test(expected = IllegalArgumentException.class)
     public void constructorRejectsNullBody()
@@ -79,6 +155,8 @@ public class MessageTest
             {
                 new MessageProperty(name, value1);
                 result = mockProperty;
+                mockProperty.getName();
+                result = name;
                 mockProperty.hasSameName(name);
                 result = true;
                 mockProperty.getValue();
@@ -99,6 +177,8 @@ public class MessageTest
             {
                 new MessageProperty(name, value2);
                 result = mockProperty;
+                mockProperty.getName();
+                result = name;
                 mockProperty.hasSameName(name);
                 result = true;
                 mockProperty.getValue();
@@ -113,6 +193,41 @@ public class MessageTest
         assertThat(testValue, is(expectedValue));
     }
 
+    @Test
+    public void getPropertyAtIteratesInInsertionOrder()
+    {
+        //arrange
+        Message msg = new Message();
+        for (int i = 0; i < 30; i++)
+        {
+            msg.setProperty("name" + i, "value" + i);
+        }
+
+        //act
+        msg.setProperty("NAME3", "updated");
+
+        //assert
+        assertEquals(30, msg.getPropertyCount());
+        for (int i = 0; i < 30; i++)
+        {
+            assertEquals(i == 3 ? "updated" : "value" + i, msg.getPropertyAt(i).getValue());
+            assertEquals(msg.getPropertyAt(i).getValue(), msg.getProperty("Name" + i));
+        }
+        assertNull(msg.getProperty("name30"));
+        assertEquals(30, msg.getProperties().length);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void getPropertyAtRejectsIndexOutOfRange()
+    {
+        //arrange
+        Message msg = new Message();
+        msg.setProperty("name", "value");
+
+        //act
+        msg.getPropertyAt(1);
+    }
+
     // Tests_SRS_MESSAGE_11_028: [If name is null, the function shall throw an IllegalArgumentException.]
     @Test(expected = IllegalArgumentException.class)
     public void setPropertyRejectsNullName()
@@ -338,4 +453,123 @@ public class MessageTest
         assertNull(msg.getUserId());
         assertNull(msg.getDeliveryAcknowledgement());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void constructorGeneratesRandomUuidMessageIdByDefault()
+    {
+        //act
+        Message msg1 = new Message();
+        Message msg2 = new Message();
+
+        //assert
+        assertEquals(4, UUID.fromString(msg1.getMessageId()).version());
+        assertNotEquals(msg1.getMessageId(), msg2.getMessageId());
+    }
+
+    @Test
+    public void assignMessageIdUsesGenerator()
+    {
+        //arrange
+        SequentialMessageIdGenerator generator = new SequentialMessageIdGenerator("device-");
+        Message msg1 = new Message();
+        Message msg2 = new Message("body");
+
+        //act
+        Deencapsulation.invoke(msg1, "assignMessageId", generator);
+        Deencapsulation.invoke(msg2, "assignMessageId", generator);
+
+        //assert
+        assertEquals("device-0", msg1.getMessageId());
+        assertEquals("device-1", msg2.getMessageId());
+    }
+
+    @Test
+    public void assignMessageIdKeepsMessageIdAlreadySet()
+    {
+        //arrange
+        Message msg = new Message();
+        msg.setMessageId("explicit");
+
+        //act
+        Deencapsulation.invoke(msg, "assignMessageId", new SequentialMessageIdGenerator("device-"));
+
+        //assert
+        assertEquals("explicit", msg.getMessageId());
+    }
+
+    @Test
+    public void hasCorrelationIdDoesNotGenerateOne()
+    {
+        //arrange
+        Message msg = new Message();
+
+        //act
+        boolean hasCorrelationId = msg.hasCorrelationId();
+
+        //assert
+        assertFalse(hasCorrelationId);
+        assertFalse(msg.hasCorrelationId());
+        msg.setCorrelationId("correlation");
+        assertTrue(msg.hasCorrelationId());
+    }
+
+    @Test
+    public void getCorrelationIdGeneratesUuidOnce()
+    {
+        //arrange
+        Message msg = new Message();
+
+        //act
+        String correlationId = msg.getCorrelationId();
+
+        //assert
+        assertNotNull(UUID.fromString(correlationId));
+        assertEquals(correlationId, msg.getCorrelationId());
+    }
+
+    @Test
+    public void getCorrelationIdKeepsNullIfSet()
+    {
+        //arrange
+        Message msg = new Message();
+
+        //act
+        msg.setCorrelationId(null);
+
+        //assert
+        assertNull(msg.getCorrelationId());
+    }
+
+    @Test
+    public void getPriorityDerivesPriorityFromMessageType()
+    {
+        //arrange
+        Message telemetryMessage = new Message();
+        telemetryMessage.setMessageType(MessageType.DEVICE_TELEMETRY);
+        Message twinMessage = new Message();
+        twinMessage.setMessageType(MessageType.DEVICE_TWIN);
+        Message methodMessage = new Message();
+        methodMessage.setMessageType(MessageType.DEVICE_METHODS);
+
+        //act
+        //assert
+        assertEquals(MessagePriority.NORMAL, new Message().getPriority());
+        assertEquals(MessagePriority.NORMAL, telemetryMessage.getPriority());
+        assertEquals(MessagePriority.HIGH, twinMessage.getPriority());
+        assertEquals(MessagePriority.HIGH, methodMessage.getPriority());
+    }
+
+    @Test
+    public void setPriorityOverridesMessageType()
+    {
+        //arrange
+        Message msg = new Message();
+        msg.setMessageType(MessageType.DEVICE_TWIN);
+
+        //act
+        msg.setPriority(MessagePriority.NORMAL);
+
+        //assert
+        assertEquals(MessagePriority.NORMAL, msg.getPriority());
+    }
+}
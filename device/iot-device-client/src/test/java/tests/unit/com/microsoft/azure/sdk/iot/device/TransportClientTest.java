@@ -4,6 +4,7 @@ import com.microsoft.azure.sdk.iot.device.*;
 import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenAuthenticationProvider;
 import com.microsoft.azure.sdk.iot.device.transport.NoRetry;
 import com.microsoft.azure.sdk.iot.device.transport.RetryPolicy;
+import com.microsoft.azure.sdk.iot.device.transport.TransportMetrics;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
@@ -291,6 +292,38 @@ public class TransportClientTest
         transportClient.setSendInterval(value);
     }
 
+    @Test (expected = IllegalStateException.class)
+    public void getMetricsThrowsIfNotOpened()
+    {
+        // arrange
+        TransportClient transportClient = new TransportClient(IotHubClientProtocol.AMQPS);
+
+        // act
+        transportClient.getMetrics();
+    }
+
+    @Test
+    public void getMetricsReturnsDeviceIOMetrics(@Mocked final TransportMetrics mockedMetrics)
+    {
+        // arrange
+        TransportClient transportClient = new TransportClient(IotHubClientProtocol.AMQPS);
+        Deencapsulation.setField(transportClient, "deviceIO", mockDeviceIO);
+        Deencapsulation.setField(transportClient, "transportClientState", TransportClient.TransportClientState.OPENED);
+        new NonStrictExpectations()
+        {
+            {
+                mockDeviceIO.getMetrics();
+                result = mockedMetrics;
+            }
+        };
+
+        // act
+        TransportMetrics metrics = transportClient.getMetrics();
+
+        // assert
+        assertEquals(mockedMetrics, metrics);
+    }
+
     // Tests_SRS_TRANSPORTCLIENT_12_018: [The function shall set the new interval on the underlying device IO it the transport client is not open.]
     @Test
     public void setSendIntervalSuccess() throws IOException
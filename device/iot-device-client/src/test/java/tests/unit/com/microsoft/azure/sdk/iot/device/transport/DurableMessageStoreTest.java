@@ -0,0 +1,189 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.Message;
+import com.microsoft.azure.sdk.iot.device.transport.DurableMessageStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for DurableMessageStore. */
+public class DurableMessageStoreTest
+{
+    private static final int SMALL_SEGMENT_SIZE = 256;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullDirectory() throws IOException
+    {
+        new DurableMessageStore(null, DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnTinySegmentSize() throws IOException
+    {
+        new DurableMessageStore(temporaryFolder.getRoot(), 5);
+    }
+
+    @Test
+    public void constructorCreatesDirectory() throws IOException
+    {
+        // arrange
+        File directory = new File(temporaryFolder.getRoot(), "queue");
+
+        // act
+        DurableMessageStore store = new DurableMessageStore(directory, DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+
+        // assert
+        assertTrue(directory.isDirectory());
+        assertFalse(store.hasReplayPending());
+        store.close();
+    }
+
+    @Test
+    public void pendingRecordsAreReplayedInOrderAfterReopen() throws IOException
+    {
+        // arrange
+        File directory = temporaryFolder.getRoot();
+        DurableMessageStore store = new DurableMessageStore(directory, DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+        store.append(newMessage("first"));
+        long acknowledgedRecordId = store.append(newMessage("second"));
+        store.append(newMessage("third"));
+        store.acknowledge(acknowledgedRecordId);
+        store.close();
+
+        // act
+        DurableMessageStore reopenedStore = new DurableMessageStore(directory, DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+
+        // assert
+        assertEquals(2, reopenedStore.getPendingRecordCount());
+        assertEquals("first", new String(reopenedStore.read(reopenedStore.nextReplayRecordId()).getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+        assertEquals("third", new String(reopenedStore.read(reopenedStore.nextReplayRecordId()).getBytes(), Message.DEFAULT_IOTHUB_MESSAGE_CHARSET));
+        assertEquals(-1, reopenedStore.nextReplayRecordId());
+        assertFalse(reopenedStore.hasReplayPending());
+        reopenedStore.close();
+    }
+
+    @Test
+    public void readRestoresMessageFields() throws IOException
+    {
+        // arrange
+        DurableMessageStore store = new DurableMessageStore(temporaryFolder.getRoot(), DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+        Message message = newMessage("body");
+        message.setMessageId("messageId");
+        message.setCorrelationId("correlationId");
+        message.setAbsoluteExpiryTime(1234);
+        message.setTo("to");
+        message.setUserId("userId");
+        message.setProperty("name", "value");
+        long recordId = store.append(message);
+
+        // act
+        Message readMessage = store.read(recordId);
+
+        // assert
+        assertEquals("messageId", readMessage.getMessageId());
+        assertEquals("correlationId", readMessage.getCorrelationId());
+        assertEquals(1234, readMessage.getExpiryTime());
+        assertEquals("to", readMessage.getTo());
+        assertEquals("userId", readMessage.getUserId());
+        assertEquals("value", readMessage.getProperty("name"));
+        assertArrayEquals(message.getBytes(), readMessage.getBytes());
+        store.close();
+    }
+
+    @Test
+    public void acknowledgedSegmentsAreDeleted() throws IOException
+    {
+        // arrange
+        File directory = temporaryFolder.getRoot();
+        DurableMessageStore store = new DurableMessageStore(directory, SMALL_SEGMENT_SIZE);
+        long firstRecordId = store.append(newMessage(new String(new char[150])));
+        long secondRecordId = store.append(newMessage(new String(new char[150])));
+        assertEquals(2, directory.listFiles().length);
+
+        // act
+        store.acknowledge(firstRecordId);
+        store.acknowledge(secondRecordId);
+
+        // assert
+        assertEquals(1, directory.listFiles().length);
+        assertEquals(0, store.getPendingRecordCount());
+        store.close();
+    }
+
+    @Test
+    public void reopenDeletesFullyAcknowledgedSegments() throws IOException
+    {
+        // arrange
+        File directory = temporaryFolder.getRoot();
+        DurableMessageStore store = new DurableMessageStore(directory, SMALL_SEGMENT_SIZE);
+        store.acknowledge(store.append(newMessage("acknowledged")));
+        store.close();
+
+        // act
+        DurableMessageStore reopenedStore = new DurableMessageStore(directory, SMALL_SEGMENT_SIZE);
+
+        // assert
+        assertEquals(0, directory.listFiles().length);
+        assertFalse(reopenedStore.hasReplayPending());
+        reopenedStore.close();
+    }
+
+    @Test
+    public void messageLargerThanSegmentGetsItsOwnSegment() throws IOException
+    {
+        // arrange
+        DurableMessageStore store = new DurableMessageStore(temporaryFolder.getRoot(), SMALL_SEGMENT_SIZE);
+        Message message = new Message(new byte[4 * SMALL_SEGMENT_SIZE]);
+
+        // act
+        long recordId = store.append(message);
+
+        // assert
+        assertEquals(4 * SMALL_SEGMENT_SIZE, store.read(recordId).getBodyLength());
+        store.close();
+    }
+
+    @Test
+    public void acknowledgeIgnoresUnknownRecords() throws IOException
+    {
+        // arrange
+        DurableMessageStore store = new DurableMessageStore(temporaryFolder.getRoot(), DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+        long recordId = store.append(newMessage("body"));
+
+        // act
+        store.acknowledge(recordId);
+        store.acknowledge(recordId);
+        store.acknowledge(Long.MAX_VALUE);
+
+        // assert
+        assertEquals(0, store.getPendingRecordCount());
+        store.close();
+    }
+
+    @Test (expected = IOException.class)
+    public void appendThrowsAfterClose() throws IOException
+    {
+        // arrange
+        DurableMessageStore store = new DurableMessageStore(temporaryFolder.getRoot(), DurableMessageStore.DEFAULT_SEGMENT_SIZE);
+        store.close();
+
+        // act
+        store.append(newMessage("body"));
+    }
+
+    private static Message newMessage(String body)
+    {
+        return new Message(body);
+    }
+}
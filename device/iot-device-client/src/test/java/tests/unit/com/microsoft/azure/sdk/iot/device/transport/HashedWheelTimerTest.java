@@ -0,0 +1,162 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.HashedWheelTimer;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for HashedWheelTimer. */
+public class HashedWheelTimerTest
+{
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroTick()
+    {
+        new HashedWheelTimer(0, HashedWheelTimer.DEFAULT_WHEEL_SIZE);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroWheelSize()
+    {
+        new HashedWheelTimer(HashedWheelTimer.DEFAULT_TICK_MILLISECONDS, 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void newTimeoutThrowsOnNullTask()
+    {
+        new HashedWheelTimer().newTimeout(null, 0);
+    }
+
+    @Test
+    public void tickRunsTasksWhoseDeadlinePassed()
+    {
+        // arrange
+        HashedWheelTimer timer = new HashedWheelTimer();
+        CountingTask task = new CountingTask();
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, 0);
+        assertEquals(1, timer.getPendingTimeoutCount());
+
+        // act
+        timer.tick();
+        timer.tick();
+
+        // assert
+        assertEquals(1, task.runs.get());
+        assertTrue(timeout.isExpired());
+        assertEquals(0, timer.getPendingTimeoutCount());
+    }
+
+    @Test
+    public void tickDoesNotRunTasksBeforeTheirDeadline()
+    {
+        // arrange
+        HashedWheelTimer timer = new HashedWheelTimer();
+        CountingTask task = new CountingTask();
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, 60 * 60 * 1000);
+
+        // act
+        timer.tick();
+
+        // assert
+        assertEquals(0, task.runs.get());
+        assertFalse(timeout.isExpired());
+        assertEquals(1, timer.getPendingTimeoutCount());
+    }
+
+    @Test
+    public void tickRunsTasksScheduledMoreThanOneTurnAhead() throws InterruptedException
+    {
+        // arrange
+        HashedWheelTimer timer = new HashedWheelTimer(1, 2);
+        CountingTask task = new CountingTask();
+        timer.newTimeout(task, 10);
+        timer.tick();
+
+        // act
+        Thread.sleep(20);
+        timer.tick();
+
+        // assert
+        assertEquals(1, task.runs.get());
+    }
+
+    @Test
+    public void cancelledTasksDoNotRun()
+    {
+        // arrange
+        HashedWheelTimer timer = new HashedWheelTimer();
+        CountingTask task = new CountingTask();
+        HashedWheelTimer.Timeout timeout = timer.newTimeout(task, 0);
+
+        // act
+        boolean cancelled = timeout.cancel();
+        timer.tick();
+
+        // assert
+        assertTrue(cancelled);
+        assertTrue(timeout.isCancelled());
+        assertFalse(timeout.cancel());
+        assertEquals(0, task.runs.get());
+        assertEquals(0, timer.getPendingTimeoutCount());
+    }
+
+    @Test
+    public void tickRunsTasksAfterOneThatThrows()
+    {
+        // arrange
+        HashedWheelTimer timer = new HashedWheelTimer();
+        CountingTask task = new CountingTask();
+        timer.newTimeout(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException();
+            }
+        }, 0);
+        timer.newTimeout(task, 0);
+
+        // act
+        timer.tick();
+
+        // assert
+        assertEquals(1, task.runs.get());
+    }
+
+    @Test
+    public void cancelAllReturnsTasksThatDidNotRun()
+    {
+        // arrange
+        HashedWheelTimer timer = new HashedWheelTimer();
+        CountingTask bucketedTask = new CountingTask();
+        CountingTask newTask = new CountingTask();
+        timer.newTimeout(bucketedTask, 60 * 60 * 1000);
+        timer.tick();
+        timer.newTimeout(newTask, 60 * 60 * 1000);
+
+        // act
+        List<Runnable> cancelledTasks = timer.cancelAll();
+
+        // assert
+        assertEquals(2, cancelledTasks.size());
+        assertTrue(cancelledTasks.contains(bucketedTask));
+        assertTrue(cancelledTasks.contains(newTask));
+        assertEquals(0, timer.getPendingTimeoutCount());
+    }
+
+    private static class CountingTask implements Runnable
+    {
+        final AtomicInteger runs = new AtomicInteger();
+
+        @Override
+        public void run()
+        {
+            runs.incrementAndGet();
+        }
+    }
+}
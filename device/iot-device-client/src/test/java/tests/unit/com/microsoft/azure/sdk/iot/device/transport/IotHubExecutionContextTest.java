@@ -0,0 +1,138 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubExecutionContext;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for IotHubExecutionContext. */
+public class IotHubExecutionContextTest
+{
+    @Test
+    public void constructorUsesOneThreadPerProcessor()
+    {
+        // act
+        IotHubExecutionContext executionContext = new IotHubExecutionContext();
+
+        // assert
+        assertEquals(Runtime.getRuntime().availableProcessors(), executionContext.getThreadCount());
+        assertEquals(IotHubExecutionContext.DEFAULT_MAX_BLOCKING_THREADS, executionContext.getMaxBlockingThreadCount());
+        assertEquals(IotHubExecutionContext.DEFAULT_BLOCKING_QUEUE_CAPACITY, executionContext.getBlockingQueueCapacity());
+        executionContext.close();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroThreads()
+    {
+        new IotHubExecutionContext(0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroBlockingThreads()
+    {
+        new IotHubExecutionContext(1, 0, 1);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroBlockingQueueCapacity()
+    {
+        new IotHubExecutionContext(1, 1, 0);
+    }
+
+    @Test
+    public void blockingExecutorRejectsWorkBeyondItsLimits() throws Exception
+    {
+        // arrange
+        IotHubExecutionContext executionContext = new IotHubExecutionContext(1, 1, 1);
+        ExecutorService blockingExecutor = executionContext.getBlockingExecutor();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        Runnable blockedTask = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                started.countDown();
+                try
+                {
+                    release.await();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        blockingExecutor.execute(blockedTask);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        blockingExecutor.execute(blockedTask);
+        boolean rejected = false;
+
+        // act
+        try
+        {
+            blockingExecutor.execute(blockedTask);
+        }
+        catch (RejectedExecutionException e)
+        {
+            rejected = true;
+        }
+
+        // assert
+        assertTrue(rejected);
+        release.countDown();
+        executionContext.close();
+    }
+
+    @Test
+    public void schedulerRunsTasksOnSharedDaemonThreads() throws Exception
+    {
+        // arrange
+        IotHubExecutionContext executionContext = new IotHubExecutionContext(1);
+
+        // act
+        Thread schedulerThread = executionContext.getScheduler().schedule(new CurrentThread(), 0, TimeUnit.MILLISECONDS).get(10, TimeUnit.SECONDS);
+        Thread blockingThread = executionContext.getBlockingExecutor().submit(new CurrentThread()).get(10, TimeUnit.SECONDS);
+
+        // assert
+        assertTrue(schedulerThread.isDaemon());
+        assertTrue(schedulerThread.getName().startsWith("azure-iot-sdk-shared-scheduler-"));
+        assertTrue(blockingThread.isDaemon());
+        assertTrue(blockingThread.getName().startsWith("azure-iot-sdk-shared-blocking-"));
+        executionContext.close();
+    }
+
+    @Test
+    public void closeStopsThreads()
+    {
+        // arrange
+        IotHubExecutionContext executionContext = new IotHubExecutionContext(1);
+        assertFalse(executionContext.isClosed());
+
+        // act
+        executionContext.close();
+
+        // assert
+        assertTrue(executionContext.isClosed());
+        assertTrue(executionContext.getScheduler().isShutdown());
+        assertTrue(executionContext.getBlockingExecutor().isShutdown());
+    }
+
+    private static class CurrentThread implements Callable<Thread>
+    {
+        @Override
+        public Thread call()
+        {
+            return Thread.currentThread();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubSignalDrivenTask;
+import com.microsoft.azure.sdk.iot.device.transport.IotHubWorkSignal;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubSignalDrivenTask. */
+public class IotHubSignalDrivenTaskTest
+{
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullTask()
+    {
+        new IotHubSignalDrivenTask(null, new IotHubWorkSignal(), 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullSignal()
+    {
+        new IotHubSignalDrivenTask(new CountingTask(null), null, 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNegativeMaxWait()
+    {
+        new IotHubSignalDrivenTask(new CountingTask(null), new IotHubWorkSignal(), -1);
+    }
+
+    @Test
+    public void runExecutesTaskOncePerSignalUntilStopped() throws InterruptedException
+    {
+        // arrange
+        final IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        final CountingTask countingTask = new CountingTask(workSignal);
+        final IotHubSignalDrivenTask signalDrivenTask = new IotHubSignalDrivenTask(countingTask, workSignal, 0);
+        countingTask.owner = signalDrivenTask;
+        Thread workerThread = new Thread(signalDrivenTask);
+
+        // act
+        workerThread.start();
+        workerThread.join(10000);
+
+        // assert
+        assertFalse(workerThread.isAlive());
+        assertEquals(CountingTask.RUNS_BEFORE_STOP, countingTask.runs.get());
+    }
+
+    @Test
+    public void dispatchOnRunsTaskOncePerSignalUntilStopped() throws InterruptedException
+    {
+        // arrange
+        final IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        final CountingTask countingTask = new CountingTask(workSignal);
+        final IotHubSignalDrivenTask signalDrivenTask = new IotHubSignalDrivenTask(countingTask, workSignal, 0);
+        countingTask.owner = signalDrivenTask;
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        // act
+        signalDrivenTask.dispatchOn(scheduler);
+
+        // assert
+        awaitRuns(countingTask, CountingTask.RUNS_BEFORE_STOP);
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(CountingTask.RUNS_BEFORE_STOP, countingTask.runs.get());
+    }
+
+    @Test
+    public void dispatchOnRunsTaskAfterMaxWaitWithoutSignal() throws InterruptedException
+    {
+        // arrange
+        final IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        final CountingTask countingTask = new CountingTask(null);
+        final IotHubSignalDrivenTask signalDrivenTask = new IotHubSignalDrivenTask(countingTask, workSignal, 1);
+        countingTask.owner = signalDrivenTask;
+        ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+
+        // act
+        signalDrivenTask.dispatchOn(scheduler);
+
+        // assert
+        awaitRuns(countingTask, CountingTask.RUNS_BEFORE_STOP);
+        scheduler.shutdown();
+        assertTrue(scheduler.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(CountingTask.RUNS_BEFORE_STOP, countingTask.runs.get());
+    }
+
+    @Test
+    public void dispatchOnRunsTaskOnProvidedExecutor() throws InterruptedException
+    {
+        // arrange
+        final IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        final CountingTask countingTask = new CountingTask(workSignal);
+        final IotHubSignalDrivenTask signalDrivenTask = new IotHubSignalDrivenTask(countingTask, workSignal, 0);
+        countingTask.owner = signalDrivenTask;
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // act
+        signalDrivenTask.dispatchOn(scheduler, executor);
+
+        // assert
+        awaitRuns(countingTask, CountingTask.RUNS_BEFORE_STOP);
+        scheduler.shutdown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+        assertEquals(CountingTask.RUNS_BEFORE_STOP, countingTask.runs.get());
+        assertEquals(0, scheduler.getCompletedTaskCount());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void dispatchOnThrowsOnNullScheduler()
+    {
+        new IotHubSignalDrivenTask(new CountingTask(null), new IotHubWorkSignal(), 0).dispatchOn(null);
+    }
+
+    private static void awaitRuns(CountingTask countingTask, int runs) throws InterruptedException
+    {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (countingTask.runs.get() < runs && System.currentTimeMillis() < deadline)
+        {
+            Thread.sleep(1);
+        }
+    }
+
+    /* Raises the signal from inside the task, as the transport does when work remains, then stops the loop. */
+    private static class CountingTask implements Runnable
+    {
+        static final int RUNS_BEFORE_STOP = 3;
+        final AtomicInteger runs = new AtomicInteger();
+        final IotHubWorkSignal workSignal;
+        IotHubSignalDrivenTask owner;
+
+        CountingTask(IotHubWorkSignal workSignal)
+        {
+            this.workSignal = workSignal;
+        }
+
+        @Override
+        public void run()
+        {
+            if (runs.incrementAndGet() < RUNS_BEFORE_STOP)
+            {
+                if (workSignal != null)
+                {
+                    workSignal.signal();
+                }
+            }
+            else
+            {
+                owner.stop();
+            }
+        }
+    }
+}
@@ -21,8 +21,11 @@ import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.microsoft.azure.sdk.iot.device.IotHubConnectionStatusChangeReason.*;
 import static com.microsoft.azure.sdk.iot.device.transport.IotHubConnectionStatus.*;
@@ -90,9 +93,6 @@ public class IotHubTransportTest
     @Mocked
     MessageCallback mockedMessageCallback;
 
-    @Mocked
-    ScheduledExecutorService mockedTaskScheduler;
-
     @Mocked
     IotHubTransport.MessageRetryRunnable mockedMessageRetryRunnable;
 
@@ -474,6 +474,13 @@ public class IotHubTransportTest
         Collection<DeviceClientConfig> configs = new ArrayList<>();
         configs.add(mockedConfig);
 
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getDurableQueueDirectory();
+                result = null;
+            }
+        };
         new Expectations(IotHubTransport.class)
         {
             {
@@ -966,6 +973,22 @@ public class IotHubTransportTest
         assertFalse(isEmpty);
     }
 
+    @Test
+    public void isEmptyReturnsFalseIfPriorityQueueNotEmpty()
+    {
+        //arrange
+        final Queue<IotHubTransportPacket> priorityPacketsQueue = new ConcurrentLinkedQueue<>();
+        priorityPacketsQueue.add(mockedPacket);
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "priorityPacketsQueue", priorityPacketsQueue);
+
+        //act
+        boolean isEmpty = transport.isEmpty();
+
+        //assert
+        assertFalse(isEmpty);
+    }
+
     //Tests_SRS_IOTHUBTRANSPORT_34_043: [This function return true if and only if there are no packets in the waiting queue, in progress, or in the callbacks queue.]
     @Test
     public void isEmptyReturnsFalseIfInProgressMapNotEmpty()
@@ -1100,6 +1123,8 @@ public class IotHubTransportTest
             {
                 new IotHubTransportPacket(mockedMessage, mockedEventCallback, any, null, anyLong);
                 result = mockedPacket;
+                mockedConfig.getOutboundQueuePolicy();
+                result = new OutboundQueuePolicy();
             }
         };
 
@@ -1110,181 +1135,1063 @@ public class IotHubTransportTest
         assertEquals(1, waitingPacketsQueue.size());
     }
 
-    //Tests_SRS_IOTHUBTRANSPORT_34_043: [If the connection status of this object is not CONNECTED, this function shall do nothing]
     @Test
-    public void sendMessagesDoesNothingIfNotConnected()
+    public void addMessageAddsHighPriorityMessageToPriorityQueue()
     {
         //arrange
         IotHubTransport transport = new IotHubTransport(mockedConfig);
-        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
         Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
-        waitingPacketsQueue.add(mockedPacket);
         Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Queue<IotHubTransportPacket> priorityPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "priorityPacketsQueue", priorityPacketsQueue);
+        expectOutboundQueue(new OutboundQueuePolicy(), 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getPriority();
+                result = MessagePriority.HIGH;
+            }
+        };
 
         //act
-        transport.sendMessages();
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
 
         //assert
-        assertFalse(waitingPacketsQueue.isEmpty());
+        assertEquals(0, waitingPacketsQueue.size());
+        assertEquals(1, priorityPacketsQueue.size());
     }
 
-    //Tests_SRS_IOTHUBTRANSPORT_34_044: [This function continue to dequeue packets saved in the waiting
-    // queue and send them until connection status isn't CONNECTED or until 10 messages have been sent]
     @Test
-    public void sendMessagesSendsMessages()
+    public void addMessageRaisesSendWorkSignal() throws InterruptedException
     {
         //arrange
-        final IotHubTransport transport = new IotHubTransport(mockedConfig);
-        final int MAX_MESSAGES_TO_SEND_PER_THREAD = Deencapsulation.getField(transport, "MAX_MESSAGES_TO_SEND_PER_THREAD");
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
         Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
-        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
-        for (int i = 0; i < MAX_MESSAGES_TO_SEND_PER_THREAD + 1; i++)
+        new NonStrictExpectations()
         {
-            waitingPacketsQueue.add(mockedPacket);
-        }
+            {
+                mockedConfig.getOutboundQueuePolicy();
+                result = new OutboundQueuePolicy();
+            }
+        };
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        assertTrue(transport.getSendWorkSignal().await(1));
+    }
+
+    @Test
+    public void addMessageCountsPendingMessage()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        expectOutboundQueue(new OutboundQueuePolicy(), 100);
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        assertEquals(1, transport.getPendingMessageCount());
+        assertEquals(100, transport.getPendingMessageBytes());
+    }
+
+    @Test
+    public void addToCallbackQueueReleasesPendingMessage()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        expectOutboundQueue(new OutboundQueuePolicy(), 100);
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
 
+        //assert
+        assertEquals(0, transport.getPendingMessageCount());
+        assertEquals(0, transport.getPendingMessageBytes());
+    }
+
+    @Test
+    public void addMessageRejectsWhenQueueFull()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
         Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        ((AtomicInteger) Deencapsulation.getField(transport, "pendingMessageCount")).set(1);
+        expectOutboundQueue(new OutboundQueuePolicy(1, Long.MAX_VALUE, OutboundQueuePolicy.OverflowMode.REJECT, 0), 0);
 
-        new Expectations(IotHubTransport.class)
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        assertEquals(0, waitingPacketsQueue.size());
+        assertEquals(1, callbackPacketsQueue.size());
+        assertEquals(1, transport.getPendingMessageCount());
+        new Verifications()
         {
             {
-                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void addMessageRejectsHighPriorityTelemetryWhenQueueFull()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> priorityPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "priorityPacketsQueue", priorityPacketsQueue);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        ((AtomicInteger) Deencapsulation.getField(transport, "pendingMessageCount")).set(1);
+        expectOutboundQueue(new OutboundQueuePolicy(1, Long.MAX_VALUE, OutboundQueuePolicy.OverflowMode.REJECT, 0), 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getPriority();
+                result = MessagePriority.HIGH;
             }
         };
 
         //act
-        transport.sendMessages();
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
 
         //assert
+        assertEquals(0, priorityPacketsQueue.size());
+        assertEquals(1, callbackPacketsQueue.size());
+        assertEquals(1, transport.getPendingMessageCount());
         new Verifications()
         {
             {
-                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
-                times = MAX_MESSAGES_TO_SEND_PER_THREAD;
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                times = 1;
             }
         };
-        assertEquals(1, waitingPacketsQueue.size());
     }
 
-    //Tests_SRS_IOTHUBTRANSPORT_34_045: [This function shall dequeue each packet in the callback queue and execute
-    // their saved callback with their saved status and context]
     @Test
-    public void invokeCallbacksInvokesAllCallbacks()
+    public void addMessageRejectsMessageLargerThanMaxBytes()
     {
         //arrange
-        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        expectOutboundQueue(new OutboundQueuePolicy(10, 50, OutboundQueuePolicy.OverflowMode.DROP_OLDEST, 0), 100);
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        assertEquals(0, waitingPacketsQueue.size());
+        assertEquals(0, transport.getPendingMessageCount());
+    }
+
+    @Test
+    public void addMessageDropsOldestWhenQueueFull()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
         Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
-        callbackPacketsQueue.add(mockedPacket);
-        callbackPacketsQueue.add(mockedPacket);
-        callbackPacketsQueue.add(mockedPacket);
         Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
-        final Object context = new Object();
-        new NonStrictExpectations()
+        ((AtomicInteger) Deencapsulation.getField(transport, "pendingMessageCount")).set(1);
+        expectOutboundQueue(new OutboundQueuePolicy(1, Long.MAX_VALUE, OutboundQueuePolicy.OverflowMode.DROP_OLDEST, 0), 0);
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+        assertEquals(1, callbackPacketsQueue.size());
+        assertEquals(1, transport.getPendingMessageCount());
+        new Verifications()
         {
             {
-                mockedPacket.getCallback();
-                result = mockedEventCallback;
-
-                mockedPacket.getContext();
-                result = context;
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                times = 1;
+            }
+        };
+    }
 
-                mockedPacket.getStatus();
-                result = mockedStatus;
+    @Test
+    public void addMessageDropsExpiredFirstWhenQueueFull()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        ((AtomicInteger) Deencapsulation.getField(transport, "pendingMessageCount")).set(1);
+        expectOutboundQueue(new OutboundQueuePolicy(1, Long.MAX_VALUE, OutboundQueuePolicy.OverflowMode.DROP_EXPIRED_FIRST, 0), 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.isExpired();
+                result = true;
             }
         };
 
         //act
-        transport.invokeCallbacks();
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
 
         //assert
-        assertTrue(callbackPacketsQueue.isEmpty());
+        assertEquals(1, waitingPacketsQueue.size());
+        assertEquals(1, transport.getPendingMessageCount());
         new Verifications()
         {
             {
-                mockedEventCallback.execute(mockedStatus, context);
-                times = 3;
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_EXPIRED);
+                times = 1;
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                times = 0;
             }
         };
     }
 
-    //Tests_SRS_IOTHUBTRANSPORT_34_046: [If this object's connection status is not CONNEECTED, this function shall do nothing.]
     @Test
-    public void handleMessageDoesNothingIfNotConnected() throws DeviceClientException
+    public void addMessageRejectsWhenBlockTimesOut()
     {
         //arrange
-        final IotHubTransport transport = new IotHubTransport(mockedConfig);
-        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED);
-        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
-        receivedMessagesQueue.add(mockedTransportMessage);
-        receivedMessagesQueue.add(mockedTransportMessage);
-        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
-
-        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedHttpsIotHubConnection);
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        ((AtomicInteger) Deencapsulation.getField(transport, "pendingMessageCount")).set(1);
+        expectOutboundQueue(new OutboundQueuePolicy(1, Long.MAX_VALUE, OutboundQueuePolicy.OverflowMode.BLOCK, 10), 0);
 
         //act
-        transport.handleMessage();
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
 
         //assert
-        assertEquals(2, receivedMessagesQueue.size());
+        assertEquals(0, waitingPacketsQueue.size());
         new Verifications()
         {
             {
-                Deencapsulation.invoke(transport, "addReceivedMessagesOverHttpToReceivedQueue");
-                times = 0;
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_QUEUE_FULL);
+                times = 1;
             }
         };
     }
 
-    //Tests_SRS_IOTHUBTRANSPORT_34_047: [If this object's connection status is CONNECTED and is using HTTPS,
-    // this function shall invoke addReceivedMessagesOverHttpToReceivedQueue.]
     @Test
-    public void handleMessageChecksForHttpMessages() throws DeviceClientException
+    public void addMessageBlocksUntilRoomIsReleased() throws InterruptedException
     {
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
         Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
-        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
-        receivedMessagesQueue.add(mockedTransportMessage);
-        receivedMessagesQueue.add(mockedTransportMessage);
-        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        ((AtomicInteger) Deencapsulation.getField(transport, "pendingMessageCount")).set(1);
+        expectOutboundQueue(new OutboundQueuePolicy(1, Long.MAX_VALUE, OutboundQueuePolicy.OverflowMode.BLOCK, 60 * 1000), 0);
+        Thread releasingThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    Thread.sleep(50);
+                }
+                catch (InterruptedException e)
+                {
+                    return;
+                }
 
-        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedHttpsIotHubConnection);
+                Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+            }
+        });
 
-        new Expectations(IotHubTransport.class)
+        //act
+        releasingThread.start();
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+        releasingThread.join(10000);
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+        assertEquals(1, transport.getPendingMessageCount());
+    }
+
+    @Test
+    public void addMessagePersistsTelemetryPacket(@Mocked final DurableMessageStore mockedStore) throws IOException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        expectOutboundQueue(new OutboundQueuePolicy(), 0);
+        new NonStrictExpectations()
         {
             {
-                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+                mockedMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockedStore.append(mockedMessage);
+                result = 5L;
+            }
+        };
 
-                Deencapsulation.invoke(transport, "addReceivedMessagesOverHttpToReceivedQueue");
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        Map<IotHubTransportPacket, Long> durableRecordIds = Deencapsulation.getField(transport, "durableRecordIds");
+        assertEquals(1, durableRecordIds.size());
+        assertEquals(5L, (long) durableRecordIds.values().iterator().next());
+    }
+
+    @Test
+    public void addMessageDoesNotPersistTwinPacket(@Mocked final DurableMessageStore mockedStore) throws IOException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        expectOutboundQueue(new OutboundQueuePolicy(), 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getMessageType();
+                result = MessageType.DEVICE_TWIN;
             }
         };
 
         //act
-        transport.handleMessage();
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
 
         //assert
-        assertEquals(1, receivedMessagesQueue.size());
         new Verifications()
         {
             {
-                Deencapsulation.invoke(transport, "addReceivedMessagesOverHttpToReceivedQueue");
-                times = 1;
+                mockedStore.append((Message) any);
+                times = 0;
             }
         };
     }
 
-    //Tests_SRS_IOTHUBTRANSPORT_34_048: [If this object's connection status is CONNECTED and there is a
-    // received message in the queue, this function shall acknowledge the received message
     @Test
-    public void handleMessageAcknowledgesAReceivedMessages() throws DeviceClientException
+    public void addToCallbackQueueAcknowledgesDurableRecord(@Mocked final DurableMessageStore mockedStore)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        Map<IotHubTransportPacket, Long> durableRecordIds = Deencapsulation.getField(transport, "durableRecordIds");
+        durableRecordIds.put(mockedPacket, 5L);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        assertTrue(durableRecordIds.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedStore.acknowledge(5L);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void addToCallbackQueueAcknowledgesDurableRecordOfCancelledPacket(@Mocked final DurableMessageStore mockedStore)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        Map<IotHubTransportPacket, Long> durableRecordIds = Deencapsulation.getField(transport, "durableRecordIds");
+        durableRecordIds.put(mockedPacket, 5L);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedStore.acknowledge(5L);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void addToCallbackQueueKeepsDurableRecordOfPersistedPacket(@Mocked final DurableMessageStore mockedStore)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        Map<IotHubTransportPacket, Long> durableRecordIds = Deencapsulation.getField(transport, "durableRecordIds");
+        durableRecordIds.put(mockedPacket, 5L);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.MESSAGE_PERSISTED_ONCLOSE;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedStore.acknowledge(anyLong);
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void replayDurableMessagesQueuesPendingRecords(@Mocked final DurableMessageStore mockedStore) throws IOException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        new NonStrictExpectations()
+        {
+            {
+                mockedStore.nextReplayRecordId();
+                returns(7L, 8L, -1L);
+                mockedStore.read(anyLong);
+                result = mockedMessage;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "replayDurableMessages", 10);
+
+        //assert
+        assertEquals(2, waitingPacketsQueue.size());
+        assertEquals(2, transport.getPendingMessageCount());
+    }
+
+    @Test
+    public void replayDurableMessagesStopsAtMaxWaitingMessages(@Mocked final DurableMessageStore mockedStore) throws IOException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        ((AtomicInteger) Deencapsulation.getField(transport, "waitingPacketCount")).set(9);
+        new NonStrictExpectations()
+        {
+            {
+                mockedStore.nextReplayRecordId();
+                result = 7L;
+                mockedStore.read(anyLong);
+                result = mockedMessage;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "replayDurableMessages", 10);
+
+        //assert
+        assertEquals(1, waitingPacketsQueue.size());
+    }
+
+    @Test
+    public void addMessageDefersPersistedPacketWhileReplayIsPending(@Mocked final DurableMessageStore mockedStore) throws IOException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        expectOutboundQueue(new OutboundQueuePolicy(), 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockedStore.append(mockedMessage);
+                result = 5L;
+                mockedStore.hasReplayPending();
+                result = true;
+            }
+        };
+
+        //act
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        //assert
+        Queue<IotHubTransportPacket> deferredPacketsQueue = Deencapsulation.getField(transport, "deferredPacketsQueue");
+        assertTrue(waitingPacketsQueue.isEmpty());
+        assertEquals(1, deferredPacketsQueue.size());
+    }
+
+    @Test
+    public void sendMessagesSendsReplayedMessagesBeforeLiveMessagesAddedDuringReplay(@Mocked final DurableMessageStore mockedStore,
+                                                                                      @Mocked final Message mockedReplayedMessage,
+                                                                                      @Mocked final IotHubTransportPacket mockedReplayedPacket) throws IOException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        final SendDrainPolicy drainPolicy = new SendDrainPolicy(10, 10, Long.MAX_VALUE, Long.MAX_VALUE);
+        expectOutboundQueue(new OutboundQueuePolicy(), 0);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendDrainPolicy();
+                result = drainPolicy;
+                mockedMessage.getMessageType();
+                result = MessageType.DEVICE_TELEMETRY;
+                mockedStore.append(mockedMessage);
+                result = 5L;
+                mockedStore.hasReplayPending();
+                result = true;
+                mockedStore.nextReplayRecordId();
+                returns(7L, -1L);
+                mockedStore.read(7L);
+                result = mockedReplayedMessage;
+                new IotHubTransportPacket(mockedReplayedMessage, null, null, null, anyLong);
+                result = mockedReplayedPacket;
+                mockedReplayedPacket.getMessage();
+                result = mockedReplayedMessage;
+            }
+        };
+        transport.addMessage(mockedMessage, mockedEventCallback, new Object());
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedReplayedPacket);
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        new VerificationsInOrder()
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedReplayedPacket);
+                times = 1;
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void cancelPendingPacketsReportsPersistedPacketAsPersistedOnClose(@Mocked final DurableMessageStore mockedStore)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "durableMessageStore", mockedStore);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Map<IotHubTransportPacket, Long> durableRecordIds = Deencapsulation.getField(transport, "durableRecordIds");
+        durableRecordIds.put(mockedPacket, 5L);
+
+        //act
+        Deencapsulation.invoke(transport, "cancelPendingPackets");
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_PERSISTED_ONCLOSE);
+                times = 1;
+            }
+        };
+    }
+
+    private void expectOutboundQueue(final OutboundQueuePolicy queuePolicy, final int bodyLength)
+    {
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getOutboundQueuePolicy();
+                result = queuePolicy;
+                new IotHubTransportPacket(mockedMessage, mockedEventCallback, any, null, anyLong);
+                result = mockedPacket;
+                mockedPacket.getMessage();
+                result = mockedMessage;
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+                mockedMessage.getBodyLength();
+                result = bodyLength;
+            }
+        };
+    }
+
+    @Test
+    public void onMessageReceivedRaisesReceiveWorkSignal() throws InterruptedException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+
+        //act
+        transport.onMessageReceived(mockedTransportMessage, null);
+
+        //assert
+        assertTrue(transport.getReceiveWorkSignal().await(1));
+        assertFalse(transport.getSendWorkSignal().await(1));
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_34_043: [If the connection status of this object is not CONNECTED, this function shall do nothing]
+    @Test
+    public void sendMessagesDoesNothingIfNotConnected()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        waitingPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        assertFalse(waitingPacketsQueue.isEmpty());
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_34_044: [This function continue to dequeue packets saved in the waiting
+    // queue and send them until connection status isn't CONNECTED or until the drain policy limits are reached]
+    @Test
+    public void sendMessagesSendsMessages()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        // a time slice long enough that only the message budget stops the drain, even on a slow machine
+        final SendDrainPolicy drainPolicy = new SendDrainPolicy(10, 1000, 4 * 1024 * 1024, 60 * 1000);
+        final int MAX_MESSAGES_TO_SEND_PER_THREAD = drainPolicy.getMinMessagesPerDrain();
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendDrainPolicy();
+                result = drainPolicy;
+            }
+        };
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < MAX_MESSAGES_TO_SEND_PER_THREAD + 1; i++)
+        {
+            waitingPacketsQueue.add(mockedPacket);
+        }
+
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                times = MAX_MESSAGES_TO_SEND_PER_THREAD;
+            }
+        };
+        assertEquals(1, waitingPacketsQueue.size());
+    }
+
+    @Test
+    public void sendMessagesGrowsMessageBudgetWhileBacklogged()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final SendDrainPolicy drainPolicy = new SendDrainPolicy(2, 8, Long.MAX_VALUE, Long.MAX_VALUE);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendDrainPolicy();
+                result = drainPolicy;
+            }
+        };
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 20; i++)
+        {
+            waitingPacketsQueue.add(mockedPacket);
+        }
+
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+            }
+        };
+
+        //act
+        transport.sendMessages();
+        transport.sendMessages();
+        transport.sendMessages();
+
+        //assert
+        assertEquals(20 - 2 - 4 - 8, waitingPacketsQueue.size());
+        assertEquals(8, Deencapsulation.getField(transport, "messagesPerDrain"));
+    }
+
+    @Test
+    public void sendMessagesDrainsPriorityQueueByWeight()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final SendDrainPolicy drainPolicy = new SendDrainPolicy(6, 6, Long.MAX_VALUE, Long.MAX_VALUE, 2);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendDrainPolicy();
+                result = drainPolicy;
+            }
+        };
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        Queue<IotHubTransportPacket> priorityPacketsQueue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 5; i++)
+        {
+            waitingPacketsQueue.add(mockedPacket);
+            priorityPacketsQueue.add(mockedPacket);
+        }
+
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+        Deencapsulation.setField(transport, "priorityPacketsQueue", priorityPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        assertEquals(1, priorityPacketsQueue.size());
+        assertEquals(3, waitingPacketsQueue.size());
+    }
+
+    @Test
+    public void sendMessagesDrainsPriorityQueueWhenNormalQueueEmpty()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final SendDrainPolicy drainPolicy = new SendDrainPolicy(6, 6, Long.MAX_VALUE, Long.MAX_VALUE, 2);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendDrainPolicy();
+                result = drainPolicy;
+            }
+        };
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> priorityPacketsQueue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 5; i++)
+        {
+            priorityPacketsQueue.add(mockedPacket);
+        }
+
+        Deencapsulation.setField(transport, "priorityPacketsQueue", priorityPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        assertEquals(0, priorityPacketsQueue.size());
+    }
+
+    @Test
+    public void sendMessagesStopsAtByteBudget()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final SendDrainPolicy drainPolicy = new SendDrainPolicy(10, 10, 250, Long.MAX_VALUE);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getSendDrainPolicy();
+                result = drainPolicy;
+                mockedPacket.getMessage();
+                result = mockedMessage;
+                mockedMessage.getBodyLength();
+                result = 100;
+            }
+        };
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportPacket> waitingPacketsQueue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < 5; i++)
+        {
+            waitingPacketsQueue.add(mockedPacket);
+        }
+
+        Deencapsulation.setField(transport, "waitingPacketsQueue", waitingPacketsQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "isMessageValid", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+                result = true;
+                Deencapsulation.invoke(transport, "sendPacket", new Class[] {IotHubTransportPacket.class}, mockedPacket);
+            }
+        };
+
+        //act
+        transport.sendMessages();
+
+        //assert
+        assertEquals(2, waitingPacketsQueue.size());
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_34_045: [This function shall dequeue each packet in the callback queue and execute
+    // their saved callback with their saved status and context]
+    @Test
+    public void invokeCallbacksInvokesAllCallbacks()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        callbackPacketsQueue.add(mockedPacket);
+        callbackPacketsQueue.add(mockedPacket);
+        callbackPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+
+                mockedPacket.getContext();
+                result = context;
+
+                mockedPacket.getStatus();
+                result = mockedStatus;
+            }
+        };
+
+        //act
+        transport.invokeCallbacks();
+
+        //assert
+        assertTrue(callbackPacketsQueue.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedEventCallback.execute(mockedStatus, context);
+                times = 3;
+            }
+        };
+    }
+
+    @Test
+    public void invokeCallbacksHandsCallbacksToCallbackExecutor()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        callbackPacketsQueue.add(mockedPacket);
+        callbackPacketsQueue.add(mockedPacket);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        final List<Runnable> submittedRuns = new ArrayList<>();
+        Deencapsulation.setField(transport, "callbackExecutor", new OrderedCallbackExecutor(newDeferredExecutor(submittedRuns)));
+        final Object context = new Object();
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+                mockedPacket.getContext();
+                result = context;
+                mockedPacket.getStatus();
+                result = mockedStatus;
+            }
+        };
+
+        //act
+        transport.invokeCallbacks();
+
+        //assert
+        assertTrue(callbackPacketsQueue.isEmpty());
+        assertFalse(transport.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedEventCallback.execute(mockedStatus, context);
+                times = 0;
+            }
+        };
+        submittedRuns.get(0).run();
+        assertTrue(transport.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedEventCallback.execute(mockedStatus, context);
+                times = 2;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_34_046: [If this object's connection status is not CONNEECTED, this function shall do nothing.]
+    @Test
+    public void handleMessageDoesNothingIfNotConnected() throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", DISCONNECTED);
+        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
+        receivedMessagesQueue.add(mockedTransportMessage);
+        receivedMessagesQueue.add(mockedTransportMessage);
+        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedHttpsIotHubConnection);
+
+        //act
+        transport.handleMessage();
+
+        //assert
+        assertEquals(2, receivedMessagesQueue.size());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "addReceivedMessagesOverHttpToReceivedQueue");
+                times = 0;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_34_047: [If this object's connection status is CONNECTED and is using HTTPS,
+    // this function shall invoke addReceivedMessagesOverHttpToReceivedQueue.]
+    @Test
+    public void handleMessageChecksForHttpMessages() throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
+        receivedMessagesQueue.add(mockedTransportMessage);
+        receivedMessagesQueue.add(mockedTransportMessage);
+        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedHttpsIotHubConnection);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+
+                Deencapsulation.invoke(transport, "addReceivedMessagesOverHttpToReceivedQueue");
+            }
+        };
+
+        //act
+        transport.handleMessage();
+
+        //assert
+        assertEquals(1, receivedMessagesQueue.size());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "addReceivedMessagesOverHttpToReceivedQueue");
+                times = 1;
+            }
+        };
+    }
+
+    //Tests_SRS_IOTHUBTRANSPORT_34_048: [If this object's connection status is CONNECTED and there is a
+    // received message in the queue, this function shall acknowledge the received message
+    @Test
+    public void handleMessageAcknowledgesAReceivedMessages() throws DeviceClientException
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
+        receivedMessagesQueue.add(mockedTransportMessage);
+        receivedMessagesQueue.add(mockedTransportMessage);
+        Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+
+        new Expectations(IotHubTransport.class)
+        {
+            {
+                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+            }
+        };
+
+        //act
+        transport.handleMessage();
+
+        //assert
+        assertEquals(1, receivedMessagesQueue.size());
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(transport, "acknowledgeReceivedMessage", mockedTransportMessage);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void handleMessageAcknowledgesOnCallbackExecutor() throws DeviceClientException
     {
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
         Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
         Queue<IotHubTransportMessage> receivedMessagesQueue = new ConcurrentLinkedQueue<>();
         receivedMessagesQueue.add(mockedTransportMessage);
-        receivedMessagesQueue.add(mockedTransportMessage);
         Deencapsulation.setField(transport, "receivedMessagesQueue", receivedMessagesQueue);
+        final List<Runnable> submittedRuns = new ArrayList<>();
+        Deencapsulation.setField(transport, "callbackExecutor", new OrderedCallbackExecutor(newDeferredExecutor(submittedRuns)));
 
         new Expectations(IotHubTransport.class)
         {
@@ -1297,7 +2204,9 @@ public class IotHubTransportTest
         transport.handleMessage();
 
         //assert
-        assertEquals(1, receivedMessagesQueue.size());
+        assertEquals(0, receivedMessagesQueue.size());
+        assertEquals(1, submittedRuns.size());
+        submittedRuns.get(0).run();
         new Verifications()
         {
             {
@@ -1307,6 +2216,18 @@ public class IotHubTransportTest
         };
     }
 
+    private static Executor newDeferredExecutor(final List<Runnable> submittedRuns)
+    {
+        return new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                submittedRuns.add(command);
+            }
+        };
+    }
+
     //Tests_SRS_IOTHUBTRANSPORT_34_049: [If the provided callback is null, this function shall throw an IllegalArgumentException.]
     @Test (expected = IllegalArgumentException.class)
     public void registerConnectionStateCallbackThrowsForNullCallback()
@@ -1585,9 +2506,7 @@ public class IotHubTransportTest
     {
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
-        final long expectedDelay = 0;
         final long duration = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new Expectations(IotHubTransport.class)
         {
             {
@@ -1620,11 +2539,10 @@ public class IotHubTransportTest
             {
                 mockedPacket.incrementRetryAttempt();
                 times = 1;
-
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
-                times = 1;
             }
         };
+        assertEquals(1, ((HashedWheelTimer) Deencapsulation.getField(transport, "timer")).getPendingTimeoutCount());
+        assertEquals(1, transport.getMetrics().getRetryCount());
     }
 
     //Tests_SRS_IOTHUBTRANSPORT_34_064: [If the provided transportException is not retryable, the packet has expired,
@@ -1634,8 +2552,6 @@ public class IotHubTransportTest
     {
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
-        final long expectedDelay = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new NonStrictExpectations(IotHubTransport.class)
         {
             {
@@ -1671,11 +2587,9 @@ public class IotHubTransportTest
             {
                 mockedPacket.setStatus(mockedStatus);
                 times = 1;
-
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
-                times = 0;
             }
         };
+        assertEquals(0, ((HashedWheelTimer) Deencapsulation.getField(transport, "timer")).getPendingTimeoutCount());
     }
 
     //Tests_SRS_IOTHUBTRANSPORT_34_064: [If the provided transportException is not retryable, the packet has expired,
@@ -1685,8 +2599,6 @@ public class IotHubTransportTest
     {
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
-        final long expectedDelay = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new NonStrictExpectations(IotHubTransport.class)
         {
             {
@@ -1722,11 +2634,9 @@ public class IotHubTransportTest
             {
                 mockedPacket.setStatus(mockedStatus);
                 times = 1;
-
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
-                times = 0;
             }
         };
+        assertEquals(0, ((HashedWheelTimer) Deencapsulation.getField(transport, "timer")).getPendingTimeoutCount());
     }
 
     //Tests_SRS_IOTHUBTRANSPORT_34_064: [If the provided transportException is not retryable, the packet has expired,
@@ -1736,8 +2646,6 @@ public class IotHubTransportTest
     {
         //arrange
         final IotHubTransport transport = new IotHubTransport(mockedConfig);
-        final long expectedDelay = 0;
-        Deencapsulation.setField(transport, "taskScheduler", mockedTaskScheduler);
         new NonStrictExpectations(IotHubTransport.class)
         {
             {
@@ -1773,11 +2681,9 @@ public class IotHubTransportTest
             {
                 mockedPacket.setStatus(mockedStatus);
                 times = 1;
-
-                mockedTaskScheduler.schedule((IotHubTransport.MessageRetryRunnable) any, expectedDelay, TimeUnit.MILLISECONDS);
-                times = 0;
             }
         };
+        assertEquals(0, ((HashedWheelTimer) Deencapsulation.getField(transport, "timer")).getPendingTimeoutCount());
     }
 
     //Tests_SRS_IOTHUBTRANSPORT_34_068: [If the reconnection effort ends because the retry policy said to
@@ -2118,6 +3024,8 @@ public class IotHubTransportTest
         assertEquals(IotHubConnectionStatus.CONNECTED, Deencapsulation.getField(transport, "connectionStatus"));
         assertEquals(0, Deencapsulation.getField(transport, "currentReconnectionAttempt"));
         assertEquals(0L, Deencapsulation.getField(transport, "reconnectionAttemptStartTimeMillis"));
+        assertEquals(1, transport.getMetrics().getReconnectionCount());
+        assertEquals(1, transport.getMetrics().getReconnectionDuration().getCount());
         new Verifications()
         {
             {
@@ -2330,6 +3238,159 @@ public class IotHubTransportTest
     }
 
     //Tests_SRS_IOTHUBTRANSPORT_28_002: [This function shall add the packet to the callback queue if it has a callback.]
+    @Test
+    public void addToCallbackQueueRecordsAcknowledgedMessages()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.OK_EMPTY;
+
+                mockedPacket.getStartTimeMillis();
+                result = System.currentTimeMillis() - 5;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", mockedPacket);
+
+        //assert
+        TransportMetrics metrics = transport.getMetrics();
+        assertEquals(1, metrics.getAcknowledgedMessageCount());
+        assertEquals(1, metrics.getAcknowledgementLatency().getCount());
+        assertTrue(metrics.getAcknowledgementLatency().getMax() >= 5);
+    }
+
+    @Test
+    public void invokeCallbacksDeliversTraceAfterCallback(@Mocked final MessageTraceListener mockedTraceListener)
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final MessageTrace trace = Deencapsulation.newInstance(MessageTrace.class,
+                new Class[] {String.class, MessageType.class, long.class}, "messageId", MessageType.DEVICE_TELEMETRY, 1L);
+        Deencapsulation.setField(transport, "traceListener", mockedTraceListener);
+        Deencapsulation.invoke(transport, "addCallbackPacket", mockedPacket);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedPacket, "getTrace");
+                result = trace;
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+            }
+        };
+
+        //act
+        transport.invokeCallbacks();
+
+        //assert
+        assertTrue(trace.getCallbackNanos() != 0);
+        new Verifications()
+        {
+            {
+                mockedEventCallback.execute((IotHubStatusCode) any, any);
+                times = 1;
+                mockedTraceListener.onMessageTraced(trace);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void onMessageTransmittedRecordsSentTimeOfTracedPacket()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final MessageTrace trace = Deencapsulation.newInstance(MessageTrace.class,
+                new Class[] {String.class, MessageType.class, long.class}, "messageId", MessageType.DEVICE_TELEMETRY, 1L);
+        Map<String, IotHubTransportPacket> inProgressPackets = Deencapsulation.getField(transport, "inProgressPackets");
+        inProgressPackets.put("messageId", mockedPacket);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getMessageId();
+                result = "messageId";
+                Deencapsulation.invoke(mockedPacket, "getTrace");
+                result = trace;
+            }
+        };
+
+        //act
+        transport.onMessageTransmitted(mockedMessage);
+
+        //assert
+        assertTrue(trace.getSentNanos() != 0);
+    }
+
+    @Test
+    public void addToCallbackQueueDeliversTraceOfPacketWithoutCallback(@Mocked final MessageTraceListener mockedTraceListener)
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        final MessageTrace trace = Deencapsulation.newInstance(MessageTrace.class,
+                new Class[] {String.class, MessageType.class, long.class}, "messageId", MessageType.DEVICE_TELEMETRY, 1L);
+        Deencapsulation.setField(transport, "traceListener", mockedTraceListener);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockedPacket, "getTrace");
+                result = trace;
+                mockedPacket.getCallback();
+                result = null;
+                mockedPacket.getStatus();
+                result = IotHubStatusCode.MESSAGE_EXPIRED;
+                mockedPacket.getCurrentRetryAttempt();
+                result = 2;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "addToCallbackQueue", mockedPacket);
+
+        //assert
+        assertEquals(IotHubStatusCode.MESSAGE_EXPIRED, trace.getStatus());
+        assertEquals(2, trace.getRetryAttempts());
+        assertTrue(trace.getAcknowledgedNanos() != 0);
+        assertEquals(0, trace.getCallbackNanos());
+        new Verifications()
+        {
+            {
+                mockedTraceListener.onMessageTraced(trace);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void getMetricsReportsQueueDepths()
+    {
+        //arrange
+        final IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "connectionStatus", CONNECTED);
+        new NonStrictExpectations()
+        {
+            {
+                mockedConfig.getOutboundQueuePolicy();
+                result = new OutboundQueuePolicy();
+            }
+        };
+        transport.addMessage(mockedMessage, mockedEventCallback, null);
+        transport.addMessage(mockedMessage, null, null);
+        transport.onMessageReceived(mockedTransportMessage, null);
+
+        //act
+        TransportMetrics metrics = transport.getMetrics();
+
+        //assert
+        assertEquals(2, metrics.getWaitingMessageCount());
+        assertEquals(0, metrics.getInProgressMessageCount());
+        assertEquals(0, metrics.getCallbackCount());
+        assertEquals(1, metrics.getReceivedMessageCount());
+    }
+
     @Test
     public void addToCallbackQueuePacketHasCallback(@Mocked final IotHubEventCallback mockCallback)
     {
@@ -2551,6 +3612,178 @@ public class IotHubTransportTest
     }
 
 
+    @Test
+    public void sendPacketGivesUpIfNotAcknowledgedWithinOperationTimeout() throws TransportException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Map<String, IotHubTransportPacket> inProgressMessages = new HashMap<>();
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "inProgressPackets", inProgressMessages);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedHttpsIotHubConnection);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getMessage();
+                result = mockedTransportMessage;
+
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+
+                mockedTransportMessage.getMessageId();
+                result = "messageId";
+
+                mockedTransportMessage.isMessageAckNeeded((IotHubClientProtocol) any);
+                result = true;
+
+                mockedConfig.getOperationTimeout();
+                result = 0;
+
+                mockedHttpsIotHubConnection.sendMessage((Message) any);
+                result = IotHubStatusCode.OK_EMPTY;
+            }
+        };
+        Deencapsulation.invoke(transport, "sendPacket", mockedPacket);
+
+        //act
+        ((HashedWheelTimer) Deencapsulation.getField(transport, "timer")).tick();
+
+        //assert
+        assertTrue(inProgressMessages.isEmpty());
+        assertEquals(1, callbackPacketsQueue.size());
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus(IotHubStatusCode.ERROR);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void sendPacketCancelsAmqpMessageWaitingForLinkCreditWhenNotAcknowledgedWithinOperationTimeout() throws TransportException
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Map<String, IotHubTransportPacket> inProgressMessages = new HashMap<>();
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "inProgressPackets", inProgressMessages);
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        Deencapsulation.setField(transport, "iotHubTransportConnection", mockedAmqpsIotHubConnection);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getMessage();
+                result = mockedTransportMessage;
+
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+
+                mockedTransportMessage.getMessageId();
+                result = "messageId";
+
+                mockedTransportMessage.isMessageAckNeeded((IotHubClientProtocol) any);
+                result = true;
+
+                mockedConfig.getOperationTimeout();
+                result = 0;
+
+                mockedAmqpsIotHubConnection.sendMessage((Message) any);
+                result = IotHubStatusCode.OK;
+            }
+        };
+        Deencapsulation.invoke(transport, "sendPacket", mockedPacket);
+
+        //act
+        ((HashedWheelTimer) Deencapsulation.getField(transport, "timer")).tick();
+
+        //assert
+        assertTrue(inProgressMessages.isEmpty());
+        assertEquals(1, callbackPacketsQueue.size());
+        new Verifications()
+        {
+            {
+                mockedAmqpsIotHubConnection.cancelPendingMessage(mockedTransportMessage);
+                times = 1;
+                mockedPacket.setStatus(IotHubStatusCode.ERROR);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void timerIsOnlyTickedWhileTimeoutsArePending(@Mocked final ScheduledFuture<?> mockedTickFuture)
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Deencapsulation.setField(transport, "taskScheduler", mockedScheduledExecutorService);
+        new NonStrictExpectations()
+        {
+            {
+                mockedScheduledExecutorService.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                result = mockedTickFuture;
+            }
+        };
+        Runnable timerTick = Deencapsulation.getField(transport, "timerTick");
+
+        //act
+        Deencapsulation.invoke(transport, "newTimeout", new Class[] {Runnable.class, long.class}, new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        }, 0L);
+        timerTick.run();
+
+        //assert
+        assertNull(Deencapsulation.getField(transport, "timerTickFuture"));
+        new Verifications()
+        {
+            {
+                mockedScheduledExecutorService.scheduleAtFixedRate((Runnable) any, anyLong, anyLong, (TimeUnit) any);
+                times = 1;
+                mockedTickFuture.cancel(false);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void cancelPendingPacketsCancelsPacketsWaitingForRetry()
+    {
+        //arrange
+        IotHubTransport transport = new IotHubTransport(mockedConfig);
+        Queue<IotHubTransportPacket> callbackPacketsQueue = new ConcurrentLinkedQueue<>();
+        Deencapsulation.setField(transport, "callbackPacketsQueue", callbackPacketsQueue);
+        HashedWheelTimer timer = Deencapsulation.getField(transport, "timer");
+        IotHubTransport.MessageRetryRunnable retryRunnable = transport.new MessageRetryRunnable(new ConcurrentLinkedQueue<IotHubTransportPacket>(), mockedPacket);
+        Deencapsulation.setField(retryRunnable, "transportPacket", mockedPacket);
+        timer.newTimeout(retryRunnable, 60 * 1000);
+        new NonStrictExpectations()
+        {
+            {
+                mockedPacket.getCallback();
+                result = mockedEventCallback;
+            }
+        };
+
+        //act
+        Deencapsulation.invoke(transport, "cancelPendingPackets");
+
+        //assert
+        assertEquals(0, timer.getPendingTimeoutCount());
+        assertEquals(1, callbackPacketsQueue.size());
+        new Verifications()
+        {
+            {
+                mockedPacket.setStatus(IotHubStatusCode.MESSAGE_CANCELLED_ONCLOSE);
+                times = 1;
+            }
+        };
+    }
+
     //Tests_SRS_IOTHUBTRANSPORT_34_074: [If the response from sending is not OK or OK_EMPTY, this function
     // shall invoke handleMessageException with that message.]
     @Test
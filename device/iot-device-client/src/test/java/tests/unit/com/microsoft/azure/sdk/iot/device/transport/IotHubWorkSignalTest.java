@@ -0,0 +1,137 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.IotHubWorkSignal;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/** Unit tests for IotHubWorkSignal. */
+public class IotHubWorkSignalTest
+{
+    @Test
+    public void awaitReturnsImmediatelyIfSignaledBefore() throws InterruptedException
+    {
+        // arrange
+        IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        workSignal.signal();
+
+        // act
+        boolean signaled = workSignal.await(0);
+
+        // assert
+        assertTrue(signaled);
+    }
+
+    @Test
+    public void awaitClearsSignal() throws InterruptedException
+    {
+        // arrange
+        IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        workSignal.signal();
+        workSignal.signal();
+        workSignal.await(0);
+
+        // act
+        boolean signaled = workSignal.await(1);
+
+        // assert
+        assertFalse(signaled);
+    }
+
+    @Test
+    public void awaitReturnsFalseOnTimeout() throws InterruptedException
+    {
+        // arrange
+        IotHubWorkSignal workSignal = new IotHubWorkSignal();
+
+        // act
+        boolean signaled = workSignal.await(5);
+
+        // assert
+        assertFalse(signaled);
+    }
+
+    @Test
+    public void signalWakesUpWaitingThread() throws InterruptedException
+    {
+        // arrange
+        final IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        final boolean[] signaled = new boolean[1];
+        Thread waitingThread = new Thread(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    signaled[0] = workSignal.await(0);
+                }
+                catch (InterruptedException e)
+                {
+                    signaled[0] = false;
+                }
+            }
+        });
+        waitingThread.start();
+
+        // act
+        workSignal.signal();
+        waitingThread.join(10000);
+
+        // assert
+        assertFalse(waitingThread.isAlive());
+        assertTrue(signaled[0]);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void awaitThrowsOnNegativeTimeout() throws InterruptedException
+    {
+        // act
+        new IotHubWorkSignal().await(-1);
+    }
+
+    @Test
+    public void signalRunsListenerOncePerPendingSignal()
+    {
+        // arrange
+        IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        final int[] listenerRuns = {0};
+        workSignal.setListener(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                listenerRuns[0]++;
+            }
+        });
+
+        // act
+        workSignal.signal();
+        workSignal.signal();
+
+        // assert
+        assertEquals(1, listenerRuns[0]);
+        assertTrue(workSignal.isSignaled());
+    }
+
+    @Test
+    public void clearReturnsAndClearsSignal()
+    {
+        // arrange
+        IotHubWorkSignal workSignal = new IotHubWorkSignal();
+        workSignal.signal();
+
+        // act
+        boolean wasSignaled = workSignal.clear();
+
+        // assert
+        assertTrue(wasSignaled);
+        assertFalse(workSignal.isSignaled());
+        assertFalse(workSignal.clear());
+    }
+}
@@ -0,0 +1,105 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.LatencyHistogram;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for LatencyHistogram. */
+public class LatencyHistogramTest
+{
+    @Test
+    public void emptyHistogramReportsZeros()
+    {
+        // act
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // assert
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+        assertEquals(0, histogram.getMean(), 0);
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void smallValuesAreExact()
+    {
+        // arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // act
+        for (int i = 0; i < 8; i++)
+        {
+            histogram.record(i);
+        }
+
+        // assert
+        assertEquals(8, histogram.getCount());
+        assertEquals(7, histogram.getMax());
+        assertEquals(3.5, histogram.getMean(), 0);
+        assertEquals(3, histogram.getValueAtPercentile(50));
+        assertEquals(7, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision()
+    {
+        // arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // act
+        for (int i = 1; i <= 10000; i++)
+        {
+            histogram.record(i);
+        }
+
+        // assert
+        long median = histogram.getValueAtPercentile(50);
+        long p99 = histogram.getValueAtPercentile(99);
+        assertTrue(median >= 5000 && median <= 5000 * 1.125);
+        assertTrue(p99 >= 9900 && p99 <= 10000);
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void negativeAndHugeValuesAreRecorded()
+    {
+        // arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        // act
+        histogram.record(-5);
+        histogram.record(Long.MAX_VALUE / 2);
+
+        // assert
+        assertEquals(2, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(Long.MAX_VALUE / 2, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void copyDoesNotSeeLaterValues()
+    {
+        // arrange
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(10);
+
+        // act
+        LatencyHistogram copy = histogram.copy();
+        histogram.record(20);
+
+        // assert
+        assertEquals(1, copy.getCount());
+        assertEquals(10, copy.getMax());
+        assertEquals(2, histogram.getCount());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void getValueAtPercentileThrowsAbove100()
+    {
+        new LatencyHistogram().getValueAtPercentile(101);
+    }
+}
@@ -0,0 +1,219 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.OrderedCallbackExecutor;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/** Unit tests for OrderedCallbackExecutor. */
+public class OrderedCallbackExecutorTest
+{
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullExecutor()
+    {
+        new OrderedCallbackExecutor(null);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void executeThrowsOnNullCallback()
+    {
+        new OrderedCallbackExecutor(new CallerRunsExecutor()).execute(null);
+    }
+
+    @Test
+    public void callbacksRunInOrderOnMultiThreadedExecutor() throws InterruptedException
+    {
+        // arrange
+        final int callbackCount = 1000;
+        ExecutorService threadPool = Executors.newFixedThreadPool(4);
+        OrderedCallbackExecutor orderedExecutor = new OrderedCallbackExecutor(threadPool);
+        final List<Integer> invocationOrder = Collections.synchronizedList(new ArrayList<Integer>());
+        final AtomicInteger concurrentCallbacks = new AtomicInteger();
+        final AtomicInteger maxConcurrentCallbacks = new AtomicInteger();
+        final CountDownLatch allInvoked = new CountDownLatch(callbackCount);
+
+        // act
+        for (int i = 0; i < callbackCount; i++)
+        {
+            final int callbackIndex = i;
+            orderedExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    maxConcurrentCallbacks.set(Math.max(maxConcurrentCallbacks.get(), concurrentCallbacks.incrementAndGet()));
+                    invocationOrder.add(callbackIndex);
+                    concurrentCallbacks.decrementAndGet();
+                    allInvoked.countDown();
+                }
+            });
+        }
+
+        // assert
+        assertTrue(allInvoked.await(10, TimeUnit.SECONDS));
+        threadPool.shutdown();
+        assertEquals(1, maxConcurrentCallbacks.get());
+        for (int i = 0; i < callbackCount; i++)
+        {
+            assertEquals(i, (int) invocationOrder.get(i));
+        }
+        assertEquals(0, orderedExecutor.getQueuedCallbackCount());
+    }
+
+    @Test
+    public void throwingCallbackDoesNotStopLaterCallbacks()
+    {
+        // arrange
+        OrderedCallbackExecutor orderedExecutor = new OrderedCallbackExecutor(new CallerRunsExecutor());
+        final AtomicInteger invocations = new AtomicInteger();
+
+        // act
+        orderedExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                throw new IllegalStateException();
+            }
+        });
+        orderedExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                invocations.incrementAndGet();
+            }
+        });
+
+        // assert
+        assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void callbacksRunOnCallingThreadIfExecutorRejects()
+    {
+        // arrange
+        ExecutorService threadPool = Executors.newSingleThreadExecutor();
+        threadPool.shutdown();
+        OrderedCallbackExecutor orderedExecutor = new OrderedCallbackExecutor(threadPool);
+        final List<Thread> invokingThreads = new ArrayList<>();
+
+        // act
+        orderedExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                invokingThreads.add(Thread.currentThread());
+            }
+        });
+
+        // assert
+        assertEquals(1, invokingThreads.size());
+        assertEquals(Thread.currentThread(), invokingThreads.get(0));
+    }
+
+    @Test
+    public void rejectedBacklogRunsInOrderWithoutGrowingTheStack()
+    {
+        // arrange
+        final int callbackCount = 5000;
+        final List<Runnable> submittedRuns = new ArrayList<>();
+        OrderedCallbackExecutor orderedExecutor = new OrderedCallbackExecutor(new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                if (!submittedRuns.isEmpty())
+                {
+                    throw new RejectedExecutionException();
+                }
+
+                submittedRuns.add(command);
+            }
+        });
+        final List<Integer> invocations = new ArrayList<>();
+        final List<Integer> stackDepths = new ArrayList<>();
+        for (int i = 0; i < callbackCount; i++)
+        {
+            final int index = i;
+            orderedExecutor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    invocations.add(index);
+                    stackDepths.add(Thread.currentThread().getStackTrace().length);
+                }
+            });
+        }
+
+        // act
+        submittedRuns.get(0).run();
+
+        // assert
+        assertEquals(callbackCount, invocations.size());
+        for (int i = 0; i < callbackCount; i++)
+        {
+            assertEquals(i, (int) invocations.get(i));
+        }
+
+        assertTrue(stackDepths.get(callbackCount - 1) - stackDepths.get(0) < 10);
+        assertEquals(0, orderedExecutor.getQueuedCallbackCount());
+    }
+
+    @Test
+    public void queuedCallbackCountCountsCallbacksNotStarted()
+    {
+        // arrange
+        final List<Runnable> submittedRuns = new ArrayList<>();
+        OrderedCallbackExecutor orderedExecutor = new OrderedCallbackExecutor(new Executor()
+        {
+            @Override
+            public void execute(Runnable command)
+            {
+                submittedRuns.add(command);
+            }
+        });
+        Runnable callback = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+            }
+        };
+
+        // act
+        orderedExecutor.execute(callback);
+        orderedExecutor.execute(callback);
+
+        // assert
+        assertEquals(2, orderedExecutor.getQueuedCallbackCount());
+        assertEquals(1, submittedRuns.size());
+        submittedRuns.get(0).run();
+        assertEquals(0, orderedExecutor.getQueuedCallbackCount());
+    }
+
+    private static class CallerRunsExecutor implements Executor
+    {
+        @Override
+        public void execute(Runnable command)
+        {
+            command.run();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.OutboundQueuePolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for OutboundQueuePolicy. */
+public class OutboundQueuePolicyTest
+{
+    @Test
+    public void constructorSavesDefaultValues()
+    {
+        // act
+        OutboundQueuePolicy queuePolicy = new OutboundQueuePolicy();
+
+        // assert
+        assertEquals(Integer.MAX_VALUE, queuePolicy.getMaxMessages());
+        assertEquals(Long.MAX_VALUE, queuePolicy.getMaxBytes());
+        assertEquals(OutboundQueuePolicy.OverflowMode.REJECT, queuePolicy.getOverflowMode());
+        assertEquals(10 * 1000, queuePolicy.getBlockTimeoutMillis());
+    }
+
+    @Test
+    public void constructorSavesValues()
+    {
+        // act
+        OutboundQueuePolicy queuePolicy = new OutboundQueuePolicy(1, 2, OutboundQueuePolicy.OverflowMode.BLOCK, 3);
+
+        // assert
+        assertEquals(1, queuePolicy.getMaxMessages());
+        assertEquals(2, queuePolicy.getMaxBytes());
+        assertEquals(OutboundQueuePolicy.OverflowMode.BLOCK, queuePolicy.getOverflowMode());
+        assertEquals(3, queuePolicy.getBlockTimeoutMillis());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroMaxMessages()
+    {
+        new OutboundQueuePolicy(0, 1, OutboundQueuePolicy.OverflowMode.REJECT, 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnZeroMaxBytes()
+    {
+        new OutboundQueuePolicy(1, 0, OutboundQueuePolicy.OverflowMode.REJECT, 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNullOverflowMode()
+    {
+        new OutboundQueuePolicy(1, 1, null, 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNegativeBlockTimeout()
+    {
+        new OutboundQueuePolicy(1, 1, OutboundQueuePolicy.OverflowMode.BLOCK, -1);
+    }
+}
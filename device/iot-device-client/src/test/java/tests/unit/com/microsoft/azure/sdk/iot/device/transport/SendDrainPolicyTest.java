@@ -0,0 +1,113 @@
+// Copyright (c) Microsoft. All rights reserved.
+// Licensed under the MIT license. See LICENSE file in the project root for full license information.
+
+package tests.unit.com.microsoft.azure.sdk.iot.device.transport;
+
+import com.microsoft.azure.sdk.iot.device.transport.SendDrainPolicy;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/** Unit tests for SendDrainPolicy. */
+public class SendDrainPolicyTest
+{
+    @Test
+    public void constructorSavesDefaultValues()
+    {
+        // act
+        SendDrainPolicy drainPolicy = new SendDrainPolicy();
+
+        // assert
+        assertEquals(10, drainPolicy.getMinMessagesPerDrain());
+        assertEquals(1000, drainPolicy.getMaxMessagesPerDrain());
+        assertEquals(4 * 1024 * 1024, drainPolicy.getMaxBytesPerDrain());
+        assertEquals(100, drainPolicy.getMaxTimeSliceMillis());
+        assertEquals(8, drainPolicy.getHighPriorityWeight());
+    }
+
+    @Test
+    public void constructorSavesValues()
+    {
+        // act
+        SendDrainPolicy drainPolicy = new SendDrainPolicy(1, 2, 3, 4);
+
+        // assert
+        assertEquals(1, drainPolicy.getMinMessagesPerDrain());
+        assertEquals(2, drainPolicy.getMaxMessagesPerDrain());
+        assertEquals(3, drainPolicy.getMaxBytesPerDrain());
+        assertEquals(4, drainPolicy.getMaxTimeSliceMillis());
+    }
+
+    @Test
+    public void constructorSavesHighPriorityWeight()
+    {
+        // act
+        SendDrainPolicy drainPolicy = new SendDrainPolicy(1, 2, 3, 4, 5);
+
+        // assert
+        assertEquals(5, drainPolicy.getHighPriorityWeight());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForZeroHighPriorityWeight()
+    {
+        new SendDrainPolicy(1, 10, 1, 1, 0);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsIfMinGreaterThanMax()
+    {
+        new SendDrainPolicy(20, 10, 1, 1);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForZeroMessages()
+    {
+        new SendDrainPolicy(0, 10, 1, 1);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForZeroBytes()
+    {
+        new SendDrainPolicy(1, 10, 0, 1);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsForZeroTimeSlice()
+    {
+        new SendDrainPolicy(1, 10, 1, 0);
+    }
+
+    @Test
+    public void getNextMessagesPerDrainDoublesWhileBackloggedUpToMax()
+    {
+        // arrange
+        SendDrainPolicy drainPolicy = new SendDrainPolicy(10, 300, 1, 1);
+
+        // act & assert
+        assertEquals(20, drainPolicy.getNextMessagesPerDrain(10, true));
+        assertEquals(300, drainPolicy.getNextMessagesPerDrain(160, true));
+        assertEquals(300, drainPolicy.getNextMessagesPerDrain(300, true));
+    }
+
+    @Test
+    public void getNextMessagesPerDrainHalvesDownToMinWhenNotBacklogged()
+    {
+        // arrange
+        SendDrainPolicy drainPolicy = new SendDrainPolicy(10, 300, 1, 1);
+
+        // act & assert
+        assertEquals(150, drainPolicy.getNextMessagesPerDrain(300, false));
+        assertEquals(10, drainPolicy.getNextMessagesPerDrain(15, false));
+    }
+
+    @Test
+    public void getNextMessagesPerDrainDoesNotOverflow()
+    {
+        // arrange
+        SendDrainPolicy drainPolicy = new SendDrainPolicy(1, Integer.MAX_VALUE, 1, 1);
+
+        // act & assert
+        assertEquals(Integer.MAX_VALUE, drainPolicy.getNextMessagesPerDrain(Integer.MAX_VALUE - 1, true));
+    }
+}
@@ -545,6 +545,29 @@ public class AmqpsDeviceAuthenticationCBSTest
 
 
 
+    @Test
+    public void authenticateWakesReactorUp(@Mocked final Runnable mockReactorWakeup)
+    {
+        // arrange
+        final AmqpsDeviceAuthenticationCBS amqpsDeviceAuthenticationCBS = new AmqpsDeviceAuthenticationCBS(mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsDeviceAuthenticationCBS, "waitingMessages", mockQueue);
+        Deencapsulation.invoke(amqpsDeviceAuthenticationCBS, "setReactorWakeup", mockReactorWakeup);
+
+        // act
+        Deencapsulation.invoke(amqpsDeviceAuthenticationCBS, "authenticate", mockDeviceClientConfig, mockUUID);
+
+        // assert
+        new Verifications()
+        {
+            {
+                mockQueue.add((MessageImpl) any);
+                times = 1;
+                mockReactorWakeup.run();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSDEVICEAUTHENTICATIONCBS_12_020: [The function shall return true and set the sendLinkState to OPENED if the senderLinkTag is equal to the given linkName.]
     @Test
     public void isLinkFoundSendTrue()
@@ -840,8 +840,9 @@ public class AmqpsDeviceMethodsTest
                 mockIotHubTransportMessage.getCorrelationId();
                 result = null;
 
-                mockIotHubTransportMessage.getProperties();
-                times = 2;
+                mockIotHubTransportMessage.getPropertyCount();
+                result = properties.length;
+                mockIotHubTransportMessage.getPropertyAt(anyInt);
                 result = properties;
                 mockMessageProperty.getName();
                 times = 2;
@@ -907,8 +908,9 @@ public class AmqpsDeviceMethodsTest
                 mockIotHubTransportMessage.getCorrelationId();
                 result = null;
 
-                mockIotHubTransportMessage.getProperties();
-                times = 2;
+                mockIotHubTransportMessage.getPropertyCount();
+                result = properties.length;
+                mockIotHubTransportMessage.getPropertyAt(anyInt);
                 result = properties;
                 mockMessageProperty.getName();
                 times = 2;
@@ -141,6 +141,23 @@ public class AmqpsDeviceTelemetryTest
         assertTrue(amqpProperties.containsValue(expectedUserAgentString));
     }
 
+    @Test
+    public void getSenderLinkNameReturnsSenderLinkTagForTelemetryOnly()
+    {
+        // arrange
+        String linkName = "linkName";
+        AmqpsDeviceTelemetry amqpsDeviceTelemetry = Deencapsulation.newInstance(AmqpsDeviceTelemetry.class, mockDeviceClientConfig);
+        Deencapsulation.setField(amqpsDeviceTelemetry, "senderLinkTag", linkName);
+
+        //act
+        String telemetryLinkName = Deencapsulation.invoke(amqpsDeviceTelemetry, "getSenderLinkName", MessageType.DEVICE_TELEMETRY);
+        String twinLinkName = Deencapsulation.invoke(amqpsDeviceTelemetry, "getSenderLinkName", new Class[] {MessageType.class}, MessageType.DEVICE_TWIN);
+
+        // assert
+        assertEquals(linkName, telemetryLinkName);
+        assertNull(twinLinkName);
+    }
+
     // Tests_SRS_AMQPSDEVICETELEMETRY_12_026: [The function shall return true and set the sendLinkState to OPENED if the senderLinkTag is equal to the given linkName.]
     @Test
     public void isLinkFoundReturnsTrueIfSenderLinkTagMatches()
@@ -483,7 +500,11 @@ public class AmqpsDeviceTelemetryTest
                 result = messageId;
                 mockMessage.getCorrelationId();
                 result = correlationId;
-                mockMessage.getProperties();
+                mockMessage.hasCorrelationId();
+                result = true;
+                mockMessage.getPropertyCount();
+                result = iotHubMessageProperties.length;
+                mockMessage.getPropertyAt(anyInt);
                 result = iotHubMessageProperties;
                 new ApplicationProperties(userProperties);
             }
@@ -36,7 +36,9 @@ import org.junit.Test;
 
 import javax.net.ssl.SSLContext;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.*;
@@ -997,8 +999,7 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is DISCONNECTED or there is not enough
-    // credit, the function shall return -1.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is DISCONNECTED, the function shall return -1.]
     @Test
     public void sendMessageDoesNothingIfConnectionIsClosed() throws TransportException
     {
@@ -1007,25 +1008,6 @@ public class AmqpsIotHubConnectionTest {
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
 
         Deencapsulation.setField(connection, "state", IotHubConnectionStatus.DISCONNECTED);
-        Deencapsulation.setField(connection, "linkCredit", 100);
-
-        Integer expectedDeliveryHash = -1;
-        Integer actualDeliveryHash = Deencapsulation.invoke(connection, "sendMessage", Message.Factory.create(), MessageType.DEVICE_TELEMETRY, mockConnectionString);
-
-        assertEquals(expectedDeliveryHash, actualDeliveryHash);
-    }
-
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_015: [If the state of the connection is DISCONNECTED or there is not enough
-    // credit, the function shall return -1.]
-    @Test
-    public void sendMessageDoesNothingIfNotEnoughLinkCredit() throws TransportException
-    {
-        baseExpectations();
-
-        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
-
-        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
-        Deencapsulation.setField(connection, "linkCredit", -1);
 
         Integer expectedDeliveryHash = -1;
         Integer actualDeliveryHash = Deencapsulation.invoke(connection, "sendMessage", Message.Factory.create(), MessageType.DEVICE_TELEMETRY, mockConnectionString);
@@ -1055,7 +1037,6 @@ public class AmqpsIotHubConnectionTest {
         final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
         Deencapsulation.setField(connection, "amqpsSessionManager", mockAmqpsSessionManager);
         Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
-        Deencapsulation.setField(connection, "linkCredit", 100);
 
         // act
         Integer actualDeliveryHash = Deencapsulation.invoke(connection, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockConnectionString);
@@ -1399,6 +1380,55 @@ public class AmqpsIotHubConnectionTest {
     }
 
     // Tests_SRS_AMQPSIOTHUBCONNECTION_15_038: [If this link is the Sender link and the event type is DELIVERY, the event handler shall get the Delivery (Proton) object from the event.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_34_064: [If the acknowledgement sent from the service is "Accepted", this function shall notify its listener that the message was successfully sent.]
+    @Test
+    public void onDeliveryNotifiesEachMessageOfAcceptedBatch() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        final AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        List<com.microsoft.azure.sdk.iot.device.Message> batch = new ArrayList<>();
+        batch.add(mockIoTMessage);
+        batch.add(mockedTransportMessage);
+        Map<Integer, List<com.microsoft.azure.sdk.iot.device.Message>> inProgressBatches = Deencapsulation.getField(connection, "inProgressBatches");
+        inProgressBatches.put(mockDelivery.hashCode(), batch);
+
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getMessageFromReceiverLink", anyString);
+                result = null;
+                mockEvent.getLink();
+                result = mockLink;
+                mockEvent.getType();
+                result = Event.Type.DELIVERY;
+                mockEvent.getDelivery();
+                result = mockDelivery;
+                mockDelivery.getRemoteState();
+                result = Accepted.getInstance();
+            }
+        };
+
+        connection.setListener(mockedIotHubListener);
+
+        //act
+        connection.onDelivery(mockEvent);
+
+        //assert
+        assertTrue(inProgressBatches.isEmpty());
+        new Verifications()
+        {
+            {
+                mockedIotHubListener.onMessageSent(mockIoTMessage, null);
+                times = 1;
+                mockedIotHubListener.onMessageSent(mockedTransportMessage, null);
+                times = 1;
+                mockDelivery.free();
+                times = 1;
+            }
+        };
+    }
+
     // Tests_SRS_AMQPSIOTHUBCONNECTION_34_064: [If the acknowledgement sent from the service is "Accepted", this function shall notify its listener that the message was successfully sent.]
     @Test
     public void onDeliverySend(@Mocked final Map<Integer, com.microsoft.azure.sdk.iot.device.Message> mockInProgressMessages) throws TransportException
@@ -1779,7 +1809,7 @@ public class AmqpsIotHubConnectionTest {
         assertNotNull(savedException);
     }
 
-    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit.]
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit of a sender link and send the messages waiting for it.]
     @Test
     public void onLinkFlow() throws TransportException
     {
@@ -1792,6 +1822,8 @@ public class AmqpsIotHubConnectionTest {
                 result = mockSender;
                 mockSender.getCredit();
                 result = 100;
+                mockSender.getName();
+                result = "senderLinkName";
             }
         };
 
@@ -1799,7 +1831,8 @@ public class AmqpsIotHubConnectionTest {
         connection.onLinkFlow(mockEvent);
 
         Integer expectedLinkCredit = 100;
-        Integer actualLinkCredit = Deencapsulation.getField(connection, "linkCredit");
+        Map<String, Integer> senderLinkCredits = Deencapsulation.getField(connection, "senderLinkCredits");
+        Integer actualLinkCredit = senderLinkCredits.get("senderLinkName");
 
         assertEquals(expectedLinkCredit, actualLinkCredit);
 
@@ -2283,8 +2316,8 @@ public class AmqpsIotHubConnectionTest {
         baseExpectations();
         final int expectedHash = 40;
         AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
         Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
-        Deencapsulation.setField(connection, "linkCredit", 20);
         new NonStrictExpectations()
         {
             {
@@ -2323,7 +2356,6 @@ public class AmqpsIotHubConnectionTest {
         final int expectedHash = -1;
         AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
         Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
-        Deencapsulation.setField(connection, "linkCredit", 20);
         new NonStrictExpectations()
         {
             {
@@ -2370,6 +2402,261 @@ public class AmqpsIotHubConnectionTest {
         };
     }
 
+    @Test
+    public void onReactorQuiescedSendsQueuedAuthenticationMessages() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+
+        //act
+        connection.onReactorQuiesced(mockEvent);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendAuthenticationMessages");
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void onReactorQuiescedSendsQueuedTelemetryInOneBatch() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        final int expectedHash = 40;
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Map<String, Integer> senderLinkCredits = Deencapsulation.getField(connection, "senderLinkCredits");
+        senderLinkCredits.put("senderLinkName", 10);
+        new NonStrictExpectations()
+        {
+            {
+                mockConfig.getAmqpTelemetryBatchMaxSize();
+                result = 64 * 1024;
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "convertToProton", mockIoTMessage);
+                result = mockedAmqpsConvertToProtonReturnValue;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageImpl");
+                result = mockedMessageImpl;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageType");
+                result = MessageType.DEVICE_TELEMETRY;
+
+                mockIoTMessage.getIotHubConnectionString();
+                result = mockConnectionString;
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = "senderLinkName";
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessageBatch", new Class[] {List.class, MessageType.class, IotHubConnectionString.class}, any, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = expectedHash;
+            }
+        };
+
+        //act
+        connection.sendMessage(mockIoTMessage);
+        connection.sendMessage(mockIoTMessage);
+        connection.onReactorQuiesced(mockEvent);
+
+        //assert
+        Map<Integer, List<com.microsoft.azure.sdk.iot.device.Message>> inProgressBatches = Deencapsulation.getField(connection, "inProgressBatches");
+        assertEquals(2, inProgressBatches.get(expectedHash).size());
+        assertEquals((Integer) 9, senderLinkCredits.get("senderLinkName"));
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", new Class[] {Message.class, MessageType.class, IotHubConnectionString.class}, any, any, any);
+                times = 0;
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessageBatch", new Class[] {List.class, MessageType.class, IotHubConnectionString.class}, any, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                times = 1;
+            }
+        };
+    }
+
+    // Tests_SRS_AMQPSIOTHUBCONNECTION_15_040: [The event handler shall save the remaining link credit of a sender link and send the messages waiting for it.]
+    @Test
+    public void sendMessageQueuesMessageUntilSenderLinkHasCredit() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        final int expectedHash = 40;
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "convertToProton", mockIoTMessage);
+                result = mockedAmqpsConvertToProtonReturnValue;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageImpl");
+                result = mockedMessageImpl;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageType");
+                result = MessageType.DEVICE_TELEMETRY;
+
+                mockIoTMessage.getIotHubConnectionString();
+                result = mockConnectionString;
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = "senderLinkName";
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", new Class[] {Message.class, MessageType.class, IotHubConnectionString.class}, mockedMessageImpl, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = expectedHash;
+
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getCredit();
+                result = 10;
+                mockSender.getName();
+                result = "senderLinkName";
+            }
+        };
+
+        //act
+        IotHubStatusCode actualStatusCode = connection.sendMessage(mockIoTMessage);
+
+        //assert
+        Map<Integer, com.microsoft.azure.sdk.iot.device.Message> inProgressMessages = Deencapsulation.getField(connection, "inProgressMessages");
+        assertEquals(IotHubStatusCode.OK, actualStatusCode);
+        assertTrue(inProgressMessages.isEmpty());
+
+        //act
+        connection.onLinkFlow(mockEvent);
+
+        //assert
+        assertTrue(inProgressMessages.containsKey(expectedHash));
+        Map<String, Integer> senderLinkCredits = Deencapsulation.getField(connection, "senderLinkCredits");
+        assertEquals((Integer) 9, senderLinkCredits.get("senderLinkName"));
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", new Class[] {Message.class, MessageType.class, IotHubConnectionString.class}, mockedMessageImpl, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                times = 1;
+                mockedIotHubListener.onMessageTransmitted(mockIoTMessage);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void cancelPendingMessageRemovesMessageWaitingForLinkCredit() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "convertToProton", mockIoTMessage);
+                result = mockedAmqpsConvertToProtonReturnValue;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageImpl");
+                result = mockedMessageImpl;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageType");
+                result = MessageType.DEVICE_TELEMETRY;
+
+                mockIoTMessage.getIotHubConnectionString();
+                result = mockConnectionString;
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = "senderLinkName";
+
+                mockEvent.getLink();
+                result = mockSender;
+                mockSender.getCredit();
+                result = 10;
+                mockSender.getName();
+                result = "senderLinkName";
+            }
+        };
+        connection.sendMessage(mockIoTMessage);
+
+        //act
+        boolean cancelled = connection.cancelPendingMessage(mockIoTMessage);
+        connection.onLinkFlow(mockEvent);
+
+        //assert
+        assertTrue(cancelled);
+        assertFalse(connection.cancelPendingMessage(mockIoTMessage));
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", new Class[] {Message.class, MessageType.class, IotHubConnectionString.class}, any, any, any);
+                times = 0;
+                mockedIotHubListener.onMessageTransmitted(mockIoTMessage);
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void sendMessageWakesReactorUpToSendFromReactorThread() throws TransportException
+    {
+        //arrange
+        baseExpectations();
+        final int expectedHash = 40;
+        AmqpsIotHubConnection connection = new AmqpsIotHubConnection(mockConfig);
+        connection.setListener(mockedIotHubListener);
+        Deencapsulation.setField(connection, "state", IotHubConnectionStatus.CONNECTED);
+        Deencapsulation.setField(connection, "reactor", mockReactor);
+        Map<String, Integer> senderLinkCredits = Deencapsulation.getField(connection, "senderLinkCredits");
+        senderLinkCredits.put("senderLinkName", 10);
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsSessionManager, "convertToProton", mockIoTMessage);
+                result = mockedAmqpsConvertToProtonReturnValue;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageImpl");
+                result = mockedMessageImpl;
+
+                Deencapsulation.invoke(mockedAmqpsConvertToProtonReturnValue, "getMessageType");
+                result = MessageType.DEVICE_TELEMETRY;
+
+                mockIoTMessage.getIotHubConnectionString();
+                result = mockConnectionString;
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "getSenderLinkName", MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = "senderLinkName";
+
+                Deencapsulation.invoke(mockAmqpsSessionManager, "sendMessage", new Class[] {Message.class, MessageType.class, IotHubConnectionString.class}, mockedMessageImpl, MessageType.DEVICE_TELEMETRY, mockConnectionString);
+                result = expectedHash;
+            }
+        };
+
+        //act
+        IotHubStatusCode actualStatusCode = connection.sendMessage(mockIoTMessage);
+
+        //assert
+        Map<Integer, com.microsoft.azure.sdk.iot.device.Message> inProgressMessages = Deencapsulation.getField(connection, "inProgressMessages");
+        assertEquals(IotHubStatusCode.OK, actualStatusCode);
+        assertTrue(inProgressMessages.isEmpty());
+        new Verifications()
+        {
+            {
+                mockReactor.wakeup();
+                times = 1;
+            }
+        };
+
+        //act
+        connection.onReactorQuiesced(mockEvent);
+
+        //assert
+        assertTrue(inProgressMessages.containsKey(expectedHash));
+        assertEquals((Integer) 9, senderLinkCredits.get("senderLinkName"));
+    }
+
     private void baseExpectations()
     {
         new NonStrictExpectations() {
@@ -5,18 +5,25 @@ import com.microsoft.azure.sdk.iot.device.auth.IotHubSasTokenAuthenticationProvi
 import com.microsoft.azure.sdk.iot.device.exceptions.IotHubServiceException;
 import com.microsoft.azure.sdk.iot.device.exceptions.TransportException;
 import com.microsoft.azure.sdk.iot.device.transport.amqps.*;
+import mockit.Delegate;
 import mockit.Deencapsulation;
 import mockit.Mocked;
 import mockit.NonStrictExpectations;
 import mockit.Verifications;
+import org.apache.qpid.proton.amqp.Binary;
+import org.apache.qpid.proton.amqp.messaging.ApplicationProperties;
+import org.apache.qpid.proton.amqp.messaging.Data;
 import org.apache.qpid.proton.engine.Link;
 import org.apache.qpid.proton.engine.Session;
 import org.junit.Test;
 
 import java.nio.BufferOverflowException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.Executors;
@@ -175,6 +182,8 @@ public class AmqpsSessionDeviceOperationTest
                 result = mockIotHubSasTokenAuthenticationProvider;
                 mockIotHubSasTokenAuthenticationProvider.getTokenValidSecs();
                 result = tokenValidSecs;
+                mockDeviceClientConfig.getExecutionContext();
+                result = null;
 
                 new AmqpsDeviceAuthenticationCBSTokenRenewalTask((AmqpsSessionDeviceOperation)any);
                 result = mockAmqpsDeviceAuthenticationCBSTokenRenewalTask;
@@ -699,6 +708,163 @@ public class AmqpsSessionDeviceOperationTest
         };
     }
 
+    @Test
+    public void sendMessageEncodesLargeMessageOnceIntoBufferSizedFromMessage() throws IllegalArgumentException, TransportException
+    {
+        // arrange
+        final int payloadSize = 64 * 1024;
+        final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATED);
+        new NonStrictExpectations()
+        {
+            {
+                mockIotHubConnectionString.getDeviceId();
+                result = "deviceId";
+                mockDeviceClientConfig.getDeviceId();
+                result = "deviceId";
+                mockProtonMessage.getBody();
+                result = new Data(new Binary(new byte[payloadSize]));
+            }
+        };
+
+        // act
+        Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessage", mockProtonMessage, MessageType.DEVICE_TELEMETRY, mockIotHubConnectionString);
+
+        // assert
+        new Verifications()
+        {
+            {
+                byte[] buffer;
+                mockProtonMessage.encode(buffer = withCapture(), 0, anyInt);
+                times = 1;
+                assertTrue(buffer.length > payloadSize);
+            }
+        };
+    }
+
+    @Test
+    public void estimateEncodedSizeCoversEncodedMessage()
+    {
+        // arrange
+        org.apache.qpid.proton.message.Message protonMessage = new org.apache.qpid.proton.message.impl.MessageImpl();
+        protonMessage.setBody(new Data(new Binary(new byte[5000])));
+        protonMessage.setMessageId("messageId");
+        protonMessage.setCorrelationId("correlationId");
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("name", "value");
+        properties.put("n\u00e4me", "v\u00e4lue\u20ac");
+        properties.put("count", 42);
+        protonMessage.setApplicationProperties(new ApplicationProperties(properties));
+        byte[] encoded = new byte[64 * 1024];
+        int encodedLength = protonMessage.encode(encoded, 0, encoded.length);
+
+        // act
+        int estimatedSize = Deencapsulation.invoke(AmqpsSessionDeviceOperation.class, "estimateEncodedSize", protonMessage);
+
+        // assert
+        assertTrue(estimatedSize >= encodedLength);
+    }
+
+    @Test
+    public void sendMessageBatchSendsOneDeliveryInBatchFormatOnTheLinkOfTheMessageType() throws IllegalArgumentException, TransportException
+    {
+        // arrange
+        final AmqpsSessionDeviceOperation amqpsSessionDeviceOperation = new AmqpsSessionDeviceOperation(mockDeviceClientConfig, mockAmqpsDeviceAuthentication);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsAuthenticatorState", AmqpsDeviceAuthenticationState.AUTHENTICATED);
+        ArrayList<AmqpsDeviceOperations> operationList = new ArrayList<>();
+        operationList.add(mockAmqpsDeviceTwin);
+        operationList.add(mockAmqpsDeviceTelemetry);
+        Deencapsulation.setField(amqpsSessionDeviceOperation, "amqpsDeviceOperationsList", operationList);
+
+        List<org.apache.qpid.proton.message.Message> messages = new ArrayList<>();
+        messages.add(mockProtonMessage);
+        messages.add(mockProtonMessage);
+
+        new NonStrictExpectations()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "getSenderLinkName", MessageType.DEVICE_TELEMETRY);
+                result = "telemetryLinkName";
+                Deencapsulation.invoke(mockAmqpsDeviceTelemetry, "sendMessageAndGetDeliveryHash", new Class[] {MessageType.class, byte[].class, int.class, int.class, byte[].class, int.class}, MessageType.DEVICE_TELEMETRY, any, 0, anyInt, any, 0x80013700);
+                result = mockAmqpsSendReturnValue;
+                Deencapsulation.invoke(mockAmqpsSendReturnValue, "isDeliverySuccessful");
+                result = true;
+                Deencapsulation.invoke(mockAmqpsSendReturnValue, "getDeliveryHash");
+                result = 42;
+            }
+        };
+
+        // act
+        Integer deliveryHash = Deencapsulation.invoke(amqpsSessionDeviceOperation, "sendMessageBatch", messages, MessageType.DEVICE_TELEMETRY);
+
+        // assert
+        assertEquals((Integer) 42, deliveryHash);
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockAmqpsDeviceTwin, "sendMessageAndGetDeliveryHash", new Class[] {MessageType.class, byte[].class, int.class, int.class, byte[].class, int.class}, MessageType.DEVICE_TELEMETRY, any, 0, anyInt, any, anyInt);
+                times = 0;
+            }
+        };
+    }
+
+    @Test
+    public void encodeBatchWritesEachMessageInADataSection()
+    {
+        // arrange
+        List<org.apache.qpid.proton.message.Message> messages = new ArrayList<>();
+        messages.add(mockProtonMessage);
+        messages.add(mockProtonMessage);
+        byte[] buffer = new byte[1024];
+        new NonStrictExpectations()
+        {
+            {
+                mockProtonMessage.encode((byte[]) any, anyInt, anyInt);
+                result = new Delegate()
+                {
+                    int encode(byte[] data, int offset, int length)
+                    {
+                        data[offset] = 7;
+                        data[offset + 1] = 8;
+                        return 2;
+                    }
+                };
+            }
+        };
+
+        // act
+        int length = Deencapsulation.invoke(AmqpsSessionDeviceOperation.class, "encodeBatch", messages, buffer);
+
+        // assert
+        byte[] dataSection = new byte[] {0x00, 0x53, 0x75, (byte) 0xb0, 0, 0, 0, 2, 7, 8};
+        assertEquals(2 * dataSection.length, length);
+        assertArrayEquals(dataSection, Arrays.copyOfRange(buffer, 0, dataSection.length));
+        assertArrayEquals(dataSection, Arrays.copyOfRange(buffer, dataSection.length, length));
+    }
+
+    @Test (expected = BufferOverflowException.class)
+    public void encodeBatchThrowsIfBufferIsTooSmall()
+    {
+        // arrange
+        List<org.apache.qpid.proton.message.Message> messages = new ArrayList<>();
+        messages.add(mockProtonMessage);
+
+        // act
+        Deencapsulation.invoke(AmqpsSessionDeviceOperation.class, "encodeBatch", messages, new byte[4]);
+    }
+
+    @Test
+    public void toDeliveryTagWritesDecimalDigits()
+    {
+        // act
+        byte[] zeroTag = Deencapsulation.invoke(AmqpsSessionDeviceOperation.class, "toDeliveryTag", 0L);
+        byte[] largeTag = Deencapsulation.invoke(AmqpsSessionDeviceOperation.class, "toDeliveryTag", 9876543210L);
+
+        // assert
+        assertArrayEquals("0".getBytes(), zeroTag);
+        assertArrayEquals("9876543210".getBytes(), largeTag);
+    }
+
     // Tests_SRS_AMQPSESSIONDEVICEOPERATION_12_020: [The function shall return null if the state is not authenticated or authenticating.]
     @Test
     public void getMessageFromReceiverLinkNotAuthenticated() throws IllegalArgumentException, TransportException
@@ -37,13 +37,13 @@ public class IotHubReactorTest
         assertEquals(mockReactor, actualReactor);
     }
 
-    // Tests_SRS_IOTHUBREACTOR_34_003: [This function shall set the timeout of the reactor to 10 milliseconds.]
+    // Tests_SRS_IOTHUBREACTOR_34_003: [This function shall set the timeout of the reactor to 500 milliseconds.]
     // Tests_SRS_IOTHUBREACTOR_34_004: [This function shall start the reactor and have it process indefinitely and stop the reactor when it finishes.]
     @Test
     public void runSucceeds()
     {
         //arrange
-        final long expectedTimeout = 10;
+        final long expectedTimeout = 500;
         IotHubReactor iotHubReactor = Deencapsulation.newInstance(IotHubReactor.class, new Class[] {Reactor.class}, mockReactor);
 
         //act
@@ -41,9 +41,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -77,9 +79,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -110,9 +114,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -189,9 +195,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockMsg.getMessageId();
                 result = messageidValue;
@@ -201,6 +209,8 @@ public class HttpsSingleMessageTest
                 result = propertyValue;
                 mockMsg.getCorrelationId();
                 result = correlationidValue;
+                mockMsg.hasCorrelationId();
+                result = true;
                 mockMsg.getUserId();
                 result = useridValue;
                 mockMsg.getTo();
@@ -230,9 +240,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -269,9 +281,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -303,9 +317,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -352,9 +368,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockMsg.getMessageId();
                 result = messageidValue;
@@ -364,6 +382,8 @@ public class HttpsSingleMessageTest
                 result = propertyValue;
                 mockMsg.getCorrelationId();
                 result = correlationidValue;
+                mockMsg.hasCorrelationId();
+                result = true;
                 mockMsg.getUserId();
                 result = useridValue;
                 mockMsg.getTo();
@@ -579,9 +599,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -615,9 +637,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -648,9 +672,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -681,9 +707,11 @@ public class HttpsSingleMessageTest
         new NonStrictExpectations()
         {
             {
-                mockMsg.getBytes();
+                mockMsg.getBytesWithoutCopy();
                 result = body;
-                mockMsg.getProperties();
+                mockMsg.getPropertyCount();
+                result = properties.length;
+                mockMsg.getPropertyAt(anyInt);
                 result = properties;
                 mockProperty.getName();
                 result = propertyName;
@@ -21,6 +21,7 @@ import javax.net.ssl.SSLContext;
 import java.io.IOException;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 
 import static org.junit.Assert.*;
 
@@ -115,6 +116,39 @@ public class MqttConnectionTest
         assertNotNull(actualLock);
     }
 
+    @Test
+    public void constructorSizesInFlightWindow() throws Exception
+    {
+        //arrange
+        final int maxInFlightCount = 25;
+        baseConstructorExpectations();
+
+        //act
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class,
+                new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class},
+                SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext, maxInFlightCount);
+
+        //assert
+        Semaphore actualPermits = Deencapsulation.invoke(mqttConnection, "getInFlightPermits");
+        assertEquals(maxInFlightCount, actualPermits.availablePermits());
+        new Verifications()
+        {
+            {
+                mockMqttConnectionOptions.setMaxInflight(maxInFlightCount);
+                times = 1;
+            }
+        };
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void constructorThrowsOnNonPositiveInFlightWindow() throws Exception
+    {
+        //act
+        Deencapsulation.newInstance(MqttConnection.class,
+                new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class},
+                SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext, 0);
+    }
+
     @Test (expected = ProtocolException.class)
     public void constructorThrowsOnAsyncClientFailure() throws Exception
     {
@@ -207,6 +241,38 @@ public class MqttConnectionTest
         assertNotNull(concurrentLinkedQueue);
     }
 
+    @Test
+    public void getReceivedMessagesQueueRoutesByTopicPrefix() throws Exception
+    {
+        //arrange
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+        ConcurrentLinkedQueue<Pair<String, byte[]>> twinMessages = new ConcurrentLinkedQueue<>();
+        Deencapsulation.invoke(mqttConnection, "setReceivedMessagesQueue", "$iothub/twin", twinMessages);
+        ConcurrentLinkedQueue allReceivedMessages = Deencapsulation.invoke(mqttConnection, "getAllReceivedMessages");
+
+        //act
+        ConcurrentLinkedQueue twinResponseQueue = Deencapsulation.invoke(mqttConnection, "getReceivedMessagesQueue", "$iothub/twin/res/200/?$rid=1");
+        ConcurrentLinkedQueue twinPrefixQueue = Deencapsulation.invoke(mqttConnection, "getReceivedMessagesQueue", "$iothub/twin");
+        ConcurrentLinkedQueue methodQueue = Deencapsulation.invoke(mqttConnection, "getReceivedMessagesQueue", "$iothub/methods/POST/method/?$rid=1");
+        ConcurrentLinkedQueue telemetryQueue = Deencapsulation.invoke(mqttConnection, "getReceivedMessagesQueue", "devices/deviceId/messages/devicebound/%24.mid=1");
+
+        //assert
+        assertSame(twinMessages, twinResponseQueue);
+        assertSame(twinMessages, twinPrefixQueue);
+        assertSame(allReceivedMessages, methodQueue);
+        assertSame(allReceivedMessages, telemetryQueue);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void setReceivedMessagesQueueThrowsOnPrefixLongerThanTwoLevels() throws Exception
+    {
+        //arrange
+        final MqttConnection mqttConnection = Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, SERVER_URI, CLIENT_ID, USER_NAME, PASSWORD, mockIotHubSSLContext);
+
+        //act
+        Deencapsulation.invoke(mqttConnection, "setReceivedMessagesQueue", "$iothub/methods/", new ConcurrentLinkedQueue<Pair<String, byte[]>>());
+    }
+
     //Tests_SRS_MQTTCONNECTION_25_009: [Getter for the Mqtt Lock on this connection.]
     @Test
     public void getMqttLockSucceeds() throws Exception
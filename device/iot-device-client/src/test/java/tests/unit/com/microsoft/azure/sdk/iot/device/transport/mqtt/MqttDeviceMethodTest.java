@@ -361,6 +361,7 @@ public class MqttDeviceMethodTest
 
         //assert
         assertNull(actualMessage);
+        assertTrue(testAllReceivedMessages.isEmpty());
     }
 
     // Tests_SRS_MQTTDEVICEMETHOD_25_029: [**If method name not found or is null then receive shall throw TransportException **]**
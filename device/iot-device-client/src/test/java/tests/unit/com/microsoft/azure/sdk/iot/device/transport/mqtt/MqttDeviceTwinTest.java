@@ -104,6 +104,7 @@ public class MqttDeviceTwinTest
             new StrictExpectations()
             {
                 {
+                    Deencapsulation.invoke(mockMqtt, "routeReceivedMessages", "$iothub/twin");
                     Deencapsulation.invoke(mockMqtt, "subscribe", resTopic);
                     result = mockIOException;
                 }
@@ -135,7 +136,7 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 result = actualPayload;
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
@@ -153,7 +154,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, mockMessage);
                 times = 1;
@@ -176,7 +177,7 @@ public class MqttDeviceTwinTest
             new NonStrictExpectations()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBytesWithoutCopy();
                     result = actualPayload;
                     mockMessage.getMessageType();
                     result = MessageType.DEVICE_TWIN;
@@ -196,7 +197,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBytesWithoutCopy();
                     times = 1;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload, mockMessage);
                     times = 0;
@@ -219,7 +220,7 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 result = actualPayload;
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
@@ -239,7 +240,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, mockMessage);
                 times = 1;
@@ -262,7 +263,7 @@ public class MqttDeviceTwinTest
             new NonStrictExpectations()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBytesWithoutCopy();
                     result = actualPayload;
                     mockMessage.getMessageType();
                     result = MessageType.DEVICE_TWIN;
@@ -282,7 +283,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBytesWithoutCopy();
                     times = 1;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload, mockMessage);
                     times = 0;
@@ -305,7 +306,7 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 result = actualPayload;
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
@@ -323,7 +324,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", expectedTopic);
                 times = 1;
@@ -345,7 +346,7 @@ public class MqttDeviceTwinTest
         new NonStrictExpectations()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 result = actualPayload;
                 mockMessage.getMessageType();
                 result = MessageType.DEVICE_TWIN;
@@ -366,7 +367,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", anyString);
                 times = 0;
@@ -397,7 +398,7 @@ public class MqttDeviceTwinTest
                 result = DEVICE_OPERATION_TWIN_SUBSCRIBE_DESIRED_PROPERTIES_REQUEST;
                 mockMessage.getVersion();
                 result = mockVersion;
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 result = actualPayload;
             }
         };
@@ -409,7 +410,7 @@ public class MqttDeviceTwinTest
         new Verifications()
         {
             {
-                mockMessage.getBytes();
+                mockMessage.getBytesWithoutCopy();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "subscribe", expectedSubscribeTopic);
                 times = 1;
@@ -439,7 +440,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBytesWithoutCopy();
                     times = 0;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, actualPayload, mockMessage);
                     times = 0;
@@ -460,7 +461,7 @@ public class MqttDeviceTwinTest
             new NonStrictExpectations()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBytesWithoutCopy();
                     result = actualPayload;
                     mockMessage.getMessageType();
                     result = MessageType.DEVICE_TWIN;
@@ -479,7 +480,7 @@ public class MqttDeviceTwinTest
             new Verifications()
             {
                 {
-                    mockMessage.getBytes();
+                    mockMessage.getBytesWithoutCopy();
                     times = 1;
                     Deencapsulation.invoke(mockMqtt, "publish", expectedTopic, mockMessage);
                     times = 1;
@@ -38,6 +38,7 @@ public class MqttIotHubConnectionTest
 {
     private static final String SSL_PREFIX = "ssl://";
     private static final String SSL_PORT_SUFFIX = ":8883";
+    private static final int MAX_IN_FLIGHT_COUNT = 20;
     final String iotHubHostName = "test.host.name";
     final String hubName = "test.iothub";
     final String deviceId = "test-deviceId";
@@ -310,7 +311,7 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, serverUri, deviceId, any, any, any);
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class}, serverUri, deviceId, any, any, any, MAX_IN_FLIGHT_COUNT);
                 times = 1;
             }
         };
@@ -358,7 +359,7 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-               Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, serverUri, deviceId, any, any, any);
+               Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class}, serverUri, deviceId, any, any, any, MAX_IN_FLIGHT_COUNT);
                times = 1;
             }
         };
@@ -389,7 +390,7 @@ public class MqttIotHubConnectionTest
         new StrictExpectations()
         {
             {
-                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, serverUri, deviceId, any, any, mockSslContext);
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class}, serverUri, deviceId, any, any, mockSslContext, MAX_IN_FLIGHT_COUNT);
                 result = new IOException();
             }
         };
@@ -439,7 +440,7 @@ public class MqttIotHubConnectionTest
         new StrictExpectations()
         {
             {
-                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, any, any, any, any, mockSslContext);
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class}, any, any, any, any, mockSslContext, MAX_IN_FLIGHT_COUNT);
                 result = mockedMqttConnection;
             }
         };
@@ -497,7 +498,7 @@ public class MqttIotHubConnectionTest
         new StrictExpectations()
         {
             {
-                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, any, any, any, any, mockSslContext);
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class}, any, any, any, any, mockSslContext, MAX_IN_FLIGHT_COUNT);
                 result = mockedMqttConnection;
             }
         };
@@ -554,7 +555,7 @@ public class MqttIotHubConnectionTest
         new Verifications()
         {
             {
-                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, any, any, any, any, any);
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class}, any, any, any, any, any, MAX_IN_FLIGHT_COUNT);
                 maxTimes = 1;
             }
         };
@@ -716,7 +717,7 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = msgBody;
                 mockDeviceMessaging.send(mockedMessage);
             }
@@ -764,7 +765,7 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = msgBody;
             }
         };
@@ -786,7 +787,7 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = new byte[0];
             }
         };
@@ -808,7 +809,7 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = msgBody;
             }
         };
@@ -827,7 +828,7 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = msgBody;
             }
         };
@@ -848,7 +849,7 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockDeviceTwinMsg.getBytes();
+                mockDeviceTwinMsg.getBytesWithoutCopy();
                 result = msgBody;
                 mockDeviceTwinMsg.getMessageType();
                 result = MessageType.DEVICE_TWIN;
@@ -887,7 +888,7 @@ public class MqttIotHubConnectionTest
         new NonStrictExpectations()
         {
             {
-                mockDeviceMethodMsg.getBytes();
+                mockDeviceMethodMsg.getBytesWithoutCopy();
                 result = msgBody;
                 mockDeviceMethodMsg.getMessageType();
                 result = MessageType.DEVICE_METHODS;
@@ -1504,6 +1505,7 @@ public class MqttIotHubConnectionTest
                 mockConfig.getDeviceId(); result = deviceId;
                 mockConfig.getIotHubConnectionString().getSharedAccessKey();
                 result = deviceKey;
+                mockConfig.getMqttMaxInFlightCount(); result = MAX_IN_FLIGHT_COUNT;
 
                 mockConfig.getProductInfo();
                 result = mockedProductInfo;
@@ -1514,6 +1516,9 @@ public class MqttIotHubConnectionTest
                 mockedMessage.getBytes();
                 result = expectedMessageBody;
 
+                mockedMessage.getBytesWithoutCopy();
+                result = expectedMessageBody;
+
                 mockedMessage.getMessageType();
                 result = MessageType.UNKNOWN;
             }
@@ -1527,7 +1532,7 @@ public class MqttIotHubConnectionTest
             {
                 mockConfig.getIotHubConnectionString().getSharedAccessToken();
                 result = expectedToken;
-                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class}, anyString, anyString, anyString, anyString, any);
+                Deencapsulation.newInstance(MqttConnection.class, new Class[] {String.class, String.class, String.class, String.class, SSLContext.class, int.class}, anyString, anyString, anyString, anyString, any, MAX_IN_FLIGHT_COUNT);
                 result = mockedMqttConnection;
                 new MqttMessaging(mockedMqttConnection, anyString, (IotHubListener) any, null);
                 result = mockDeviceMessaging;
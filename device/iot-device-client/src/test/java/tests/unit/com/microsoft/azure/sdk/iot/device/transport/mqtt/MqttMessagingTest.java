@@ -231,7 +231,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
                 Deencapsulation.invoke(mockMqtt, "publish", new Class[] {String.class, Message.class}, anyString, (Message) any);
             }
@@ -244,7 +244,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", new Class[]{String.class, Message.class}, anyString, mockedMessage);
                 times = 1;
@@ -261,7 +261,7 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
             }
         };
@@ -272,7 +272,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 times = 1;
                 Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, new byte[1]);
                 times = 1;
@@ -293,7 +293,7 @@ public class MqttMessagingTest
         new Verifications()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 times = 0;
                 Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, new byte[1]);
                 times = 0;
@@ -318,9 +318,11 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
-                mockedMessage.getProperties();
+                mockedMessage.getPropertyCount();
+                result = messageProperties.length;
+                mockedMessage.getPropertyAt(anyInt);
                 result = messageProperties;
             }
         };
@@ -341,6 +343,78 @@ public class MqttMessagingTest
         };
     }
 
+    @Test
+    public void sendShallPercentEncodeCustomPropertiesInPublishTopic(@Mocked final Mqtt mockMqtt) throws TransportException
+    {
+        //arrange
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        final MessageProperty[] messageProperties = new MessageProperty[]
+                {
+                        new MessageProperty("key 1", "a&b=c/d"),
+                        new MessageProperty("key-2", "50%~")
+                };
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytesWithoutCopy();
+                result = messageBody;
+                mockedMessage.getPropertyCount();
+                result = messageProperties.length;
+                mockedMessage.getPropertyAt(anyInt);
+                result = messageProperties;
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+        final String expectedPublishTopic = String.format(
+                "devices/%s/messages/events/key%%201=a%%26b%%3Dc%%2Fd&key-2=50%%25~", CLIENT_ID);
+
+        //act
+        testMqttMessaging.send(mockedMessage);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", expectedPublishTopic, mockedMessage);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void sendShallPercentEncodeNonAsciiMessageIdAsUtf8(@Mocked final Mqtt mockMqtt) throws TransportException
+    {
+        //arrange
+        final byte[] messageBody = {0x61, 0x62, 0x63};
+        final String publishTopicWithMessageId = String.format("devices/%s/messages/events/$.mid=caf%%C3%%A9%%F0%%9F%%98%%80", CLIENT_ID);
+        new NonStrictExpectations()
+        {
+            {
+                mockedMessage.getBytesWithoutCopy();
+                result = messageBody;
+                mockedMessage.getPropertyCount();
+                result = 0;
+                mockedMessage.getMessageId();
+                result = "caf\u00e9\ud83d\ude00";
+            }
+        };
+
+        MqttMessaging testMqttMessaging = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+
+        //act
+        testMqttMessaging.send(mockedMessage);
+
+        //assert
+        new Verifications()
+        {
+            {
+                Deencapsulation.invoke(mockMqtt, "publish", publishTopicWithMessageId, mockedMessage);
+                times = 1;
+            }
+        };
+    }
+
     //Tests_SRS_MqttMessaging_21_027: [send method shall append the messageid to publishTopic before publishing using the key name `$.mid`.]
     @Test
     public void sendShallIncludeMessageIdInPublishTopic(@Mocked final Mqtt mockMqtt) throws TransportException
@@ -353,10 +427,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
-                mockedMessage.getProperties();
-                result = messageProperties;
+                mockedMessage.getPropertyCount();
+                result = 0;
                 mockedMessage.getMessageId();
                 result = messageId;
             }
@@ -389,12 +463,14 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
-                mockedMessage.getProperties();
-                result = messageProperties;
+                mockedMessage.getPropertyCount();
+                result = 0;
                 mockedMessage.getCorrelationId();
                 result = correlationId;
+                mockedMessage.hasCorrelationId();
+                result = true;
             }
         };
 
@@ -425,10 +501,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
-                mockedMessage.getProperties();
-                result = messageProperties;
+                mockedMessage.getPropertyCount();
+                result = 0;
                 mockedMessage.getUserId();
                 result = userId;
             }
@@ -461,10 +537,10 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
-                mockedMessage.getProperties();
-                result = messageProperties;
+                mockedMessage.getPropertyCount();
+                result = 0;
                 mockedMessage.getTo();
                 result = to;
             }
@@ -510,17 +586,21 @@ public class MqttMessagingTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = messageBody;
                 mockedMessage.getMessageId();
                 result = messageId;
                 mockedMessage.getCorrelationId();
                 result = correlationId;
+                mockedMessage.hasCorrelationId();
+                result = true;
                 mockedMessage.getUserId();
                 result = userId;
                 mockedMessage.getTo();
                 result = to;
-                mockedMessage.getProperties();
+                mockedMessage.getPropertyCount();
+                result = messageProperties.length;
+                mockedMessage.getPropertyAt(anyInt);
                 result = messageProperties;
             }
         };
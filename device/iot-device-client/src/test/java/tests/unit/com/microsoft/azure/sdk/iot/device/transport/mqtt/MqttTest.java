@@ -17,10 +17,9 @@ import org.junit.Before;
 import org.junit.Test;
 
 import java.io.IOException;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 
 import static org.junit.Assert.*;
 
@@ -128,13 +127,18 @@ public class MqttTest
 
     private void baseConstructorExpectations()
     {
+        final ConcurrentLinkedQueue<Pair<String, byte[]>> allReceivedMessages = new ConcurrentLinkedQueue<>();
         new NonStrictExpectations()
         {
             {
                 Deencapsulation.invoke(mockedMqttConnection, "getAllReceivedMessages");
-                result = new ConcurrentLinkedQueue<>();
+                result = allReceivedMessages;
+                Deencapsulation.invoke(mockedMqttConnection, "getReceivedMessagesQueue", new Class[] {String.class}, anyString);
+                result = allReceivedMessages;
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 result = new Object();
+                Deencapsulation.invoke(mockedMqttConnection, "getInFlightPermits");
+                result = new Semaphore(10);
             }
         };
     }
@@ -173,13 +177,13 @@ public class MqttTest
         new NonStrictExpectations()
         {
             {
-                mockedMessage.getBytes();
+                mockedMessage.getBytesWithoutCopy();
                 result = payload;
                 mockMqttAsyncClient.isConnected();
                 result = true;
                 new MqttMessage(payload);
                 result = mockMqttMessage;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 result = mockMqttDeliveryToken;
             }
         };
@@ -197,7 +201,7 @@ public class MqttTest
                 times = 1;
                 mockMqttMessage.setQos(anyInt);
                 times = 1;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
                 mockMqttDeliveryToken.waitForCompletion();
                 times = 1;
@@ -270,12 +274,12 @@ public class MqttTest
 
         Mqtt mockMqtt2 = instantiateMqtt(false);
         MqttConnection actualInfoInstance2 = Deencapsulation.getField(mockMqtt2, "mqttConnection");
-        Queue<Pair<String, byte[]>> actualQueue2 = Deencapsulation.getField(mockMqtt2, "allReceivedMessages");
+        final Queue<Pair<String, byte[]>> actualQueue2 = Deencapsulation.getField(mockMqtt2, "allReceivedMessages");
         Object actualLock2 = Deencapsulation.getField(mockMqtt2, "mqttLock");
 
         //assert
         assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualQueue1, actualQueue2);
+        assertNotSame(actualQueue1, actualQueue2);
         assertEquals(actualLock1, actualLock2);
 
         new Verifications()
@@ -283,6 +287,9 @@ public class MqttTest
             {
                 Deencapsulation.invoke(mockedMqttConnection, "getAllReceivedMessages");
                 times = 2;
+                // the twin receives its topics on a queue of its own
+                Deencapsulation.invoke(mockedMqttConnection, "setReceivedMessagesQueue", "$iothub/twin", actualQueue2);
+                times = 1;
                 Deencapsulation.invoke(mockedMqttConnection, "getMqttLock");
                 times = 2;
 
@@ -325,7 +332,7 @@ public class MqttTest
         Object actualLock2 = Deencapsulation.getField(mockMqtt2, "mqttLock");
 
         assertEquals(actualInfoInstance1, actualInfoInstance2);
-        assertEquals(actualQueue1, actualQueue2);
+        assertNotSame(actualQueue1, actualQueue2);
         assertEquals(actualLock1, actualLock2);
     }
 
@@ -501,7 +508,7 @@ public class MqttTest
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 2;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 1;
             }
         };
@@ -550,31 +557,79 @@ public class MqttTest
     **Tests_SRS_Mqtt_25_012: [If the MQTT connection is closed, the function shall throw a TransportException.]
     */
     @Test (expected = TransportException.class)
-    public void publishFailsWhenConnectionBrokenWhilePublishing(final @Mocked Message mockedMessage) throws TransportException
+    public void publishFailsWhenConnectionBrokenWhileWaitingForInFlightPermit(final @Mocked Message mockedMessage) throws TransportException
     {
         //arrange
         baseConstructorExpectations();
-        final byte[] payload = {0x61, 0x62, 0x63};
-        final IMqttDeliveryToken[] testTokens = {mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken,
-                mockMqttDeliveryToken, mockMqttDeliveryToken, mockMqttDeliveryToken
-        };
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Deencapsulation.setField(mockMqtt, "inFlightPermits", new Semaphore(0));
         new NonStrictExpectations()
         {
             {
-                mockMqttAsyncClient.isConnected();
-                result = true;
-                mockMqttAsyncClient.getPendingDeliveryTokens();
-                result = testTokens;
                 mockMqttAsyncClient.isConnected();
                 result = false;
             }
         };
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, mockedMessage);
+    }
+
+    /*
+    **Tests_SRS_Mqtt_25_048: [publish shall take a permit from the in flight window of the connection, whose size is the maximum MQTT in flight count, before publishing. If no permit is free, publish shall wait until a delivery acknowledgement gives one back. A permit shall be given back when the message is acknowledged, or when it could not be published.]
+    */
+    @Test
+    public void publishTakesInFlightPermitAndDeliveryCompleteReleasesIt(final @Mocked Message mockedMessage) throws MqttException, TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        basePublishExpectations(mockedMessage);
         Mqtt mockMqtt = instantiateMqtt(true);
+        Semaphore inFlightPermits = new Semaphore(2);
+        Deencapsulation.setField(mockMqtt, "inFlightPermits", inFlightPermits);
 
         //act
         Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, mockedMessage);
+
+        //assert
+        assertEquals(1, inFlightPermits.availablePermits());
+
+        //act
+        mockMqtt.deliveryComplete(mockMqttDeliveryToken);
+
+        //assert
+        assertEquals(2, inFlightPermits.availablePermits());
+    }
+
+    @Test
+    public void publishReleasesInFlightPermitWhenPublishFails(final @Mocked Message mockedMessage) throws TransportException
+    {
+        //arrange
+        baseConstructorExpectations();
+        Mqtt mockMqtt = instantiateMqtt(true);
+        Semaphore inFlightPermits = new Semaphore(2);
+        Deencapsulation.setField(mockMqtt, "inFlightPermits", inFlightPermits);
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = false;
+            }
+        };
+
+        //act
+        try
+        {
+            Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, mockedMessage);
+            fail("Expected a TransportException");
+        }
+        catch (Exception expected)
+        {
+            assertTrue(expected instanceof TransportException);
+        }
+
+        //assert
+        assertEquals(2, inFlightPermits.availablePermits());
     }
 
 
@@ -607,7 +662,7 @@ public class MqttTest
             {
                 mockMqttAsyncClient.isConnected();
                 minTimes = 3;
-                mockMqttAsyncClient.publish(anyString, mockMqttMessage);
+                mockMqttAsyncClient.publish(anyString, mockMqttMessage, any, (IMqttActionListener) any);
                 times = 2;
             }
         };
@@ -630,7 +685,7 @@ public class MqttTest
                 result = true;
                 new MqttMessage(payload);
                 result = mockMqttMessage;
-                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage);
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, any, (IMqttActionListener) any);
                 result = mockMqttException;
             }
         };
@@ -1211,6 +1266,48 @@ public class MqttTest
         assertEquals("=", receivedMessage.getProperties()[3].getValue());
     }
 
+    // Tests_SRS_Mqtt_34_041: [This method shall call assignPropertiesToMessage so that all properties from the topic string can be assigned to the message]
+    @Test
+    public void receiveMapsSystemPropertiesWithoutDecodingThem() throws TransportException, MqttException
+    {
+        //arrange
+        final byte[] payload = {0x61, 0x62, 0x63};
+        final String mockParseTopicWithPlainSystemProperties = "devices/deviceID/messages/devicebound/%24.to=%2Fdevices&$.mid=messageId&$.cid=correlation%20id&$.uid=user&plain=a=b&&encoded+key=value";
+        baseConstructorExpectations();
+        baseConnectExpectation();
+        new MockUp<MqttMessaging>()
+        {
+            @Mock
+            Pair<String, byte[]> peekMessage()
+            {
+                return new MutablePair<>(mockParseTopicWithPlainSystemProperties, payload);
+            }
+        };
+
+        final Mqtt mockMqtt = new MqttMessaging(mockedMqttConnection, CLIENT_ID, mockedIotHubListener, null);
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttAsyncClient.isConnected();
+                result = true;
+            }
+        };
+
+        Deencapsulation.invoke(mockMqtt, "connect");
+
+        //act
+        Message receivedMessage = mockMqtt.receive();
+
+        //assert
+        assertEquals("messageId", receivedMessage.getMessageId());
+        assertEquals("correlation id", receivedMessage.getCorrelationId());
+        assertEquals(2, receivedMessage.getProperties().length);
+        assertEquals("plain", receivedMessage.getProperties()[0].getName());
+        assertEquals("a=b", receivedMessage.getProperties()[0].getValue());
+        assertEquals("encoded key", receivedMessage.getProperties()[1].getName());
+        assertEquals("value", receivedMessage.getProperties()[1].getValue());
+    }
+
     //Tests_SRS_Mqtt_34_037: [If the provided throwable is an instance of MqttException, this function shall derive the associated TransportException and notify the listeners of that derived exception.]
     @Test
     public void connectionDropFiresCallbackWithMqttException() throws TransportException
@@ -1238,20 +1335,14 @@ public class MqttTest
     public void deliveryCompleteNotifiesListener() throws TransportException, MqttException
     {
         //arrange
-        final int expectedMessageId = 13;
         baseConstructorExpectations();
-        final Message otherMessage = new Message();
         final Message expectedMessage = new Message();
         Mqtt mockMqtt = instantiateMqtt(true, mockedIotHubListener);
-        Map<Integer, Message> unacknowledgedMessages = new HashMap<>();
-        unacknowledgedMessages.put(12, otherMessage);
-        unacknowledgedMessages.put(expectedMessageId, expectedMessage);
-        Deencapsulation.setField(mockMqtt, "unacknowledgedSentMessages", unacknowledgedMessages);
         new NonStrictExpectations()
         {
             {
-                mockMqttDeliveryToken.getMessageId();
-                result = expectedMessageId;
+                mockMqttDeliveryToken.getUserContext();
+                result = expectedMessage;
             }
         };
 
@@ -1264,7 +1355,53 @@ public class MqttTest
             {
                 mockedIotHubListener.onMessageSent(expectedMessage, null);
                 times = 1;
-                mockedIotHubListener.onMessageSent(otherMessage, null);
+            }
+        };
+    }
+
+    @Test
+    public void publishAttachesMessageToItsDeliveryToken(final @Mocked Message mockedMessage) throws TransportException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        basePublishExpectations(mockedMessage);
+        Mqtt mockMqtt = instantiateMqtt(true);
+
+        //act
+        Deencapsulation.invoke(mockMqtt, "publish", MOCK_PARSE_TOPIC, mockedMessage);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockMqttAsyncClient.publish(MOCK_PARSE_TOPIC, mockMqttMessage, mockedMessage, null);
+                times = 1;
+            }
+        };
+    }
+
+    @Test
+    public void deliveryCompleteDoesNotNotifyListenerForTokenWithoutMessage() throws TransportException, MqttException
+    {
+        //arrange
+        baseConstructorExpectations();
+        Mqtt mockMqtt = instantiateMqtt(true, mockedIotHubListener);
+        new NonStrictExpectations()
+        {
+            {
+                mockMqttDeliveryToken.getUserContext();
+                result = null;
+            }
+        };
+
+        //act
+        mockMqtt.deliveryComplete(mockMqttDeliveryToken);
+
+        //assert
+        new Verifications()
+        {
+            {
+                mockedIotHubListener.onMessageSent((Message) any, (TransportException) any);
                 times = 0;
             }
         };
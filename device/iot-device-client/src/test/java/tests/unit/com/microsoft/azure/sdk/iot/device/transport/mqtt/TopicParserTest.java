@@ -200,6 +200,22 @@ public class TopicParserTest
 
     }
 
+    @Test
+    public void getRequestIdAndVersionStopAtNextQueryParameter() throws TransportException
+    {
+        //arrange
+        String validString = "$iothub/twin/res/?$rid=5&other=$version=1&$version=7&last=8";
+        TopicParser testParser = new TopicParser(validString);
+
+        //act
+        String requestId = Deencapsulation.invoke(testParser, "getRequestId", 3);
+        String version = Deencapsulation.invoke(testParser, "getVersion", 3);
+
+        //assert
+        assertEquals("5", requestId);
+        assertEquals("7", version);
+    }
+
     /*
     Tests_SRS_TopicParser_25_006: [**If tokenIndexReqID is not valid i.e less than or equal to zero or greater then token length then getRequestId shall throw TransportException.**]**
      */